@@ -134,6 +134,36 @@ public interface ChronicleHash<K, E extends HashEntry<K>, SC extends HashSegment
      */
     int segments();
 
+    /**
+     * Returns a snapshot of the lock contention statistics of the segment with the given index,
+     * accumulated by all processes, accessing this {@code ChronicleHash}. Segments are indexed from
+     * 0 to {@link #segments()}{@code - 1}.
+     *
+     * @param segmentIndex the index of the segment
+     * @return the lock contention statistics of the segment
+     * @throws IllegalStateException if lock contention stats are not enabled for this {@code
+     * ChronicleHash}
+     * @see net.openhft.chronicle.map.ChronicleMapBuilder#lockContentionStats(boolean)
+     */
+    SegmentLockStats segmentLockStats(int segmentIndex);
+
+    /**
+     * Moves entries from the last tiers of segments to the previous tiers, which have enough free
+     * space, and returns emptied extra tiers to the pool of free tiers, shared by all segments, so
+     * that lookups and iteration don't search them, and they could be reused by other segments.
+     * Each segment is write-locked while it is compacted.
+     *
+     * <p>Extra tiers, which are emptied by removals of entries, are returned to the pool
+     * automatically, if they are the last tiers of the segment. This method allows to compact
+     * sparse tiers, e. g. after a mass removal. Tiers of replicated {@code ChronicleHash}es and of
+     * growing segments are not freed.
+     *
+     * @return the number of freed extra tiers
+     * @see net.openhft.chronicle.map.ChronicleMapBuilder#maxBloatFactor(double)
+     * @see net.openhft.chronicle.map.ChronicleMapBuilder#segmentGrowth(boolean)
+     */
+    long compactTiers();
+
     /**
      * Checks the given predicate on each entry in this {@code ChronicleHash} until all entries
      * have been processed or the predicate returns {@code false} for some entry, or throws
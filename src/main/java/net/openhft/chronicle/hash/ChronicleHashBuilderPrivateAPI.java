@@ -17,6 +17,7 @@
 
 package net.openhft.chronicle.hash;
 
+import net.openhft.chronicle.hash.locks.SegmentLockPolicy;
 import net.openhft.chronicle.hash.replication.ReplicableEntry;
 import net.openhft.chronicle.hash.serialization.impl.SerializationBuilder;
 
@@ -44,10 +45,34 @@ public interface ChronicleHashBuilderPrivateAPI<K, RO> {
 
     long maxExtraTiers();
 
+    boolean segmentGrowth();
+
     boolean aligned64BitMemoryOperationsAtomic();
 
     boolean checksumEntries();
 
+    boolean optimisticReads();
+
+    boolean tierKeyFilters();
+
+    boolean hashLookupControlBytes();
+
+    boolean robinHoodHashLookup();
+
+    boolean entryLocks();
+
+    boolean futexLockWaits();
+
+    KeyHashing keyHashing();
+
+    boolean parkingLockWaits();
+
+    boolean lockContentionStats();
+
+    SegmentLockPolicy lockPolicy();
+
+    boolean deadOwnerLockRecovery();
+
     void replication(byte identifier);
 
     /**
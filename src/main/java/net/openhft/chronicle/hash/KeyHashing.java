@@ -0,0 +1,214 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash;
+
+import net.openhft.chronicle.algo.bytes.ReadAccess;
+import net.openhft.chronicle.algo.hashing.LongHashFunction;
+import net.openhft.chronicle.wire.Marshallable;
+import net.openhft.chronicle.wire.WireIn;
+import net.openhft.chronicle.wire.WireOut;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteOrder;
+import java.security.SecureRandom;
+
+/**
+ * The function, applied to serialized keys of a {@link ChronicleHash} to choose the segment and
+ * the slot in the hash lookup. It is persisted in the header of a persisted Chronicle Hash, so that
+ * all processes, accessing the Chronicle Hash, and {@linkplain
+ * ChronicleHashBuilder#recoverPersistedTo recovery} hash keys in the same way.
+ *
+ * <p>A custom key hashing is implemented the same way as custom serializers: the implementation
+ * is persisted by its class name and {@linkplain Marshallable marshalled} fields. The returned
+ * {@link LongHashFunction} must be consistent across all its methods, e. g. {@code hashLong(v)}
+ * must be equal to the hash of the 8 bytes of {@code v}, because keys are hashed both in the
+ * object form (by {@link Data#hash(LongHashFunction)}) and in the serialized form (when segments
+ * are iterated or recovered).
+ *
+ * @see ChronicleHashBuilder
+ */
+public interface KeyHashing extends Marshallable {
+
+    /**
+     * Returns the default key hashing, xxHash (r39) without seed.
+     */
+    static KeyHashing xxHash() {
+        return XxHash.DEFAULT;
+    }
+
+    /**
+     * Returns xxHash (r39) key hashing with the given seed.
+     */
+    static KeyHashing xxHash(long seed) {
+        return seed == 0 ? XxHash.DEFAULT : new XxHash(seed);
+    }
+
+    /**
+     * Returns xxHash (r39) key hashing with a random seed, generated by {@link SecureRandom}. The
+     * seed is persisted with the rest of the Chronicle Hash configuration. A secret seed makes
+     * collisions of keys, crafted to collide in the hash lookup or the same segment, unlikely.
+     */
+    static KeyHashing randomSeedXxHash() {
+        return xxHash(new SecureRandom().nextLong());
+    }
+
+    /**
+     * Returns key hashing, which applies the finalization mix of MurmurHash3 to 8- and 4-byte
+     * keys (xored with the seed), instead of a full hash function of the key bytes. It is much
+     * cheaper than xxHash for such keys (e. g. {@code Long} and {@code Integer}), but has no
+     * protection against adversarial keys even with a seed. Keys of other sizes are hashed with
+     * xxHash (r39) with the same seed.
+     */
+    static KeyHashing murmur3Mix(long seed) {
+        return new Murmur3Mix(seed);
+    }
+
+    /**
+     * Returns the hash function, used to hash keys. The same instance should be returned on each
+     * call.
+     */
+    LongHashFunction hashFunction();
+
+    final class XxHash implements KeyHashing {
+        static final XxHash DEFAULT = new XxHash(0);
+
+        private long seed;
+        private transient LongHashFunction hashFunction;
+
+        XxHash(long seed) {
+            this.seed = seed;
+            initTransients();
+        }
+
+        private void initTransients() {
+            hashFunction = seed == 0 ? LongHashFunction.xx_r39() : LongHashFunction.xx_r39(seed);
+        }
+
+        @Override
+        public LongHashFunction hashFunction() {
+            return hashFunction;
+        }
+
+        @Override
+        public void readMarshallable(@NotNull WireIn wire) {
+            seed = wire.read(() -> "seed").int64();
+            initTransients();
+        }
+
+        @Override
+        public void writeMarshallable(@NotNull WireOut wire) {
+            wire.write(() -> "seed").int64(seed);
+        }
+    }
+
+    final class Murmur3Mix implements KeyHashing {
+
+        private long seed;
+        private transient LongHashFunction hashFunction;
+
+        Murmur3Mix(long seed) {
+            this.seed = seed;
+            initTransients();
+        }
+
+        private void initTransients() {
+            hashFunction = new Murmur3MixFunction(seed);
+        }
+
+        @Override
+        public LongHashFunction hashFunction() {
+            return hashFunction;
+        }
+
+        @Override
+        public void readMarshallable(@NotNull WireIn wire) {
+            seed = wire.read(() -> "seed").int64();
+            initTransients();
+        }
+
+        @Override
+        public void writeMarshallable(@NotNull WireOut wire) {
+            wire.write(() -> "seed").int64(seed);
+        }
+    }
+
+    final class Murmur3MixFunction extends LongHashFunction {
+        private static final long serialVersionUID = 0L;
+
+        private final long seed;
+        private final LongHashFunction otherSizes;
+
+        Murmur3MixFunction(long seed) {
+            this.seed = seed;
+            otherSizes = LongHashFunction.xx_r39(seed);
+        }
+
+        private long mix(long k) {
+            k ^= seed;
+            k = (k ^ (k >>> 33)) * 0xff51afd7ed558ccdL;
+            k = (k ^ (k >>> 33)) * 0xc4ceb9fe1a85ec53L;
+            return k ^ (k >>> 33);
+        }
+
+        @Override
+        public long hashLong(long input) {
+            return mix(input);
+        }
+
+        @Override
+        public long hashInt(int input) {
+            return mix(input & 0xFFFFFFFFL);
+        }
+
+        @Override
+        public long hashShort(short input) {
+            return otherSizes.hashShort(input);
+        }
+
+        @Override
+        public long hashChar(char input) {
+            return otherSizes.hashChar(input);
+        }
+
+        @Override
+        public long hashByte(byte input) {
+            return otherSizes.hashByte(input);
+        }
+
+        @Override
+        public long hashVoid() {
+            return otherSizes.hashVoid();
+        }
+
+        @Override
+        public <T> long hash(T input, ReadAccess<T> access, long off, long len) {
+            if (access.byteOrder(input) == ByteOrder.nativeOrder()) {
+                if (len == 8)
+                    return hashLong(access.readLong(input, off));
+                if (len == 4)
+                    return hashInt(access.readInt(input, off));
+            } else {
+                if (len == 8)
+                    return hashLong(Long.reverseBytes(access.readLong(input, off)));
+                if (len == 4)
+                    return hashInt(Integer.reverseBytes(access.readInt(input, off)));
+            }
+            return otherSizes.hash(input, access, off, len);
+        }
+    }
+}
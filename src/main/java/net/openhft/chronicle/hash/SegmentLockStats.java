@@ -0,0 +1,243 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash;
+
+import java.util.Arrays;
+
+/**
+ * A snapshot of the lock contention statistics of a {@link ChronicleHash} segment, accumulated by
+ * all processes, accessing the Chronicle Hash, since it was created.
+ *
+ * <p>Counters are read one by one without a lock, so a snapshot, taken while the segment is
+ * accessed concurrently, might be slightly inconsistent, e. g. the sum of the wait histogram might
+ * not be equal to {@link LockWaitStats#contendedAcquisitions()}.
+ *
+ * @see ChronicleHash#segmentLockStats(int)
+ * @see ChronicleHashBuilder
+ */
+public final class SegmentLockStats {
+
+    /**
+     * The number of buckets in wait time histograms.
+     */
+    public static final int WAIT_HISTOGRAM_BUCKETS = 16;
+
+    private static final int FIRST_BUCKET_LOG2_NANOS = 10;
+
+    /**
+     * Returns the exclusive upper bound of wait time of the histogram bucket with the given index,
+     * in nanoseconds. Bucket 0 counts waits shorter than 1024 nanoseconds, each next bucket covers
+     * twice longer waits than the previous. The last bucket is unbounded, for it {@code
+     * Long.MAX_VALUE} is returned.
+     */
+    public static long bucketUpperBoundNanos(int bucket) {
+        if (bucket < 0 || bucket >= WAIT_HISTOGRAM_BUCKETS)
+            throw new IndexOutOfBoundsException("bucket " + bucket);
+        if (bucket == WAIT_HISTOGRAM_BUCKETS - 1)
+            return Long.MAX_VALUE;
+        return 1L << (FIRST_BUCKET_LOG2_NANOS + bucket);
+    }
+
+    /**
+     * Returns the index of the histogram bucket, counting waits of the given time in nanoseconds.
+     */
+    public static int bucket(long waitNanos) {
+        int log2 = 63 - Long.numberOfLeadingZeros(waitNanos);
+        int bucket = log2 - FIRST_BUCKET_LOG2_NANOS + 1;
+        return Math.max(0, Math.min(bucket, WAIT_HISTOGRAM_BUCKETS - 1));
+    }
+
+    private final int segmentIndex;
+    private final LockWaitStats readLock;
+    private final LockWaitStats updateLock;
+    private final LockWaitStats writeLock;
+    private final LockWaitStats updateToWriteUpgrade;
+    private final long failedUpgrades;
+
+    public SegmentLockStats(int segmentIndex, LockWaitStats readLock, LockWaitStats updateLock,
+                            LockWaitStats writeLock, LockWaitStats updateToWriteUpgrade,
+                            long failedUpgrades) {
+        this.segmentIndex = segmentIndex;
+        this.readLock = readLock;
+        this.updateLock = updateLock;
+        this.writeLock = writeLock;
+        this.updateToWriteUpgrade = updateToWriteUpgrade;
+        this.failedUpgrades = failedUpgrades;
+    }
+
+    /**
+     * Returns the index of the segment.
+     */
+    public int segmentIndex() {
+        return segmentIndex;
+    }
+
+    /**
+     * Returns the statistics of read lock acquisitions.
+     */
+    public LockWaitStats readLock() {
+        return readLock;
+    }
+
+    /**
+     * Returns the statistics of update lock acquisitions.
+     */
+    public LockWaitStats updateLock() {
+        return updateLock;
+    }
+
+    /**
+     * Returns the statistics of write lock acquisitions, not including upgrades from the update
+     * lock.
+     */
+    public LockWaitStats writeLock() {
+        return writeLock;
+    }
+
+    /**
+     * Returns the statistics of upgrades from the update lock to the write lock.
+     */
+    public LockWaitStats updateToWriteUpgrade() {
+        return updateToWriteUpgrade;
+    }
+
+    /**
+     * Returns the number of failed lock upgrade attempts, i. e. {@code tryUpgrade...()} calls,
+     * which returned {@code false}, and blocking upgrades from the update lock to the write lock,
+     * which timed out. Upgrades, which had to wait for read locks to be released, but succeeded,
+     * are counted as contended acquisitions of the upgrade.
+     */
+    public long failedUpgrades() {
+        return failedUpgrades;
+    }
+
+    /**
+     * Returns the total number of lock acquisitions (of all lock levels, including upgrades).
+     */
+    public long acquisitions() {
+        return readLock.acquisitions() + updateLock.acquisitions() + writeLock.acquisitions() +
+                updateToWriteUpgrade.acquisitions();
+    }
+
+    /**
+     * Returns the total number of lock acquisitions (of all lock levels, including upgrades),
+     * which had to wait for the lock.
+     */
+    public long contendedAcquisitions() {
+        return readLock.contendedAcquisitions() + updateLock.contendedAcquisitions() +
+                writeLock.contendedAcquisitions() + updateToWriteUpgrade.contendedAcquisitions();
+    }
+
+    /**
+     * Returns the total time, spent by threads waiting for locks of this segment, in nanoseconds.
+     */
+    public long totalWaitNanos() {
+        return readLock.totalWaitNanos() + updateLock.totalWaitNanos() +
+                writeLock.totalWaitNanos() + updateToWriteUpgrade.totalWaitNanos();
+    }
+
+    @Override
+    public String toString() {
+        return "SegmentLockStats{segmentIndex=" + segmentIndex + ", readLock=" + readLock +
+                ", updateLock=" + updateLock + ", writeLock=" + writeLock +
+                ", updateToWriteUpgrade=" + updateToWriteUpgrade +
+                ", failedUpgrades=" + failedUpgrades + "}";
+    }
+
+    /**
+     * Statistics of acquisitions of a segment lock of a specific level.
+     */
+    public static final class LockWaitStats {
+        private final long acquisitions;
+        private final long contendedAcquisitions;
+        private final long timeouts;
+        private final long totalWaitNanos;
+        private final long[] waitHistogram;
+
+        public LockWaitStats(long acquisitions, long contendedAcquisitions, long timeouts,
+                             long totalWaitNanos, long[] waitHistogram) {
+            if (waitHistogram.length != WAIT_HISTOGRAM_BUCKETS) {
+                throw new IllegalArgumentException("wait histogram should have " +
+                        WAIT_HISTOGRAM_BUCKETS + " buckets, " + waitHistogram.length + " given");
+            }
+            this.acquisitions = acquisitions;
+            this.contendedAcquisitions = contendedAcquisitions;
+            this.timeouts = timeouts;
+            this.totalWaitNanos = totalWaitNanos;
+            this.waitHistogram = waitHistogram.clone();
+        }
+
+        /**
+         * Returns the number of successful lock acquisitions, including contended ones.
+         */
+        public long acquisitions() {
+            return acquisitions;
+        }
+
+        /**
+         * Returns the number of successful lock acquisitions, which had to wait for the lock,
+         * because it was held by other threads or processes.
+         */
+        public long contendedAcquisitions() {
+            return contendedAcquisitions;
+        }
+
+        /**
+         * Returns the number of timed {@code tryLock()} calls, which failed to acquire the lock
+         * within the given time, and blocking {@code lock()} calls, which failed with an exception
+         * after the lock timeout.
+         */
+        public long timeouts() {
+            return timeouts;
+        }
+
+        /**
+         * Returns the total time of contended acquisitions, in nanoseconds.
+         */
+        public long totalWaitNanos() {
+            return totalWaitNanos;
+        }
+
+        /**
+         * Returns the number of contended acquisitions, which waited for the lock for the time
+         * within the histogram bucket with the given index.
+         *
+         * @see #bucketUpperBoundNanos(int)
+         */
+        public long waits(int bucket) {
+            return waitHistogram[bucket];
+        }
+
+        /**
+         * Returns a copy of the log-scale histogram of wait times of contended acquisitions.
+         *
+         * @see #bucketUpperBoundNanos(int)
+         */
+        public long[] waitHistogram() {
+            return waitHistogram.clone();
+        }
+
+        @Override
+        public String toString() {
+            return "{acquisitions=" + acquisitions +
+                    ", contendedAcquisitions=" + contendedAcquisitions +
+                    ", timeouts=" + timeouts + ", totalWaitNanos=" + totalWaitNanos +
+                    ", waitHistogram=" + Arrays.toString(waitHistogram) + "}";
+        }
+    }
+}
@@ -37,10 +37,10 @@ public final class BigSegmentHeader implements SegmentHeader {
      * Make the LOCK constant and {@link #A} of final class types (instead of interfaces) as this
      * hopefully help JVM with inlining
      */
-    private static final VanillaReadWriteUpdateWithWaitsLockingStrategy LOCK =
+    static final VanillaReadWriteUpdateWithWaitsLockingStrategy LOCK =
             (VanillaReadWriteUpdateWithWaitsLockingStrategy)
             VanillaReadWriteUpdateWithWaitsLockingStrategy.instance();
-    private static final NativeAccess A = (NativeAccess) Access.nativeAccess();
+    static final NativeAccess A = (NativeAccess) Access.nativeAccess();
 
     static final long ENTRIES_OFFSET = LOCK_OFFSET + 8L; // 32-bit
     static final long LOWEST_POSSIBLY_FREE_CHUNK_OFFSET = ENTRIES_OFFSET + 4L;
@@ -55,7 +55,7 @@ public final class BigSegmentHeader implements SegmentHeader {
      */
     public static final int LOCK_TIMEOUT_SECONDS = 60;
 
-    private static RuntimeException deadLock() {
+    static RuntimeException deadLock() {
         return new RuntimeException("Failed to acquire the lock in " + LOCK_TIMEOUT_SECONDS +
                 " seconds.\nPossible reasons:\n" +
                 " - The lock was not released by the previous holder. If you use contexts API,\n" +
@@ -388,11 +388,11 @@ public final class BigSegmentHeader implements SegmentHeader {
         }
     }
 
-    private static void registerWait(long address) {
+    static void registerWait(long address) {
         LOCK.registerWait(A, null, address + LOCK_OFFSET);
     }
 
-    private static void deregisterWait(long address) {
+    static void deregisterWait(long address) {
         LOCK.deregisterWait(A, null, address + LOCK_OFFSET);
     }
 
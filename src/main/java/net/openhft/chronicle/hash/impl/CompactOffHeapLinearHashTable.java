@@ -153,6 +153,51 @@ public abstract class CompactOffHeapLinearHashTable {
 
     public abstract void clearEntry(long addr, long pos);
 
+    /**
+     * Returns the first position, starting from the given position in the probing order, which
+     * slot might contain the given key or might be empty, i. e. slots in between are known to be
+     * occupied by other keys without reading them. This implementation returns the given position.
+     */
+    public long nextCandidatePos(long addr, long pos, long key) {
+        return pos;
+    }
+
+    /**
+     * Returns {@code true}, if the search of the given key, that has reached the given non-empty
+     * entry at the given position, could stop, because the key surely couldn't be found further.
+     * In this case, the position is passed to {@link #insertPos} as the search stop position.
+     * This implementation returns {@code false}, a search stops at an empty slot only.
+     */
+    public boolean searchCouldStop(long pos, long entry, long key) {
+        return false;
+    }
+
+    /**
+     * Returns the position, in which a new entry with the given key should be inserted, given
+     * the position, in which the search of the key has stopped without finding the key. This
+     * implementation returns the search stop position, that is an empty slot. If the returned
+     * position is not empty, {@link #insert} moves other entries, so concurrent readers should be
+     * excluded.
+     */
+    public long insertPos(long addr, long searchStopPos, long key) {
+        return searchStopPos;
+    }
+
+    /**
+     * Inserts a new entry into the position, returned from {@link #insertPos}. This implementation
+     * writes the entry into the slot, that is empty.
+     */
+    public void insert(long addr, long pos, long key, long value) {
+        writeEntryVolatile(addr, pos, key, value);
+    }
+
+    /**
+     * Rebuilds the hash lookup data, derived from the slots (if there is any), after the slots
+     * are recovered. Called during recovery only.
+     */
+    public void recoverDerivedData(long addr) {
+    }
+
     /**
      * Returns "insert" position in terms of consequent putValue()
      */
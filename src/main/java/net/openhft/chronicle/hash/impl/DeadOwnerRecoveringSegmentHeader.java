@@ -0,0 +1,404 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash.impl;
+
+import net.openhft.chronicle.core.Memory;
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.hash.impl.util.ProcessLiveness;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static net.openhft.chronicle.hash.impl.BigSegmentHeader.LOCK_TIMEOUT_SECONDS;
+import static net.openhft.chronicle.hash.impl.BigSegmentHeader.deadLock;
+
+/**
+ * Segment header, recording the {@linkplain ProcessLiveness#currentProcessId() id} of the process,
+ * holding the update or write lock of the decorated segment header, in the owner word of the
+ * segment header, and its {@linkplain ProcessLiveness#currentPidNamespace() pid namespace} in the
+ * next word. Threads, waiting for a lock, check the owner every {@link
+ * #OWNER_CHECK_INTERVAL_NANOS}, and if the owner process is dead, one of the waiters takes the
+ * ownership, recovers the segment (see {@link VanillaChronicleHash#recoverSegment(int)}) under the
+ * write lock and releases the lock, so waiters don't need to wait for {@link
+ * BigSegmentHeader#LOCK_TIMEOUT_SECONDS} and fail.
+ *
+ * <p>Read locks are shared and don't have an owner, a read lock, left by a dead process, still
+ * blocks writers until the whole Chronicle Hash is recovered. A process, that died right after
+ * acquiring a lock and before recording the ownership, or right after giving up the ownership and
+ * before releasing the lock, is not detected as well. Waiters don't record themselves, so a
+ * process, that died while registered as a waiter in the lock word (e. g. a writer, waiting for
+ * the write lock with the {@linkplain
+ * net.openhft.chronicle.hash.locks.SegmentLockPolicy#WRITER_PREFERRING writer-preferring} policy),
+ * still blocks new readers and updaters until their lock acquisition times out, and the whole
+ * Chronicle Hash is recovered.
+ */
+public final class DeadOwnerRecoveringSegmentHeader implements SegmentHeader {
+    private static final Logger LOG =
+            LoggerFactory.getLogger(DeadOwnerRecoveringSegmentHeader.class);
+
+    static final long OWNER_OFFSET = 48L; // 64-bit
+    static final long OWNER_PID_NAMESPACE_OFFSET = OWNER_OFFSET + 8L; // 64-bit
+
+    static final long OWNER_CHECK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private interface TimedTryLock {
+        boolean tryLock(long address, long timeNanos) throws InterruptedException;
+    }
+
+    private final SegmentHeader h;
+    private final VanillaChronicleHash<?, ?, ?, ?> hash;
+    private final TimedTryLock tryReadLock;
+    private final TimedTryLock tryUpdateLock;
+    private final TimedTryLock tryWriteLock;
+
+    DeadOwnerRecoveringSegmentHeader(SegmentHeader h, VanillaChronicleHash<?, ?, ?, ?> hash) {
+        this.h = h;
+        this.hash = hash;
+        tryReadLock = (address, timeNanos) -> h.tryReadLock(address, timeNanos, NANOSECONDS);
+        tryUpdateLock = (address, timeNanos) -> h.tryUpdateLock(address, timeNanos, NANOSECONDS);
+        tryWriteLock = (address, timeNanos) -> h.tryWriteLock(address, timeNanos, NANOSECONDS);
+    }
+
+    /**
+     * Returns the id of the process, holding the update or write lock of the segment with the given
+     * header address, or 0 if the lock is not held or the owner is not recorded yet.
+     */
+    public static long owner(long address) {
+        return OS.memory().readVolatileLong(address + OWNER_OFFSET);
+    }
+
+    /**
+     * Returns the pid namespace of the process, holding the update or write lock of the segment
+     * with the given header address. Meaningful only while the {@link #owner} is not 0.
+     */
+    public static long ownerPidNamespace(long address) {
+        return OS.memory().readVolatileLong(address + OWNER_PID_NAMESPACE_OFFSET);
+    }
+
+    private static void own(long address) {
+        Memory memory = OS.memory();
+        // the namespace is written first, so that it belongs to the owner, when the owner is read
+        // first. It may be read after the owner has changed, but then the owner CAS in
+        // recoverLockOfDeadOwner() fails
+        memory.writeOrderedLong(address + OWNER_PID_NAMESPACE_OFFSET,
+                ProcessLiveness.currentPidNamespace());
+        memory.writeOrderedLong(address + OWNER_OFFSET, ProcessLiveness.currentProcessId());
+    }
+
+    private static void disown(long address) {
+        OS.memory().writeOrderedLong(address + OWNER_OFFSET, 0L);
+    }
+
+    private boolean tryLock(long address, long timeNanos, TimedTryLock tryLock)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + timeNanos;
+        while (true) {
+            long remaining = deadline - System.nanoTime();
+            if (tryLock.tryLock(address,
+                    Math.max(0L, Math.min(remaining, OWNER_CHECK_INTERVAL_NANOS)))) {
+                return true;
+            }
+            if (remaining <= OWNER_CHECK_INTERVAL_NANOS)
+                return false;
+            recoverIfOwnerIsDead(address);
+        }
+    }
+
+    private boolean tryLockUninterruptibly(long address, TimedTryLock tryLock) {
+        boolean interrupted = false;
+        try {
+            long deadline = System.nanoTime() + SECONDS.toNanos(LOCK_TIMEOUT_SECONDS);
+            while (true) {
+                long remaining = deadline - System.nanoTime();
+                try {
+                    return tryLock(address, remaining, tryLock);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    private void recoverIfOwnerIsDead(long address) {
+        long owner = owner(address);
+        if (owner != 0 && ProcessLiveness.isDead(owner, ownerPidNamespace(address)))
+            recoverLockOfDeadOwner(address, owner);
+    }
+
+    private void recoverLockOfDeadOwner(long address, long deadOwner) {
+        Memory memory = OS.memory();
+        // only one waiter takes the ownership
+        if (!memory.compareAndSwapLong(address + OWNER_OFFSET, deadOwner,
+                ProcessLiveness.currentProcessId())) {
+            return;
+        }
+        memory.writeOrderedLong(address + OWNER_PID_NAMESPACE_OFFSET,
+                ProcessLiveness.currentPidNamespace());
+        int segmentIndex = (int) ((address - hash.bsAddress() - hash.segmentHeadersOffset) /
+                hash.segmentHeaderSize);
+        LOG.warn("Process with id {} died holding the lock of segment {} of the Chronicle Hash " +
+                "at {}, recovering the segment", Long.toHexString(deadOwner), segmentIndex,
+                hash.file());
+        try {
+            if (!BigSegmentHeader.LOCK.isWriteLocked(h.getLockState(address))) {
+                // the dead process held the update lock, wait for readers to leave
+                h.upgradeUpdateToWriteLock(address);
+            }
+            if (hash.optimisticReads) {
+                // the dead process could die in the middle of a write
+                long versionAddress = address + VersionedSegmentHeader.VERSION_OFFSET;
+                int version = memory.readVolatileInt(versionAddress);
+                if ((version & 1) != 0)
+                    memory.writeOrderedInt(versionAddress, version + 1);
+            }
+            hash.recoverSegment(segmentIndex);
+        } finally {
+            disown(address);
+            h.writeUnlock(address);
+        }
+    }
+
+    @Override
+    public long entries(long address) {
+        return h.entries(address);
+    }
+
+    @Override
+    public void entries(long address, long size) {
+        h.entries(address, size);
+    }
+
+    @Override
+    public long deleted(long address) {
+        return h.deleted(address);
+    }
+
+    @Override
+    public void deleted(long address, long deleted) {
+        h.deleted(address, deleted);
+    }
+
+    @Override
+    public long lowestPossiblyFreeChunk(long address) {
+        return h.lowestPossiblyFreeChunk(address);
+    }
+
+    @Override
+    public void lowestPossiblyFreeChunk(long address, long lowestPossiblyFreeChunk) {
+        h.lowestPossiblyFreeChunk(address, lowestPossiblyFreeChunk);
+    }
+
+    @Override
+    public long nextTierIndex(long address) {
+        return h.nextTierIndex(address);
+    }
+
+    @Override
+    public void nextTierIndex(long address, long nextTierIndex) {
+        h.nextTierIndex(address, nextTierIndex);
+    }
+
+    @Override
+    public void readLock(long address) {
+        if (!h.tryReadLock(address) && !tryLockUninterruptibly(address, tryReadLock))
+            throw deadLock();
+    }
+
+    @Override
+    public void readLockInterruptibly(long address) throws InterruptedException {
+        if (!tryReadLock(address, LOCK_TIMEOUT_SECONDS, SECONDS))
+            throw deadLock();
+    }
+
+    @Override
+    public boolean tryReadLock(long address) {
+        return h.tryReadLock(address);
+    }
+
+    @Override
+    public boolean tryReadLock(long address, long time, TimeUnit unit)
+            throws InterruptedException {
+        return h.tryReadLock(address) || tryLock(address, unit.toNanos(time), tryReadLock);
+    }
+
+    @Override
+    public void updateLock(long address) {
+        if (!h.tryUpdateLock(address) && !tryLockUninterruptibly(address, tryUpdateLock))
+            throw deadLock();
+        own(address);
+    }
+
+    @Override
+    public void updateLockInterruptibly(long address) throws InterruptedException {
+        if (!tryUpdateLock(address, LOCK_TIMEOUT_SECONDS, SECONDS))
+            throw deadLock();
+    }
+
+    @Override
+    public boolean tryUpdateLock(long address) {
+        if (h.tryUpdateLock(address)) {
+            own(address);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean tryUpdateLock(long address, long time, TimeUnit unit)
+            throws InterruptedException {
+        if (h.tryUpdateLock(address) || tryLock(address, unit.toNanos(time), tryUpdateLock)) {
+            own(address);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void writeLock(long address) {
+        if (!h.tryWriteLock(address) && !tryLockUninterruptibly(address, tryWriteLock))
+            throw deadLock();
+        own(address);
+    }
+
+    @Override
+    public void writeLockInterruptibly(long address) throws InterruptedException {
+        if (!tryWriteLock(address, LOCK_TIMEOUT_SECONDS, SECONDS))
+            throw deadLock();
+    }
+
+    @Override
+    public boolean tryWriteLock(long address) {
+        if (h.tryWriteLock(address)) {
+            own(address);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean tryWriteLock(long address, long time, TimeUnit unit)
+            throws InterruptedException {
+        if (h.tryWriteLock(address) || tryLock(address, unit.toNanos(time), tryWriteLock)) {
+            own(address);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean tryUpgradeReadToUpdateLock(long address) {
+        if (h.tryUpgradeReadToUpdateLock(address)) {
+            own(address);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean tryUpgradeReadToWriteLock(long address) {
+        if (h.tryUpgradeReadToWriteLock(address)) {
+            own(address);
+            return true;
+        }
+        return false;
+    }
+
+    // The update lock holder is already the owner, upgrade waits only for readers
+
+    @Override
+    public void upgradeUpdateToWriteLock(long address) {
+        h.upgradeUpdateToWriteLock(address);
+    }
+
+    @Override
+    public void upgradeUpdateToWriteLockInterruptibly(long address) throws InterruptedException {
+        h.upgradeUpdateToWriteLockInterruptibly(address);
+    }
+
+    @Override
+    public boolean tryUpgradeUpdateToWriteLock(long address) {
+        return h.tryUpgradeUpdateToWriteLock(address);
+    }
+
+    @Override
+    public boolean tryUpgradeUpdateToWriteLock(long address, long time, TimeUnit unit)
+            throws InterruptedException {
+        return h.tryUpgradeUpdateToWriteLock(address, time, unit);
+    }
+
+    @Override
+    public void readUnlock(long address) {
+        h.readUnlock(address);
+    }
+
+    @Override
+    public void updateUnlock(long address) {
+        disown(address);
+        h.updateUnlock(address);
+    }
+
+    @Override
+    public void downgradeUpdateToReadLock(long address) {
+        disown(address);
+        h.downgradeUpdateToReadLock(address);
+    }
+
+    @Override
+    public void writeUnlock(long address) {
+        disown(address);
+        h.writeUnlock(address);
+    }
+
+    @Override
+    public void downgradeWriteToUpdateLock(long address) {
+        h.downgradeWriteToUpdateLock(address);
+    }
+
+    @Override
+    public void downgradeWriteToReadLock(long address) {
+        disown(address);
+        h.downgradeWriteToReadLock(address);
+    }
+
+    @Override
+    public void resetLock(long address) {
+        h.resetLock(address);
+        disown(address);
+    }
+
+    @Override
+    public long resetLockState() {
+        return h.resetLockState();
+    }
+
+    @Override
+    public long getLockState(long address) {
+        return h.getLockState(address);
+    }
+
+    @Override
+    public String lockStateToString(long lockState) {
+        return h.lockStateToString(lockState);
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash.impl;
+
+import net.openhft.chronicle.core.Memory;
+import net.openhft.chronicle.core.OS;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Exclusive spin locks of entries, one bit per chunk of the tier's entry space, the bit of the
+ * first chunk of an entry locks the entry. Entry locks are held together with the segment read
+ * lock, which prevents removal and relocation of the locked entry, so that threads, updating
+ * different entries of the same segment in place, don't block each other. Readers of the value,
+ * which hold only the segment read lock as well, take the entry lock for the time of the read, so
+ * that they don't see a partially written value.
+ */
+public final class EntryLocks {
+
+    /**
+     * Timeout of waiting for an entry lock. Entry locks are waited for without holding the
+     * segment lock, so this timeout is independent from {@link
+     * BigSegmentHeader#LOCK_TIMEOUT_SECONDS}.
+     */
+    public static final int ENTRY_LOCK_TIMEOUT_SECONDS = 60;
+
+    private static final Memory memory = OS.memory();
+
+    private EntryLocks() {
+    }
+
+    private static long wordAddress(long locksAddr, long pos) {
+        return locksAddr + ((pos >>> 6) << 3);
+    }
+
+    public static boolean tryLock(long locksAddr, long pos) {
+        long wordAddress = wordAddress(locksAddr, pos);
+        long bit = 1L << pos;
+        while (true) {
+            long word = memory.readVolatileLong(wordAddress);
+            if ((word & bit) != 0)
+                return false;
+            if (memory.compareAndSwapLong(wordAddress, word, word | bit))
+                return true;
+        }
+    }
+
+    /**
+     * Acquires the lock of the entry at the given position, waiting if it is held. Only callers,
+     * which hold the segment update lock or no segment lock at all, may wait, because a holder of
+     * an entry lock never waits for the segment update lock, see {@link #awaitUnlocked}.
+     *
+     * @param locksAddr the address of entry lock bits of the tier
+     * @param pos the position of the entry in the tier
+     * @throws RuntimeException if the lock is not acquired in {@link #ENTRY_LOCK_TIMEOUT_SECONDS}
+     */
+    public static void lock(long locksAddr, long pos) {
+        if (tryLock(locksAddr, pos))
+            return;
+        long deadline = deadline();
+        do {
+            awaitUnlocked(locksAddr, pos, deadline);
+        } while (!tryLock(locksAddr, pos));
+    }
+
+    /**
+     * Returns the deadline for {@link #awaitUnlocked}, {@link #ENTRY_LOCK_TIMEOUT_SECONDS} from
+     * now. Callers, which retry, compute the deadline once, on the first wait.
+     */
+    public static long deadline() {
+        return System.nanoTime() + SECONDS.toNanos(ENTRY_LOCK_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * Waits until the entry at the given position is unlocked, without acquiring the lock. A
+     * thread, which finds the entry locked under the segment read lock, should release the
+     * segment lock and wait using this method, then retry, not to block writers of the whole
+     * segment while the entry lock is held.
+     *
+     * @throws RuntimeException if the entry is still locked after the deadline
+     */
+    public static void awaitUnlocked(long locksAddr, long pos, long deadline) {
+        long wordAddress = wordAddress(locksAddr, pos);
+        long bit = 1L << pos;
+        while ((memory.readVolatileLong(wordAddress) & bit) != 0) {
+            if (System.nanoTime() - deadline > 0) {
+                throw new RuntimeException("Failed to acquire the entry lock in " +
+                        ENTRY_LOCK_TIMEOUT_SECONDS + " seconds. The lock was not released by " +
+                        "the previous holder, or the holder has crashed, in this case you should " +
+                        "use ChronicleMapBuilder.recoverPersistedTo() to access the Chronicle Map");
+            }
+            Thread.yield();
+        }
+    }
+
+    public static void unlock(long locksAddr, long pos) {
+        long wordAddress = wordAddress(locksAddr, pos);
+        long bit = 1L << pos;
+        while (true) {
+            long word = memory.readVolatileLong(wordAddress);
+            if ((word & bit) == 0)
+                throw new IllegalMonitorStateException("Entry lock is not held");
+            if (memory.compareAndSwapLong(wordAddress, word, word & ~bit))
+                return;
+        }
+    }
+
+    public static void clear(long locksAddr, long size) {
+        memory.setMemory(locksAddr, size, (byte) 0);
+    }
+}
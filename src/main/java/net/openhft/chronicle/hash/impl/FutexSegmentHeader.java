@@ -0,0 +1,380 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash.impl;
+
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.hash.impl.util.jna.LinuxFutex;
+
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static net.openhft.chronicle.hash.impl.BigSegmentHeader.*;
+
+/**
+ * {@link BigSegmentHeader} with lock waiting on Linux futex: after a short spin, a thread, waiting
+ * for the segment lock, blocks on the futex of the lock count word, instead of spinning until the
+ * lock is acquired. The number of blocked waiters is stored in the segment header after the
+ * {@link VersionedSegmentHeader} version, unlocks issue futex wake calls only if it is non-zero.
+ * Segment headers should be at least 64 bytes.
+ *
+ * <p>Futex waits are bounded by {@link #MAX_FUTEX_WAIT_NANOS}, so a waiter doesn't block for long,
+ * if a concurrent process, that accesses the same Chronicle Map, doesn't wake waiters on unlock
+ * (e. g. uses an older version of the library).
+ */
+public final class FutexSegmentHeader implements SegmentHeader {
+    public static final FutexSegmentHeader INSTANCE = new FutexSegmentHeader();
+
+    private static final BigSegmentHeader H = BigSegmentHeader.INSTANCE;
+
+    static final long FUTEX_WAITERS_OFFSET = VersionedSegmentHeader.VERSION_OFFSET + 4L; // 32-bit
+
+    private static final long SPIN_NANOS = 20_000;
+    static final long MAX_FUTEX_WAIT_NANOS = 10_000_000;
+
+    static final int READ = 0;
+    static final int UPDATE = 1;
+    static final int WRITE = 2;
+    static final int UPGRADE_UPDATE_TO_WRITE = 3;
+
+    private FutexSegmentHeader() {
+    }
+
+    /**
+     * Returns the number of threads, blocked on the futex of the segment with the given header
+     * address.
+     */
+    public static int futexWaiters(long address) {
+        return OS.memory().readVolatileInt(address + FUTEX_WAITERS_OFFSET);
+    }
+
+    private static void addFutexWaiters(long address, int delta) {
+        long waitersAddress = address + FUTEX_WAITERS_OFFSET;
+        while (true) {
+            int waiters = OS.memory().readVolatileInt(waitersAddress);
+            if (OS.memory().compareAndSwapInt(waitersAddress, waiters, waiters + delta))
+                return;
+        }
+    }
+
+    private static void wakeWaiters(long address) {
+        if (futexWaiters(address) != 0)
+            LinuxFutex.wake(address + LOCK_OFFSET);
+    }
+
+    /**
+     * Tries to acquire the lock of the given kind once, deregistering the wait of an exclusive lock
+     * waiter on success. Shared with {@link ParkingSegmentHeader}.
+     */
+    static boolean tryLock(long address, int lock) {
+        switch (lock) {
+            case READ:
+                return LOCK.tryReadLock(A, null, address + LOCK_OFFSET);
+            case UPDATE:
+                return LOCK.tryUpdateLock(A, null, address + LOCK_OFFSET);
+            case WRITE:
+                return LOCK.tryWriteLockAndDeregisterWait(A, null, address + LOCK_OFFSET);
+            case UPGRADE_UPDATE_TO_WRITE:
+                try {
+                    return LOCK.tryUpgradeUpdateToWriteLockAndDeregisterWait(
+                            A, null, address + LOCK_OFFSET);
+                } catch (IllegalMonitorStateException e) {
+                    try {
+                        deregisterWait(address);
+                    } catch (Throwable suppressed) {
+                        e.addSuppressed(suppressed);
+                    }
+                    throw e;
+                }
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    static boolean exclusive(int lock) {
+        return lock == WRITE || lock == UPGRADE_UPDATE_TO_WRITE;
+    }
+
+    /**
+     * Exclusive lock waiters register wait in the lock word, the same as in {@link
+     * BigSegmentHeader}, to prevent acquisitions of read locks, while they wait.
+     */
+    private static boolean tryLockWithWaits(
+            long address, int lock, long timeInNanos, boolean interruptible)
+            throws InterruptedException {
+        long end = System.nanoTime() + timeInNanos;
+        if (exclusive(lock))
+            registerWait(address);
+        long spinEnd = System.nanoTime() + Math.min(SPIN_NANOS, timeInNanos);
+        do {
+            if (tryLock(address, lock))
+                return true;
+            checkInterruption(address, lock, interruptible);
+        } while (System.nanoTime() <= spinEnd);
+        addFutexWaiters(address, 1);
+        try {
+            while (true) {
+                int countWord = OS.memory().readVolatileInt(address + LOCK_OFFSET);
+                if (tryLock(address, lock))
+                    return true;
+                checkInterruption(address, lock, interruptible);
+                long remaining = end - System.nanoTime();
+                if (remaining < 0) {
+                    if (exclusive(lock)) {
+                        deregisterWait(address);
+                        // read lock waiters might be waiting only because of the registered wait
+                        wakeWaiters(address);
+                    }
+                    return false;
+                }
+                LinuxFutex.wait(address + LOCK_OFFSET, countWord,
+                        Math.min(remaining, MAX_FUTEX_WAIT_NANOS));
+            }
+        } finally {
+            addFutexWaiters(address, -1);
+        }
+    }
+
+    private static void checkInterruption(long address, int lock, boolean interruptible)
+            throws InterruptedException {
+        if (interruptible && Thread.interrupted()) {
+            if (exclusive(lock)) {
+                deregisterWait(address);
+                wakeWaiters(address);
+            }
+            throw new InterruptedException();
+        }
+    }
+
+    private static void lock(long address, int lock) {
+        try {
+            if (!tryLockWithWaits(address, lock, SECONDS.toNanos(LOCK_TIMEOUT_SECONDS), false))
+                throw deadLock();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void lockInterruptibly(long address, int lock) throws InterruptedException {
+        if (!tryLockWithWaits(address, lock, SECONDS.toNanos(LOCK_TIMEOUT_SECONDS), true))
+            throw deadLock();
+    }
+
+    @Override
+    public long entries(long address) {
+        return H.entries(address);
+    }
+
+    @Override
+    public void entries(long address, long size) {
+        H.entries(address, size);
+    }
+
+    @Override
+    public long deleted(long address) {
+        return H.deleted(address);
+    }
+
+    @Override
+    public void deleted(long address, long deleted) {
+        H.deleted(address, deleted);
+    }
+
+    @Override
+    public long lowestPossiblyFreeChunk(long address) {
+        return H.lowestPossiblyFreeChunk(address);
+    }
+
+    @Override
+    public void lowestPossiblyFreeChunk(long address, long lowestPossiblyFreeChunk) {
+        H.lowestPossiblyFreeChunk(address, lowestPossiblyFreeChunk);
+    }
+
+    @Override
+    public long nextTierIndex(long address) {
+        return H.nextTierIndex(address);
+    }
+
+    @Override
+    public void nextTierIndex(long address, long nextTierIndex) {
+        H.nextTierIndex(address, nextTierIndex);
+    }
+
+    @Override
+    public void readLock(long address) {
+        if (!H.tryReadLock(address))
+            lock(address, READ);
+    }
+
+    @Override
+    public void readLockInterruptibly(long address) throws InterruptedException {
+        if (!H.tryReadLock(address))
+            lockInterruptibly(address, READ);
+    }
+
+    @Override
+    public boolean tryReadLock(long address) {
+        return H.tryReadLock(address);
+    }
+
+    @Override
+    public boolean tryReadLock(long address, long time, TimeUnit unit)
+            throws InterruptedException {
+        return H.tryReadLock(address) ||
+                tryLockWithWaits(address, READ, unit.toNanos(time), true);
+    }
+
+    @Override
+    public void updateLock(long address) {
+        if (!H.tryUpdateLock(address))
+            lock(address, UPDATE);
+    }
+
+    @Override
+    public void updateLockInterruptibly(long address) throws InterruptedException {
+        if (!H.tryUpdateLock(address))
+            lockInterruptibly(address, UPDATE);
+    }
+
+    @Override
+    public boolean tryUpdateLock(long address) {
+        return H.tryUpdateLock(address);
+    }
+
+    @Override
+    public boolean tryUpdateLock(long address, long time, TimeUnit unit)
+            throws InterruptedException {
+        return H.tryUpdateLock(address) ||
+                tryLockWithWaits(address, UPDATE, unit.toNanos(time), true);
+    }
+
+    @Override
+    public void writeLock(long address) {
+        if (!H.tryWriteLock(address))
+            lock(address, WRITE);
+    }
+
+    @Override
+    public void writeLockInterruptibly(long address) throws InterruptedException {
+        if (!H.tryWriteLock(address))
+            lockInterruptibly(address, WRITE);
+    }
+
+    @Override
+    public boolean tryWriteLock(long address) {
+        return H.tryWriteLock(address);
+    }
+
+    @Override
+    public boolean tryWriteLock(long address, long time, TimeUnit unit)
+            throws InterruptedException {
+        return H.tryWriteLock(address) ||
+                tryLockWithWaits(address, WRITE, unit.toNanos(time), true);
+    }
+
+    @Override
+    public boolean tryUpgradeReadToUpdateLock(long address) {
+        return H.tryUpgradeReadToUpdateLock(address);
+    }
+
+    @Override
+    public boolean tryUpgradeReadToWriteLock(long address) {
+        return H.tryUpgradeReadToWriteLock(address);
+    }
+
+    @Override
+    public void upgradeUpdateToWriteLock(long address) {
+        if (!H.tryUpgradeUpdateToWriteLock(address))
+            lock(address, UPGRADE_UPDATE_TO_WRITE);
+    }
+
+    @Override
+    public void upgradeUpdateToWriteLockInterruptibly(long address) throws InterruptedException {
+        if (!H.tryUpgradeUpdateToWriteLock(address))
+            lockInterruptibly(address, UPGRADE_UPDATE_TO_WRITE);
+    }
+
+    @Override
+    public boolean tryUpgradeUpdateToWriteLock(long address) {
+        return H.tryUpgradeUpdateToWriteLock(address);
+    }
+
+    @Override
+    public boolean tryUpgradeUpdateToWriteLock(long address, long time, TimeUnit unit)
+            throws InterruptedException {
+        return H.tryUpgradeUpdateToWriteLock(address) ||
+                tryLockWithWaits(address, UPGRADE_UPDATE_TO_WRITE, unit.toNanos(time), true);
+    }
+
+    @Override
+    public void readUnlock(long address) {
+        H.readUnlock(address);
+        wakeWaiters(address);
+    }
+
+    @Override
+    public void updateUnlock(long address) {
+        H.updateUnlock(address);
+        wakeWaiters(address);
+    }
+
+    @Override
+    public void downgradeUpdateToReadLock(long address) {
+        H.downgradeUpdateToReadLock(address);
+        wakeWaiters(address);
+    }
+
+    @Override
+    public void writeUnlock(long address) {
+        H.writeUnlock(address);
+        wakeWaiters(address);
+    }
+
+    @Override
+    public void downgradeWriteToUpdateLock(long address) {
+        H.downgradeWriteToUpdateLock(address);
+        wakeWaiters(address);
+    }
+
+    @Override
+    public void downgradeWriteToReadLock(long address) {
+        H.downgradeWriteToReadLock(address);
+        wakeWaiters(address);
+    }
+
+    @Override
+    public void resetLock(long address) {
+        H.resetLock(address);
+        // waiters of a crashed process might be left registered
+        OS.memory().writeOrderedInt(address + FUTEX_WAITERS_OFFSET, 0);
+    }
+
+    @Override
+    public long resetLockState() {
+        return H.resetLockState();
+    }
+
+    @Override
+    public long getLockState(long address) {
+        return H.getLockState(address);
+    }
+
+    @Override
+    public String lockStateToString(long lockState) {
+        return H.lockStateToString(lockState);
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash.impl;
+
+import net.openhft.chronicle.core.Memory;
+import net.openhft.chronicle.core.OS;
+
+import java.nio.ByteOrder;
+
+/**
+ * Hash lookup, which maintains a control byte per slot, after the slots: 0 for an empty slot, or
+ * {@code 0x80 | fingerprint} for an occupied slot, where the fingerprint is 7 bits of the slot's
+ * key. {@link #nextCandidatePos} scans control bytes in groups of 8 by word-parallel (SWAR)
+ * comparisons, similar to Swiss tables, so that a search reads only the slots, which might
+ * contain the key, and the terminating empty slot.
+ *
+ * <p>Slots layout, linear probing and removal with backward shift are the same as in the wrapped
+ * {@link IntCompactOffHeapLinearHashTable} or {@link LongCompactOffHeapLinearHashTable}, every
+ * slot write updates the slot's control byte. The first {@code GROUP_SIZE - 1} control bytes are
+ * mirrored after the last one, to read groups, which wrap around the capacity, with a single
+ * read. A control byte is written before the slot itself, so that concurrent readers, finding
+ * a stale control byte, read the slot and make the decision based on the slot value.
+ */
+public final class GroupedCompactOffHeapLinearHashTable extends CompactOffHeapLinearHashTable {
+
+    private static final Memory memory = OS.memory();
+    private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+    static final int GROUP_SIZE = 8;
+    private static final long LSB = 0x0101010101010101L;
+    private static final long MSB = 0x8080808080808080L;
+    private static final long LOW_7_BITS = 0x7F7F7F7F7F7F7F7FL;
+    private static final byte EMPTY = 0;
+
+    /**
+     * Returns the size of the control bytes, to be added to the hash lookup inner size.
+     */
+    public static long controlBytesSize(long capacity) {
+        return capacity + GROUP_SIZE - 1;
+    }
+
+    private final CompactOffHeapLinearHashTable slots;
+    private final long capacity;
+    private final long capacityMask;
+    private final int log2SlotSize;
+    private final long controlBytesOffset;
+
+    /**
+     * Must not store {@code h} in a field, to avoid memory leaks.
+     *
+     * @param slots the table of slots, this table delegates slot reads and writes to
+     * @param controlBytesOffset the offset of control bytes from the tier base address
+     */
+    GroupedCompactOffHeapLinearHashTable(
+            VanillaChronicleHash h, CompactOffHeapLinearHashTable slots,
+            long controlBytesOffset) {
+        super(h);
+        this.slots = slots;
+        this.capacity = h.tierHashLookupCapacity;
+        this.capacityMask = capacity - 1;
+        this.log2SlotSize = Integer.numberOfTrailingZeros(h.tierHashLookupSlotSize);
+        this.controlBytesOffset = controlBytesOffset;
+    }
+
+    private static byte controlByte(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (byte) (0x80 | (h >>> 57));
+    }
+
+    private void writeControlByte(long addr, long pos, byte controlByte) {
+        long index = pos >>> log2SlotSize;
+        long controlBytesAddr = addr + controlBytesOffset;
+        memory.writeByte(controlBytesAddr + index, controlByte);
+        if (index < GROUP_SIZE - 1)
+            memory.writeByte(controlBytesAddr + capacity + index, controlByte);
+    }
+
+    private long readGroup(long groupAddr) {
+        long group = memory.readLong(groupAddr);
+        // make the control byte of the first slot in the group the lowest byte
+        return LITTLE_ENDIAN ? group : Long.reverseBytes(group);
+    }
+
+    /**
+     * Returns a mask with the highest bit set in each byte of the group, which is either empty,
+     * or equal to the given control byte.
+     */
+    private static long emptyOrMatching(long group, long controlBytes) {
+        // occupied control bytes have the highest bit set
+        long empty = ~group & MSB;
+        // exact zero bytes detection, without false positives due to borrows
+        long diff = group ^ controlBytes;
+        long matching = ~(((diff & LOW_7_BITS) + LOW_7_BITS) | diff | LOW_7_BITS);
+        return empty | matching;
+    }
+
+    @Override
+    public long nextCandidatePos(long addr, long pos, long key) {
+        long controlBytesAddr = addr + controlBytesOffset;
+        long controlBytes = (controlByte(key) & 0xFFL) * LSB;
+        long index = pos >>> log2SlotSize;
+        for (long scanned = 0; scanned < capacity; scanned += GROUP_SIZE) {
+            long candidates = emptyOrMatching(readGroup(controlBytesAddr + index), controlBytes);
+            if (candidates != 0) {
+                index += Long.numberOfTrailingZeros(candidates) >>> 3;
+                return indexToPos(index & capacityMask);
+            }
+            index = (index + GROUP_SIZE) & capacityMask;
+        }
+        // inconsistent control bytes, fall back to reading every slot
+        return pos;
+    }
+
+    @Override
+    public void recoverDerivedData(long addr) {
+        for (long index = 0; index < capacity; index++) {
+            long pos = indexToPos(index);
+            long entry = slots.readEntry(addr, pos);
+            writeControlByte(addr, pos, empty(entry) ? EMPTY : controlByte(key(entry)));
+        }
+    }
+
+    @Override
+    long indexToPos(long index) {
+        return slots.indexToPos(index);
+    }
+
+    @Override
+    public long step(long pos) {
+        return slots.step(pos);
+    }
+
+    @Override
+    public long stepBack(long pos) {
+        return slots.stepBack(pos);
+    }
+
+    @Override
+    public long readEntry(long addr, long pos) {
+        return slots.readEntry(addr, pos);
+    }
+
+    @Override
+    public long readEntryVolatile(long addr, long pos) {
+        return slots.readEntryVolatile(addr, pos);
+    }
+
+    @Override
+    public void writeEntryVolatile(long addr, long pos, long key, long value) {
+        writeControlByte(addr, pos, controlByte(key));
+        slots.writeEntryVolatile(addr, pos, key, value);
+    }
+
+    @Override
+    public void writeEntry(long addr, long pos, long newEntry) {
+        writeControlByte(addr, pos, empty(newEntry) ? EMPTY : controlByte(key(newEntry)));
+        slots.writeEntry(addr, pos, newEntry);
+    }
+
+    @Override
+    public void clearEntry(long addr, long pos) {
+        slots.clearEntry(addr, pos);
+        writeControlByte(addr, pos, EMPTY);
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash.impl;
+
+import java.util.Arrays;
+
+/**
+ * Routing of keys to tiers of segments, which grow by splitting tiers (linear hashing over the
+ * tier chain), rather than by chaining a new tier, which is searched after all previous tiers.
+ * Each key has a single home tier, chosen by the highest bits of the key hash, which are not used
+ * for choosing the segment and the hash lookup slot, so a lookup searches a single tier, however
+ * many tiers the segment has. When the home tier of an inserted key is nearly full, a new tier is
+ * appended to the chain and takes over a part of keys of the next tier in turn, see {@link
+ * net.openhft.chronicle.hash.impl.stage.query.SegmentGrowth}.
+ *
+ * <p>The number of tiers and the "misplaced entries" flag of a segment are stored in the counters
+ * area of the first tier of the segment. If an entry couldn't be allocated in its home tier, it is
+ * allocated in some other tier, as without segment growth, and the flag is set, so that lookups
+ * search all tiers of the segment, until the entries are moved to their home tiers on the next
+ * insertion into the segment. The flag is set before the number of tiers is incremented, and is
+ * read after, so that lookups under the segment read lock, concurrent with tier allocation under
+ * the update lock, search all tiers of the segment, if they observe the new number of tiers.
+ *
+ * <p>Indexes of tiers of segments are cached on-heap, to go to the home tier without following
+ * the tier chain. The cache is accessed racily, every cached tier index is validated by the
+ * segment index and the tier, stored in the tier counters area, before use.
+ */
+public final class GrowingSegments {
+
+    private final VanillaChronicleHash<?, ?, ?, ?> h;
+    /**
+     * A tier is split, when the home tier of an inserted key has this many entries
+     */
+    public final long splitThreshold;
+    private final long[][] tierIndexes;
+
+    GrowingSegments(VanillaChronicleHash<?, ?, ?, ?> h) {
+        this.h = h;
+        splitThreshold = Math.max(1L, h.maxEntriesPerHashLookup * 3 / 4);
+        tierIndexes = new long[h.actualSegments][];
+    }
+
+    /**
+     * Returns the home tier of the key with the given hash, in a segment with the given number of
+     * tiers.
+     */
+    public static int homeTier(long keyHash, int tiers) {
+        if (tiers == 1)
+            return 0;
+        long bits = Long.reverse(keyHash);
+        int lowTiers = Integer.highestOneBit(tiers);
+        int tier = (int) (bits & (lowTiers - 1));
+        // the first (tiers - lowTiers) tiers are already split
+        if (tier < tiers - lowTiers)
+            tier = (int) (bits & ((lowTiers << 1) - 1));
+        return tier;
+    }
+
+    /**
+     * Returns the tier, a part of keys of which is taken over by the tier, appended to a segment
+     * with the given number of tiers.
+     */
+    public static int tierToSplit(int tiers) {
+        return tiers - Integer.highestOneBit(tiers);
+    }
+
+    private long firstTierCountersAreaAddr(int segmentIndex) {
+        return h.segmentBaseAddr(segmentIndex) + h.tierHashLookupOuterSize;
+    }
+
+    public int lastTier(int segmentIndex) {
+        return TierCountersArea.lastTier(firstTierCountersAreaAddr(segmentIndex));
+    }
+
+    public void lastTier(int segmentIndex, int lastTier) {
+        TierCountersArea.lastTier(firstTierCountersAreaAddr(segmentIndex), lastTier);
+    }
+
+    public boolean misplacedEntries(int segmentIndex) {
+        return TierCountersArea.misplacedEntries(firstTierCountersAreaAddr(segmentIndex));
+    }
+
+    public void misplacedEntries(int segmentIndex, boolean misplacedEntries) {
+        TierCountersArea.misplacedEntries(
+                firstTierCountersAreaAddr(segmentIndex), misplacedEntries);
+    }
+
+    /**
+     * Returns the home tier of the key with the given hash in the given segment, or -1, if some
+     * entries of the segment are misplaced, and all tiers of the segment should be searched.
+     */
+    public int homeTier(int segmentIndex, long keyHash) {
+        int tiers = lastTier(segmentIndex) + 1;
+        if (misplacedEntries(segmentIndex))
+            return -1;
+        return homeTier(keyHash, tiers);
+    }
+
+    /**
+     * Returns the base address of the home tier of the key with the given hash in the given
+     * segment, or 0, if all tiers of the segment should be searched.
+     */
+    public long homeTierBaseAddr(int segmentIndex, long keyHash) {
+        int homeTier = homeTier(segmentIndex, keyHash);
+        if (homeTier <= 0)
+            return homeTier == 0 ? h.segmentBaseAddr(segmentIndex) : 0L;
+        long tierIndex = tierIndex(segmentIndex, homeTier);
+        return tierIndex != 0 ? h.tierIndexToBaseAddr(tierIndex) : 0L;
+    }
+
+    /**
+     * Called when a tier is appended to the chain of the given segment.
+     */
+    public void tierAppended(int segmentIndex, int tier, long tierIndex) {
+        // entries are not moved to the new tier yet
+        misplacedEntries(segmentIndex, true);
+        lastTier(segmentIndex, tier);
+        cacheTierIndex(segmentIndex, tier, tierIndex);
+    }
+
+    /**
+     * Returns the index of the given (non-first) tier of the given segment, or 0, if the tier
+     * chain is inconsistent, that is possible when the segment is read optimistically, without
+     * locking.
+     */
+    public long tierIndex(int segmentIndex, int tier) {
+        assert tier > 0;
+        long[] indexes = tierIndexes[segmentIndex];
+        if (indexes != null && tier < indexes.length) {
+            long tierIndex = indexes[tier];
+            if (tierIndex != 0 && isTier(tierIndex, segmentIndex, tier))
+                return tierIndex;
+        }
+        long tierIndex = h.segmentHeader.nextTierIndex(h.segmentHeaderAddress(segmentIndex));
+        for (int t = 1; ; t++) {
+            if (!isExtraTierIndex(tierIndex))
+                return 0L;
+            if (t == tier)
+                break;
+            tierIndex = TierCountersArea.nextTierIndex(
+                    h.tierIndexToBaseAddr(tierIndex) + h.tierHashLookupOuterSize);
+        }
+        if (!isTier(tierIndex, segmentIndex, tier))
+            return 0L;
+        cacheTierIndex(segmentIndex, tier, tierIndex);
+        return tierIndex;
+    }
+
+    private boolean isExtraTierIndex(long tierIndex) {
+        return tierIndex > h.actualSegments && tierIndex <= h.actualSegments +
+                h.globalMutableState().getAllocatedExtraTierBulks() * h.tiersInBulk;
+    }
+
+    private boolean isTier(long tierIndex, int segmentIndex, int tier) {
+        long tierCountersAreaAddr = h.tierIndexToBaseAddr(tierIndex) + h.tierHashLookupOuterSize;
+        return TierCountersArea.segmentIndex(tierCountersAreaAddr) == segmentIndex &&
+                TierCountersArea.tier(tierCountersAreaAddr) == tier;
+    }
+
+    private void cacheTierIndex(int segmentIndex, int tier, long tierIndex) {
+        long[] indexes = tierIndexes[segmentIndex];
+        if (indexes == null || tier >= indexes.length) {
+            int length = Math.max(8, tier + 1);
+            if (indexes != null)
+                length = Math.max(length, indexes.length * 2);
+            indexes = indexes == null ? new long[length] : Arrays.copyOf(indexes, length);
+            tierIndexes[segmentIndex] = indexes;
+        }
+        indexes[tier] = tierIndex;
+    }
+}
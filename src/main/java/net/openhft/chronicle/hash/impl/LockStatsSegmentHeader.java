@@ -0,0 +1,465 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash.impl;
+
+import net.openhft.chronicle.core.Memory;
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.hash.SegmentLockStats;
+import net.openhft.chronicle.hash.SegmentLockStats.LockWaitStats;
+
+import java.util.concurrent.TimeUnit;
+
+import static net.openhft.chronicle.hash.SegmentLockStats.WAIT_HISTOGRAM_BUCKETS;
+
+/**
+ * Segment header, counting lock acquisitions and recording wait times of contended acquisitions
+ * of the decorated segment header in the stats area, which follows the first 64 bytes of the
+ * segment header. Counters are updated with atomic adds, so all processes, accessing the same
+ * persisted Chronicle Hash, contribute to them. The wait time is measured only if the lock is not
+ * acquired by the first attempt, uncontended acquisitions pay just for a counter increment.
+ * Blocking acquisitions, which fail with the lock timeout exception, are counted as timeouts.
+ *
+ * <p>Stats area layout: for each of read, update, write lock and update to write lock upgrade:
+ * acquisitions, contended acquisitions, timeouts, total wait nanos and {@link
+ * SegmentLockStats#WAIT_HISTOGRAM_BUCKETS} histogram buckets, 64-bit each; then the 64-bit count
+ * of failed upgrades.
+ */
+public final class LockStatsSegmentHeader implements SegmentHeader {
+
+    static final long STATS_OFFSET = 64;
+
+    private static final int READ = 0;
+    private static final int UPDATE = 1;
+    private static final int WRITE = 2;
+    private static final int UPGRADE_UPDATE_TO_WRITE = 3;
+    private static final int LOCK_KINDS = 4;
+
+    private static final long ACQUISITIONS = 0;
+    private static final long CONTENDED_ACQUISITIONS = 8;
+    private static final long TIMEOUTS = 16;
+    private static final long TOTAL_WAIT_NANOS = 24;
+    private static final long WAIT_HISTOGRAM = 32;
+    private static final long LOCK_KIND_STATS_SIZE = WAIT_HISTOGRAM + WAIT_HISTOGRAM_BUCKETS * 8L;
+
+    private static final long FAILED_UPGRADES = LOCK_KINDS * LOCK_KIND_STATS_SIZE;
+
+    /**
+     * The size of the stats area, rounded up to cache lines
+     */
+    public static final int STATS_SIZE = (int) ((FAILED_UPGRADES + 8 + 63) & ~63);
+
+    private final SegmentHeader h;
+
+    public LockStatsSegmentHeader(SegmentHeader h) {
+        this.h = h;
+    }
+
+    private static long statsAddress(long address, int lock) {
+        return address + STATS_OFFSET + lock * LOCK_KIND_STATS_SIZE;
+    }
+
+    private static void acquired(long address, int lock) {
+        OS.memory().addLong(statsAddress(address, lock) + ACQUISITIONS, 1L);
+    }
+
+    private static void acquiredAfterWait(long address, int lock, long startNanos) {
+        long waitNanos = Math.max(0L, System.nanoTime() - startNanos);
+        long stats = statsAddress(address, lock);
+        Memory memory = OS.memory();
+        memory.addLong(stats + ACQUISITIONS, 1L);
+        memory.addLong(stats + CONTENDED_ACQUISITIONS, 1L);
+        memory.addLong(stats + TOTAL_WAIT_NANOS, waitNanos);
+        memory.addLong(stats + WAIT_HISTOGRAM + SegmentLockStats.bucket(waitNanos) * 8L, 1L);
+    }
+
+    private static boolean timedOut(long address, int lock) {
+        OS.memory().addLong(statsAddress(address, lock) + TIMEOUTS, 1L);
+        return false;
+    }
+
+    private static void failedUpgrade(long address) {
+        OS.memory().addLong(address + STATS_OFFSET + FAILED_UPGRADES, 1L);
+    }
+
+    /**
+     * Reads the lock stats of the segment with the given header address.
+     */
+    public static SegmentLockStats stats(int segmentIndex, long address) {
+        return new SegmentLockStats(segmentIndex,
+                lockWaitStats(address, READ), lockWaitStats(address, UPDATE),
+                lockWaitStats(address, WRITE), lockWaitStats(address, UPGRADE_UPDATE_TO_WRITE),
+                OS.memory().readVolatileLong(address + STATS_OFFSET + FAILED_UPGRADES));
+    }
+
+    private static LockWaitStats lockWaitStats(long address, int lock) {
+        long stats = statsAddress(address, lock);
+        Memory memory = OS.memory();
+        long[] waitHistogram = new long[WAIT_HISTOGRAM_BUCKETS];
+        for (int i = 0; i < WAIT_HISTOGRAM_BUCKETS; i++) {
+            waitHistogram[i] = memory.readVolatileLong(stats + WAIT_HISTOGRAM + i * 8L);
+        }
+        return new LockWaitStats(memory.readVolatileLong(stats + ACQUISITIONS),
+                memory.readVolatileLong(stats + CONTENDED_ACQUISITIONS),
+                memory.readVolatileLong(stats + TIMEOUTS),
+                memory.readVolatileLong(stats + TOTAL_WAIT_NANOS), waitHistogram);
+    }
+
+    @Override
+    public long entries(long address) {
+        return h.entries(address);
+    }
+
+    @Override
+    public void entries(long address, long size) {
+        h.entries(address, size);
+    }
+
+    @Override
+    public long deleted(long address) {
+        return h.deleted(address);
+    }
+
+    @Override
+    public void deleted(long address, long deleted) {
+        h.deleted(address, deleted);
+    }
+
+    @Override
+    public long lowestPossiblyFreeChunk(long address) {
+        return h.lowestPossiblyFreeChunk(address);
+    }
+
+    @Override
+    public void lowestPossiblyFreeChunk(long address, long lowestPossiblyFreeChunk) {
+        h.lowestPossiblyFreeChunk(address, lowestPossiblyFreeChunk);
+    }
+
+    @Override
+    public long nextTierIndex(long address) {
+        return h.nextTierIndex(address);
+    }
+
+    @Override
+    public void nextTierIndex(long address, long nextTierIndex) {
+        h.nextTierIndex(address, nextTierIndex);
+    }
+
+    @Override
+    public void readLock(long address) {
+        if (!h.tryReadLock(address)) {
+            long start = System.nanoTime();
+            try {
+                h.readLock(address);
+            } catch (RuntimeException e) {
+                // the lock is not acquired in the lock timeout
+                timedOut(address, READ);
+                throw e;
+            }
+            acquiredAfterWait(address, READ, start);
+        } else {
+            acquired(address, READ);
+        }
+    }
+
+    @Override
+    public void readLockInterruptibly(long address) throws InterruptedException {
+        if (!h.tryReadLock(address)) {
+            long start = System.nanoTime();
+            try {
+                h.readLockInterruptibly(address);
+            } catch (RuntimeException e) {
+                // the lock is not acquired in the lock timeout
+                timedOut(address, READ);
+                throw e;
+            }
+            acquiredAfterWait(address, READ, start);
+        } else {
+            acquired(address, READ);
+        }
+    }
+
+    @Override
+    public boolean tryReadLock(long address) {
+        if (h.tryReadLock(address)) {
+            acquired(address, READ);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean tryReadLock(long address, long time, TimeUnit unit)
+            throws InterruptedException {
+        if (h.tryReadLock(address)) {
+            acquired(address, READ);
+            return true;
+        }
+        long start = System.nanoTime();
+        if (h.tryReadLock(address, time, unit)) {
+            acquiredAfterWait(address, READ, start);
+            return true;
+        }
+        return timedOut(address, READ);
+    }
+
+    @Override
+    public void updateLock(long address) {
+        if (!h.tryUpdateLock(address)) {
+            long start = System.nanoTime();
+            try {
+                h.updateLock(address);
+            } catch (RuntimeException e) {
+                // the lock is not acquired in the lock timeout
+                timedOut(address, UPDATE);
+                throw e;
+            }
+            acquiredAfterWait(address, UPDATE, start);
+        } else {
+            acquired(address, UPDATE);
+        }
+    }
+
+    @Override
+    public void updateLockInterruptibly(long address) throws InterruptedException {
+        if (!h.tryUpdateLock(address)) {
+            long start = System.nanoTime();
+            try {
+                h.updateLockInterruptibly(address);
+            } catch (RuntimeException e) {
+                // the lock is not acquired in the lock timeout
+                timedOut(address, UPDATE);
+                throw e;
+            }
+            acquiredAfterWait(address, UPDATE, start);
+        } else {
+            acquired(address, UPDATE);
+        }
+    }
+
+    @Override
+    public boolean tryUpdateLock(long address) {
+        if (h.tryUpdateLock(address)) {
+            acquired(address, UPDATE);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean tryUpdateLock(long address, long time, TimeUnit unit)
+            throws InterruptedException {
+        if (h.tryUpdateLock(address)) {
+            acquired(address, UPDATE);
+            return true;
+        }
+        long start = System.nanoTime();
+        if (h.tryUpdateLock(address, time, unit)) {
+            acquiredAfterWait(address, UPDATE, start);
+            return true;
+        }
+        return timedOut(address, UPDATE);
+    }
+
+    @Override
+    public void writeLock(long address) {
+        if (!h.tryWriteLock(address)) {
+            long start = System.nanoTime();
+            try {
+                h.writeLock(address);
+            } catch (RuntimeException e) {
+                // the lock is not acquired in the lock timeout
+                timedOut(address, WRITE);
+                throw e;
+            }
+            acquiredAfterWait(address, WRITE, start);
+        } else {
+            acquired(address, WRITE);
+        }
+    }
+
+    @Override
+    public void writeLockInterruptibly(long address) throws InterruptedException {
+        if (!h.tryWriteLock(address)) {
+            long start = System.nanoTime();
+            try {
+                h.writeLockInterruptibly(address);
+            } catch (RuntimeException e) {
+                // the lock is not acquired in the lock timeout
+                timedOut(address, WRITE);
+                throw e;
+            }
+            acquiredAfterWait(address, WRITE, start);
+        } else {
+            acquired(address, WRITE);
+        }
+    }
+
+    @Override
+    public boolean tryWriteLock(long address) {
+        if (h.tryWriteLock(address)) {
+            acquired(address, WRITE);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean tryWriteLock(long address, long time, TimeUnit unit)
+            throws InterruptedException {
+        if (h.tryWriteLock(address)) {
+            acquired(address, WRITE);
+            return true;
+        }
+        long start = System.nanoTime();
+        if (h.tryWriteLock(address, time, unit)) {
+            acquiredAfterWait(address, WRITE, start);
+            return true;
+        }
+        return timedOut(address, WRITE);
+    }
+
+    @Override
+    public boolean tryUpgradeReadToUpdateLock(long address) {
+        if (h.tryUpgradeReadToUpdateLock(address)) {
+            acquired(address, UPDATE);
+            return true;
+        }
+        failedUpgrade(address);
+        return false;
+    }
+
+    @Override
+    public boolean tryUpgradeReadToWriteLock(long address) {
+        if (h.tryUpgradeReadToWriteLock(address)) {
+            acquired(address, WRITE);
+            return true;
+        }
+        failedUpgrade(address);
+        return false;
+    }
+
+    @Override
+    public void upgradeUpdateToWriteLock(long address) {
+        if (!h.tryUpgradeUpdateToWriteLock(address)) {
+            long start = System.nanoTime();
+            try {
+                h.upgradeUpdateToWriteLock(address);
+            } catch (RuntimeException e) {
+                timedOut(address, UPGRADE_UPDATE_TO_WRITE);
+                failedUpgrade(address);
+                throw e;
+            }
+            acquiredAfterWait(address, UPGRADE_UPDATE_TO_WRITE, start);
+        } else {
+            acquired(address, UPGRADE_UPDATE_TO_WRITE);
+        }
+    }
+
+    @Override
+    public void upgradeUpdateToWriteLockInterruptibly(long address) throws InterruptedException {
+        if (!h.tryUpgradeUpdateToWriteLock(address)) {
+            long start = System.nanoTime();
+            try {
+                h.upgradeUpdateToWriteLockInterruptibly(address);
+            } catch (RuntimeException e) {
+                timedOut(address, UPGRADE_UPDATE_TO_WRITE);
+                failedUpgrade(address);
+                throw e;
+            }
+            acquiredAfterWait(address, UPGRADE_UPDATE_TO_WRITE, start);
+        } else {
+            acquired(address, UPGRADE_UPDATE_TO_WRITE);
+        }
+    }
+
+    @Override
+    public boolean tryUpgradeUpdateToWriteLock(long address) {
+        if (h.tryUpgradeUpdateToWriteLock(address)) {
+            acquired(address, UPGRADE_UPDATE_TO_WRITE);
+            return true;
+        }
+        failedUpgrade(address);
+        return false;
+    }
+
+    @Override
+    public boolean tryUpgradeUpdateToWriteLock(long address, long time, TimeUnit unit)
+            throws InterruptedException {
+        if (h.tryUpgradeUpdateToWriteLock(address)) {
+            acquired(address, UPGRADE_UPDATE_TO_WRITE);
+            return true;
+        }
+        long start = System.nanoTime();
+        if (h.tryUpgradeUpdateToWriteLock(address, time, unit)) {
+            acquiredAfterWait(address, UPGRADE_UPDATE_TO_WRITE, start);
+            return true;
+        }
+        failedUpgrade(address);
+        return timedOut(address, UPGRADE_UPDATE_TO_WRITE);
+    }
+
+    @Override
+    public void readUnlock(long address) {
+        h.readUnlock(address);
+    }
+
+    @Override
+    public void updateUnlock(long address) {
+        h.updateUnlock(address);
+    }
+
+    @Override
+    public void downgradeUpdateToReadLock(long address) {
+        h.downgradeUpdateToReadLock(address);
+    }
+
+    @Override
+    public void writeUnlock(long address) {
+        h.writeUnlock(address);
+    }
+
+    @Override
+    public void downgradeWriteToUpdateLock(long address) {
+        h.downgradeWriteToUpdateLock(address);
+    }
+
+    @Override
+    public void downgradeWriteToReadLock(long address) {
+        h.downgradeWriteToReadLock(address);
+    }
+
+    @Override
+    public void resetLock(long address) {
+        h.resetLock(address);
+    }
+
+    @Override
+    public long resetLockState() {
+        return h.resetLockState();
+    }
+
+    @Override
+    public long getLockState(long address) {
+        return h.getLockState(address);
+    }
+
+    @Override
+    public String lockStateToString(long lockState) {
+        return h.lockStateToString(lockState);
+    }
+}
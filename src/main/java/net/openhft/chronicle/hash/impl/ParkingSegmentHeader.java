@@ -0,0 +1,362 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash.impl;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static net.openhft.chronicle.hash.impl.BigSegmentHeader.*;
+import static net.openhft.chronicle.hash.impl.FutexSegmentHeader.*;
+
+/**
+ * {@link BigSegmentHeader} with lock waiting by parking: after a few lock attempts, a thread,
+ * waiting for the segment lock, parks with {@link LockSupport#parkNanos(Object, long)} and
+ * exponential back-off, instead of spinning until the lock is acquired. Parked threads don't
+ * occupy a CPU (a virtual thread unmounts from its carrier thread, while parked), which matters
+ * when there are many more threads, accessing the map, than CPUs.
+ *
+ * <p>Waiters of each segment are also queued in the JVM, and threads of the same JVM unpark them,
+ * when they unlock or downgrade the segment lock, so a waiter doesn't usually wait until the end
+ * of its park period. Locks of other processes, accessing the same Chronicle Map, don't unpark
+ * waiters of this JVM, so park periods are bounded by {@link #MAX_PARK_NANOS}. The lock word is
+ * the same as in {@link BigSegmentHeader}, so parking waiting is compatible with spin and futex
+ * waiting of other processes.
+ */
+public final class ParkingSegmentHeader implements SegmentHeader {
+
+    private static final BigSegmentHeader H = BigSegmentHeader.INSTANCE;
+
+    private static final int SPIN_TRIES = 64;
+    static final long MIN_PARK_NANOS = 1_000;
+    static final long MAX_PARK_NANOS = 1_000_000;
+
+    private final VanillaChronicleHash<?, ?, ?, ?> hash;
+    private final Queue<Thread>[] waiters;
+
+    @SuppressWarnings("unchecked")
+    ParkingSegmentHeader(VanillaChronicleHash<?, ?, ?, ?> hash) {
+        this.hash = hash;
+        waiters = new Queue[hash.actualSegments];
+        for (int i = 0; i < waiters.length; i++) {
+            waiters[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    private Queue<Thread> segmentWaiters(long address) {
+        int segmentIndex = (int) ((address - hash.bsAddress() - hash.segmentHeadersOffset) /
+                hash.segmentHeaderSize);
+        return waiters[segmentIndex];
+    }
+
+    /**
+     * Returns the number of threads of this JVM, parked or about to park, waiting for the lock of
+     * the segment with the given header address.
+     */
+    public int parkedWaiters(long address) {
+        return segmentWaiters(address).size();
+    }
+
+    private void unparkWaiters(long address) {
+        Queue<Thread> segmentWaiters = segmentWaiters(address);
+        if (!segmentWaiters.isEmpty()) {
+            for (Thread waiter : segmentWaiters) {
+                LockSupport.unpark(waiter);
+            }
+        }
+    }
+
+    /**
+     * Exclusive lock waiters register wait in the lock word, the same as in {@link
+     * BigSegmentHeader}, to prevent acquisitions of read locks, while they wait. A waiter is
+     * queued before each lock attempt and park, so an unlock, that happens in between, unparks it.
+     */
+    private boolean tryLockWithParking(
+            long address, int lock, long timeInNanos, boolean interruptible)
+            throws InterruptedException {
+        long end = System.nanoTime() + timeInNanos;
+        if (exclusive(lock))
+            registerWait(address);
+        for (int i = 0; i < SPIN_TRIES; i++) {
+            if (tryLock(address, lock))
+                return true;
+            checkInterruption(address, lock, interruptible);
+        }
+        Queue<Thread> segmentWaiters = segmentWaiters(address);
+        Thread thread = Thread.currentThread();
+        segmentWaiters.add(thread);
+        boolean interrupted = false;
+        try {
+            long parkNanos = MIN_PARK_NANOS;
+            while (true) {
+                if (tryLock(address, lock))
+                    return true;
+                checkInterruption(address, lock, interruptible);
+                long remaining = end - System.nanoTime();
+                if (remaining < 0) {
+                    if (exclusive(lock)) {
+                        deregisterWait(address);
+                        // read lock waiters might be waiting only because of the registered wait
+                        unparkWaiters(address);
+                    }
+                    return false;
+                }
+                LockSupport.parkNanos(this, Math.min(remaining, parkNanos));
+                parkNanos = Math.min(parkNanos * 2, MAX_PARK_NANOS);
+                // park returns immediately while the interruption status is set, clear it not to
+                // turn uninterruptible waiting into spinning
+                if (!interruptible && Thread.interrupted())
+                    interrupted = true;
+            }
+        } finally {
+            segmentWaiters.remove(thread);
+            if (interrupted)
+                thread.interrupt();
+        }
+    }
+
+    private void checkInterruption(long address, int lock, boolean interruptible)
+            throws InterruptedException {
+        if (interruptible && Thread.interrupted()) {
+            if (exclusive(lock)) {
+                deregisterWait(address);
+                unparkWaiters(address);
+            }
+            throw new InterruptedException();
+        }
+    }
+
+    private void lock(long address, int lock) {
+        try {
+            if (!tryLockWithParking(address, lock, SECONDS.toNanos(LOCK_TIMEOUT_SECONDS), false))
+                throw deadLock();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private void lockInterruptibly(long address, int lock) throws InterruptedException {
+        if (!tryLockWithParking(address, lock, SECONDS.toNanos(LOCK_TIMEOUT_SECONDS), true))
+            throw deadLock();
+    }
+
+    @Override
+    public long entries(long address) {
+        return H.entries(address);
+    }
+
+    @Override
+    public void entries(long address, long size) {
+        H.entries(address, size);
+    }
+
+    @Override
+    public long deleted(long address) {
+        return H.deleted(address);
+    }
+
+    @Override
+    public void deleted(long address, long deleted) {
+        H.deleted(address, deleted);
+    }
+
+    @Override
+    public long lowestPossiblyFreeChunk(long address) {
+        return H.lowestPossiblyFreeChunk(address);
+    }
+
+    @Override
+    public void lowestPossiblyFreeChunk(long address, long lowestPossiblyFreeChunk) {
+        H.lowestPossiblyFreeChunk(address, lowestPossiblyFreeChunk);
+    }
+
+    @Override
+    public long nextTierIndex(long address) {
+        return H.nextTierIndex(address);
+    }
+
+    @Override
+    public void nextTierIndex(long address, long nextTierIndex) {
+        H.nextTierIndex(address, nextTierIndex);
+    }
+
+    @Override
+    public void readLock(long address) {
+        if (!H.tryReadLock(address))
+            lock(address, READ);
+    }
+
+    @Override
+    public void readLockInterruptibly(long address) throws InterruptedException {
+        if (!H.tryReadLock(address))
+            lockInterruptibly(address, READ);
+    }
+
+    @Override
+    public boolean tryReadLock(long address) {
+        return H.tryReadLock(address);
+    }
+
+    @Override
+    public boolean tryReadLock(long address, long time, TimeUnit unit)
+            throws InterruptedException {
+        return H.tryReadLock(address) ||
+                tryLockWithParking(address, READ, unit.toNanos(time), true);
+    }
+
+    @Override
+    public void updateLock(long address) {
+        if (!H.tryUpdateLock(address))
+            lock(address, UPDATE);
+    }
+
+    @Override
+    public void updateLockInterruptibly(long address) throws InterruptedException {
+        if (!H.tryUpdateLock(address))
+            lockInterruptibly(address, UPDATE);
+    }
+
+    @Override
+    public boolean tryUpdateLock(long address) {
+        return H.tryUpdateLock(address);
+    }
+
+    @Override
+    public boolean tryUpdateLock(long address, long time, TimeUnit unit)
+            throws InterruptedException {
+        return H.tryUpdateLock(address) ||
+                tryLockWithParking(address, UPDATE, unit.toNanos(time), true);
+    }
+
+    @Override
+    public void writeLock(long address) {
+        if (!H.tryWriteLock(address))
+            lock(address, WRITE);
+    }
+
+    @Override
+    public void writeLockInterruptibly(long address) throws InterruptedException {
+        if (!H.tryWriteLock(address))
+            lockInterruptibly(address, WRITE);
+    }
+
+    @Override
+    public boolean tryWriteLock(long address) {
+        return H.tryWriteLock(address);
+    }
+
+    @Override
+    public boolean tryWriteLock(long address, long time, TimeUnit unit)
+            throws InterruptedException {
+        return H.tryWriteLock(address) ||
+                tryLockWithParking(address, WRITE, unit.toNanos(time), true);
+    }
+
+    @Override
+    public boolean tryUpgradeReadToUpdateLock(long address) {
+        return H.tryUpgradeReadToUpdateLock(address);
+    }
+
+    @Override
+    public boolean tryUpgradeReadToWriteLock(long address) {
+        return H.tryUpgradeReadToWriteLock(address);
+    }
+
+    @Override
+    public void upgradeUpdateToWriteLock(long address) {
+        if (!H.tryUpgradeUpdateToWriteLock(address))
+            lock(address, UPGRADE_UPDATE_TO_WRITE);
+    }
+
+    @Override
+    public void upgradeUpdateToWriteLockInterruptibly(long address) throws InterruptedException {
+        if (!H.tryUpgradeUpdateToWriteLock(address))
+            lockInterruptibly(address, UPGRADE_UPDATE_TO_WRITE);
+    }
+
+    @Override
+    public boolean tryUpgradeUpdateToWriteLock(long address) {
+        return H.tryUpgradeUpdateToWriteLock(address);
+    }
+
+    @Override
+    public boolean tryUpgradeUpdateToWriteLock(long address, long time, TimeUnit unit)
+            throws InterruptedException {
+        return H.tryUpgradeUpdateToWriteLock(address) ||
+                tryLockWithParking(address, UPGRADE_UPDATE_TO_WRITE, unit.toNanos(time), true);
+    }
+
+    @Override
+    public void readUnlock(long address) {
+        H.readUnlock(address);
+        unparkWaiters(address);
+    }
+
+    @Override
+    public void updateUnlock(long address) {
+        H.updateUnlock(address);
+        unparkWaiters(address);
+    }
+
+    @Override
+    public void downgradeUpdateToReadLock(long address) {
+        H.downgradeUpdateToReadLock(address);
+        unparkWaiters(address);
+    }
+
+    @Override
+    public void writeUnlock(long address) {
+        H.writeUnlock(address);
+        unparkWaiters(address);
+    }
+
+    @Override
+    public void downgradeWriteToUpdateLock(long address) {
+        H.downgradeWriteToUpdateLock(address);
+        unparkWaiters(address);
+    }
+
+    @Override
+    public void downgradeWriteToReadLock(long address) {
+        H.downgradeWriteToReadLock(address);
+        unparkWaiters(address);
+    }
+
+    @Override
+    public void resetLock(long address) {
+        H.resetLock(address);
+        unparkWaiters(address);
+    }
+
+    @Override
+    public long resetLockState() {
+        return H.resetLockState();
+    }
+
+    @Override
+    public long getLockState(long address) {
+        return H.getLockState(address);
+    }
+
+    @Override
+    public String lockStateToString(long lockState) {
+        return H.lockStateToString(lockState);
+    }
+}
@@ -23,6 +23,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.RandomAccessFile;
 
 
 public final class PersistedChronicleHashResourceReleaser
@@ -31,9 +32,23 @@ public final class PersistedChronicleHashResourceReleaser
             LoggerFactory.getLogger(PersistedChronicleHashResourceReleaser.class);
 
     private final File file;
+    /**
+     * The file, not shared via {@link CanonicalRandomAccessFiles}, or {@code null}
+     */
+    private final RandomAccessFile raf;
 
     public PersistedChronicleHashResourceReleaser(File file) {
         this.file = file;
+        this.raf = null;
+    }
+
+    /**
+     * Creates a releaser, which closes the given file, instead of releasing the shared file from
+     * {@link CanonicalRandomAccessFiles}.
+     */
+    public PersistedChronicleHashResourceReleaser(File file, RandomAccessFile raf) {
+        this.file = file;
+        this.raf = raf;
     }
 
     @Override
@@ -76,7 +91,11 @@ public final class PersistedChronicleHashResourceReleaser
             }
         }
         try {
-            CanonicalRandomAccessFiles.release(file);
+            if (raf != null) {
+                raf.close();
+            } else {
+                CanonicalRandomAccessFiles.release(file);
+            }
         } catch (Throwable t) {
             if (thrown == null) {
                 thrown = t;
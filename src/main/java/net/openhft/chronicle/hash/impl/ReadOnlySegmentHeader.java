@@ -0,0 +1,222 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash.impl;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Segment header of Chronicle Hashes, opened read-only: the memory is mapped with read-only
+ * protection, so neither locks could be acquired, nor the segment counters could be updated, any
+ * attempt throws {@link UnsupportedOperationException}. Read-only Chronicle Hashes read segments
+ * only optimistically, validating the version of the segment, maintained by the writer process,
+ * see {@link VersionedSegmentHeader}.
+ */
+public final class ReadOnlySegmentHeader implements SegmentHeader {
+    public static final ReadOnlySegmentHeader INSTANCE = new ReadOnlySegmentHeader();
+
+    private ReadOnlySegmentHeader() {}
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("The Chronicle Hash is opened read-only, " +
+                "segments can't be locked or modified");
+    }
+
+    @Override
+    public long entries(long address) {
+        return BigSegmentHeader.INSTANCE.entries(address);
+    }
+
+    @Override
+    public void entries(long address, long size) {
+        throw readOnly();
+    }
+
+    @Override
+    public long deleted(long address) {
+        return BigSegmentHeader.INSTANCE.deleted(address);
+    }
+
+    @Override
+    public void deleted(long address, long deleted) {
+        throw readOnly();
+    }
+
+    @Override
+    public long lowestPossiblyFreeChunk(long address) {
+        return BigSegmentHeader.INSTANCE.lowestPossiblyFreeChunk(address);
+    }
+
+    @Override
+    public void lowestPossiblyFreeChunk(long address, long lowestPossiblyFreeChunk) {
+        throw readOnly();
+    }
+
+    @Override
+    public long nextTierIndex(long address) {
+        return BigSegmentHeader.INSTANCE.nextTierIndex(address);
+    }
+
+    @Override
+    public void nextTierIndex(long address, long nextTierIndex) {
+        throw readOnly();
+    }
+
+    @Override
+    public void readLock(long address) {
+        throw readOnly();
+    }
+
+    @Override
+    public void readLockInterruptibly(long address) throws InterruptedException {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean tryReadLock(long address) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean tryReadLock(long address, long time, TimeUnit unit)
+            throws InterruptedException {
+        throw readOnly();
+    }
+
+    @Override
+    public void updateLock(long address) {
+        throw readOnly();
+    }
+
+    @Override
+    public void updateLockInterruptibly(long address) throws InterruptedException {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean tryUpdateLock(long address) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean tryUpdateLock(long address, long time, TimeUnit unit)
+            throws InterruptedException {
+        throw readOnly();
+    }
+
+    @Override
+    public void writeLock(long address) {
+        throw readOnly();
+    }
+
+    @Override
+    public void writeLockInterruptibly(long address) throws InterruptedException {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean tryWriteLock(long address) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean tryWriteLock(long address, long time, TimeUnit unit)
+            throws InterruptedException {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean tryUpgradeReadToUpdateLock(long address) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean tryUpgradeReadToWriteLock(long address) {
+        throw readOnly();
+    }
+
+    @Override
+    public void upgradeUpdateToWriteLock(long address) {
+        throw readOnly();
+    }
+
+    @Override
+    public void upgradeUpdateToWriteLockInterruptibly(long address) throws InterruptedException {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean tryUpgradeUpdateToWriteLock(long address) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean tryUpgradeUpdateToWriteLock(long address, long time, TimeUnit unit)
+            throws InterruptedException {
+        throw readOnly();
+    }
+
+    @Override
+    public void readUnlock(long address) {
+        throw readOnly();
+    }
+
+    @Override
+    public void updateUnlock(long address) {
+        throw readOnly();
+    }
+
+    @Override
+    public void downgradeUpdateToReadLock(long address) {
+        throw readOnly();
+    }
+
+    @Override
+    public void writeUnlock(long address) {
+        throw readOnly();
+    }
+
+    @Override
+    public void downgradeWriteToUpdateLock(long address) {
+        throw readOnly();
+    }
+
+    @Override
+    public void downgradeWriteToReadLock(long address) {
+        throw readOnly();
+    }
+
+    @Override
+    public void resetLock(long address) {
+        throw readOnly();
+    }
+
+    @Override
+    public long resetLockState() {
+        return BigSegmentHeader.INSTANCE.resetLockState();
+    }
+
+    @Override
+    public long getLockState(long address) {
+        return BigSegmentHeader.INSTANCE.getLockState(address);
+    }
+
+    @Override
+    public String lockStateToString(long lockState) {
+        return BigSegmentHeader.INSTANCE.lockStateToString(lockState);
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash.impl;
+
+/**
+ * Hash lookup with Robin Hood insertion: within each run of occupied slots, entries are ordered
+ * by their home positions ({@link #hlPos}), i. e. an entry never has a shorter probe distance,
+ * than the entry in the previous slot, unless it is in its home position. The probe distance is
+ * derived from the key, stored in the slot, so the slots layout is the same as in the wrapped
+ * table. A search of an absent key stops as soon as it reaches an entry with a shorter probe
+ * distance, than the distance of the searched key at that position, instead of reaching an empty
+ * slot.
+ *
+ * <p>An insertion shifts the tail of the run by one slot forward, to make room for the new entry.
+ * Concurrent readers might miss the shifted entries, so the insertion of an entry into an occupied
+ * position should be performed under exclusive lock. Removal with backward shift preserves the
+ * order.
+ */
+public final class RobinHoodCompactOffHeapLinearHashTable extends CompactOffHeapLinearHashTable {
+
+    private final CompactOffHeapLinearHashTable slots;
+    private final long capacity;
+
+    /**
+     * Must not store {@code h} in a field, to avoid memory leaks.
+     *
+     * @param slots the table of slots, this table delegates slot reads and writes to
+     */
+    RobinHoodCompactOffHeapLinearHashTable(
+            VanillaChronicleHash h, CompactOffHeapLinearHashTable slots) {
+        super(h);
+        this.slots = slots;
+        this.capacity = h.tierHashLookupCapacity;
+    }
+
+    private long probeDistance(long pos, long key) {
+        return (pos - hlPos(key)) & capacityMask2;
+    }
+
+    @Override
+    public boolean searchCouldStop(long pos, long entry, long key) {
+        return probeDistance(pos, key(entry)) < probeDistance(pos, key);
+    }
+
+    @Override
+    public long insertPos(long addr, long searchStopPos, long key) {
+        // the search might skip slots, see nextCandidatePos(), find the position from the start
+        long pos = hlPos(key);
+        while (true) {
+            long entry = readEntry(addr, pos);
+            if (empty(entry) || searchCouldStop(pos, entry, key))
+                return pos;
+            pos = step(pos);
+        }
+    }
+
+    @Override
+    public void insert(long addr, long pos, long key, long value) {
+        long emptyPos = pos;
+        while (!empty(readEntry(addr, emptyPos))) {
+            emptyPos = step(emptyPos);
+        }
+        while (emptyPos != pos) {
+            long prevPos = stepBack(emptyPos);
+            writeEntry(addr, emptyPos, readEntry(addr, prevPos));
+            emptyPos = prevPos;
+        }
+        writeEntryVolatile(addr, pos, key, value);
+    }
+
+    @Override
+    public long remove(long addr, long posToRemove) {
+        // entries are ordered by home positions, shift entries until the end of the run or an
+        // entry in its home position
+        while (true) {
+            long posToShift = step(posToRemove);
+            long entryToShift = readEntry(addr, posToShift);
+            if (empty(entryToShift) || hlPos(key(entryToShift)) == posToShift)
+                break;
+            writeEntry(addr, posToRemove, entryToShift);
+            posToRemove = posToShift;
+        }
+        clearEntry(addr, posToRemove);
+        return posToRemove;
+    }
+
+    @Override
+    public void recoverDerivedData(long addr) {
+        // during recovery, entries are inserted into the first empty slots, restore the order
+        long[] entries = new long[(int) capacity];
+        int count = 0;
+        for (long index = 0; index < capacity; index++) {
+            long pos = indexToPos(index);
+            long entry = readEntry(addr, pos);
+            if (!empty(entry)) {
+                entries[count++] = entry;
+                clearEntry(addr, pos);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            long key = key(entries[i]);
+            insert(addr, insertPos(addr, -1, key), key, value(entries[i]));
+        }
+        slots.recoverDerivedData(addr);
+    }
+
+    @Override
+    public long nextCandidatePos(long addr, long pos, long key) {
+        return slots.nextCandidatePos(addr, pos, key);
+    }
+
+    @Override
+    long indexToPos(long index) {
+        return slots.indexToPos(index);
+    }
+
+    @Override
+    public long step(long pos) {
+        return slots.step(pos);
+    }
+
+    @Override
+    public long stepBack(long pos) {
+        return slots.stepBack(pos);
+    }
+
+    @Override
+    public long readEntry(long addr, long pos) {
+        return slots.readEntry(addr, pos);
+    }
+
+    @Override
+    public long readEntryVolatile(long addr, long pos) {
+        return slots.readEntryVolatile(addr, pos);
+    }
+
+    @Override
+    public void writeEntryVolatile(long addr, long pos, long key, long value) {
+        slots.writeEntryVolatile(addr, pos, key, value);
+    }
+
+    @Override
+    public void writeEntry(long addr, long pos, long newEntry) {
+        slots.writeEntry(addr, pos, newEntry);
+    }
+
+    @Override
+    public void clearEntry(long addr, long pos) {
+        slots.clearEntry(addr, pos);
+    }
+}
@@ -39,6 +39,12 @@ public enum TierCountersArea {
     public static final long TIER_OFFSET = SEGMENT_INDEX_OFFSET + 4L;
     public static final long ENTRIES_OFFSET = TIER_OFFSET + 4L;
     public static final long DELETED_OFFSET = ENTRIES_OFFSET + 4L;
+    /**
+     * The following fields are used only in the counters area of the first tier of a segment, if
+     * the segment grows by splitting tiers, see {@link GrowingSegments}
+     */
+    public static final long LAST_TIER_OFFSET = DELETED_OFFSET + 4L;
+    public static final long MISPLACED_ENTRIES_OFFSET = LAST_TIER_OFFSET + 4L;
 
     public static long nextTierIndex(long address) {
         return memory.readLong(address + NEXT_TIER_INDEX_OFFSET);
@@ -104,4 +110,24 @@ public enum TierCountersArea {
         }
         memory.writeInt(address + DELETED_OFFSET, (int) deleted);
     }
+
+    /**
+     * Read volatile, because read under the segment read lock, concurrently with tier allocation
+     * under the update lock, see {@link GrowingSegments#homeTier(int, long)}
+     */
+    public static int lastTier(long address) {
+        return memory.readVolatileInt(address + LAST_TIER_OFFSET);
+    }
+
+    public static void lastTier(long address, int lastTier) {
+        memory.writeOrderedInt(address + LAST_TIER_OFFSET, lastTier);
+    }
+
+    public static boolean misplacedEntries(long address) {
+        return memory.readVolatileInt(address + MISPLACED_ENTRIES_OFFSET) != 0;
+    }
+
+    public static void misplacedEntries(long address, boolean misplacedEntries) {
+        memory.writeOrderedInt(address + MISPLACED_ENTRIES_OFFSET, misplacedEntries ? 1 : 0);
+    }
 }
@@ -0,0 +1,148 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash.impl;
+
+import net.openhft.chronicle.core.Maths;
+import net.openhft.chronicle.core.Memory;
+import net.openhft.chronicle.core.OS;
+
+import static net.openhft.chronicle.algo.MemoryUnit.BYTES;
+import static net.openhft.chronicle.algo.MemoryUnit.CACHE_LINES;
+
+/**
+ * Counting Bloom filter of the hash lookup keys (search keys) of the entries in a segment tier,
+ * allowing to skip searching tiers, which surely don't contain the key, when the segment has
+ * several tiers. The filter is located in the end of each tier, after the entry space.
+ *
+ * <p>The filter is split into cache line-sized blocks of 128 4-bit counters, each key increments
+ * {@link #COUNTERS_PER_KEY} counters within a single block, so a filter check touches a single
+ * cache line. Saturated counters are never decremented. Updates are performed under the segment
+ * update lock, at least, so they are never concurrent with each other. Removals are performed under
+ * the segment write lock, but additions might be not, e. g. when the key is inserted into an empty
+ * hash lookup slot: concurrent readers could only observe some counters of the key already
+ * incremented, while the key is not yet in the hash lookup, that is a false positive, not a false
+ * negative. The filter of a tier is incremented before the key is inserted into the hash lookup,
+ * and decremented after the key is removed, hence if the process crashes while updating a tier,
+ * the filter could only report false positives. {@link
+ * net.openhft.chronicle.hash.impl.stage.iter.TierRecovery} rebuilds the filter from scratch.
+ */
+public final class TierKeyFilter {
+
+    private static final Memory memory = OS.memory();
+
+    static final int COUNTERS_PER_KEY = 3;
+    private static final int COUNTER_BITS = 4;
+    private static final int MAX_COUNTER = (1 << COUNTER_BITS) - 1;
+    private static final long BLOCK_SIZE = CACHE_LINES.toBytes(1L);
+    private static final int LOG2_COUNTERS_PER_BLOCK = 7;
+    private static final int COUNTERS_PER_BLOCK_MASK = (1 << LOG2_COUNTERS_PER_BLOCK) - 1;
+    private static final int BLOCK_INDEX_SHIFT = 40;
+    private static final long MAX_BLOCKS = 1L << (64 - BLOCK_INDEX_SHIFT);
+
+    /**
+     * Returns the filter size in bytes, giving about 3% false positive probability, when the tier
+     * is full. This is about as large as the tier hash lookup.
+     */
+    public static long sizeFor(long maxEntriesPerHashLookup) {
+        long counters = Maths.nextPower2(maxEntriesPerHashLookup * 8L, 128L);
+        long blocks = Math.min(counters >> LOG2_COUNTERS_PER_BLOCK, MAX_BLOCKS);
+        return CACHE_LINES.align(blocks * BLOCK_SIZE, BYTES);
+    }
+
+    private final long offset;
+    private final long size;
+    private final long blockMask;
+
+    /**
+     * @param offset the offset of the filter from the tier base address
+     * @param size the filter size in bytes, returned from {@link #sizeFor}
+     */
+    public TierKeyFilter(long offset, long size) {
+        this.offset = offset;
+        this.size = size;
+        long blocks = size / BLOCK_SIZE;
+        if (blocks == 0 || blocks > MAX_BLOCKS || Long.bitCount(blocks) != 1)
+            throw new IllegalStateException("Illegal tier key filter size: " + size);
+        this.blockMask = blocks - 1;
+    }
+
+    private static long mix(long searchKey) {
+        // search keys are hash bits, but their low bits determine the position in the hash lookup,
+        // spread all bits
+        long h = searchKey * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    private long blockAddr(long tierBaseAddr, long h) {
+        return tierBaseAddr + offset + ((h >>> BLOCK_INDEX_SHIFT) & blockMask) * BLOCK_SIZE;
+    }
+
+    private static long counterAddr(long blockAddr, long h, int i) {
+        int counter = (int) (h >>> (i * LOG2_COUNTERS_PER_BLOCK)) & COUNTERS_PER_BLOCK_MASK;
+        return blockAddr + (counter >>> 1);
+    }
+
+    private static int counterShift(long h, int i) {
+        return (int) ((h >>> (i * LOG2_COUNTERS_PER_BLOCK)) & 1) * COUNTER_BITS;
+    }
+
+    /**
+     * Returns {@code false}, if the tier surely doesn't contain an entry with the given search key.
+     */
+    public boolean mayContain(long tierBaseAddr, long searchKey) {
+        long h = mix(searchKey);
+        long blockAddr = blockAddr(tierBaseAddr, h);
+        for (int i = 0; i < COUNTERS_PER_KEY; i++) {
+            int b = memory.readByte(counterAddr(blockAddr, h, i));
+            if (((b >>> counterShift(h, i)) & MAX_COUNTER) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    public void add(long tierBaseAddr, long searchKey) {
+        long h = mix(searchKey);
+        long blockAddr = blockAddr(tierBaseAddr, h);
+        for (int i = 0; i < COUNTERS_PER_KEY; i++) {
+            long addr = counterAddr(blockAddr, h, i);
+            int shift = counterShift(h, i);
+            int b = memory.readByte(addr);
+            if (((b >>> shift) & MAX_COUNTER) != MAX_COUNTER)
+                memory.writeByte(addr, (byte) (b + (1 << shift)));
+        }
+    }
+
+    public void remove(long tierBaseAddr, long searchKey) {
+        long h = mix(searchKey);
+        long blockAddr = blockAddr(tierBaseAddr, h);
+        for (int i = 0; i < COUNTERS_PER_KEY; i++) {
+            long addr = counterAddr(blockAddr, h, i);
+            int shift = counterShift(h, i);
+            int b = memory.readByte(addr);
+            int counter = (b >>> shift) & MAX_COUNTER;
+            // don't decrement saturated counters, the actual count is unknown. Zero counter
+            // means the filter is inconsistent, leave it as is until recovery
+            if (counter != MAX_COUNTER && counter != 0)
+                memory.writeByte(addr, (byte) (b - (1 << shift)));
+        }
+    }
+
+    public void clear(long tierBaseAddr) {
+        memory.setMemory(tierBaseAddr + offset, size, (byte) 0);
+    }
+}
@@ -17,6 +17,7 @@
 
 package net.openhft.chronicle.hash.impl;
 
+import net.openhft.chronicle.algo.hashing.LongHashFunction;
 import net.openhft.chronicle.algo.locks.*;
 import net.openhft.chronicle.bytes.BytesStore;
 import net.openhft.chronicle.bytes.MappedBytesStoreFactory;
@@ -27,8 +28,10 @@ import net.openhft.chronicle.core.OS;
 import net.openhft.chronicle.hash.*;
 import net.openhft.chronicle.hash.impl.stage.hash.ChainingInterface;
 import net.openhft.chronicle.hash.impl.util.BuildVersion;
+import net.openhft.chronicle.hash.impl.util.jna.LinuxFutex;
 import net.openhft.chronicle.hash.impl.util.jna.PosixMsync;
 import net.openhft.chronicle.hash.impl.util.jna.WindowsMsync;
+import net.openhft.chronicle.hash.locks.SegmentLockPolicy;
 import net.openhft.chronicle.hash.serialization.DataAccess;
 import net.openhft.chronicle.hash.serialization.SizeMarshaller;
 import net.openhft.chronicle.hash.serialization.SizedReader;
@@ -54,6 +57,7 @@ import java.util.concurrent.TimeUnit;
 
 import static java.lang.Long.numberOfTrailingZeros;
 import static java.lang.Math.max;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
 import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
 import static net.openhft.chronicle.algo.MemoryUnit.*;
 import static net.openhft.chronicle.algo.bytes.Access.nativeAccess;
@@ -78,6 +82,10 @@ public abstract class VanillaChronicleHash<K,
     // If the hash was created in the first place, or read from disk
     public transient boolean createdOrInMemory;
 
+    /////////////////////////////////////////////////
+    // If the hash is mapped read-only, see initReadOnly()
+    public transient boolean readOnly;
+
     /////////////////////////////////////////////////
     // Key Data model
     public Class<K> keyClass;
@@ -89,10 +97,66 @@ public abstract class VanillaChronicleHash<K,
     // Checksum entries
     public boolean checksumEntries;
 
+    /////////////////////////////////////////////////
+    // Segment locking
+    /**
+     * If {@code true}, segment headers maintain a version stamp, allowing lock-free optimistic
+     * reads. This flag is persisted, because all processes accessing the Chronicle Hash should
+     * update the version, if some of them read optimistically.
+     *
+     * @see VersionedSegmentHeader
+     */
+    public boolean optimisticReads;
+    /**
+     * If {@code true}, threads, waiting for segment locks, block on futex. This flag is persisted,
+     * because all processes accessing the Chronicle Hash should wake blocked waiters on unlock.
+     *
+     * @see FutexSegmentHeader
+     */
+    public boolean futexLockWaits;
+    /**
+     * If {@code true}, threads, waiting for segment locks, park with back-off, and are unparked by
+     * unlocking threads of the same JVM. Persisted, so that all processes, accessing the Chronicle
+     * Hash, wait for segment locks in the same way.
+     *
+     * @see ParkingSegmentHeader
+     */
+    public boolean parkingLockWaits;
+    /**
+     * If {@code true}, segment headers include lock contention stats, updated on each lock
+     * acquisition. This flag is persisted, because segment header size depends on it, and all
+     * processes accessing the Chronicle Hash should update the stats.
+     *
+     * @see LockStatsSegmentHeader
+     */
+    public boolean lockContentionStats;
+    /**
+     * The policy of granting segment locks to waiters. Persisted, because all processes
+     * accessing the Chronicle Hash should follow the same locking protocol.
+     *
+     * @see WriterPreferringSegmentHeader
+     */
+    public SegmentLockPolicy lockPolicy;
+    /**
+     * If {@code true}, segment headers record the process, holding the update or write lock, and
+     * waiters recover segments, whose lock holder died. Persisted, because all processes accessing
+     * the Chronicle Hash should record the lock ownership.
+     *
+     * @see DeadOwnerRecoveringSegmentHeader
+     */
+    public boolean deadOwnerLockRecovery;
+
     /////////////////////////////////////////////////
     // Concurrency (number of segments), memory management and dependent fields
     public int actualSegments;
     public HashSplitting hashSplitting;
+    /**
+     * Hashes keys for choosing segments and hash lookup slots. Persisted, because all processes
+     * accessing the Chronicle Hash, and recovery, should hash keys in the same way.
+     */
+    public KeyHashing keyHashing;
+    /** {@link KeyHashing#hashFunction()} of {@link #keyHashing} */
+    public transient LongHashFunction keyHashFunction;
 
     public long chunkSize;
     public int maxChunksPerEntry;
@@ -109,6 +173,18 @@ public abstract class VanillaChronicleHash<K,
     public long maxEntriesPerHashLookup;
     long tierHashLookupInnerSize;
     public long tierHashLookupOuterSize;
+    /**
+     * If {@code true}, the hash lookup of each tier maintains control bytes after the slots.
+     *
+     * @see GroupedCompactOffHeapLinearHashTable
+     */
+    public boolean hashLookupControlBytes;
+    /**
+     * If {@code true}, entries are inserted into hash lookups in Robin Hood order.
+     *
+     * @see RobinHoodCompactOffHeapLinearHashTable
+     */
+    public boolean robinHoodHashLookup;
 
     public long tierFreeListInnerSize;
     public long tierFreeListOuterSize;
@@ -117,9 +193,27 @@ public abstract class VanillaChronicleHash<K,
     public int tierEntrySpaceInnerOffset;
     long tierEntrySpaceOuterSize;
 
+    /**
+     * The size of {@link TierKeyFilter} in the end of each tier, 0 if tier key filters are
+     * disabled
+     */
+    public long tierKeyFilterSize;
+
+    /**
+     * The size of {@link EntryLocks} bits in the end of each tier, after the key filter, 0 if
+     * entry locks are disabled
+     */
+    public long tierEntryLocksSize;
+
     public long tierSize;
 
     long maxExtraTiers;
+    /**
+     * If {@code true}, segments grow by splitting tiers, and each key is searched in a single tier.
+     *
+     * @see GrowingSegments
+     */
+    public boolean segmentGrowth;
     long tierBulkSizeInBytes;
     long tierBulkInnerOffsetToTiers;
     public long tiersInBulk;
@@ -156,6 +250,18 @@ public abstract class VanillaChronicleHash<K,
 
     public transient CompactOffHeapLinearHashTable hashLookup;
 
+    public transient SegmentHeader segmentHeader;
+
+    /**
+     * {@code null} if tier key filters are disabled
+     */
+    public transient TierKeyFilter tierKeyFilter;
+
+    /**
+     * {@code null} if segments don't grow by splitting tiers
+     */
+    public transient GrowingSegments growingSegments;
+
     protected transient volatile boolean closed;
     private transient Object closeLock;
 
@@ -195,6 +301,7 @@ public abstract class VanillaChronicleHash<K,
 
         actualSegments = privateAPI.actualSegments();
         hashSplitting = HashSplitting.forSegments(actualSegments);
+        keyHashing = privateAPI.keyHashing();
 
         chunkSize = privateAPI.chunkSize();
         maxChunksPerEntry = privateAPI.maxChunksPerEntry();
@@ -214,7 +321,12 @@ public abstract class VanillaChronicleHash<K,
         tierHashLookupCapacity = privateAPI.tierHashLookupCapacity();
         maxEntriesPerHashLookup = (long) (tierHashLookupCapacity * MAX_LOAD_FACTOR);
         tierHashLookupInnerSize = tierHashLookupCapacity * tierHashLookupSlotSize;
-        tierHashLookupOuterSize = CACHE_LINES.align(tierHashLookupInnerSize, BYTES);
+        hashLookupControlBytes = privateAPI.hashLookupControlBytes();
+        robinHoodHashLookup = privateAPI.robinHoodHashLookup();
+        long controlBytesSize = hashLookupControlBytes ?
+                GroupedCompactOffHeapLinearHashTable.controlBytesSize(tierHashLookupCapacity) : 0L;
+        tierHashLookupOuterSize =
+                CACHE_LINES.align(tierHashLookupInnerSize + controlBytesSize, BYTES);
 
         tierFreeListInnerSize = LONGS.align(
                 BYTES.alignAndConvert(actualChunksPerSegmentTier, BITS), BYTES);
@@ -225,20 +337,47 @@ public abstract class VanillaChronicleHash<K,
         tierEntrySpaceOuterSize = CACHE_LINES.align(
                 tierEntrySpaceInnerOffset + tierEntrySpaceInnerSize, BYTES);
 
+        tierKeyFilterSize = privateAPI.tierKeyFilters() ?
+                TierKeyFilter.sizeFor(maxEntriesPerHashLookup) : 0L;
+
+        // one lock bit per chunk, the same as the free list
+        tierEntryLocksSize = privateAPI.entryLocks() ? tierFreeListOuterSize : 0L;
+
         tierSize = tierSize();
 
         maxExtraTiers = privateAPI.maxExtraTiers();
+        segmentGrowth = privateAPI.segmentGrowth();
         tiersInBulk = computeNumberOfTiersInBulk();
         log2TiersInBulk = Maths.intLog2(tiersInBulk);
         tierBulkInnerOffsetToTiers = computeTierBulkInnerOffsetToTiers(tiersInBulk);
         tierBulkSizeInBytes = computeTierBulkBytesSize(tiersInBulk);
 
         checksumEntries = privateAPI.checksumEntries();
+
+        optimisticReads = privateAPI.optimisticReads();
+        futexLockWaits = privateAPI.futexLockWaits();
+        parkingLockWaits = privateAPI.parkingLockWaits();
+        if (futexLockWaits && parkingLockWaits) {
+            throw new IllegalStateException(
+                    "Futex lock waits and parking lock waits are mutually exclusive");
+        }
+        lockContentionStats = privateAPI.lockContentionStats();
+        lockPolicy = privateAPI.lockPolicy();
+        if (futexLockWaits && lockPolicy != SegmentLockPolicy.VANILLA) {
+            throw new IllegalStateException("Futex lock waits are supported only with " +
+                    "SegmentLockPolicy.VANILLA, " + lockPolicy + " is configured");
+        }
+        if (parkingLockWaits && lockPolicy != SegmentLockPolicy.VANILLA) {
+            throw new IllegalStateException("Parking lock waits are supported only with " +
+                    "SegmentLockPolicy.VANILLA, " + lockPolicy + " is configured");
+        }
+        deadOwnerLockRecovery = privateAPI.deadOwnerLockRecovery();
     }
 
     @Override
     public void readMarshallable(@NotNull WireIn wire) {
         readMarshallableFields(wire);
+        readMarshallableTrailingFields(wire);
         initTransients();
     }
 
@@ -290,8 +429,37 @@ public abstract class VanillaChronicleHash<K,
         log2TiersInBulk = wireIn.read(() -> "log2TiersInBulk").int32();
     }
 
+    /**
+     * Fields, added to the persisted configuration after Chronicle Map 3.8, are written after all
+     * subclass fields, because reading a field, that is absent in the middle of the configuration
+     * (written by an older version of the library), breaks reading of the following fields.
+     * Absent trailing fields are read as default values.
+     */
+    private void readMarshallableTrailingFields(@NotNull WireIn wireIn) {
+        optimisticReads = wireIn.read(() -> "optimisticReads").bool();
+        tierKeyFilterSize = wireIn.read(() -> "tierKeyFilterSize").int64();
+        hashLookupControlBytes = wireIn.read(() -> "hashLookupControlBytes").bool();
+        robinHoodHashLookup = wireIn.read(() -> "robinHoodHashLookup").bool();
+        tierEntryLocksSize = wireIn.read(() -> "tierEntryLocksSize").int64();
+        futexLockWaits = wireIn.read(() -> "futexLockWaits").bool();
+        lockContentionStats = wireIn.read(() -> "lockContentionStats").bool();
+        String lockPolicyName = wireIn.read(() -> "lockPolicy").text();
+        lockPolicy = lockPolicyName == null || lockPolicyName.isEmpty() ?
+                SegmentLockPolicy.VANILLA : SegmentLockPolicy.valueOf(lockPolicyName);
+        deadOwnerLockRecovery = wireIn.read(() -> "deadOwnerLockRecovery").bool();
+        parkingLockWaits = wireIn.read(() -> "parkingLockWaits").bool();
+        KeyHashing keyHashing = wireIn.read(() -> "keyHashing").typedMarshallable();
+        this.keyHashing = keyHashing != null ? keyHashing : KeyHashing.xxHash();
+        segmentGrowth = wireIn.read(() -> "segmentGrowth").bool();
+    }
+
     @Override
-    public void writeMarshallable(@NotNull WireOut wireOut) {
+    public final void writeMarshallable(@NotNull WireOut wireOut) {
+        writeMarshallableFields(wireOut);
+        writeMarshallableTrailingFields(wireOut);
+    }
+
+    protected void writeMarshallableFields(@NotNull WireOut wireOut) {
         wireOut.write(() -> "dataFileVersion").text(dataFileVersion);
 
         wireOut.write(() -> "keyClass").typeLiteral(keyClass);
@@ -334,6 +502,21 @@ public abstract class VanillaChronicleHash<K,
         wireOut.write(() -> "log2TiersInBulk").int32(log2TiersInBulk);
     }
 
+    private void writeMarshallableTrailingFields(@NotNull WireOut wireOut) {
+        wireOut.write(() -> "optimisticReads").bool(optimisticReads);
+        wireOut.write(() -> "tierKeyFilterSize").int64(tierKeyFilterSize);
+        wireOut.write(() -> "hashLookupControlBytes").bool(hashLookupControlBytes);
+        wireOut.write(() -> "robinHoodHashLookup").bool(robinHoodHashLookup);
+        wireOut.write(() -> "tierEntryLocksSize").int64(tierEntryLocksSize);
+        wireOut.write(() -> "futexLockWaits").bool(futexLockWaits);
+        wireOut.write(() -> "lockContentionStats").bool(lockContentionStats);
+        wireOut.write(() -> "lockPolicy").text(lockPolicy.name());
+        wireOut.write(() -> "deadOwnerLockRecovery").bool(deadOwnerLockRecovery);
+        wireOut.write(() -> "parkingLockWaits").bool(parkingLockWaits);
+        wireOut.write(() -> "keyHashing").typedMarshallable(keyHashing);
+        wireOut.write(() -> "segmentGrowth").bool(segmentGrowth);
+    }
+
     protected VanillaGlobalMutableState createGlobalMutableState() {
         return Values.newNativeReference(VanillaGlobalMutableState.class);
     }
@@ -344,7 +527,8 @@ public abstract class VanillaChronicleHash<K,
 
     private long tierSize() {
         long segmentSize = tierHashLookupOuterSize + TIER_COUNTERS_AREA_SIZE +
-                tierFreeListOuterSize + tierEntrySpaceOuterSize;
+                tierFreeListOuterSize + tierEntrySpaceOuterSize + tierKeyFilterSize +
+                tierEntryLocksSize;
         if ((segmentSize & 63L) != 0)
             throw new AssertionError();
         return breakL1CacheAssociativityContention(segmentSize);
@@ -388,6 +572,7 @@ public abstract class VanillaChronicleHash<K,
         closeLock = new Object();
         globalMutableState = createGlobalMutableState();
         tierBulkOffsets = new ArrayList<>();
+        keyHashFunction = keyHashing.hashFunction();
         if (tierHashLookupSlotSize == 4) {
             hashLookup = new IntCompactOffHeapLinearHashTable(this);
         } else if (tierHashLookupSlotSize == 8) {
@@ -396,6 +581,57 @@ public abstract class VanillaChronicleHash<K,
             throw new AssertionError("hash lookup slot size could be 4 or 8, " +
                     tierHashLookupSlotSize + " observed");
         }
+        if (hashLookupControlBytes) {
+            hashLookup = new GroupedCompactOffHeapLinearHashTable(
+                    this, hashLookup, tierHashLookupInnerSize);
+        }
+        if (robinHoodHashLookup) {
+            // wraps the grouped table, if any, for control bytes to be updated when Robin Hood
+            // insertion moves entries
+            hashLookup = new RobinHoodCompactOffHeapLinearHashTable(this, hashLookup);
+        }
+        // futex is not available on all platforms, spin waiting is compatible with futex waiting
+        // of other processes
+        boolean futex = futexLockWaits && LinuxFutex.available();
+        SegmentHeader lockingHeader;
+        switch (lockPolicy) {
+            case WRITER_PREFERRING:
+                lockingHeader = WriterPreferringSegmentHeader.INSTANCE;
+                break;
+            case PHASE_FAIR:
+                lockingHeader = WriterPreferringSegmentHeader.PHASE_FAIR_INSTANCE;
+                break;
+            default:
+                if (parkingLockWaits) {
+                    // waiter queues are per map instance
+                    lockingHeader = new ParkingSegmentHeader(this);
+                } else {
+                    lockingHeader =
+                            futex ? FutexSegmentHeader.INSTANCE : BigSegmentHeader.INSTANCE;
+                }
+        }
+        if (deadOwnerLockRecovery)
+            lockingHeader = new DeadOwnerRecoveringSegmentHeader(lockingHeader, this);
+        if (lockContentionStats) {
+            // the version is updated after the write lock is acquired, so waits for the lock
+            // itself are measured
+            SegmentHeader lockStatsHeader = new LockStatsSegmentHeader(lockingHeader);
+            segmentHeader = optimisticReads ?
+                    new VersionedSegmentHeader(lockStatsHeader) : lockStatsHeader;
+        } else if (optimisticReads) {
+            if (lockingHeader == BigSegmentHeader.INSTANCE) {
+                segmentHeader = VersionedSegmentHeader.INSTANCE;
+            } else if (lockingHeader == FutexSegmentHeader.INSTANCE) {
+                segmentHeader = VersionedSegmentHeader.FUTEX_INSTANCE;
+            } else {
+                segmentHeader = new VersionedSegmentHeader(lockingHeader);
+            }
+        } else {
+            segmentHeader = lockingHeader;
+        }
+        tierKeyFilter = tierKeyFilterSize > 0 ?
+                new TierKeyFilter(tierKeyFilterOffset(), tierKeyFilterSize) : null;
+        growingSegments = segmentGrowth ? new GrowingSegments(this) : null;
         allContexts = new ArrayList<>();
         identity = new Identity();
     }
@@ -489,6 +725,25 @@ public abstract class VanillaChronicleHash<K,
         this.cleaner = Cleaner.create(this, resourceReleaser);
     }
 
+    /**
+     * Makes this Chronicle Hash, opened from an existing file, read-only: the file is mapped with
+     * read-only protection, segments are read only optimistically, and all operations, which need
+     * segment locks, throw {@link UnsupportedOperationException}. Must be called before {@link
+     * #createMappedStoreAndSegments}.
+     *
+     * @throws IllegalStateException if the Chronicle Hash doesn't maintain segment versions, which
+     * are needed for validation of optimistic reads
+     */
+    public final void initReadOnly() {
+        if (!optimisticReads) {
+            throw new IllegalStateException("Only Chronicle Hashes, created with optimistic reads " +
+                    "enabled, could be opened read-only, the Chronicle Hash at " + file +
+                    " doesn't maintain segment versions");
+        }
+        readOnly = true;
+        segmentHeader = ReadOnlySegmentHeader.INSTANCE;
+    }
+
     public final void createMappedStoreAndSegments(ChronicleHashResourceReleaser resourceReleaser)
             throws IOException {
         this.resourceReleaser = resourceReleaser;
@@ -591,8 +846,24 @@ public abstract class VanillaChronicleHash<K,
     }
 
     private void zeroOutNewlyMappedTier(BytesStore bytesStore, long tierOffset) {
-        // Zero out hash lookup, tier data and free list bit set. Leave entry space dirty.
-        bytesStore.zeroOut(tierOffset, tierOffset + tierSize - tierEntrySpaceOuterSize);
+        // Zero out hash lookup, tier data, free list bit set, key filter and entry locks. Leave
+        // entry space dirty.
+        long entrySpaceOffset = tierKeyFilterOffset() - tierEntrySpaceOuterSize;
+        bytesStore.zeroOut(tierOffset, tierOffset + entrySpaceOffset);
+        long filterOffset = tierOffset + tierKeyFilterOffset();
+        bytesStore.zeroOut(filterOffset, filterOffset + tierKeyFilterSize + tierEntryLocksSize);
+    }
+
+    private long tierKeyFilterOffset() {
+        return tierHashLookupOuterSize + TIER_COUNTERS_AREA_SIZE + tierFreeListOuterSize +
+                tierEntrySpaceOuterSize;
+    }
+
+    /**
+     * Returns the offset of {@link EntryLocks} bits from the tier base address.
+     */
+    public final long tierEntryLocksOffset() {
+        return tierKeyFilterOffset() + tierKeyFilterSize;
     }
 
     public void onHeaderCreated() {
@@ -664,7 +935,9 @@ public abstract class VanillaChronicleHash<K,
         }
         for (WeakReference<ChainingInterface> contextRef : allContexts) {
             ChainingInterface context = contextRef.get();
-            if (context != null && context.owner().isAlive()) {
+            // pooled contexts don't have an owner, while in the pool
+            Thread owner = context != null ? context.owner() : null;
+            if (context != null && (owner == null || owner.isAlive())) {
                 // Ensures that if the thread owning this context will come to access
                 // chronicleHash concurrently with resource releasing operations below, it will
                 // fail due to the check in context.lockContextLocally() method.
@@ -693,6 +966,13 @@ public abstract class VanillaChronicleHash<K,
         }
     }
 
+    /**
+     * Recovers the tiers of the segment with the given index, after the lock holder process died,
+     * see {@link DeadOwnerRecoveringSegmentHeader}. Must be called when the segment is write-locked
+     * by the calling thread, but not through a context, the recovery doesn't acquire the lock.
+     */
+    public abstract void recoverSegment(int segmentIndex);
+
     public final long segmentHeaderAddress(int segmentIndex) {
         return bsAddress() + segmentHeadersOffset + ((long) segmentIndex) * segmentHeaderSize;
     }
@@ -730,6 +1010,20 @@ public abstract class VanillaChronicleHash<K,
         return actualSegments;
     }
 
+    @Override
+    public SegmentLockStats segmentLockStats(int segmentIndex) {
+        if (segmentIndex < 0 || segmentIndex >= actualSegments) {
+            throw new IndexOutOfBoundsException("segmentIndex " + segmentIndex +
+                    ", segments: " + actualSegments);
+        }
+        if (!lockContentionStats) {
+            throw new IllegalStateException("Lock contention stats are not enabled, " +
+                    "see ChronicleMapBuilder.lockContentionStats()");
+        }
+        checkOpen();
+        return LockStatsSegmentHeader.stats(segmentIndex, segmentHeaderAddress(segmentIndex));
+    }
+
     /**
      * Global mutable state lock doesn't yet need read-write levels and waits;
      * Used the same locking strategy as in segment locks
@@ -819,6 +1113,116 @@ public abstract class VanillaChronicleHash<K,
         }
     }
 
+    /**
+     * Whether empty extra tiers could be unlinked from tier chains of segments and returned to the
+     * free list, see {@link #releaseEmptyTailTiers(int)}. Tiers of growing segments are never
+     * freed, because keys are routed to tiers by their number in the chain, see {@link
+     * GrowingSegments}.
+     */
+    public boolean tiersCouldBeFreed() {
+        return growingSegments == null;
+    }
+
+    /**
+     * Unlinks empty tiers from the end of the tier chain of the segment with the given index, and
+     * returns them to the free list. Must be called when the segment is write-locked.
+     *
+     * <p>The tier is unlinked before it is zeroed out and returned to the free list, if the process
+     * crashes in between, the tier is not in use by any segment, and recovery returns it to the
+     * free list, see {@code SegmentsRecovery}.
+     *
+     * @return the number of freed tiers
+     */
+    public int releaseEmptyTailTiers(int segmentIndex) {
+        long segmentHeaderAddress = segmentHeaderAddress(segmentIndex);
+        long tierIndex = segmentHeader.nextTierIndex(segmentHeaderAddress);
+        if (tierIndex == 0)
+            return 0;
+        long tierCountersAreaAddr;
+        while (true) {
+            tierCountersAreaAddr = tierIndexToBaseAddr(tierIndex) + tierHashLookupOuterSize;
+            long nextTierIndex = TierCountersArea.nextTierIndex(tierCountersAreaAddr);
+            if (nextTierIndex == 0)
+                break;
+            tierIndex = nextTierIndex;
+        }
+        int freedTiers = 0;
+        while (TierCountersArea.entries(tierCountersAreaAddr) == 0) {
+            long prevTierIndex = TierCountersArea.prevTierIndex(tierCountersAreaAddr);
+            boolean prevTierIsFirst = prevTierIndex == segmentIndex + 1; // tiers are 1-counted
+            if (prevTierIsFirst) {
+                segmentHeader.nextTierIndex(segmentHeaderAddress, 0);
+            } else {
+                tierCountersAreaAddr = tierIndexToBaseAddr(prevTierIndex) + tierHashLookupOuterSize;
+                TierCountersArea.nextTierIndex(tierCountersAreaAddr, 0);
+            }
+            freeTier(tierIndex);
+            freedTiers++;
+            if (prevTierIsFirst)
+                break;
+            tierIndex = prevTierIndex;
+        }
+        return freedTiers;
+    }
+
+    /**
+     * Zeroes out the given extra tier, which is already unlinked from the tier chain of its
+     * segment, and pushes it to the free list.
+     */
+    public void freeTier(long tierIndex) {
+        zeroOutNewlyMappedTier(tierBytesStore(tierIndex), tierBytesOffset(tierIndex));
+        long tierCountersAreaAddr = tierIndexToBaseAddr(tierIndex) + tierHashLookupOuterSize;
+        globalMutableStateLock();
+        try {
+            TierCountersArea.nextTierIndex(tierCountersAreaAddr,
+                    globalMutableState.getFirstFreeTierIndex());
+            globalMutableState.setFirstFreeTierIndex(tierIndex);
+            long tiersInUse = globalMutableState.getExtraTiersInUse();
+            if (tiersInUse <= 0)
+                throw new RuntimeException("unexpected extraTiersInUse value " + tiersInUse);
+            globalMutableState.setExtraTiersInUse(tiersInUse - 1);
+        } finally {
+            globalMutableStateUnlock();
+        }
+    }
+
+    /**
+     * Inserts the entry with the given search key and position into the hash lookup (and the key
+     * filter, if configured) of the tier with the given base address, when an entry is moved
+     * between tiers. The tier shouldn't contain an entry with the same key.
+     */
+    public void insertHashLookupEntry(long tierBaseAddr, long searchKey, long pos) {
+        CompactOffHeapLinearHashTable hl = hashLookup;
+        long hlPos = hl.hlPos(searchKey);
+        while (true) {
+            hlPos = hl.nextCandidatePos(tierBaseAddr, hlPos, searchKey);
+            long hlEntry = hl.readEntry(tierBaseAddr, hlPos);
+            if (hl.empty(hlEntry) || hl.searchCouldStop(hlPos, hlEntry, searchKey))
+                break;
+            hlPos = hl.step(hlPos);
+        }
+        hlPos = hl.insertPos(tierBaseAddr, hlPos, searchKey);
+        if (tierKeyFilter != null)
+            tierKeyFilter.add(tierBaseAddr, searchKey);
+        hl.insert(tierBaseAddr, hlPos, searchKey, pos);
+    }
+
+    /**
+     * Removes the given hash lookup entry from the hash lookup (and the key filter, if
+     * configured) of the tier with the given base address, when an entry is moved between tiers.
+     */
+    public void removeHashLookupEntry(long tierBaseAddr, long hlEntry) {
+        CompactOffHeapLinearHashTable hl = hashLookup;
+        long searchKey = hl.key(hlEntry);
+        long hlPos = hl.hlPos(searchKey);
+        while (hl.readEntry(tierBaseAddr, hlPos) != hlEntry) {
+            hlPos = hl.step(hlPos);
+        }
+        hl.remove(tierBaseAddr, hlPos);
+        if (tierKeyFilter != null)
+            tierKeyFilter.remove(tierBaseAddr, searchKey);
+    }
+
     private void allocateTierBulk() throws IOException {
         int allocatedExtraTierBulks = globalMutableState.getAllocatedExtraTierBulks();
 
@@ -871,17 +1275,23 @@ public abstract class VanillaChronicleHash<K,
 
     public void linkAndZeroOutFreeTiers(long firstTierIndex, long lastTierIndex) {
         for (long tierIndex = firstTierIndex; tierIndex <= lastTierIndex; tierIndex++) {
-            long tierOffset = tierBytesOffset(tierIndex);
-            BytesStore tierBytesStore = tierBytesStore(tierIndex);
-            zeroOutNewlyMappedTier(tierBytesStore, tierOffset);
-            if (tierIndex < lastTierIndex) {
-                long tierCountersAreaOffset = tierOffset + tierHashLookupOuterSize;
-                TierCountersArea.nextTierIndex(tierBytesStore.address(0) + tierCountersAreaOffset,
-                        tierIndex + 1);
-            }
+            linkAndZeroOutFreeTier(tierIndex, tierIndex < lastTierIndex ? tierIndex + 1 : 0);
         }
     }
 
+    /**
+     * Zeroes out the given free tier, and links it to the given next free tier (0 if the tier is
+     * the last in the free list).
+     */
+    public void linkAndZeroOutFreeTier(long tierIndex, long nextFreeTierIndex) {
+        long tierOffset = tierBytesOffset(tierIndex);
+        BytesStore tierBytesStore = tierBytesStore(tierIndex);
+        zeroOutNewlyMappedTier(tierBytesStore, tierOffset);
+        long tierCountersAreaOffset = tierOffset + tierHashLookupOuterSize;
+        TierCountersArea.nextTierIndex(tierBytesStore.address(0) + tierCountersAreaOffset,
+                nextFreeTierIndex);
+    }
+
     public long extraTierIndexToTierIndex(long extraTierIndex) {
         return actualSegments + extraTierIndex + 1;
     }
@@ -982,6 +1392,15 @@ public abstract class VanillaChronicleHash<K,
         mapSize = pageAlign(mapSize);
         long minFileSize = mappingOffsetInFile + mapSize;
         FileChannel fileChannel = raf.getChannel();
+        if (readOnly) {
+            if (fileChannel.size() < minFileSize) {
+                throw new IOException("The file " + file + " is shorter than expected: " +
+                        fileChannel.size() + ", " + minFileSize + " bytes should be mapped");
+            }
+            long address = OS.map(fileChannel, READ_ONLY, mappingOffsetInFile, mapSize);
+            resourceReleaser.addMemoryResource(address, mapSize);
+            return new NativeBytesStore(address, mapSize, null, false);
+        }
         if (fileChannel.size() < minFileSize) {
             // In MappedFile#acquireByteStore(), this is wrapped with fileLock(), to avoid race
             // condition between processes. This map() method is called either when a new tier is
@@ -1047,7 +1466,10 @@ public abstract class VanillaChronicleHash<K,
                 @Override
                 public boolean contains(Object o) {
                     ChainingInterface context = ((WeakReference<ChainingInterface>) o).get();
-                    return context == null || !context.owner().isAlive();
+                    if (context == null)
+                        return true;
+                    Thread owner = context.owner();
+                    return owner != null && !owner.isAlive();
                 }
 
                 @Override
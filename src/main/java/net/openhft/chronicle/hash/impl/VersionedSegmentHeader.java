@@ -0,0 +1,297 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash.impl;
+
+import net.openhft.chronicle.core.OS;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BigSegmentHeader} with a version stamp (sequence lock), which allows optimistic lock-free
+ * reads. The version is odd while the segment is write-locked, and even otherwise. Writers
+ * increment it right after acquiring the write lock and right before releasing it, readers read the
+ * version, read the segment data without locking, and then {@linkplain #validate(long, int)
+ * validate} that the version hasn't changed.
+ *
+ * <p>The version is stored in the segment header, so it works across processes accessing the same
+ * persisted Chronicle Map, if all of them use this header (it's ensured by persisting {@link
+ * VanillaChronicleHash#optimisticReads} flag).
+ */
+public final class VersionedSegmentHeader implements SegmentHeader {
+    public static final VersionedSegmentHeader INSTANCE =
+            new VersionedSegmentHeader(BigSegmentHeader.INSTANCE);
+    /**
+     * Versioned {@link FutexSegmentHeader}
+     */
+    public static final VersionedSegmentHeader FUTEX_INSTANCE =
+            new VersionedSegmentHeader(FutexSegmentHeader.INSTANCE);
+
+    private final SegmentHeader h;
+
+    static final long VERSION_OFFSET = BigSegmentHeader.DELETED_OFFSET + 4L; // 32-bit
+
+    VersionedSegmentHeader(SegmentHeader h) {
+        this.h = h;
+    }
+
+    /**
+     * Returns the current version of the segment with the given header address. If the returned
+     * version is odd, the segment is write-locked at the moment, optimistic read is not possible.
+     */
+    public static int version(long address) {
+        return OS.memory().readVolatileInt(address + VERSION_OFFSET);
+    }
+
+    /**
+     * Checks that the segment was not modified since the given version was read by {@link
+     * #version(long)} call, i. e. all reads from the segment, performed between {@code version()}
+     * and this call, are consistent.
+     */
+    public static boolean validate(long address, int version) {
+        OS.memory().loadFence();
+        return OS.memory().readVolatileInt(address + VERSION_OFFSET) == version;
+    }
+
+    private static void beginWrite(long address) {
+        long versionAddress = address + VERSION_OFFSET;
+        OS.memory().writeOrderedInt(versionAddress, OS.memory().readInt(versionAddress) + 1);
+        // subsequent writes to the segment shouldn't become visible before the odd version
+        OS.memory().storeFence();
+    }
+
+    private static void endWrite(long address) {
+        long versionAddress = address + VERSION_OFFSET;
+        OS.memory().writeOrderedInt(versionAddress, OS.memory().readInt(versionAddress) + 1);
+    }
+
+    @Override
+    public long entries(long address) {
+        return h.entries(address);
+    }
+
+    @Override
+    public void entries(long address, long size) {
+        h.entries(address, size);
+    }
+
+    @Override
+    public long deleted(long address) {
+        return h.deleted(address);
+    }
+
+    @Override
+    public void deleted(long address, long deleted) {
+        h.deleted(address, deleted);
+    }
+
+    @Override
+    public long lowestPossiblyFreeChunk(long address) {
+        return h.lowestPossiblyFreeChunk(address);
+    }
+
+    @Override
+    public void lowestPossiblyFreeChunk(long address, long lowestPossiblyFreeChunk) {
+        h.lowestPossiblyFreeChunk(address, lowestPossiblyFreeChunk);
+    }
+
+    @Override
+    public long nextTierIndex(long address) {
+        return h.nextTierIndex(address);
+    }
+
+    @Override
+    public void nextTierIndex(long address, long nextTierIndex) {
+        h.nextTierIndex(address, nextTierIndex);
+    }
+
+    @Override
+    public void readLock(long address) {
+        h.readLock(address);
+    }
+
+    @Override
+    public void readLockInterruptibly(long address) throws InterruptedException {
+        h.readLockInterruptibly(address);
+    }
+
+    @Override
+    public boolean tryReadLock(long address) {
+        return h.tryReadLock(address);
+    }
+
+    @Override
+    public boolean tryReadLock(long address, long time, TimeUnit unit)
+            throws InterruptedException {
+        return h.tryReadLock(address, time, unit);
+    }
+
+    @Override
+    public void updateLock(long address) {
+        h.updateLock(address);
+    }
+
+    @Override
+    public void updateLockInterruptibly(long address) throws InterruptedException {
+        h.updateLockInterruptibly(address);
+    }
+
+    @Override
+    public boolean tryUpdateLock(long address) {
+        return h.tryUpdateLock(address);
+    }
+
+    @Override
+    public boolean tryUpdateLock(long address, long time, TimeUnit unit)
+            throws InterruptedException {
+        return h.tryUpdateLock(address, time, unit);
+    }
+
+    @Override
+    public void writeLock(long address) {
+        h.writeLock(address);
+        beginWrite(address);
+    }
+
+    @Override
+    public void writeLockInterruptibly(long address) throws InterruptedException {
+        h.writeLockInterruptibly(address);
+        beginWrite(address);
+    }
+
+    @Override
+    public boolean tryWriteLock(long address) {
+        if (h.tryWriteLock(address)) {
+            beginWrite(address);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean tryWriteLock(long address, long time, TimeUnit unit)
+            throws InterruptedException {
+        if (h.tryWriteLock(address, time, unit)) {
+            beginWrite(address);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean tryUpgradeReadToUpdateLock(long address) {
+        return h.tryUpgradeReadToUpdateLock(address);
+    }
+
+    @Override
+    public boolean tryUpgradeReadToWriteLock(long address) {
+        if (h.tryUpgradeReadToWriteLock(address)) {
+            beginWrite(address);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void upgradeUpdateToWriteLock(long address) {
+        h.upgradeUpdateToWriteLock(address);
+        beginWrite(address);
+    }
+
+    @Override
+    public void upgradeUpdateToWriteLockInterruptibly(long address) throws InterruptedException {
+        h.upgradeUpdateToWriteLockInterruptibly(address);
+        beginWrite(address);
+    }
+
+    @Override
+    public boolean tryUpgradeUpdateToWriteLock(long address) {
+        if (h.tryUpgradeUpdateToWriteLock(address)) {
+            beginWrite(address);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean tryUpgradeUpdateToWriteLock(long address, long time, TimeUnit unit)
+            throws InterruptedException {
+        if (h.tryUpgradeUpdateToWriteLock(address, time, unit)) {
+            beginWrite(address);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void readUnlock(long address) {
+        h.readUnlock(address);
+    }
+
+    @Override
+    public void updateUnlock(long address) {
+        h.updateUnlock(address);
+    }
+
+    @Override
+    public void downgradeUpdateToReadLock(long address) {
+        h.downgradeUpdateToReadLock(address);
+    }
+
+    @Override
+    public void writeUnlock(long address) {
+        endWrite(address);
+        h.writeUnlock(address);
+    }
+
+    @Override
+    public void downgradeWriteToUpdateLock(long address) {
+        endWrite(address);
+        h.downgradeWriteToUpdateLock(address);
+    }
+
+    @Override
+    public void downgradeWriteToReadLock(long address) {
+        endWrite(address);
+        h.downgradeWriteToReadLock(address);
+    }
+
+    @Override
+    public void resetLock(long address) {
+        h.resetLock(address);
+        // if the write lock holder has died, the version might be left odd
+        long versionAddress = address + VERSION_OFFSET;
+        int version = OS.memory().readInt(versionAddress);
+        if ((version & 1) != 0)
+            OS.memory().writeOrderedInt(versionAddress, version + 1);
+    }
+
+    @Override
+    public long resetLockState() {
+        return h.resetLockState();
+    }
+
+    @Override
+    public long getLockState(long address) {
+        return h.getLockState(address);
+    }
+
+    @Override
+    public String lockStateToString(long lockState) {
+        return h.lockStateToString(lockState);
+    }
+}
@@ -0,0 +1,487 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash.impl;
+
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.hash.locks.SegmentLockPolicy;
+
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static net.openhft.chronicle.hash.impl.BigSegmentHeader.*;
+
+/**
+ * {@link BigSegmentHeader} with {@link SegmentLockPolicy#WRITER_PREFERRING} or {@link
+ * SegmentLockPolicy#PHASE_FAIR} lock policy. The lock word is the same as in {@code
+ * BigSegmentHeader}.
+ *
+ * <p>With the writer-preferring policy, threads, waiting for the update lock, register wait in the
+ * lock word (the same as write lock waiters), preventing new acquisitions of read and update
+ * locks.
+ *
+ * <p>With the phase-fair policy, readers, that failed to acquire the read lock, because it was
+ * write-locked or writers waited for it, register in the reader phase word of the segment header
+ * (the number of blocked readers and the phase number, 32 bits each) and wait. The write lock
+ * holder, releasing (or downgrading) the lock, advances the phase and converts the write lock to
+ * read locks of all blocked readers at once, so they are not overtaken by waiting writers. Update
+ * lock waiters don't register wait, because they don't exclude readers. Segment headers should be
+ * at least 64 bytes.
+ */
+public final class WriterPreferringSegmentHeader implements SegmentHeader {
+    public static final WriterPreferringSegmentHeader INSTANCE =
+            new WriterPreferringSegmentHeader(false);
+    public static final WriterPreferringSegmentHeader PHASE_FAIR_INSTANCE =
+            new WriterPreferringSegmentHeader(true);
+
+    private static final BigSegmentHeader H = BigSegmentHeader.INSTANCE;
+
+    /**
+     * After the {@link FutexSegmentHeader} waiters count, aligned to 8 bytes
+     */
+    static final long READER_PHASE_OFFSET = FutexSegmentHeader.FUTEX_WAITERS_OFFSET + 8L;
+
+    private static final int COUNT_WORD_SHIFT =
+            ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 0 : 32;
+    private static final int WAIT_WORD_SHIFT = 32 - COUNT_WORD_SHIFT;
+    private static final long UNSIGNED_INT_MASK = 0xFFFFFFFFL;
+
+    private static final int READ_MASK = (1 << 30) - 1;
+    private static final int UPDATE_PARTY = 1 << 30;
+    private static final int WRITE_LOCKED_COUNT_WORD = Integer.MIN_VALUE;
+
+    private final boolean phaseFair;
+
+    private WriterPreferringSegmentHeader(boolean phaseFair) {
+        this.phaseFair = phaseFair;
+    }
+
+    private static long lockWord(long address) {
+        return OS.memory().readVolatileLong(address + LOCK_OFFSET);
+    }
+
+    private static int countWord(long lockWord) {
+        return (int) (lockWord >> COUNT_WORD_SHIFT);
+    }
+
+    private static int waitWord(long lockWord) {
+        return (int) (lockWord >> WAIT_WORD_SHIFT);
+    }
+
+    private static long lockWord(int countWord, int waitWord) {
+        return ((countWord & UNSIGNED_INT_MASK) << COUNT_WORD_SHIFT) |
+                ((waitWord & UNSIGNED_INT_MASK) << WAIT_WORD_SHIFT);
+    }
+
+    private static boolean casLockWord(long address, long expected, long newLockWord) {
+        return OS.memory().compareAndSwapLong(address + LOCK_OFFSET, expected, newLockWord);
+    }
+
+    private static boolean writeLocked(int countWord) {
+        return countWord == WRITE_LOCKED_COUNT_WORD;
+    }
+
+    /**
+     * Counterpart of {@code tryWriteLockAndDeregisterWait()} of the locking strategy, for the
+     * update lock.
+     */
+    private static boolean tryUpdateLockAndDeregisterWait(long address) {
+        long lockWord = lockWord(address);
+        int countWord = countWord(lockWord);
+        if ((countWord & UPDATE_PARTY) != 0 || writeLocked(countWord))
+            return false;
+        int waitWord = waitWord(lockWord);
+        if (waitWord <= 0)
+            throw new IllegalMonitorStateException("Wait underflow");
+        return casLockWord(address, lockWord,
+                lockWord(countWord + UPDATE_PARTY, waitWord - 1));
+    }
+
+    private static boolean tryUpdateLockWithWaits(
+            long address, long timeInNanos, boolean interruptible) throws InterruptedException {
+        long end = System.nanoTime() + timeInNanos;
+        registerWait(address);
+        do {
+            if (tryUpdateLockAndDeregisterWait(address))
+                return true;
+            if (interruptible && Thread.interrupted()) {
+                deregisterWait(address);
+                throw new InterruptedException();
+            }
+        } while (System.nanoTime() - end <= 0);
+        deregisterWait(address);
+        return false;
+    }
+
+    /////////////////////////////////////////////////
+    // Reader phases
+
+    private static long readerPhaseWord(long address) {
+        return OS.memory().readVolatileLong(address + READER_PHASE_OFFSET);
+    }
+
+    private static int blockedReaders(long readerPhaseWord) {
+        return (int) readerPhaseWord;
+    }
+
+    private static int phase(long readerPhaseWord) {
+        return (int) (readerPhaseWord >>> 32);
+    }
+
+    private static boolean casReaderPhaseWord(long address, long expected, long newWord) {
+        return OS.memory().compareAndSwapLong(address + READER_PHASE_OFFSET, expected, newWord);
+    }
+
+    /**
+     * Returns the phase, in which the reader is registered as blocked.
+     */
+    private static int registerBlockedReader(long address) {
+        while (true) {
+            long word = readerPhaseWord(address);
+            if (casReaderPhaseWord(address, word, word + 1))
+                return phase(word);
+        }
+    }
+
+    /**
+     * Returns {@code false} if the phase is already advanced, i. e. the read lock is granted to
+     * the blocked reader.
+     */
+    private static boolean deregisterBlockedReader(long address, int phase) {
+        while (true) {
+            long word = readerPhaseWord(address);
+            if (phase(word) != phase)
+                return false;
+            if (casReaderPhaseWord(address, word, word - 1))
+                return true;
+        }
+    }
+
+    /**
+     * The phase is advanced before the write lock is converted into read locks, wait until that.
+     */
+    private static void awaitGrantedReadLock(long address) {
+        while (writeLocked(countWord(lockWord(address)))) {
+            // spin
+        }
+    }
+
+    private static boolean tryReadLockWithPhases(
+            long address, long timeInNanos, boolean interruptible) throws InterruptedException {
+        long end = System.nanoTime() + timeInNanos;
+        while (true) {
+            if (H.tryReadLock(address))
+                return true;
+            int phase = registerBlockedReader(address);
+            while (true) {
+                if (phase(readerPhaseWord(address)) != phase) {
+                    awaitGrantedReadLock(address);
+                    return true;
+                }
+                long lockWord = lockWord(address);
+                boolean writePhasePending =
+                        writeLocked(countWord(lockWord)) || waitWord(lockWord) != 0;
+                boolean timedOut = System.nanoTime() - end > 0;
+                boolean interrupted = interruptible && Thread.interrupted();
+                if (!writePhasePending || timedOut || interrupted) {
+                    if (!deregisterBlockedReader(address, phase)) {
+                        awaitGrantedReadLock(address);
+                        if (!interrupted)
+                            return true;
+                        H.readUnlock(address);
+                    }
+                    if (interrupted)
+                        throw new InterruptedException();
+                    if (timedOut)
+                        return false;
+                    break; // the write phase is over without granting, try to lock again
+                }
+            }
+        }
+    }
+
+    /**
+     * Advances the reader phase, if there are blocked readers, and returns the number of them,
+     * which should be added to read lock holders.
+     */
+    private static int startReaderPhase(long address) {
+        while (true) {
+            long word = readerPhaseWord(address);
+            int blockedReaders = blockedReaders(word);
+            if (blockedReaders == 0)
+                return 0;
+            long newWord = ((long) (phase(word) + 1)) << 32;
+            if (casReaderPhaseWord(address, word, newWord))
+                return blockedReaders;
+        }
+    }
+
+    /**
+     * Releases the write lock, replacing it with the given count word plus read locks of readers,
+     * blocked during the write phase.
+     */
+    private static void endWritePhase(long address, int newCountWord) {
+        if (!writeLocked(countWord(lockWord(address))))
+            throw new IllegalMonitorStateException("Expected write lock");
+        int grantedReaders = startReaderPhase(address);
+        while (true) {
+            long lockWord = lockWord(address);
+            int countWord = countWord(lockWord);
+            if ((newCountWord & READ_MASK) + grantedReaders > READ_MASK)
+                throw new IllegalMonitorStateException("Lock count reached the limit");
+            if (casLockWord(address, lockWord,
+                    lockWord(newCountWord + grantedReaders, waitWord(lockWord)))) {
+                return;
+            }
+        }
+    }
+
+    private boolean tryReadLock0(long address, long timeInNanos, boolean interruptible)
+            throws InterruptedException {
+        if (phaseFair) {
+            return tryReadLockWithPhases(address, timeInNanos, interruptible);
+        } else {
+            return H.tryReadLock(address, timeInNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    public long entries(long address) {
+        return H.entries(address);
+    }
+
+    @Override
+    public void entries(long address, long size) {
+        H.entries(address, size);
+    }
+
+    @Override
+    public long deleted(long address) {
+        return H.deleted(address);
+    }
+
+    @Override
+    public void deleted(long address, long deleted) {
+        H.deleted(address, deleted);
+    }
+
+    @Override
+    public long lowestPossiblyFreeChunk(long address) {
+        return H.lowestPossiblyFreeChunk(address);
+    }
+
+    @Override
+    public void lowestPossiblyFreeChunk(long address, long lowestPossiblyFreeChunk) {
+        H.lowestPossiblyFreeChunk(address, lowestPossiblyFreeChunk);
+    }
+
+    @Override
+    public long nextTierIndex(long address) {
+        return H.nextTierIndex(address);
+    }
+
+    @Override
+    public void nextTierIndex(long address, long nextTierIndex) {
+        H.nextTierIndex(address, nextTierIndex);
+    }
+
+    @Override
+    public void readLock(long address) {
+        if (!phaseFair) {
+            H.readLock(address);
+            return;
+        }
+        try {
+            if (!H.tryReadLock(address) &&
+                    !tryReadLockWithPhases(address, SECONDS.toNanos(LOCK_TIMEOUT_SECONDS), false))
+                throw deadLock();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public void readLockInterruptibly(long address) throws InterruptedException {
+        if (!tryReadLock(address, LOCK_TIMEOUT_SECONDS, SECONDS))
+            throw deadLock();
+    }
+
+    @Override
+    public boolean tryReadLock(long address) {
+        return H.tryReadLock(address);
+    }
+
+    @Override
+    public boolean tryReadLock(long address, long time, TimeUnit unit)
+            throws InterruptedException {
+        return H.tryReadLock(address) || tryReadLock0(address, unit.toNanos(time), true);
+    }
+
+    @Override
+    public void updateLock(long address) {
+        if (phaseFair) {
+            H.updateLock(address);
+            return;
+        }
+        try {
+            if (!H.tryUpdateLock(address) &&
+                    !tryUpdateLockWithWaits(address, SECONDS.toNanos(LOCK_TIMEOUT_SECONDS), false))
+                throw deadLock();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public void updateLockInterruptibly(long address) throws InterruptedException {
+        if (!tryUpdateLock(address, LOCK_TIMEOUT_SECONDS, SECONDS))
+            throw deadLock();
+    }
+
+    @Override
+    public boolean tryUpdateLock(long address) {
+        return H.tryUpdateLock(address);
+    }
+
+    @Override
+    public boolean tryUpdateLock(long address, long time, TimeUnit unit)
+            throws InterruptedException {
+        if (phaseFair)
+            return H.tryUpdateLock(address, time, unit);
+        return H.tryUpdateLock(address) ||
+                tryUpdateLockWithWaits(address, unit.toNanos(time), true);
+    }
+
+    @Override
+    public void writeLock(long address) {
+        H.writeLock(address);
+    }
+
+    @Override
+    public void writeLockInterruptibly(long address) throws InterruptedException {
+        H.writeLockInterruptibly(address);
+    }
+
+    @Override
+    public boolean tryWriteLock(long address) {
+        return H.tryWriteLock(address);
+    }
+
+    @Override
+    public boolean tryWriteLock(long address, long time, TimeUnit unit)
+            throws InterruptedException {
+        return H.tryWriteLock(address, time, unit);
+    }
+
+    @Override
+    public boolean tryUpgradeReadToUpdateLock(long address) {
+        return H.tryUpgradeReadToUpdateLock(address);
+    }
+
+    @Override
+    public boolean tryUpgradeReadToWriteLock(long address) {
+        return H.tryUpgradeReadToWriteLock(address);
+    }
+
+    @Override
+    public void upgradeUpdateToWriteLock(long address) {
+        H.upgradeUpdateToWriteLock(address);
+    }
+
+    @Override
+    public void upgradeUpdateToWriteLockInterruptibly(long address) throws InterruptedException {
+        H.upgradeUpdateToWriteLockInterruptibly(address);
+    }
+
+    @Override
+    public boolean tryUpgradeUpdateToWriteLock(long address) {
+        return H.tryUpgradeUpdateToWriteLock(address);
+    }
+
+    @Override
+    public boolean tryUpgradeUpdateToWriteLock(long address, long time, TimeUnit unit)
+            throws InterruptedException {
+        return H.tryUpgradeUpdateToWriteLock(address, time, unit);
+    }
+
+    @Override
+    public void readUnlock(long address) {
+        H.readUnlock(address);
+    }
+
+    @Override
+    public void updateUnlock(long address) {
+        H.updateUnlock(address);
+    }
+
+    @Override
+    public void downgradeUpdateToReadLock(long address) {
+        H.downgradeUpdateToReadLock(address);
+    }
+
+    @Override
+    public void writeUnlock(long address) {
+        if (phaseFair) {
+            endWritePhase(address, 0);
+        } else {
+            H.writeUnlock(address);
+        }
+    }
+
+    @Override
+    public void downgradeWriteToUpdateLock(long address) {
+        if (phaseFair) {
+            endWritePhase(address, UPDATE_PARTY);
+        } else {
+            H.downgradeWriteToUpdateLock(address);
+        }
+    }
+
+    @Override
+    public void downgradeWriteToReadLock(long address) {
+        if (phaseFair) {
+            endWritePhase(address, 1);
+        } else {
+            H.downgradeWriteToReadLock(address);
+        }
+    }
+
+    @Override
+    public void resetLock(long address) {
+        H.resetLock(address);
+        // blocked readers of a crashed process might be left registered. The reader phase word
+        // exists only in phase fair headers, writer preferring headers might be smaller
+        if (phaseFair)
+            OS.memory().writeOrderedLong(address + READER_PHASE_OFFSET, 0L);
+    }
+
+    @Override
+    public long resetLockState() {
+        return H.resetLockState();
+    }
+
+    @Override
+    public long getLockState(long address) {
+        return H.getLockState(address);
+    }
+
+    @Override
+    public String lockStateToString(long lockState) {
+        return H.lockStateToString(lockState);
+    }
+}
@@ -18,6 +18,7 @@
 package net.openhft.chronicle.hash.impl.stage.entry;
 
 import net.openhft.chronicle.hash.impl.CompactOffHeapLinearHashTable;
+import net.openhft.chronicle.hash.impl.TierKeyFilter;
 import net.openhft.chronicle.hash.impl.VanillaChronicleHashHolder;
 import net.openhft.chronicle.hash.impl.stage.query.KeySearch;
 import net.openhft.chronicle.map.impl.stage.entry.MapEntryStages;
@@ -56,10 +57,11 @@ public abstract class HashLookupSearch {
         long pos = hlp.hashLookupPos;
         CompactOffHeapLinearHashTable hl = hl();
         while (true) {
+            pos = hl.nextCandidatePos(addr(), pos, searchKey);
             // read volatile to make a happens-before edge between entry insertion from concurrent
             // thread under update lock and this thread (reading the entry)
             long entry = hl.readEntryVolatile(addr(), pos);
-            if (hl.empty(entry)) {
+            if (hl.empty(entry) || hl.searchCouldStop(pos, entry, searchKey)) {
                 hlp.setHashLookupPos(pos);
                 return -1L;
             }
@@ -80,6 +82,9 @@ public abstract class HashLookupSearch {
 
     public void remove() {
         hlp.setHashLookupPos(hl().remove(addr(), hlp.hashLookupPos));
+        TierKeyFilter filter = hh.h().tierKeyFilter;
+        if (filter != null)
+            filter.remove(addr(), searchKey);
     }
 
     public void putNewVolatile(long entryPos) {
@@ -95,8 +100,27 @@ public abstract class HashLookupSearch {
             e.readExistingEntry(entryPos);
         }
 
-        hl().checkValueForPut(entryPos);
-        hl().writeEntryVolatile(addr(), hlp.hashLookupPos, searchKey, entryPos);
+        CompactOffHeapLinearHashTable hl = hl();
+        hl.checkValueForPut(entryPos);
+        long insertPos = hl.insertPos(addr(), hlp.hashLookupPos, searchKey);
+        if (!hl.empty(hl.readEntry(addr(), insertPos))) {
+            // the insertion moves other entries, concurrent readers might miss them
+            s.innerWriteLock.lock();
+        }
+        TierKeyFilter filter = hh.h().tierKeyFilter;
+        if (filter != null)
+            filter.add(addr(), searchKey);
+        hl.insert(addr(), insertPos, searchKey, entryPos);
+        hlp.setHashLookupPos(insertPos);
+    }
+
+    /**
+     * Returns {@code false}, if the current tier surely doesn't contain the searched key, according
+     * to the {@link TierKeyFilter}.
+     */
+    public boolean tierMayContainSearchKey() {
+        TierKeyFilter filter = hh.h().tierKeyFilter;
+        return filter == null || filter.mayContain(addr(), searchKey);
     }
     
     public boolean checkSlotContainsExpectedKeyAndValue(long value) {
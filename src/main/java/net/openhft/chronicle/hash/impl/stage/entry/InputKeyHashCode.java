@@ -17,7 +17,7 @@
 
 package net.openhft.chronicle.hash.impl.stage.entry;
 
-import net.openhft.chronicle.algo.hashing.LongHashFunction;
+import net.openhft.chronicle.hash.impl.VanillaChronicleHashHolder;
 import net.openhft.chronicle.hash.impl.stage.query.KeySearch;
 import net.openhft.sg.StageRef;
 import net.openhft.sg.Staged;
@@ -25,12 +25,20 @@ import net.openhft.sg.Staged;
 @Staged
 public class InputKeyHashCode implements KeyHashCode {
 
+    @StageRef VanillaChronicleHashHolder<?> hh;
     @StageRef public KeySearch ks;
 
     public long keyHash = 0;
 
     void initKeyHash() {
-        keyHash = ks.inputKey.hash(LongHashFunction.xx_r39());
+        keyHash = ks.inputKey.hash(hh.h().keyHashFunction);
+    }
+
+    /**
+     * Initializes the key hash, precomputed for the input key, e. g. captured by a key handle.
+     */
+    public void initKeyHash(long keyHash) {
+        this.keyHash = keyHash;
     }
 
     @Override
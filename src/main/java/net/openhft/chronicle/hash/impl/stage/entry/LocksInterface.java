@@ -29,6 +29,8 @@ public interface LocksInterface {
 
     void setNestedContextsLockedOnSameSegment(boolean nestedContextsLockedOnSameSegment);
 
+    void setEmptiedTiers(boolean emptiedTiers);
+
     int latestSameThreadSegmentModCount();
 
     int changeAndGetLatestSameThreadSegmentModCount(int change);
@@ -66,7 +66,7 @@ public abstract class SegmentStages implements SegmentLock, LocksInterface {
 
     private void initSegmentHeader() {
         segmentHeaderAddress = hh.h().segmentHeaderAddress(segmentIndex);
-        segmentHeader = BigSegmentHeader.INSTANCE;
+        segmentHeader = hh.h().segmentHeader;
     }
 
     public long tierEntries() {
@@ -161,6 +161,19 @@ public abstract class SegmentStages implements SegmentLock, LocksInterface {
         this.nestedContextsLockedOnSameSegment = nestedContextsLockedOnSameSegment;
     }
 
+    /**
+     * Set in the root context, when some extra tier of the segment becomes empty, so that emptied
+     * tiers are freed, when the root context is unlocked, see
+     * releaseEmptyTailTiersAndWriteUnlock()
+     */
+    @Stage("Locks") boolean emptiedTiers;
+
+    @Override
+    @Stage("Locks")
+    public void setEmptiedTiers(boolean emptiedTiers) {
+        this.emptiedTiers = emptiedTiers;
+    }
+
     @Stage("Locks") public int latestSameThreadSegmentModCount;
 
     @Override
@@ -286,6 +299,7 @@ public abstract class SegmentStages implements SegmentLock, LocksInterface {
         }
         rootContextLockedOnThisSegment = this;
         nestedContextsLockedOnSameSegment = false;
+        emptiedTiers = false;
 
         latestSameThreadSegmentModCount = 0;
         contextModCount = 0;
@@ -384,7 +398,14 @@ public abstract class SegmentStages implements SegmentLock, LocksInterface {
             LocksInterface innermostContextOnThisSegment) {
         // TODO Spoon doesn't replace RHS instanceof occurrences
         if (innermostContextOnThisSegment.getClass() == this.getClass()) {
-            Data key = ((KeySearch) innermostContextOnThisSegment).inputKey;
+            KeySearch innermostKeySearch = (KeySearch) innermostContextOnThisSegment;
+            // query contexts could be initialized with segment index only, without a key, e. g.
+            // to hold the segment lock during bulk updates
+            if (!innermostKeySearch.inputKeyInit() ||
+                    !((KeySearch) (Object) this).inputKeyInit()) {
+                return;
+            }
+            Data key = innermostKeySearch.inputKey;
             if (Objects.equals(key, ((KeySearch) (Object) this).inputKey)) {
                 throw new IllegalStateException("Nested same-thread contexts cannot access " +
                         "the same key " + key);
@@ -425,10 +446,33 @@ public abstract class SegmentStages implements SegmentLock, LocksInterface {
                 segmentHeader.readUnlock(segmentHeaderAddress);
                 return;
             case UPDATE_LOCKED:
-                segmentHeader.updateUnlock(segmentHeaderAddress);
+                // e. g. iteration downgrades the write lock after each removal. Don't wait for
+                // readers to free emptied tiers, they are freed on some later unlocking
+                if (emptiedTiers && hh.h().tiersCouldBeFreed() &&
+                        segmentHeader.tryUpgradeUpdateToWriteLock(segmentHeaderAddress)) {
+                    releaseEmptyTailTiersAndWriteUnlock();
+                } else {
+                    segmentHeader.updateUnlock(segmentHeaderAddress);
+                }
                 return;
             case WRITE_LOCKED:
-                segmentHeader.writeUnlock(segmentHeaderAddress);
+                releaseEmptyTailTiersAndWriteUnlock();
+        }
+    }
+
+    /**
+     * Returns tiers, emptied by removals, to the free list, so that they are not searched by
+     * lookups and could be reused by other segments. Addresses the segment directly, rather than
+     * via the SegmentTier stage, because other stages might be already closed, when the context
+     * is closed.
+     */
+    @Stage("Locks")
+    private void releaseEmptyTailTiersAndWriteUnlock() {
+        try {
+            if (emptiedTiers && hh.h().tiersCouldBeFreed())
+                hh.h().releaseEmptyTailTiers(segmentIndex);
+        } finally {
+            segmentHeader.writeUnlock(segmentHeaderAddress);
         }
     }
 
@@ -585,6 +629,9 @@ public abstract class SegmentStages implements SegmentLock, LocksInterface {
             TierCountersArea.tier(tierCountersAreaAddr(), tier);
             nextTierIndex(0);
             prevTierIndex(prevTierIndex);
+            GrowingSegments growingSegments = h.growingSegments;
+            if (growingSegments != null)
+                growingSegments.tierAppended(segmentIndex, tier, nextTierIndex);
         } else {
             initSegmentTier(tier + 1, nextTierIndex);
         }
@@ -611,6 +658,29 @@ public abstract class SegmentStages implements SegmentLock, LocksInterface {
             prevTier();
         }
     }
+
+    /**
+     * Goes to the given tier of the segment, which should exist. If the segment grows by splitting
+     * tiers, the tier index is taken from {@link GrowingSegments}, rather than the tier chain is
+     * followed.
+     */
+    public void goToTier(int tier) {
+        if (tier == 0) {
+            initSegmentTier();
+            return;
+        }
+        GrowingSegments growingSegments = hh.h().growingSegments;
+        long tierIndex = growingSegments != null ?
+                growingSegments.tierIndex(segmentIndex, tier) : 0L;
+        if (tierIndex != 0L) {
+            initSegmentTier(tier, tierIndex);
+        } else {
+            initSegmentTier();
+            while (this.tier < tier) {
+                nextTier();
+            }
+        }
+    }
     
     @Stage("Segment") public final PointerBytesStore segmentBS = new PointerBytesStore();
     @Stage("Segment") public final Bytes segmentBytes = new VanillaBytes(segmentBS);
@@ -700,7 +770,10 @@ public abstract class SegmentStages implements SegmentLock, LocksInterface {
 
     @Stage("Segment")
     public void free(long fromPos, int chunks) {
-        tierEntries(tierEntries() - 1);
+        long tierEntries = tierEntries() - 1;
+        tierEntries(tierEntries);
+        if (tier > 0 && tierEntries == 0)
+            rootContextLockedOnThisSegment.setEmptiedTiers(true);
         freeList.clearRange(fromPos, fromPos + chunks);
         if (fromPos < lowestPossiblyFreeChunk())
             lowestPossiblyFreeChunk(fromPos);
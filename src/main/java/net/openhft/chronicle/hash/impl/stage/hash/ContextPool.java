@@ -0,0 +1,93 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash.impl.stage.hash;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of idle context chains of a Chronicle Hash, shared by all threads, instead of
+ * caching a context chain per thread. A thread borrows a chain, when it opens the outermost context
+ * of the Chronicle Hash, nested contexts, opened by the same thread, belong to the borrowed chain
+ * (the chain is the value of the thread local, passed to the constructor, during the borrow). The
+ * chain is returned to the pool, when the outermost context is closed, see {@link
+ * ThreadLocalState#unlockContextLocally()}. If the pool already holds {@code maxPooledContexts}
+ * chains, the returned chain is dropped.
+ */
+public final class ContextPool {
+
+    private final int maxPooledContexts;
+    private final ThreadLocal<ChainingInterface> threadContext;
+    // LIFO, the most recently used chain is likely in the CPU cache
+    private final ConcurrentLinkedDeque<ChainingInterface> idleContexts =
+            new ConcurrentLinkedDeque<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    public ContextPool(int maxPooledContexts, ThreadLocal<ChainingInterface> threadContext) {
+        this.maxPooledContexts = maxPooledContexts;
+        this.threadContext = threadContext;
+    }
+
+    /**
+     * Borrows an idle context chain for the current thread, sets it as the thread local context
+     * and returns the root context of the chain, or returns {@code null}, if the pool is empty. A
+     * new chain, created by the caller in this case, should be {@linkplain #register registered}.
+     */
+    public ChainingInterface borrow() {
+        ChainingInterface root = idleContexts.pollFirst();
+        if (root == null)
+            return null;
+        idleCount.decrementAndGet();
+        changeOwner(root, Thread.currentThread());
+        threadContext.set(root);
+        return root;
+    }
+
+    /**
+     * Makes the given new root context to be returned to this pool, when it becomes unused.
+     */
+    public void register(ChainingInterface root) {
+        root.pool = this;
+    }
+
+    void release(ChainingInterface root) {
+        threadContext.remove();
+        // contexts, retained by the thread after closing, fail on access
+        changeOwner(root, null);
+        if (idleCount.incrementAndGet() <= maxPooledContexts) {
+            idleContexts.offerFirst(root);
+        } else {
+            idleCount.decrementAndGet();
+        }
+    }
+
+    private static void changeOwner(ChainingInterface root, Thread owner) {
+        List<ChainingInterface> contextChain = root.getContextChain();
+        for (int i = 0; i < contextChain.size(); i++) {
+            contextChain.get(i).changeOwner(owner);
+        }
+    }
+
+    /**
+     * Returns the number of idle context chains in this pool.
+     */
+    public int idleContexts() {
+        return idleCount.get();
+    }
+}
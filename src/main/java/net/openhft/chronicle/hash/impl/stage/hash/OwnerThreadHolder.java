@@ -24,10 +24,9 @@ import java.util.ConcurrentModificationException;
 @Staged
 public class OwnerThreadHolder {
 
-    final Thread owner = Thread.currentThread();
-
     public void checkAccessingFromOwnerThread() {
-        if (owner != Thread.currentThread()) {
+        // the owner is held by ThreadLocalState, because it could change, see ContextPool
+        if (((ThreadLocalState) (Object) this).owner() != Thread.currentThread()) {
             throw new ConcurrentModificationException(
                     "Context shouldn't be accessed from multiple threads");
         }
@@ -49,6 +49,14 @@ public abstract class ThreadLocalState {
 
     private volatile int contextLock = CONTEXT_UNLOCKED;
     public boolean iterationContextLockedInThisThread;
+    /**
+     * If not null, this context is the root of a pooled context chain, which is returned to the
+     * pool, when the outermost context of the chain is closed.
+     */
+    ContextPool pool;
+    /** The number of open sessions, keeping this root context in the owner thread */
+    private int pins;
+    private Thread owner = Thread.currentThread();
 
     /**
      * Returns {@code true} if this is the outer context lock in this thread, {@code false} if this
@@ -79,6 +87,22 @@ public abstract class ThreadLocalState {
         MEMORY.loadFence();
         // Avoid volatile write to avoid expensive store-load barrier
         MEMORY.writeOrderedInt(this, CONTEXT_LOCK_OFFSET, CONTEXT_UNLOCKED);
+        ContextPool pool = this.pool;
+        if (pool != null && pins == 0)
+            pool.release((ChainingInterface) this);
+    }
+
+    /**
+     * Keeps this root context in the owner thread, i. e. prevents returning it to the {@linkplain
+     * ContextPool pool}, until {@link #unpin()} is called.
+     */
+    public void pin() {
+        pins++;
+    }
+
+    public void unpin() {
+        if (--pins == 0 && pool != null && contextLock == CONTEXT_UNLOCKED)
+            pool.release((ChainingInterface) this);
     }
 
     public void closeContext() {
@@ -133,5 +157,16 @@ public abstract class ThreadLocalState {
                 CONTEXT_UNLOCKED, CONTEXT_CLOSED);
     }
 
-    public abstract Thread owner();
+    public Thread owner() {
+        return owner;
+    }
+
+    /**
+     * Changes the owner thread of this context, when the context chain is {@linkplain
+     * ContextPool borrowed} from or returned to a pool. The owner is {@code null} while the context
+     * is in the pool.
+     */
+    void changeOwner(Thread owner) {
+        this.owner = owner;
+    }
 }
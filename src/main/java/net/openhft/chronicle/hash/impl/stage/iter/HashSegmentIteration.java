@@ -20,6 +20,8 @@ package net.openhft.chronicle.hash.impl.stage.iter;
 import net.openhft.chronicle.hash.HashEntry;
 import net.openhft.chronicle.hash.HashSegmentContext;
 import net.openhft.chronicle.hash.impl.CompactOffHeapLinearHashTable;
+import net.openhft.chronicle.hash.impl.EntryLocks;
+import net.openhft.chronicle.hash.impl.TierKeyFilter;
 import net.openhft.chronicle.hash.impl.VanillaChronicleHashHolder;
 import net.openhft.chronicle.hash.impl.stage.entry.HashEntryStages;
 import net.openhft.chronicle.hash.impl.stage.entry.HashLookupPos;
@@ -106,6 +108,11 @@ public abstract class HashSegmentIteration<K, E extends HashEntry<K>>
         boolean interrupted = false;
         long startPos = 0L;
         CompactOffHeapLinearHashTable hashLookup = hh.h().hashLookup;
+        // values of entries, held by entry locked acquireContext(), are written in place under
+        // the segment read lock, so the entry lock is held while the entry is tested. Waiting for
+        // it under the update lock doesn't deadlock, entry lock holders never take the update lock
+        long entryLocksAddr = hh.h().tierEntryLocksSize > 0 ?
+                currentTierBaseAddr + hh.h().tierEntryLocksOffset() : 0L;
         // volatile read not needed because iteration is performed at least under update lock
         while (!hashLookup.empty(hashLookup.readEntry(currentTierBaseAddr, startPos))) {
             startPos = hashLookup.step(startPos);
@@ -125,9 +132,12 @@ public abstract class HashSegmentIteration<K, E extends HashEntry<K>>
             long entry = hashLookup.readEntry(currentTierBaseAddr, currentHashLookupPos);
             initHashLookupEntry(entry);
             if (!hashLookup.empty(entry)) {
-                e.readExistingEntry(hashLookup.value(entry));
+                long entryPos = hashLookup.value(entry);
+                e.readExistingEntry(entryPos);
                 if (shouldTestEntry()) {
                     initEntryRemovedOnThisIteration(false);
+                    if (entryLocksAddr != 0L)
+                        EntryLocks.lock(entryLocksAddr, entryPos);
                     try {
                         if (!predicate.test((T) entryForIteration())) {
                             interrupted = true;
@@ -137,6 +147,8 @@ public abstract class HashSegmentIteration<K, E extends HashEntry<K>>
                                 break;
                         }
                     } finally {
+                        if (entryLocksAddr != 0L)
+                            EntryLocks.unlock(entryLocksAddr, entryPos);
                         // if doReplaceValue() -> relocation() -> alloc() -> nextTier()
                         // was called, restore the tier we were iterating over
                         if (s.tier != currentTier) {
@@ -195,12 +207,17 @@ public abstract class HashSegmentIteration<K, E extends HashEntry<K>>
     }
 
     public void iterationRemove() {
+        CompactOffHeapLinearHashTable hl = hh.h().hashLookup;
+        long searchKey = hl.key(hl.readEntry(s.tierBaseAddr, hlp.hashLookupPos));
         // this condition mean -- some other entry taken place of the removed one
-        if (hh.h().hashLookup.remove(s.tierBaseAddr, hlp.hashLookupPos) != hlp.hashLookupPos) {
+        if (hl.remove(s.tierBaseAddr, hlp.hashLookupPos) != hlp.hashLookupPos) {
             // if so, should make step back, to compensate step forward on the next iteration,
             // to consume the shifted entry
-            hlp.setHashLookupPos(hh.h().hashLookup.stepBack(hlp.hashLookupPos));
+            hlp.setHashLookupPos(hl.stepBack(hlp.hashLookupPos));
         }
+        TierKeyFilter filter = hh.h().tierKeyFilter;
+        if (filter != null)
+            filter.remove(s.tierBaseAddr, searchKey);
         e.innerRemoveEntryExceptHashLookupUpdate();
     }
 }
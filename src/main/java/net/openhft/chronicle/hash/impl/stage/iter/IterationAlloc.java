@@ -17,6 +17,7 @@
 
 package net.openhft.chronicle.hash.impl.stage.iter;
 
+import net.openhft.chronicle.hash.impl.GrowingSegments;
 import net.openhft.chronicle.hash.impl.stage.entry.Alloc;
 import net.openhft.chronicle.hash.impl.stage.entry.SegmentStages;
 import net.openhft.sg.StageRef;
@@ -37,6 +38,11 @@ public class IterationAlloc implements Alloc {
             s.free(prevPos, prevChunks);
         if (ret >= 0)
             return ret;
+        GrowingSegments growingSegments = s.hh.h().growingSegments;
+        if (growingSegments != null) {
+            // the entry is going to be relocated out of its home tier
+            growingSegments.misplacedEntries(s.segmentIndex, true);
+        }
         while (true) {
             s.nextTier();
             ret = s.allocReturnCode(chunks);
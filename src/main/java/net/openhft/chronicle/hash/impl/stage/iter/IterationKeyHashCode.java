@@ -17,7 +17,6 @@
 
 package net.openhft.chronicle.hash.impl.stage.iter;
 
-import net.openhft.chronicle.algo.hashing.LongHashFunction;
 import net.openhft.chronicle.hash.impl.stage.entry.HashEntryStages;
 import net.openhft.chronicle.hash.impl.stage.entry.KeyHashCode;
 import net.openhft.chronicle.hash.impl.stage.entry.SegmentStages;
@@ -35,7 +34,7 @@ public class IterationKeyHashCode implements KeyHashCode {
     void initKeyHash() {
         long addr = s.tierBaseAddr + e.keyOffset;
         long len = e.keySize;
-        keyHash = LongHashFunction.xx_r39().hashMemory(addr, len);
+        keyHash = s.hh.h().keyHashFunction.hashMemory(addr, len);
     }
 
     @Override
@@ -18,6 +18,7 @@
 package net.openhft.chronicle.hash.impl.stage.iter;
 
 import net.openhft.chronicle.hash.VanillaGlobalMutableState;
+import net.openhft.chronicle.hash.impl.GrowingSegments;
 import net.openhft.chronicle.hash.impl.TierCountersArea;
 import net.openhft.chronicle.hash.impl.VanillaChronicleHash;
 import net.openhft.chronicle.hash.impl.VanillaChronicleHashHolder;
@@ -50,15 +51,21 @@ public abstract class SegmentsRecovery implements IterationContext {
         VanillaGlobalMutableState globalMutableState = h.globalMutableState();
         long storedExtraTiersInUse = globalMutableState.getExtraTiersInUse();
         long allocatedExtraTiers = globalMutableState.getAllocatedExtraTierBulks() * h.tiersInBulk;
-        long expectedExtraTiersInUse =
-                Math.max(0, Math.min(storedExtraTiersInUse, allocatedExtraTiers));
         long actualExtraTiersInUse = 0;
-        long firstFreeExtraTierIndex = -1;
-        for (long extraTierIndex = 0; extraTierIndex < expectedExtraTiersInUse; extraTierIndex++) {
+        // tiers in use are not necessarily the first allocated tiers, because emptied tiers are
+        // returned to the free list, see VanillaChronicleHash.releaseEmptyTailTiers(). All
+        // allocated tiers are checked, tiers not in use are linked into the free list in order
+        long storedFirstFreeTierIndex = globalMutableState.getFirstFreeTierIndex();
+        boolean storedFirstFreeTierIsFree = storedFirstFreeTierIndex == 0;
+        long firstFreeTierIndex = 0;
+        long lastFreeTierIndex = 0;
+        for (long extraTierIndex = 0; extraTierIndex < allocatedExtraTiers; extraTierIndex++) {
             long tierIndex = h.extraTierIndexToTierIndex(extraTierIndex);
             // `tier` is unused in recoverTier(), 0 should be a safe value
             s.initSegmentTier(0, tierIndex);
             int segmentIndex = tierRecovery.recoverTier(-1);
+            if (segmentIndex < 0 && h.segmentGrowth)
+                segmentIndex = emptyGrowingSegmentTierSegmentIndex();
             if (segmentIndex >= 0) {
                 long tierCountersAreaAddr = s.tierCountersAreaAddr();
                 int storedSegmentIndex = TierCountersArea.segmentIndex(tierCountersAreaAddr);
@@ -76,10 +83,19 @@ public abstract class SegmentsRecovery implements IterationContext {
 
                 TierCountersArea.prevTierIndex(tierCountersAreaAddr, s.tierIndex);
                 TierCountersArea.tier(tierCountersAreaAddr, s.tier + 1);
-                actualExtraTiersInUse = extraTierIndex + 1;
+                actualExtraTiersInUse++;
             } else {
-                firstFreeExtraTierIndex = extraTierIndex;
-                break;
+                h.linkAndZeroOutFreeTier(tierIndex, 0);
+                if (lastFreeTierIndex == 0) {
+                    firstFreeTierIndex = tierIndex;
+                } else {
+                    TierCountersArea.nextTierIndex(
+                            h.tierIndexToBaseAddr(lastFreeTierIndex) + h.tierHashLookupOuterSize,
+                            tierIndex);
+                }
+                lastFreeTierIndex = tierIndex;
+                if (tierIndex == storedFirstFreeTierIndex)
+                    storedFirstFreeTierIsFree = true;
             }
         }
 
@@ -89,28 +105,69 @@ public abstract class SegmentsRecovery implements IterationContext {
             globalMutableState.setExtraTiersInUse(actualExtraTiersInUse);
         }
 
-        long firstFreeTierIndex;
-        if (firstFreeExtraTierIndex == -1) {
-            if (allocatedExtraTiers > expectedExtraTiersInUse) {
-                firstFreeTierIndex = h.extraTierIndexToTierIndex(expectedExtraTiersInUse);
-            } else {
-                firstFreeTierIndex = 0;
-            }
-        } else {
-            firstFreeTierIndex = h.extraTierIndexToTierIndex(firstFreeExtraTierIndex);
-        }
-        if (firstFreeTierIndex > 0) {
-            long lastTierIndex = h.extraTierIndexToTierIndex(allocatedExtraTiers - 1);
-            h.linkAndZeroOutFreeTiers(firstFreeTierIndex, lastTierIndex);
-        }
-        long storedFirstFreeTierIndex = globalMutableState.getFirstFreeTierIndex();
-        if (storedFirstFreeTierIndex != firstFreeTierIndex) {
+        // the free list is rebuilt, the stored first free tier is wrong only if it is in use, or
+        // there are free tiers, but none is stored
+        if (!storedFirstFreeTierIsFree ||
+                (storedFirstFreeTierIndex == 0) != (firstFreeTierIndex == 0)) {
             log.error("wrong first free tier index in global mutable state, stored: {}, " +
                     "should be: {}", storedFirstFreeTierIndex, firstFreeTierIndex);
-            globalMutableState.setFirstFreeTierIndex(firstFreeTierIndex);
         }
+        globalMutableState.setFirstFreeTierIndex(firstFreeTierIndex);
 
         removeDuplicatesInSegments();
+        if (h.segmentGrowth) {
+            for (int segmentIndex = 0; segmentIndex < h.actualSegments; segmentIndex++) {
+                s.initSegmentIndex(segmentIndex);
+                s.initSegmentTier();
+                recoverGrowingSegment();
+            }
+        }
+    }
+
+    /**
+     * A tier of a growing segment might be empty, if no entries were moved to it, when it was
+     * appended. Returns the segment index, stored in the tier counters area, or -1, if the tier
+     * doesn't seem to be in use.
+     */
+    private int emptyGrowingSegmentTierSegmentIndex() {
+        long tierCountersAreaAddr = s.tierCountersAreaAddr();
+        int storedSegmentIndex = TierCountersArea.segmentIndex(tierCountersAreaAddr);
+        if (storedSegmentIndex >= 0 && storedSegmentIndex < hh.h().actualSegments &&
+                TierCountersArea.tier(tierCountersAreaAddr) > 0) {
+            return storedSegmentIndex;
+        }
+        return -1;
+    }
+
+    /**
+     * Stores the number of tiers of the current segment, which might have changed, because tiers
+     * are re-chained during recovery, and marks entries as misplaced, so that lookups search all
+     * tiers, until the entries are moved to their home tiers on the next insertion.
+     */
+    private void recoverGrowingSegment() {
+        s.goToLastTier();
+        GrowingSegments growingSegments = hh.h().growingSegments;
+        growingSegments.misplacedEntries(s.segmentIndex, true);
+        growingSegments.lastTier(s.segmentIndex, s.tier);
+    }
+
+    @Override
+    public void recoverSegment(int segmentIndex) {
+        // the lock is held by the caller, so duplicates across tiers are not removed, that
+        // requires locking queries, see removeDuplicatesInSegments()
+        s.initSegmentIndex(segmentIndex);
+        s.initSegmentTier();
+        while (true) {
+            tierRecovery.recoverTier(segmentIndex);
+            tierRecovery.recoverTierCounters();
+            if (s.hasNextTier()) {
+                s.nextTier();
+            } else {
+                break;
+            }
+        }
+        if (hh.h().segmentGrowth)
+            recoverGrowingSegment();
     }
 
     private void removeDuplicatesInSegments() {
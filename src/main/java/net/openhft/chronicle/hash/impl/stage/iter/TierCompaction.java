@@ -0,0 +1,135 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash.impl.stage.iter;
+
+import net.openhft.chronicle.algo.bytes.Access;
+import net.openhft.chronicle.hash.impl.CompactOffHeapLinearHashTable;
+import net.openhft.chronicle.hash.impl.VanillaChronicleHash;
+import net.openhft.chronicle.hash.impl.stage.entry.HashEntryStages;
+import net.openhft.chronicle.hash.impl.stage.entry.SegmentStages;
+import net.openhft.chronicle.map.VanillaChronicleMap;
+import net.openhft.chronicle.map.impl.IterationContext;
+import net.openhft.chronicle.map.impl.VanillaChronicleMapHolder;
+import net.openhft.sg.StageRef;
+import net.openhft.sg.Staged;
+
+import java.util.Arrays;
+
+import static net.openhft.chronicle.algo.bytes.Access.nativeAccess;
+
+@Staged
+public abstract class TierCompaction implements IterationContext {
+
+    @StageRef VanillaChronicleMapHolder<?, ?, ?> mh;
+    @StageRef SegmentStages s;
+    @StageRef HashEntryStages<?> e;
+
+    @Override
+    public int compactTiers(int segmentIndex) {
+        VanillaChronicleMap<?, ?, ?> m = mh.m();
+        if (!m.tiersCouldBeFreed())
+            return 0;
+        s.initSegmentIndex(segmentIndex);
+        s.innerWriteLock.lock();
+        // contexts of this thread, locked on the same segment, might hold positions of entries,
+        // that shouldn't be moved
+        if (s.nestedContextsLockedOnSameSegment)
+            return 0;
+        s.initSegmentTier();
+        if (!s.hasNextTier())
+            return 0;
+        long[] tierIndexes = new long[8];
+        tierIndexes[0] = s.tierIndex;
+        while (s.hasNextTier()) {
+            s.nextTier();
+            if (s.tier == tierIndexes.length)
+                tierIndexes = Arrays.copyOf(tierIndexes, tierIndexes.length * 2);
+            tierIndexes[s.tier] = s.tierIndex;
+        }
+        // if the value alignment depends on the entry position, entries are not moved, only
+        // already empty tiers are freed
+        if (!m.couldNotDetermineAlignmentBeforeAllocation) {
+            for (int tier = s.tier; tier > 0; tier--) {
+                if (!moveEntriesToPrevTiers(tier, tierIndexes))
+                    break;
+            }
+        }
+        // don't leave the context in a tier, which is going to be freed
+        s.initSegmentTier();
+        return m.releaseEmptyTailTiers(segmentIndex);
+    }
+
+    private void goToTier(int tier, long[] tierIndexes) {
+        if (tier == 0) {
+            s.initSegmentTier();
+        } else {
+            s.initSegmentTier(tier, tierIndexes[tier]);
+        }
+    }
+
+    /**
+     * Moves entries of the given tier to the previous tiers of the segment, which have enough
+     * free space. Each entry is copied before it is removed from the given tier, so that if the
+     * process crashes, the entry could only be duplicated, that is fixed by recovery.
+     *
+     * @return {@code true}, if all entries of the given tier are moved
+     */
+    private boolean moveEntriesToPrevTiers(int tier, long[] tierIndexes) {
+        VanillaChronicleHash<?, ?, ?, ?> h = mh.h();
+        CompactOffHeapLinearHashTable hl = h.hashLookup;
+        goToTier(tier, tierIndexes);
+        long tierBaseAddr = s.tierBaseAddr;
+
+        // collect entries first, because removal of entries shifts the hash lookup slots
+        long[] hlEntries = new long[(int) s.tierEntries()];
+        int entries = 0;
+        long hlPos = 0;
+        do {
+            long hlEntry = hl.readEntry(tierBaseAddr, hlPos);
+            if (!hl.empty(hlEntry) && entries < hlEntries.length)
+                hlEntries[entries++] = hlEntry;
+            hlPos = hl.step(hlPos);
+        } while (hlPos != 0);
+
+        for (int i = 0; i < entries; i++) {
+            long hlEntry = hlEntries[i];
+            long pos = hl.value(hlEntry);
+            goToTier(tier, tierIndexes);
+            e.readExistingEntry(pos);
+            int chunks = e.entrySizeInChunks;
+            long entryAddr = tierBaseAddr + e.keySizeOffset;
+
+            long newPos = -1;
+            for (int t = 0; t < tier && newPos < 0; t++) {
+                goToTier(t, tierIndexes);
+                newPos = s.allocReturnCode(chunks);
+            }
+            if (newPos < 0)
+                return false;
+            long newEntryAddr = s.tierBaseAddr + s.entrySpaceOffset + newPos * h.chunkSize;
+            Access.copy(nativeAccess(), null, entryAddr, nativeAccess(), null, newEntryAddr,
+                    chunks * h.chunkSize);
+            h.insertHashLookupEntry(s.tierBaseAddr, hl.key(hlEntry), newPos);
+
+            goToTier(tier, tierIndexes);
+            h.removeHashLookupEntry(tierBaseAddr, hlEntry);
+            s.free(pos, chunks);
+        }
+        return s.tierEntries() == 0;
+    }
+}
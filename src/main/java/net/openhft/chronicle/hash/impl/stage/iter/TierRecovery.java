@@ -21,6 +21,8 @@ import net.openhft.chronicle.bytes.BytesUtil;
 import net.openhft.chronicle.hash.ChronicleHashRecoveryFailedException;
 import net.openhft.chronicle.hash.Data;
 import net.openhft.chronicle.hash.impl.CompactOffHeapLinearHashTable;
+import net.openhft.chronicle.hash.impl.EntryLocks;
+import net.openhft.chronicle.hash.impl.TierKeyFilter;
 import net.openhft.chronicle.hash.impl.VanillaChronicleHash;
 import net.openhft.chronicle.hash.impl.stage.entry.SegmentStages;
 import net.openhft.chronicle.hash.impl.stage.hash.LogHolder;
@@ -130,9 +132,38 @@ public class TierRecovery {
             hlPos = hl.step(hlPos);
         } while (hlPos != 0);
         shiftHashLookupEntries();
+        hl.recoverDerivedData(hlAddr);
+        recoverTierKeyFilter();
+        clearEntryLocks();
         return segmentIndex;
     }
 
+    /**
+     * Entry locks might be left acquired by a crashed process
+     */
+    private void clearEntryLocks() {
+        VanillaChronicleHash<?, ?, ?, ?> h = mh.h();
+        if (h.tierEntryLocksSize > 0)
+            EntryLocks.clear(s.tierBaseAddr + h.tierEntryLocksOffset(), h.tierEntryLocksSize);
+    }
+
+    private void recoverTierKeyFilter() {
+        VanillaChronicleHash<?, ?, ?, ?> h = mh.h();
+        TierKeyFilter filter = h.tierKeyFilter;
+        if (filter == null)
+            return;
+        CompactOffHeapLinearHashTable hl = h.hashLookup;
+        long hlAddr = s.tierBaseAddr;
+        filter.clear(hlAddr);
+        long hlPos = 0;
+        do {
+            long hlEntry = hl.readEntry(hlAddr, hlPos);
+            if (!hl.empty(hlEntry))
+                filter.add(hlAddr, hl.key(hlEntry));
+            hlPos = hl.step(hlPos);
+        } while (hlPos != 0);
+    }
+
     private void shiftHashLookupEntries() {
         VanillaChronicleHash<?, ?, ?, ?> h = mh.h();
         CompactOffHeapLinearHashTable hl = h.hashLookup;
@@ -195,6 +226,8 @@ public class TierRecovery {
                             hlPos = hashLookup.stepBack(hlPos);
                             steps--;
                         }
+                        if (m.tierKeyFilter != null)
+                            m.tierKeyFilter.remove(currentTierBaseAddr, hashLookup.key(entry));
                         continue tierIteration;
                     }
                 }
@@ -210,6 +243,24 @@ public class TierRecovery {
         recoverLowestPossibleFreeChunkTiered();
     }
 
+    /**
+     * Recovers the entries counter and the lowest free chunk of the tier, after {@link
+     * #recoverTier(int)}, without checking for duplicate keys in other tiers.
+     */
+    public void recoverTierCounters() {
+        CompactOffHeapLinearHashTable hl = mh.h().hashLookup;
+        long hlAddr = s.tierBaseAddr;
+        long entries = 0;
+        long hlPos = 0;
+        do {
+            if (!hl.empty(hl.readEntry(hlAddr, hlPos)))
+                entries++;
+            hlPos = hl.step(hlPos);
+        } while (hlPos != 0);
+        recoverTierEntriesCounter(entries);
+        recoverLowestPossibleFreeChunkTiered();
+    }
+
     private void recoverTierEntriesCounter(long entries) {
         if (s.tierEntries() != entries) {
             lh.LOG.error("Wrong number of entries counter for tier with index {}, " +
@@ -18,10 +18,12 @@
 package net.openhft.chronicle.hash.impl.stage.query;
 
 import net.openhft.chronicle.hash.Data;
+import net.openhft.chronicle.hash.impl.GrowingSegments;
 import net.openhft.chronicle.hash.impl.VanillaChronicleHashHolder;
 import net.openhft.chronicle.hash.impl.stage.entry.HashEntryStages;
 import net.openhft.chronicle.hash.impl.stage.entry.HashLookupPos;
 import net.openhft.chronicle.hash.impl.stage.entry.HashLookupSearch;
+import net.openhft.chronicle.hash.impl.stage.entry.KeyHashCode;
 import net.openhft.chronicle.hash.impl.stage.entry.SegmentStages;
 import net.openhft.chronicle.hash.impl.stage.hash.CheckOnEachPublicOperation;
 import net.openhft.chronicle.hash.serialization.DataAccess;
@@ -42,6 +44,7 @@ public abstract class HashQuery<K> implements SetEntry<K> {
     @StageRef public CheckOnEachPublicOperation checkOnEachPublicOperation;
     @StageRef public HashLookupPos hlp;
     @StageRef public KeySearch<K> ks;
+    @StageRef KeyHashCode kh;
 
     final DataAccess<K> innerInputKeyDataAccess = hh.h().keyDataAccess.copy();
 
@@ -88,6 +91,19 @@ public abstract class HashQuery<K> implements SetEntry<K> {
     @Stage("PresenceOfEntry") private EntryPresence entryPresence = null;
 
     private void initPresenceOfEntry() {
+        GrowingSegments growingSegments = hh.h().growingSegments;
+        if (growingSegments != null) {
+            // the tier count and the misplaced entries flag are read under the lock
+            s.innerReadLock.lock();
+            int homeTier = growingSegments.homeTier(s.segmentIndex, kh.keyHashCode());
+            if (homeTier >= 0) {
+                if (s.tier != homeTier)
+                    s.goToTier(homeTier);
+                entryPresence = ks.searchStatePresent() ?
+                        EntryPresence.PRESENT : EntryPresence.ABSENT;
+                return;
+            }
+        }
         if (ks.searchStatePresent() || tieredEntryPresent()) {
             entryPresence = EntryPresence.PRESENT;
         } else {
@@ -111,7 +127,7 @@ public abstract class HashQuery<K> implements SetEntry<K> {
             }
             if (s.tierBaseAddr == firstTierBaseAddr)
                 break;
-            if (ks.searchStatePresent())
+            if (hashLookupSearch.tierMayContainSearchKey() && ks.searchStatePresent())
                 return true;
         }
         // not found
@@ -17,6 +17,7 @@
 
 package net.openhft.chronicle.hash.impl.stage.query;
 
+import net.openhft.chronicle.hash.impl.GrowingSegments;
 import net.openhft.chronicle.hash.impl.stage.entry.Alloc;
 import net.openhft.chronicle.hash.impl.stage.entry.SegmentStages;
 import net.openhft.sg.StageRef;
@@ -34,6 +35,11 @@ public class QueryAlloc implements Alloc {
             s.free(prevPos, prevChunks);
         if (ret >= 0)
             return ret;
+        GrowingSegments growingSegments = s.hh.h().growingSegments;
+        if (growingSegments != null) {
+            // the entry is going to be allocated not in its home tier
+            growingSegments.misplacedEntries(s.segmentIndex, true);
+        }
         int alreadyAttemptedTier = s.tier;
         s.goToFirstTier();
         while (true) {
@@ -0,0 +1,168 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash.impl.stage.query;
+
+import net.openhft.chronicle.algo.bytes.Access;
+import net.openhft.chronicle.hash.impl.CompactOffHeapLinearHashTable;
+import net.openhft.chronicle.hash.impl.GrowingSegments;
+import net.openhft.chronicle.hash.impl.VanillaChronicleHash;
+import net.openhft.chronicle.hash.impl.VanillaChronicleHashHolder;
+import net.openhft.chronicle.hash.impl.stage.entry.HashEntryStages;
+import net.openhft.chronicle.hash.impl.stage.entry.KeyHashCode;
+import net.openhft.chronicle.hash.impl.stage.entry.SegmentStages;
+import net.openhft.sg.StageRef;
+import net.openhft.sg.Staged;
+
+import static net.openhft.chronicle.algo.bytes.Access.nativeAccess;
+
+/**
+ * Splits tiers of segments and moves entries to their home tiers, see {@link GrowingSegments}.
+ */
+@Staged
+public class SegmentGrowth {
+
+    @StageRef VanillaChronicleHashHolder<?> hh;
+    @StageRef SegmentStages s;
+    @StageRef HashEntryStages<?> e;
+    @StageRef KeyHashCode kh;
+
+    /**
+     * Called under the update lock, before insertion of the queried key, which is absent in the
+     * segment. Moves misplaced entries of the segment to their home tiers, and splits a tier, if
+     * the home tier of the queried key is nearly full. If some entries are moved, leaves the
+     * context in the home tier of the queried key, in which the key search is repeated.
+     */
+    public void growBeforeInsert() {
+        GrowingSegments gs = hh.h().growingSegments;
+        // contexts of this thread, locked on the same segment, might hold positions of entries,
+        // that shouldn't be moved
+        if (gs == null || s.nestedContextsLockedOnSameSegment)
+            return;
+        int segmentIndex = s.segmentIndex;
+        boolean moved = false;
+        if (gs.misplacedEntries(segmentIndex)) {
+            s.innerWriteLock.lock();
+            moveAllMisplacedEntries(gs);
+            moved = true;
+        }
+        int homeTier = gs.homeTier(segmentIndex, kh.keyHashCode());
+        if (s.tier != homeTier)
+            s.goToTier(homeTier);
+        if (s.tierEntries() >= gs.splitThreshold) {
+            s.innerWriteLock.lock();
+            splitTier(gs);
+            moved = true;
+        }
+        if (moved)
+            s.goToTier(gs.homeTier(segmentIndex, kh.keyHashCode()));
+    }
+
+    private void moveAllMisplacedEntries(GrowingSegments gs) {
+        int segmentIndex = s.segmentIndex;
+        while (true) {
+            boolean allMoved = true;
+            for (int tier = 0, lastTier = gs.lastTier(segmentIndex); tier <= lastTier; tier++) {
+                s.goToTier(tier);
+                allMoved &= moveMisplacedEntriesOfTier(gs);
+            }
+            if (allMoved) {
+                gs.misplacedEntries(segmentIndex, false);
+                return;
+            }
+            // some home tiers are full. Splitting tiers in turn eventually splits them, or fails
+            // when there are no more extra tiers available, see VanillaChronicleHash.allocateTier()
+            splitTier(gs);
+        }
+    }
+
+    private void splitTier(GrowingSegments gs) {
+        int segmentIndex = s.segmentIndex;
+        boolean misplacedEntries = gs.misplacedEntries(segmentIndex);
+        int tiers = gs.lastTier(segmentIndex) + 1;
+        s.goToTier(tiers - 1);
+        // appends a tier, and sets the misplaced entries flag, see GrowingSegments.tierAppended()
+        s.nextTier();
+        s.goToTier(GrowingSegments.tierToSplit(tiers));
+        boolean allMoved = moveMisplacedEntriesOfTier(gs);
+        gs.misplacedEntries(segmentIndex, misplacedEntries || !allMoved);
+    }
+
+    /**
+     * Moves entries of the current tier, which are not in their home tiers, to their home tiers.
+     * Each entry is copied to the home tier before it is removed from the current tier, so that
+     * if the process crashes, the entry could only be duplicated, that is fixed by recovery.
+     *
+     * @return {@code false}, if some entries couldn't be moved, because their home tiers are full
+     */
+    private boolean moveMisplacedEntriesOfTier(GrowingSegments gs) {
+        VanillaChronicleHash<?, ?, ?, ?> h = hh.h();
+        CompactOffHeapLinearHashTable hl = h.hashLookup;
+        int tier = s.tier;
+        long tierIndex = s.tierIndex;
+        long tierBaseAddr = s.tierBaseAddr;
+        int tiers = gs.lastTier(s.segmentIndex) + 1;
+
+        // collect entries first, because removal of entries shifts the hash lookup slots
+        long[] hlEntries = new long[(int) s.tierEntries()];
+        int[] homeTiers = new int[hlEntries.length];
+        int misplaced = 0;
+        long hlPos = 0;
+        do {
+            long hlEntry = hl.readEntry(tierBaseAddr, hlPos);
+            if (!hl.empty(hlEntry)) {
+                e.readExistingEntry(hl.value(hlEntry));
+                long keyHash =
+                        h.keyHashFunction.hashMemory(tierBaseAddr + e.keyOffset, e.keySize);
+                int homeTier = GrowingSegments.homeTier(keyHash, tiers);
+                if (homeTier != tier && misplaced < hlEntries.length) {
+                    hlEntries[misplaced] = hlEntry;
+                    homeTiers[misplaced] = homeTier;
+                    misplaced++;
+                }
+            }
+            hlPos = hl.step(hlPos);
+        } while (hlPos != 0);
+
+        boolean allMoved = true;
+        for (int i = 0; i < misplaced; i++) {
+            long hlEntry = hlEntries[i];
+            long searchKey = hl.key(hlEntry);
+            long pos = hl.value(hlEntry);
+            s.initSegmentTier(tier, tierIndex, tierBaseAddr);
+            e.readExistingEntry(pos);
+            int chunks = e.entrySizeInChunks;
+            long entryAddr = tierBaseAddr + e.keySizeOffset;
+
+            s.goToTier(homeTiers[i]);
+            long newPos = s.allocReturnCode(chunks);
+            if (newPos < 0) {
+                allMoved = false;
+                continue;
+            }
+            long newEntryAddr = s.tierBaseAddr + s.entrySpaceOffset + newPos * h.chunkSize;
+            Access.copy(nativeAccess(), null, entryAddr, nativeAccess(), null, newEntryAddr,
+                    chunks * h.chunkSize);
+            h.insertHashLookupEntry(s.tierBaseAddr, searchKey, newPos);
+
+            s.initSegmentTier(tier, tierIndex, tierBaseAddr);
+            h.removeHashLookupEntry(tierBaseAddr, hlEntry);
+            s.free(pos, chunks);
+        }
+        return allMoved;
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash.impl.util;
+
+import net.openhft.chronicle.core.OS;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+
+/**
+ * Identifies processes by non-zero 64-bit ids, and checks if the identified processes are dead.
+ * The id consists of the pid (22 bits, the maximum pid on Linux is 2^22) and the lower 42 bits of
+ * the process start time (in clock ticks since boot, from {@code /proc/<pid>/stat}), so that a
+ * process, that reused the pid of a dead process, has a different id. Pids are meaningful only
+ * within a pid namespace, so the id is accompanied with the {@linkplain #currentPidNamespace()
+ * pid namespace} of the process. Processes from other pid namespaces (e. g. containers, sharing a
+ * mapped file), processes, whose pid namespace couldn't be determined, and processes on other
+ * platforms than Linux can't be checked, they are considered alive.
+ */
+public final class ProcessLiveness {
+
+    /**
+     * The pid namespace, recorded for processes, whose pid namespace couldn't be determined.
+     * {@link #isDead} never considers such processes dead.
+     */
+    public static final long UNKNOWN_PID_NAMESPACE = 0L;
+
+    private static final int START_TIME_FIELD = 22;
+
+    private static final int START_TIME_BITS = 42;
+    private static final long START_TIME_MASK = (1L << START_TIME_BITS) - 1;
+
+    private static final long CURRENT_PID_NAMESPACE = pidNamespace();
+    private static final long CURRENT_PROCESS_ID = currentProcessId0();
+
+    private ProcessLiveness() {}
+
+    /**
+     * Returns the id of the current process.
+     */
+    public static long currentProcessId() {
+        return CURRENT_PROCESS_ID;
+    }
+
+    /**
+     * Returns the inode number of the pid namespace of the current process, or {@link
+     * #UNKNOWN_PID_NAMESPACE}, if it couldn't be determined.
+     */
+    public static long currentPidNamespace() {
+        return CURRENT_PID_NAMESPACE;
+    }
+
+    private static long currentProcessId0() {
+        int pid = OS.getProcessId();
+        long startTime = startTime(pid);
+        return (((long) pid) << START_TIME_BITS) | (Math.max(startTime, 0L) & START_TIME_MASK);
+    }
+
+    /**
+     * Returns {@code true} if the process with the given id is known to be dead, i. e. it is
+     * from the same pid namespace as the current process, and there is no process with the same
+     * pid, or it started at a different time.
+     *
+     * @param processId the {@linkplain #currentProcessId() id} of the process
+     * @param pidNamespace the {@linkplain #currentPidNamespace() pid namespace} of the process
+     */
+    public static boolean isDead(long processId, long pidNamespace) {
+        if (!OS.isLinux() || pidNamespace == UNKNOWN_PID_NAMESPACE ||
+                pidNamespace != CURRENT_PID_NAMESPACE) {
+            return false;
+        }
+        long startTime = startTime((int) (processId >>> START_TIME_BITS));
+        if (startTime < 0)
+            return true;
+        long recordedStartTime = processId & START_TIME_MASK;
+        // zero start time means it couldn't be determined
+        return startTime != 0 && recordedStartTime != 0 &&
+                (startTime & START_TIME_MASK) != recordedStartTime;
+    }
+
+    private static long pidNamespace() {
+        if (!OS.isLinux())
+            return UNKNOWN_PID_NAMESPACE;
+        try {
+            // the link is like "pid:[4026531836]"
+            String ns = Files.readSymbolicLink(Paths.get("/proc/self/ns/pid")).toString();
+            int start = ns.indexOf('[');
+            int end = ns.lastIndexOf(']');
+            if (start < 0 || end <= start)
+                return UNKNOWN_PID_NAMESPACE;
+            long inode = Long.parseLong(ns.substring(start + 1, end));
+            return inode > 0 ? inode : UNKNOWN_PID_NAMESPACE;
+        } catch (IOException | RuntimeException e) {
+            return UNKNOWN_PID_NAMESPACE;
+        }
+    }
+
+    /**
+     * Returns the start time of the process with the given pid, -1 if there is no such process, or
+     * 0 if it couldn't be determined.
+     */
+    private static long startTime(int pid) {
+        if (!OS.isLinux())
+            return 0;
+        String stat;
+        try {
+            stat = new String(Files.readAllBytes(Paths.get("/proc/" + pid + "/stat")),
+                    StandardCharsets.US_ASCII);
+        } catch (NoSuchFileException e) {
+            return -1;
+        } catch (IOException | RuntimeException e) {
+            return 0;
+        }
+        // the second field is the executable name in parentheses, which might contain spaces
+        int commEnd = stat.lastIndexOf(')');
+        if (commEnd < 0 || commEnd + 2 >= stat.length())
+            return 0;
+        String[] fields = stat.substring(commEnd + 2).split(" ");
+        // the fields after the executable name start from the 3rd
+        int index = START_TIME_FIELD - 3;
+        if (fields.length <= index)
+            return 0;
+        try {
+            return Long.parseLong(fields[index]);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash.impl.util.jna;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
+
+/**
+ * Linux futex wait and wake operations on 32-bit words in shared memory. Shared (not private)
+ * futex operations are used, so that processes, mapping the same file, could wake each other.
+ */
+public final class LinuxFutex {
+
+    private static final int FUTEX_WAIT = 0;
+    private static final int FUTEX_WAKE = 1;
+
+    private static final long SYS_FUTEX = sysFutex();
+    private static final boolean AVAILABLE = SYS_FUTEX >= 0 && register();
+
+    private static long sysFutex() {
+        if (!Platform.isLinux() || !Platform.is64Bit())
+            return -1;
+        String arch = System.getProperty("os.arch");
+        if ("amd64".equals(arch) || "x86_64".equals(arch))
+            return 202;
+        if ("aarch64".equals(arch))
+            return 98;
+        return -1;
+    }
+
+    private static boolean register() {
+        try {
+            Native.register(LinuxFutex.class, Platform.C_LIBRARY_NAME);
+            return true;
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    private static native long syscall(
+            long number, long uaddr, long op, long val, long timeout, long uaddr2, long val3);
+
+    /**
+     * struct timespec of each thread, {@link #wait} is called by threads, waiting for a lock,
+     * i. e. not on the fast path
+     */
+    private static final ThreadLocal<Memory> timespec = ThreadLocal.withInitial(() -> new Memory(16));
+
+    private LinuxFutex() {}
+
+    /**
+     * Returns {@code true} if futex operations are supported on this platform.
+     */
+    public static boolean available() {
+        return AVAILABLE;
+    }
+
+    /**
+     * Blocks until the 32-bit word at the given address is woken up by {@link #wake}, or the given
+     * time elapses, or the thread is interrupted, or spuriously. Returns immediately, if the word
+     * is not equal to the expected value.
+     */
+    public static void wait(long address, int expected, long timeoutNanos) {
+        Memory ts = timespec.get();
+        ts.setLong(0, timeoutNanos / 1_000_000_000L);
+        ts.setLong(8, timeoutNanos % 1_000_000_000L);
+        syscall(SYS_FUTEX, address, FUTEX_WAIT, expected, Pointer.nativeValue(ts), 0, 0);
+    }
+
+    /**
+     * Wakes up all threads, waiting on the 32-bit word at the given address.
+     */
+    public static void wake(long address) {
+        syscall(SYS_FUTEX, address, FUTEX_WAKE, Integer.MAX_VALUE, 0, 0, 0);
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.hash.locks;
+
+/**
+ * Policies of granting segment locks of Chronicle Hashes to concurrent waiters, i. e. the
+ * protocols of {@link InterProcessReadWriteUpdateLock}s, returned from contexts.
+ *
+ * @see net.openhft.chronicle.map.ChronicleMapBuilder#lockPolicy(SegmentLockPolicy)
+ */
+public enum SegmentLockPolicy {
+    /**
+     * Threads, waiting for the write lock (or the update to write lock upgrade), prevent new
+     * acquisitions of read and update locks, threads, waiting for the update lock, don't. Under
+     * read-heavy load, map operations, which modify entries and acquire the update lock first,
+     * might wait for a long time, until concurrent readers leave the segment.
+     */
+    VANILLA,
+
+    /**
+     * Threads, waiting for any lock level, that could be upgraded for writing (update or write
+     * lock), prevent new acquisitions of read and update locks, so writers wait only for readers,
+     * that have already acquired the lock. Under write-heavy load readers might starve.
+     */
+    WRITER_PREFERRING,
+
+    /**
+     * Threads, waiting for the write lock, prevent new acquisitions of read locks, the same as
+     * with {@link #VANILLA} policy, and readers, that came while the write lock was held or
+     * awaited, are admitted as a batch, when the write lock holder releases the lock, before the
+     * next writer. Readers wait for at most one write phase, writers wait for at most one read
+     * phase (plus write phases of other writers, which are not ordered among each other).
+     */
+    PHASE_FAIR
+}
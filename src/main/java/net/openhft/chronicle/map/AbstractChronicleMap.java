@@ -71,11 +71,6 @@ interface AbstractChronicleMap<K, V> extends ChronicleMap<K, V> {
         forEachEntry(c -> action.accept(c.key().get(), c.value().get()));
     }
 
-    @Override
-    default void putAll(Map<? extends K, ? extends V> m) {
-        m.forEach(this::put);
-    }
-
     @NotNull
     @Override
     default Collection<V> values() {
@@ -0,0 +1,189 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Asynchronous facade of a {@link ChronicleMap}, which executes operations on a fixed set of
+ * worker threads. Each segment of the map is owned by a single worker, an operation is routed to
+ * the worker, owning the segment, to which the key belongs. If all writes to the map go through
+ * the same {@code AsyncChronicleMap}, segment locks are never contended between threads of this
+ * process, and operations with keys in the same segment are performed in the order of
+ * submission.
+ *
+ * <p>The key is serialized and hashed in the calling thread, the rest of the operation is done by
+ * the worker, the returned {@code CompletableFuture} is completed by the worker thread, callbacks
+ * attached with non-async methods of {@code CompletableFuture} are executed by the worker thread
+ * as well, so they should be short and must not block on other futures of this facade.
+ *
+ * <p>{@link #close()} stops the workers, but doesn't close the map.
+ *
+ * @param <K> the map key type
+ * @param <V> the map value type
+ */
+public final class AsyncChronicleMap<K, V> implements AutoCloseable {
+
+    /**
+     * Creates an asynchronous facade of the given map, with the given number of worker threads.
+     *
+     * @param map the map to perform operations with
+     * @param workers the number of worker threads, it is capped by the number of segments in
+     * the map
+     * @param <K> the map key type
+     * @param <V> the map value type
+     * @return a new asynchronous facade of the map
+     * @throws IllegalArgumentException if the number of workers is not positive, or the map is
+     * not created by {@link ChronicleMapBuilder}
+     */
+    public static <K, V> AsyncChronicleMap<K, V> of(@NotNull ChronicleMap<K, V> map, int workers) {
+        if (!(map instanceof VanillaChronicleMap)) {
+            throw new IllegalArgumentException(
+                    "Asynchronous facades support only maps, created by ChronicleMapBuilder");
+        }
+        if (workers <= 0)
+            throw new IllegalArgumentException("workers should be positive, " + workers + " given");
+        return new AsyncChronicleMap<>((VanillaChronicleMap<K, V, ?>) map, workers);
+    }
+
+    private final VanillaChronicleMap<K, V, ?> map;
+    private final ExecutorService[] workers;
+
+    private AsyncChronicleMap(VanillaChronicleMap<K, V, ?> map, int workers) {
+        this.map = map;
+        this.workers = new ExecutorService[Math.min(workers, map.actualSegments)];
+        for (int i = 0; i < this.workers.length; i++) {
+            String threadName = "chronicle-map-async-" + i;
+            this.workers[i] = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Returns the map, which this facade performs operations with.
+     */
+    public ChronicleMap<K, V> map() {
+        return map;
+    }
+
+    /**
+     * Returns the number of worker threads.
+     */
+    public int workers() {
+        return workers.length;
+    }
+
+    /**
+     * Asynchronous {@link ChronicleMap#get(Object)}.
+     */
+    public CompletableFuture<V> get(@NotNull K key) {
+        return submit(key, KeyHandle::get);
+    }
+
+    /**
+     * Asynchronous {@link ChronicleMap#put(Object, Object)}, the future is completed with the
+     * previous value associated with the key, or {@code null}.
+     */
+    public CompletableFuture<V> put(@NotNull K key, @NotNull V value) {
+        return submit(key, handle -> handle.put(value));
+    }
+
+    /**
+     * Asynchronous {@link ChronicleMap#remove(Object)}, the future is completed with the previous
+     * value associated with the key, or {@code null}.
+     */
+    public CompletableFuture<V> remove(@NotNull K key) {
+        return submit(key, KeyHandle::remove);
+    }
+
+    /**
+     * Asynchronous {@link ChronicleMap#compute(Object, BiFunction)}, the remapping function is
+     * called in the worker thread.
+     */
+    public CompletableFuture<V> compute(
+            @NotNull K key,
+            @NotNull BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return submit(key, handle -> handle.compute(remappingFunction));
+    }
+
+    /**
+     * Performs the given action with the {@linkplain ChronicleMap#keyHandle(Object) handle} of the
+     * given key in the worker thread, owning the key's segment, and completes the returned future
+     * with the action result. The action may perform several operations with the key, e. g. via
+     * {@link KeyHandle#queryContext()}.
+     *
+     * @param key the key to perform the action with
+     * @param action the action to perform
+     * @param <R> the action result type
+     * @return the future, completed with the action result
+     */
+    public <R> CompletableFuture<R> submit(
+            @NotNull K key, @NotNull Function<? super KeyHandle<K, V>, ? extends R> action) {
+        CompletableFuture<R> result = new CompletableFuture<>();
+        try {
+            KeyHandle<K, V> handle = map.keyHandle(key);
+            workers[handle.segmentIndex % workers.length].execute(() -> {
+                try {
+                    result.complete(action.apply(handle));
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                }
+            });
+        } catch (RuntimeException e) {
+            // ChronicleHashClosedException, RejectedExecutionException, key serialization errors
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Stops accepting new operations and waits until the submitted operations are performed.
+     * Futures of the operations, submitted after this call, are completed with {@link
+     * RejectedExecutionException}. Doesn't close the map.
+     */
+    @Override
+    public void close() {
+        for (ExecutorService worker : workers) {
+            worker.shutdown();
+        }
+        boolean interrupted = false;
+        for (ExecutorService worker : workers) {
+            while (true) {
+                try {
+                    if (worker.awaitTermination(1, TimeUnit.SECONDS))
+                        break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+}
@@ -25,8 +25,10 @@ import net.openhft.chronicle.hash.serialization.SizedWriter;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.*;
+import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
 
 /**
  * {@code ChronicleMap} provides concurrent access to a <i>Chronicle Map key-value store</i> from a
@@ -110,6 +112,44 @@ public interface ChronicleMap<K, V> extends ConcurrentMap<K, V>,
      */
     V getUsing(K key, V usingValue);
 
+    /**
+     * Looks up the values, to which each of the given keys is mapped, and writes them into the
+     * {@code values} array at the same indexes, as the keys in the {@code keys} array, or {@code
+     * null} if this map contains no mapping for the key. This is equivalent to
+     * <pre>{@code
+     * for (int i = 0; i < keys.length; i++) {
+     *     values[i] = map.get(keys[i]);
+     * }}</pre>
+     * but keys are hashed and grouped by segment first, and then the read lock of each segment is
+     * acquired only once for all keys, falling into this segment. Lookups of the keys from the
+     * same segment are not atomic with respect to each other, if the map is concurrently updated.
+     *
+     * @param keys the keys whose associated values are to be returned
+     * @param values the array to store the looked up values into, must be at least as long as
+     *               the {@code keys} array
+     * @throws NullPointerException if any of the arguments or keys is {@code null}
+     * @throws IllegalArgumentException if the {@code values} array is shorter than the {@code keys}
+     * array
+     * @see #get(Object)
+     */
+    void getAll(@NotNull K[] keys, @NotNull V[] values);
+
+    /**
+     * Looks up the values, to which each of the given keys is mapped, in the same way as {@link
+     * #getAll(Object[], Object[])} does, and then passes each key from the given collection,
+     * along with the looked up value, or {@code null} if there is no mapping for the key, to the
+     * given action, in the iteration order of the collection. The action is called after all
+     * lookups are done and all segment locks are released. Unlike {@link #getAll(Object[],
+     * Object[])}, this method allocates arrays of the keys and the looked up values on each call.
+     *
+     * @param keys the keys whose associated values are to be returned
+     * @param action the action to accept each key and the value to which the key is mapped
+     * @throws NullPointerException if any of the arguments or keys is {@code null}
+     * @see #getAll(Object[], Object[])
+     */
+    void getAll(@NotNull Collection<? extends K> keys,
+                @NotNull BiConsumer<? super K, ? super V> action);
+
     /**
      * Acquire a value for a key, creating if absent.
      *
@@ -169,6 +209,142 @@ public interface ChronicleMap<K, V> extends ConcurrentMap<K, V>,
      */
     <R> R getMapped(K key, @NotNull SerializableFunction<? super V, R> function);
 
+    /**
+     * Passes the serialized form of the value, to which the specified key is mapped, to the given
+     * {@code reader} and returns the result, or returns {@code null} (without calling the reader)
+     * if this map contains no mapping for the key. Unlike {@link #getUsing(Object, Object)} and
+     * {@link #getMapped(Object, SerializableFunction)}, the value is not deserialized, the reader
+     * accesses the value bytes directly in the Chronicle Map's memory, without copying. This is
+     * useful, when only some small part of a big value is needed.
+     *
+     * <p>The reader is called while the segment is protected from concurrent modifications, so it
+     * should be fast. If the map is configured with {@linkplain
+     * ChronicleMapBuilder#optimisticReads(boolean) optimistic reads}, the reader could also be
+     * called on inconsistent data, if the value is modified concurrently. In this case the result
+     * of the reader is discarded, and it is called again under the segment read lock. So the reader
+     * shouldn't have side effects, and should tolerate arbitrary value bytes: a {@code
+     * RuntimeException}, thrown from the reader in this case, is ignored as well.
+     *
+     * @param key the key whose associated value is to be read
+     * @param reader the function to read the result from the value bytes
+     * @param <R> the result type
+     * @return the result of the reader, or {@code null} if there is no mapping for the key
+     * @throws NullPointerException if the given key or reader is {@code null}
+     * @throws ClassCastException if the given key is of an inappropriate type for this map
+     */
+    <R> R readValue(K key, @NotNull ValueBytesReader<R> reader);
+
+    /**
+     * Copies all of the mappings from the specified map to this map. The effect of this call is
+     * equivalent to that of calling {@link #put(Object, Object) put(k, v)} on this map once for
+     * each mapping from key {@code k} to value {@code v} in the specified map, but keys are grouped
+     * by segment first, and the write lock of each segment is acquired only once for all keys,
+     * falling into this segment. All {@link MapEntryOperations} and {@link MapMethods} hooks are
+     * still called for each key.
+     *
+     * <p>This operation is not atomic: if it fails (e. g. with an exception thrown from some
+     * hook), mappings of the keys processed before the failure remain in the map. Mappings of the
+     * keys from different segments are not updated atomically with respect to each other.
+     *
+     * @param m mappings to be stored in this map
+     * @throws NullPointerException if the specified map, or some key or value in it is {@code null}
+     */
+    @Override
+    void putAll(Map<? extends K, ? extends V> m);
+
+    /**
+     * Removes the mappings for all the given keys from this map, if present. The effect of this
+     * call is equivalent to that of calling {@link #remove(Object) remove(k)} on this map once for
+     * each key {@code k} in the given collection, with the same segment batching and atomicity
+     * properties, as described in the {@link #putAll(Map)} documentation.
+     *
+     * @param keys keys whose mappings are to be removed from this map
+     * @throws NullPointerException if the given collection or some key in it is {@code null}
+     * @see #putAll(Map)
+     */
+    void removeAll(@NotNull Collection<? extends K> keys);
+
+    /**
+     * Replaces the entries for the keys of the given map, only if they are currently mapped to some
+     * value. The effect of this call is equivalent to that of calling {@link #replace(Object,
+     * Object) replace(k, v)} on this map once for each mapping from key {@code k} to value {@code v}
+     * in the given map, with the same segment batching and atomicity properties, as described in
+     * the {@link #putAll(Map)} documentation. Named differently from {@link
+     * Map#replaceAll(java.util.function.BiFunction)}, not to make calls like {@code
+     * map.replaceAll(null)} ambiguous.
+     *
+     * @param m mappings to replace in this map
+     * @throws NullPointerException if the specified map, or some key or value in it is {@code null}
+     * @see #putAll(Map)
+     */
+    void replaceAllExisting(@NotNull Map<? extends K, ? extends V> m);
+
+    /**
+     * Creates a handle of the given key, which captures the serialized form of the key, the key's
+     * hash code and its location within this map. Operations, performed via the returned handle
+     * (e. g. {@link KeyHandle#get()}, {@link KeyHandle#put(Object)}), skip the key serialization
+     * and hashing, that is beneficial for keys, that are queried many times.
+     *
+     * @param key the key to create a handle of
+     * @return a handle of the given key, bound to this map
+     * @throws NullPointerException if the given key is {@code null}
+     * @throws ClassCastException if the given key is of an inappropriate type for this map
+     */
+    @NotNull
+    KeyHandle<K, V> keyHandle(@NotNull K key);
+
+    /**
+     * Runs the given transaction with query contexts of all the given keys, holding the locks of
+     * the segments of all the keys, so that the transaction could read and update the entries of
+     * several keys atomically, e. g. to keep some invariant between them.
+     *
+     * <p>The segments of the keys are locked in the ascending order of segment indexes, that
+     * prevents dead locks between concurrent transactions. The update lock of each segment is
+     * acquired only once: concurrent readers are not blocked until the transaction modifies some
+     * entry in the segment, that upgrades the lock to the write lock. If some segment lock can't be
+     * acquired immediately, all the locks, acquired so far, are released, and locking is retried
+     * after a randomized back-off, so transactions don't dead lock with threads, holding
+     * contexts of this map in another order. All the locks are released, when the transaction
+     * returns or throws.
+     *
+     * <p>The transaction is not rolled back, if it throws an exception: the modifications made
+     * before the exception remain in the map.
+     *
+     * <p>The keys should be distinct: if some key is given twice (i. e. serialized forms of two
+     * keys are equal), the transaction fails with {@link IllegalArgumentException} before any
+     * lock is acquired.
+     *
+     * @param keys the distinct keys, which entries are accessed by the transaction
+     * @param transaction the function, accessing the entries via query contexts of the keys
+     * @param <R> the result type
+     * @return the result of the transaction
+     * @throws NullPointerException if the given collection, some key in it or the given
+     * transaction is {@code null}
+     * @throws ClassCastException if some key is of an inappropriate type for this map
+     * @throws IllegalArgumentException if some key is given twice
+     * @throws IllegalStateException if the locks can't be acquired in {@link
+     * net.openhft.chronicle.hash.impl.BigSegmentHeader#LOCK_TIMEOUT_SECONDS} seconds
+     */
+    <R> R transaction(@NotNull Collection<? extends K> keys,
+                      @NotNull MapTransaction<K, V, R> transaction);
+
+    /**
+     * Opens a session of the current thread with this map, which owns a query context, reused by
+     * all operations, performed via the session. Unlike operations on the map itself, session
+     * operations don't look up the context of the current thread in a thread local and don't
+     * search an unused context in the chain of nested contexts, that is beneficial for tight loops
+     * of map operations in a single thread, e. g. an event loop.
+     *
+     * <p>The session could be used only from the thread, which opened it, and must be {@linkplain
+     * MapSession#close() closed}, when it is no longer needed. The session could be used within
+     * contexts of this map, opened in the same thread, with the same semantics, as nested contexts.
+     *
+     * @return a new session with this map, bound to the current thread
+     * @see MapSession
+     */
+    @NotNull
+    MapSession<K, V> openSession();
+
     /**
      * Exports all the entries to a {@link File} storing them in JSON format, an attempt is
      * made where possible to use standard java serialisation and keep the data human readable, data
@@ -27,11 +27,13 @@ import net.openhft.chronicle.core.Jvm;
 import net.openhft.chronicle.core.OS;
 import net.openhft.chronicle.hash.ChronicleHashBuilder;
 import net.openhft.chronicle.hash.ChronicleHashRecoveryFailedException;
+import net.openhft.chronicle.hash.KeyHashing;
 import net.openhft.chronicle.hash.impl.*;
 import net.openhft.chronicle.hash.impl.stage.entry.ChecksumStrategy;
 import net.openhft.chronicle.hash.impl.util.CanonicalRandomAccessFiles;
 import net.openhft.chronicle.hash.impl.util.Throwables;
 import net.openhft.chronicle.hash.impl.util.math.PoissonDistribution;
+import net.openhft.chronicle.hash.locks.SegmentLockPolicy;
 import net.openhft.chronicle.hash.serialization.*;
 import net.openhft.chronicle.hash.serialization.impl.SerializationBuilder;
 import net.openhft.chronicle.map.replication.MapRemoteOperations;
@@ -176,9 +178,22 @@ public final class ChronicleMapBuilder<K, V> implements
     private long entries = -1L;
     private double maxBloatFactor = 1.0;
     private boolean allowSegmentTiering = true;
+    private boolean segmentGrowth = false;
     private double nonTieredSegmentsPercentile = 0.99999;
     private boolean aligned64BitMemoryOperationsAtomic = OS.is64Bit();
     private ChecksumEntries checksumEntries = ChecksumEntries.IF_PERSISTED;
+    private boolean optimisticReads = false;
+    private boolean tierKeyFilters = false;
+    private boolean hashLookupControlBytes = false;
+    private boolean robinHoodHashLookup = false;
+    private boolean entryLocks = false;
+    private boolean futexLockWaits = false;
+    private boolean parkingLockWaits = false;
+    private KeyHashing keyHashing = KeyHashing.xxHash();
+    private boolean lockContentionStats = false;
+    private SegmentLockPolicy lockPolicy = SegmentLockPolicy.VANILLA;
+    private boolean deadOwnerLockRecovery = false;
+    private int contextPool = 0;
     private boolean putReturnsNull = false;
     private boolean removeReturnsNull = false;
     private boolean replicated;
@@ -1090,6 +1105,10 @@ public final class ChronicleMapBuilder<K, V> implements
     }
 
     int segmentHeaderSize() {
+        if (lockContentionStats) {
+            // the stats area follows the cache line of the lock, not to add false sharing with it
+            return 64 + LockStatsSegmentHeader.STATS_SIZE;
+        }
         int segments = actualSegments();
 
         long pageSize = OS.pageSize();
@@ -1099,8 +1118,11 @@ public final class ChronicleMapBuilder<K, V> implements
         if (segments * (64 * 2) < (3 * pageSize)) // i. e. <= 96 segments, if page size is 4K
             return 64 * 2;
 
-        // reduce false sharing unless we have a lot of segments.
-        return segments <= 16 * 1024 ? 64 : 32;
+        // reduce false sharing unless we have a lot of segments. Futex lock waits, phase-fair
+        // locks and dead owner recovery need space for the waiters count, the reader phase and
+        // the lock owner with its pid namespace after the 32 bytes of the segment header
+        return segments <= 16 * 1024 || futexLockWaits ||
+                lockPolicy == SegmentLockPolicy.PHASE_FAIR || deadOwnerLockRecovery ? 64 : 32;
     }
 
     /**
@@ -1200,6 +1222,38 @@ public final class ChronicleMapBuilder<K, V> implements
                 + actualSegments;
     }
 
+    /**
+     * Configures whether segments of maps, created by this builder, should grow by splitting
+     * tiers, rather than by chaining tiers. When a segment overflows into extra tiers, a lookup
+     * normally searches the tiers of the segment one by one, so lookups in maps, which hold much
+     * more entries than configured in {@link #entries(long)}, slow down proportionally. With
+     * segment growth, each key has a single home tier in its segment, and when the home tier of
+     * an inserted key is nearly full, a new tier is appended to the segment, and takes over about
+     * a half of keys of one of the previous tiers in turn (linear hashing), so lookups search
+     * a single tier, however many tiers the segment has. Extra tiers are still limited by {@link
+     * #maxBloatFactor(double)}.
+     *
+     * <p>Segment growth is not compatible with replication, {@link #entryLocks(boolean) entry
+     * locks}, and {@linkplain #entryAndValueOffsetAlignment(int) value alignment}, which is not
+     * a divisor of the chunk size.
+     *
+     * <p>This configuration is persisted. Older versions of the library, that don't know about
+     * this configuration, shouldn't access Chronicle Maps, created with segment growth. By
+     * default, segments grow by chaining tiers.
+     *
+     * @param segmentGrowth if segments should grow by splitting tiers
+     * @return this builder back
+     * @see #allowSegmentTiering(boolean)
+     */
+    public ChronicleMapBuilder<K, V> segmentGrowth(boolean segmentGrowth) {
+        this.segmentGrowth = segmentGrowth;
+        return this;
+    }
+
+    boolean segmentGrowth() {
+        return segmentGrowth;
+    }
+
     @Override
     public String toString() {
         return "ChronicleMapBuilder{" +
@@ -1316,6 +1370,359 @@ public final class ChronicleMapBuilder<K, V> implements
         return aligned64BitMemoryOperationsAtomic;
     }
 
+    /**
+     * Configures whether {@link ChronicleMap#get(Object) get()} and {@link
+     * ChronicleMap#getUsing(Object, Object) getUsing()} calls on maps, created by this builder,
+     * should try to read the value without acquiring the segment read lock, validating the read
+     * against the segment's version stamp, which is incremented by every writer. If the segment
+     * is modified concurrently, the read falls back to acquiring the read lock. This avoids writes
+     * to the shared segment lock word on reads, that is beneficial for read-mostly workloads with
+     * many concurrent readers.
+     *
+     * <p>This configuration is persisted, all processes accessing the same persisted Chronicle Map
+     * maintain the version stamp, if it was created with optimistic reads enabled. Older versions
+     * of the library, that don't know about this configuration, shouldn't modify such Chronicle
+     * Map concurrently with reading processes.
+     *
+     * <p>Optimistic reads are not applied to replicated maps. By default, optimistic reads are
+     * disabled.
+     *
+     * @param optimisticReads if lock-free optimistic reads should be performed
+     * @return this builder back
+     */
+    public ChronicleMapBuilder<K, V> optimisticReads(boolean optimisticReads) {
+        this.optimisticReads = optimisticReads;
+        return this;
+    }
+
+    boolean optimisticReads() {
+        return optimisticReads;
+    }
+
+    /**
+     * Configures whether each segment tier of maps, created by this builder, should maintain
+     * a compact filter of the keys stored in the tier. When a segment has {@linkplain
+     * #allowSegmentTiering(boolean) overflown into extra tiers}, lookups of keys, absent in the
+     * map, check the filters and skip tiers, which surely don't contain the key, instead of
+     * searching every tier in the chain. This is beneficial for workloads with many lookups of
+     * absent keys, and with segments that are expected to be tiered.
+     *
+     * <p>The filters take about as much memory as the segment tiers' hash lookups, and make
+     * insertions and removals slightly more expensive. Lookups in segments with a single tier don't
+     * check the filter.
+     *
+     * <p>This configuration is persisted. Older versions of the library, that don't know about
+     * this configuration, shouldn't modify Chronicle Maps, created with tier key filters.
+     * By default, tier key filters are disabled.
+     *
+     * @param tierKeyFilters if tier key filters should be maintained
+     * @return this builder back
+     */
+    public ChronicleMapBuilder<K, V> tierKeyFilters(boolean tierKeyFilters) {
+        this.tierKeyFilters = tierKeyFilters;
+        return this;
+    }
+
+    boolean tierKeyFilters() {
+        return tierKeyFilters;
+    }
+
+    /**
+     * Configures whether the segment tiers' hash lookups of maps, created by this builder, should
+     * maintain a control byte with a 7-bit fingerprint of the key for each slot, in addition to
+     * the slots themselves. Key searches scan control bytes in groups of 8 with word-parallel
+     * comparisons, similar to Swiss tables, and read only the slots, which fingerprints match
+     * the searched key, instead of reading every slot in the collision chain. This is beneficial
+     * for maps with high hash lookup load factor (long collision chains), at the cost of one more
+     * byte per hash lookup slot, and slightly more expensive insertions and removals.
+     *
+     * <p>This configuration is persisted. Older versions of the library, that don't know about
+     * this configuration, shouldn't modify Chronicle Maps, created with hash lookup control bytes.
+     * By default, hash lookup control bytes are not maintained.
+     *
+     * @param hashLookupControlBytes if hash lookups should maintain control bytes
+     * @return this builder back
+     */
+    public ChronicleMapBuilder<K, V> hashLookupControlBytes(boolean hashLookupControlBytes) {
+        this.hashLookupControlBytes = hashLookupControlBytes;
+        return this;
+    }
+
+    boolean hashLookupControlBytes() {
+        return hashLookupControlBytes;
+    }
+
+    /**
+     * Configures whether the segment tiers' hash lookups of maps, created by this builder, should
+     * keep entries in Robin Hood order: entries, colliding in the hash lookup, are ordered by their
+     * home positions. A search of a key, absent in the map, stops as soon as it reaches an entry,
+     * which is closer to its home position, than the searched key would be, instead of walking
+     * through the whole collision chain. This reduces the cost of lookups of absent keys in highly
+     * loaded hash lookups, at the cost of insertions, which move entries of the collision chain
+     * and need to acquire the segment write lock for that.
+     *
+     * <p>This configuration is persisted. Older versions of the library, that don't know about
+     * this configuration, shouldn't modify Chronicle Maps, created with Robin Hood hash lookups.
+     * By default, hash lookups are not kept in Robin Hood order.
+     *
+     * @param robinHoodHashLookup if hash lookups should keep entries in Robin Hood order
+     * @return this builder back
+     * @see #hashLookupControlBytes(boolean)
+     */
+    public ChronicleMapBuilder<K, V> robinHoodHashLookup(boolean robinHoodHashLookup) {
+        this.robinHoodHashLookup = robinHoodHashLookup;
+        return this;
+    }
+
+    boolean robinHoodHashLookup() {
+        return robinHoodHashLookup;
+    }
+
+    /**
+     * Configures whether maps, created by this builder, should maintain a lock bit for each entry,
+     * so that {@link ChronicleMap#acquireContext(Object, Object) acquireContext()} on different
+     * keys of the same segment could update values in place in parallel. With entry locks, {@code
+     * acquireContext()} of a present key holds the segment read lock and the lock of the entry,
+     * instead of the segment write lock, the segment write lock is acquired only to insert the
+     * absent key. Reads of the value via {@code get()}, {@code readValue()}, {@code getAll()} and
+     * iteration hold the entry lock for the time of the read, so they wait until a concurrent
+     * {@code acquireContext()} of the key is closed, but don't block other keys of the segment.
+     * Threads waiting for an entry lock don't hold the segment lock, the wait fails with an
+     * exception after 60 seconds. Reads via {@link ChronicleMap#queryContext(Object)
+     * queryContext()} don't take entry locks.
+     *
+     * <p>An entry lock is not reentrant: reading the key (except via the acquired value) within
+     * its own {@code acquireContext()} in the same thread fails after the timeout. Since the
+     * segment read lock can't be upgraded, operations, which take the segment update or write
+     * lock, e. g. {@code put()}, {@code remove()} or inserting an absent key, fail with {@link
+     * IllegalStateException}, if called within {@code acquireContext()} of a key in the same
+     * segment in the same thread.
+     *
+     * <p>Entry locks require constantly sized values, so that values could always be updated in
+     * place, and are not compatible with {@linkplain #checksumEntries(boolean) entry checksums},
+     * {@linkplain #optimisticReads(boolean) optimistic reads}, replication and custom {@linkplain
+     * #entryOperations(MapEntryOperations) entry operations} or {@linkplain
+     * #mapMethods(MapMethods) map methods} (values are written back in place, bypassing {@link
+     * MapEntryOperations#replaceValue}), an attempt to create a map with such configuration
+     * results in {@link IllegalStateException}.
+     *
+     * <p>This configuration is persisted. Older versions of the library, that don't know about
+     * this configuration, shouldn't modify Chronicle Maps, created with entry locks. By default,
+     * entry locks are not maintained.
+     *
+     * @param entryLocks if a lock bit should be maintained for each entry
+     * @return this builder back
+     */
+    public ChronicleMapBuilder<K, V> entryLocks(boolean entryLocks) {
+        this.entryLocks = entryLocks;
+        return this;
+    }
+
+    boolean entryLocks() {
+        return entryLocks;
+    }
+
+    /**
+     * Configures whether threads, waiting for segment locks of maps, created by this builder,
+     * should block on Linux futex after a short spin, instead of spinning until the lock is
+     * acquired, or the lock timeout elapses. Futex waiting doesn't burn CPU cores under lock
+     * contention, and the lock is handed off to a blocked waiter, possibly in another process,
+     * which accesses the same persisted map, within microseconds. Unlocks of contended locks pay
+     * for a futex wake system call.
+     *
+     * <p>On platforms other than Linux on x86-64 or AArch64, this configuration has no effect.
+     *
+     * <p>This configuration is persisted. Older versions of the library, that don't know about
+     * this configuration, don't wake blocked waiters, so they wait up to 10 milliseconds more, if
+     * such versions access the same persisted Chronicle Map. By default, threads spin, waiting for
+     * segment locks.
+     *
+     * @param futexLockWaits if threads, waiting for segment locks, should block on futex
+     * @return this builder back
+     */
+    public ChronicleMapBuilder<K, V> futexLockWaits(boolean futexLockWaits) {
+        this.futexLockWaits = futexLockWaits;
+        return this;
+    }
+
+    boolean futexLockWaits() {
+        return futexLockWaits;
+    }
+
+    /**
+     * Configures whether threads, waiting for segment locks of maps, created by this builder,
+     * should park after a few lock attempts, instead of spinning until the lock is acquired, or the
+     * lock timeout elapses. Parked threads are unparked, when threads of the same JVM unlock the
+     * segment, and re-check the lock at least every millisecond (park periods grow exponentially
+     * from a microsecond), so that unlocks of other processes, accessing the same persisted map,
+     * are noticed. Parking doesn't burn CPU cores under lock contention and doesn't pin carrier
+     * threads of virtual threads, unlocks of contended locks pay for unparking waiters.
+     *
+     * <p>Parking lock waits are not compatible with {@link #futexLockWaits(boolean) futex lock
+     * waits} and non-vanilla {@link #lockPolicy(SegmentLockPolicy) lock policies}.
+     *
+     * <p>This configuration is persisted. Older versions of the library, that don't know about
+     * this configuration, spin waiting for segment locks, if such versions access the same
+     * persisted Chronicle Map. By default, threads spin, waiting for segment locks.
+     *
+     * @param parkingLockWaits if threads, waiting for segment locks, should park
+     * @return this builder back
+     */
+    public ChronicleMapBuilder<K, V> parkingLockWaits(boolean parkingLockWaits) {
+        this.parkingLockWaits = parkingLockWaits;
+        return this;
+    }
+
+    boolean parkingLockWaits() {
+        return parkingLockWaits;
+    }
+
+    /**
+     * Configures the function, applied to serialized keys of maps, created by this builder, to
+     * choose the segment and the slot in the hash lookup. {@link KeyHashing#xxHash(long)} with a
+     * secret seed (e. g. {@link KeyHashing#randomSeedXxHash()}) protects from keys, crafted to
+     * collide, {@link KeyHashing#murmur3Mix(long)} is much cheaper for 8- and 4-byte keys, like
+     * {@code Long} and {@code Integer}.
+     *
+     * <p>This configuration is persisted, including the seed, so all processes, accessing the same
+     * persisted map, and {@link #recoverPersistedTo(File, boolean) recovery} hash keys in the same
+     * way. Older versions of the library, that don't know about this configuration, always hash
+     * keys with xxHash without seed, so they must not access persisted maps, configured with other
+     * key hashing. By default, {@link KeyHashing#xxHash()} is used.
+     *
+     * @param keyHashing the function to hash keys
+     * @return this builder back
+     */
+    public ChronicleMapBuilder<K, V> keyHashing(KeyHashing keyHashing) {
+        this.keyHashing = Objects.requireNonNull(keyHashing);
+        return this;
+    }
+
+    KeyHashing keyHashing() {
+        return keyHashing;
+    }
+
+    /**
+     * Configures whether segments of maps, created by this builder, should collect lock contention
+     * statistics: the numbers of read, update and write lock acquisitions, how many of them had to
+     * wait, log-scale histograms of wait times, and the number of lock upgrades, which didn't
+     * succeed immediately. The statistics are stored off-heap in segment headers, so all processes,
+     * accessing the same persisted map, contribute to them, and could be read via {@link
+     * ChronicleMap#segmentLockStats(int)}. They help to choose the number of segments and to spot
+     * skewed access to segments.
+     *
+     * <p>Each lock acquisition pays for an atomic increment of a shared counter, wait times are
+     * measured only if the lock is not acquired immediately. Segment headers take {@code 64 +
+     * LockStatsSegmentHeader.STATS_SIZE} bytes.
+     *
+     * <p>This configuration is persisted. Older versions of the library, that don't know about
+     * this configuration, don't update the statistics, if such versions access the same persisted
+     * Chronicle Map. By default, lock contention statistics are not collected.
+     *
+     * @param lockContentionStats if segments should collect lock contention statistics
+     * @return this builder back
+     * @see net.openhft.chronicle.hash.SegmentLockStats
+     */
+    public ChronicleMapBuilder<K, V> lockContentionStats(boolean lockContentionStats) {
+        this.lockContentionStats = lockContentionStats;
+        return this;
+    }
+
+    boolean lockContentionStats() {
+        return lockContentionStats;
+    }
+
+    /**
+     * Configures the policy of granting segment locks of maps, created by this builder, to
+     * concurrent waiters. {@link SegmentLockPolicy#WRITER_PREFERRING} and {@link
+     * SegmentLockPolicy#PHASE_FAIR} policies bound the time of waiting for locks of threads, which
+     * modify the map, when there are many concurrent readers, at the cost of read throughput.
+     * Non-vanilla policies are not compatible with {@link #futexLockWaits(boolean) futex lock
+     * waits}.
+     *
+     * <p>This configuration is persisted. Older versions of the library, that don't know about
+     * this configuration, follow the vanilla policy, and don't admit readers, blocked by the
+     * phase-fair policy, if such versions access the same persisted Chronicle Map. By default,
+     * {@link SegmentLockPolicy#VANILLA} policy is used.
+     *
+     * @param lockPolicy the policy of granting segment locks
+     * @return this builder back
+     */
+    public ChronicleMapBuilder<K, V> lockPolicy(SegmentLockPolicy lockPolicy) {
+        this.lockPolicy = Objects.requireNonNull(lockPolicy);
+        return this;
+    }
+
+    SegmentLockPolicy lockPolicy() {
+        return lockPolicy;
+    }
+
+    /**
+     * Configures whether segments of maps, created by this builder, should record the process,
+     * holding the update or write lock, so that threads, waiting for the lock, detect that the
+     * holder process has died (by checking {@code /proc} on Linux), release the lock and recover
+     * the segment, instead of waiting until the lock acquisition times out. This is useful when
+     * processes, accessing the same persisted map, could be killed in the middle of a query.
+     *
+     * <p>Only update and write locks are recovered, a read lock, left by a dead process, still
+     * requires {@link #recoverPersistedTo(File, boolean) recovery} of the whole map, as well as a
+     * process, that died while waiting for the write lock and blocking new readers (see {@link
+     * #lockPolicy(SegmentLockPolicy)}). Holders from other pid namespaces (e. g. processes in other
+     * containers), holders, whose pid namespace couldn't be determined, and holders on platforms
+     * other than Linux are never considered dead.
+     *
+     * <p>This configuration is persisted. Older versions of the library, that don't know about
+     * this configuration, don't record the lock owner, if such versions access the same persisted
+     * Chronicle Map. By default, dead lock holders are not detected.
+     *
+     * @param deadOwnerLockRecovery if locks, held by dead processes, should be recovered
+     * @return this builder back
+     */
+    public ChronicleMapBuilder<K, V> deadOwnerLockRecovery(boolean deadOwnerLockRecovery) {
+        this.deadOwnerLockRecovery = deadOwnerLockRecovery;
+        return this;
+    }
+
+    boolean deadOwnerLockRecovery() {
+        return deadOwnerLockRecovery;
+    }
+
+    /**
+     * Configures maps, created by this builder, to borrow contexts (used internally by all map
+     * operations, and returned from {@link ChronicleMap#queryContext(Object)} and the other
+     * context methods) from a pool, shared by all threads, instead of caching contexts per thread.
+     * A thread borrows a chain of contexts, when it opens the outermost context, and returns it to
+     * the pool, when the outermost context is closed. Nested contexts, opened by the same thread
+     * meanwhile, belong to the same chain, so the semantics of nested contexts are preserved.
+     *
+     * <p>Per-thread contexts are relatively heavy objects, which live as long as the thread. This
+     * is a problem, when the map is accessed from very many threads (e. g. thread-per-request
+     * servers), or threads are short-living. With a pool, the number of contexts is limited by the
+     * number of concurrently running map operations. At most {@code maxPooledContexts} idle
+     * context chains are kept in the pool, chains, released when the pool is full, are dropped.
+     * Borrowing and returning a context chain costs a few atomic operations per map operation.
+     *
+     * <p>This configuration is not persisted, it applies only to the map instance, created or
+     * opened by this builder. By default, contexts are cached per thread.
+     *
+     * @param maxPooledContexts the maximum number of idle context chains in the pool, or 0 to cache
+     *                          contexts per thread
+     * @return this builder back
+     * @throws IllegalArgumentException if {@code maxPooledContexts} is negative
+     */
+    public ChronicleMapBuilder<K, V> contextPool(int maxPooledContexts) {
+        if (maxPooledContexts < 0) {
+            throw new IllegalArgumentException(
+                    "maxPooledContexts should be non-negative, " + maxPooledContexts + " given");
+        }
+        this.contextPool = maxPooledContexts;
+        return this;
+    }
+
+    int contextPool() {
+        return contextPool;
+    }
+
     /**
      * Configures the {@code DataAccess} and {@code SizedReader} used to serialize and deserialize
      * values to and from off-heap memory in maps, created by this builder.
@@ -1447,6 +1854,41 @@ public final class ChronicleMapBuilder<K, V> implements
         return clone().createWithFile(file, true, sameBuilderConfig);
     }
 
+    /**
+     * Opens the map, persisted to the specified file, <i>read-only</i>: the file is mapped with
+     * read-only protection, so the returned map could never corrupt the data. The returned map
+     * serves {@link ChronicleMap#get(Object) get()}, {@link ChronicleMap#getUsing(Object, Object)
+     * getUsing()}, {@link ChronicleMap#readValue readValue()}, {@link ChronicleMap#containsKey
+     * containsKey()}, {@link ChronicleMap#getAll(Object[], Object[]) getAll()} and {@link
+     * ChronicleMap#forEachEntry forEachEntry()} (and {@code forEach()} and {@code containsValue()},
+     * based on it) without acquiring segment locks: segments are read optimistically, validating
+     * the segment versions, maintained by processes, which modify the map, and the read is retried
+     * if it was concurrent with a modification. Hence readers don't write to the shared memory, and
+     * scale independently from the writer process. All operations, which modify the map, or need
+     * segment locks (e. g. {@linkplain ChronicleMap#queryContext(Object) contexts} and iteration via
+     * collection views), throw {@link UnsupportedOperationException}.
+     *
+     * <p>The file should be created with {@link #optimisticReads(boolean) optimisticReads(true)},
+     * otherwise the segment versions are not maintained. Replicated maps can't be opened read-only.
+     * The configurations of the map are read from the file, this builder's configurations matter
+     * only in the same way as for {@link #createPersistedTo(File)}, opening an existing file. There
+     * is no read-only recovery: the readers of segments, left write-locked by a crashed writer,
+     * spin until the file is {@linkplain #recoverPersistedTo(File, boolean) recovered} by a
+     * writer, but not longer than 60 seconds, then the read fails with {@link
+     * IllegalStateException}.
+     *
+     * @param file the file, a map was persisted to
+     * @return a read-only map, mapped to the given file
+     * @throws FileNotFoundException if the file doesn't exist
+     * @throws IOException if any IO error occurs on reading the header of the file or mapping the
+     * file
+     * @throws IllegalStateException if the persisted map doesn't maintain segment versions, or is
+     * replicated
+     */
+    public ChronicleMap<K, V> openReadOnlyPersistedTo(File file) throws IOException {
+        return clone().openReadOnlyWithFile(file);
+    }
+
     @Override
     public ChronicleMap<K, V> create() {
         // clone() to make this builder instance thread-safe, because createWithoutFile() method
@@ -1478,7 +1920,7 @@ public final class ChronicleMapBuilder<K, V> implements
             VanillaChronicleMap<K, V, ?> result;
             if (raf.length() > 0) {
                 result = openWithExistingFile(file, raf, resourceReleaser, recover,
-                        overrideBuilderConfig);
+                        overrideBuilderConfig, false);
             } else {
 
                 // Single-element arrays allow to modify variables within lambda
@@ -1504,7 +1946,7 @@ public final class ChronicleMapBuilder<K, V> implements
                             headerSize);
                 } else {
                     result = openWithExistingFile(file, raf, resourceReleaser, recover,
-                            overrideBuilderConfig);
+                            overrideBuilderConfig, false);
                 }
             }
             prepareMapPublication(result);
@@ -1519,6 +1961,31 @@ public final class ChronicleMapBuilder<K, V> implements
         }
     }
 
+    private ChronicleMap<K, V> openReadOnlyWithFile(File file) throws IOException {
+        persisted = true;
+        file = file.getCanonicalFile();
+        if (!file.exists())
+            throw new FileNotFoundException("file " + file + " should exist to be opened read-only");
+        // not shared via CanonicalRandomAccessFiles, because the read-only map doesn't need
+        // to lock the file, and might not have the permission to write to it
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        ChronicleHashResourceReleaser resourceReleaser =
+                new PersistedChronicleHashResourceReleaser(file, raf);
+        try {
+            VanillaChronicleMap<K, V, ?> result =
+                    openWithExistingFile(file, raf, resourceReleaser, false, false, true);
+            prepareMapPublication(result);
+            return result;
+        } catch (Throwable t) {
+            try {
+                resourceReleaser.releaseManually();
+            } catch (Exception e) {
+                t.addSuppressed(e);
+            }
+            throw Throwables.propagateNotWrapping(t, IOException.class);
+        }
+    }
+
     private void prepareMapPublication(VanillaChronicleMap map) throws IOException {
         establishReplication(map);
         map.registerCleaner();
@@ -1627,7 +2094,7 @@ public final class ChronicleMapBuilder<K, V> implements
 
     private VanillaChronicleMap<K, V, ?> openWithExistingFile(
             File file, RandomAccessFile raf, ChronicleHashResourceReleaser resourceReleaser,
-            boolean recover, boolean overrideBuilderConfig)
+            boolean recover, boolean overrideBuilderConfig, boolean readOnly)
             throws IOException {
         try {
             int headerSize = waitUntilReady(raf, recover);
@@ -1656,6 +2123,13 @@ public final class ChronicleMapBuilder<K, V> implements
             }
             map.initTransientsFromBuilder(this);
             if (!recover) {
+                if (readOnly) {
+                    if (map instanceof ReplicatedChronicleMap) {
+                        throw new IllegalStateException("Replicated map at " + file +
+                                " can't be opened read-only");
+                    }
+                    map.initReadOnly();
+                }
                 map.createMappedStoreAndSegments(resourceReleaser);
             } else {
                 if (!overrideBuilderConfig)
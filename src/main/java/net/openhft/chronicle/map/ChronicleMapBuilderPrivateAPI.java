@@ -18,6 +18,8 @@
 package net.openhft.chronicle.map;
 
 import net.openhft.chronicle.hash.ChronicleHashBuilderPrivateAPI;
+import net.openhft.chronicle.hash.KeyHashing;
+import net.openhft.chronicle.hash.locks.SegmentLockPolicy;
 import net.openhft.chronicle.hash.serialization.impl.SerializationBuilder;
 import net.openhft.chronicle.map.replication.MapRemoteOperations;
 
@@ -82,6 +84,11 @@ class ChronicleMapBuilderPrivateAPI<K, V>
         return b.maxExtraTiers();
     }
 
+    @Override
+    public boolean segmentGrowth() {
+        return b.segmentGrowth();
+    }
+
     @Override
     public boolean aligned64BitMemoryOperationsAtomic() {
         return b.aligned64BitMemoryOperationsAtomic();
@@ -92,6 +99,61 @@ class ChronicleMapBuilderPrivateAPI<K, V>
         return b.checksumEntries();
     }
 
+    @Override
+    public boolean optimisticReads() {
+        return b.optimisticReads();
+    }
+
+    @Override
+    public boolean tierKeyFilters() {
+        return b.tierKeyFilters();
+    }
+
+    @Override
+    public boolean hashLookupControlBytes() {
+        return b.hashLookupControlBytes();
+    }
+
+    @Override
+    public boolean robinHoodHashLookup() {
+        return b.robinHoodHashLookup();
+    }
+
+    @Override
+    public boolean entryLocks() {
+        return b.entryLocks();
+    }
+
+    @Override
+    public boolean futexLockWaits() {
+        return b.futexLockWaits();
+    }
+
+    @Override
+    public KeyHashing keyHashing() {
+        return b.keyHashing();
+    }
+
+    @Override
+    public boolean parkingLockWaits() {
+        return b.parkingLockWaits();
+    }
+
+    @Override
+    public boolean lockContentionStats() {
+        return b.lockContentionStats();
+    }
+
+    @Override
+    public SegmentLockPolicy lockPolicy() {
+        return b.lockPolicy();
+    }
+
+    @Override
+    public boolean deadOwnerLockRecovery() {
+        return b.deadOwnerLockRecovery();
+    }
+
     @Override
     public void replication(byte identifier) {
         b.replication(identifier);
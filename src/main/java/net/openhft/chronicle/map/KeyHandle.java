@@ -0,0 +1,197 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.bytes.BytesStore;
+import net.openhft.chronicle.bytes.RandomDataInput;
+import net.openhft.chronicle.hash.AbstractData;
+import net.openhft.chronicle.hash.serialization.SizedReader;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.BiFunction;
+
+import static net.openhft.chronicle.hash.serialization.StatefulCopyable.copyIfNeeded;
+
+/**
+ * A handle of a {@link ChronicleMap} key, which captures the serialized form of the key, the key's
+ * hash code and its location within the map (the segment index and the position in the segment
+ * hash lookup) once, when the handle is {@linkplain ChronicleMap#keyHandle(Object) created}.
+ * Operations with the key, performed via the handle, skip the key serialization and hashing. Key
+ * handles are useful for keys, that are queried many times, e. g. a set of "hot" keys.
+ *
+ * <p>Key handle is bound to the map, that created it. It doesn't hold any resources and doesn't
+ * need to be closed, key handles are safe to be shared between threads. The key object, from
+ * which the handle is created, shouldn't be modified after that.
+ *
+ * @param <K> the map key type
+ * @param <V> the map value type
+ * @see ChronicleMap#keyHandle(Object)
+ */
+public final class KeyHandle<K, V> {
+
+    final VanillaChronicleMap<K, V, ?> map;
+    final K key;
+    final KeyData<K> keyData;
+    final long keyHash;
+    final int segmentIndex;
+    final long searchKey;
+    final long searchStartPos;
+
+    KeyHandle(VanillaChronicleMap<K, V, ?> map, K key, BytesStore keyBytes, long keyHash,
+              int segmentIndex, long searchKey, long searchStartPos) {
+        this.map = map;
+        this.key = key;
+        this.keyData = new KeyData<>(map, key, keyBytes);
+        this.keyHash = keyHash;
+        this.segmentIndex = segmentIndex;
+        this.searchKey = searchKey;
+        this.searchStartPos = searchStartPos;
+    }
+
+    /**
+     * Returns the key object, from which this handle was created.
+     */
+    public K key() {
+        return key;
+    }
+
+    /**
+     * Returns the map, which created this handle.
+     */
+    public ChronicleMap<K, V> map() {
+        return map;
+    }
+
+    /**
+     * Equivalent of {@code map().get(key())}, but skips the key serialization and hashing.
+     *
+     * @return the value to which the key of this handle is mapped, or {@code null} if the map
+     * contains no mapping for the key
+     * @see ChronicleMap#get(Object)
+     */
+    public V get() {
+        return map.handleGet(this, null);
+    }
+
+    /**
+     * Equivalent of {@code map().getUsing(key(), usingValue)}, but skips the key serialization and
+     * hashing.
+     *
+     * @param usingValue the object to read value data in, if possible
+     * @return the value to which the key of this handle is mapped, or {@code null} if the map
+     * contains no mapping for the key
+     * @see ChronicleMap#getUsing(Object, Object)
+     */
+    public V getUsing(V usingValue) {
+        return map.handleGet(this, usingValue);
+    }
+
+    /**
+     * Equivalent of {@code map().put(key(), value)}, but skips the key serialization and hashing.
+     *
+     * @param value value to be associated with the key of this handle
+     * @return the previous value associated with the key, or {@code null} if there was no mapping
+     * for the key
+     * @see ChronicleMap#put(Object, Object)
+     */
+    public V put(V value) {
+        return map.handlePut(this, value);
+    }
+
+    /**
+     * Equivalent of {@code map().remove(key())}, but skips the key serialization and hashing.
+     *
+     * @return the previous value associated with the key, or {@code null} if there was no mapping
+     * for the key
+     * @see ChronicleMap#remove(Object)
+     */
+    public V remove() {
+        return map.handleRemove(this);
+    }
+
+    /**
+     * Equivalent of {@code map().compute(key(), remappingFunction)}, but skips the key
+     * serialization and hashing.
+     *
+     * @param remappingFunction the function to compute a value
+     * @return the new value associated with the key, or {@code null} if none
+     * @see ChronicleMap#compute(Object, BiFunction)
+     */
+    public V compute(
+            @NotNull BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return map.handleCompute(this, remappingFunction);
+    }
+
+    /**
+     * Equivalent of {@code map().queryContext(key())}, but the returned context doesn't need to
+     * serialize and hash the key.
+     *
+     * @return the context to perform operations with the key of this handle
+     * @see ChronicleMap#queryContext(Object)
+     */
+    @NotNull
+    public ExternalMapQueryContext<K, V, ?> queryContext() {
+        return map.handleQueryContext(this);
+    }
+
+    @Override
+    public String toString() {
+        return "KeyHandle{" + key + "}";
+    }
+
+    /**
+     * Immutable {@code Data} over the copy of the key bytes, captured on the handle creation.
+     */
+    static final class KeyData<K> extends AbstractData<K> {
+        private final VanillaChronicleMap<K, ?, ?> map;
+        private final K key;
+        private final BytesStore bytes;
+
+        KeyData(VanillaChronicleMap<K, ?, ?> map, K key, BytesStore bytes) {
+            this.map = map;
+            this.key = key;
+            this.bytes = bytes;
+        }
+
+        @Override
+        public RandomDataInput bytes() {
+            return bytes;
+        }
+
+        @Override
+        public long offset() {
+            return 0;
+        }
+
+        @Override
+        public long size() {
+            return bytes.capacity();
+        }
+
+        @Override
+        public K get() {
+            return key;
+        }
+
+        @Override
+        public K getUsing(K using) {
+            SizedReader<K> keyReader = copyIfNeeded(map.keyReader);
+            return keyReader.read(bytes.bytesForRead(), size(), using);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+/**
+ * A view of a {@link ChronicleMap} with {@code Long} keys and {@code Long} values, which accepts and
+ * returns keys and values as primitives, without boxing them and going through the generic {@code
+ * Data} serialization path. Keys are hashed and compared directly by their bits, the same way, as
+ * the default {@code Long} and {@code Long} serializers do, so the view and the map share segments,
+ * locks and the persisted layout: entries, written via the view, are visible via the map, and vice
+ * versa, also in other processes, accessing the same persisted map. Operations on the view don't
+ * allocate objects.
+ *
+ * <p>The view is created over a map, built by {@link ChronicleMapBuilder} with the default key and
+ * value serialization, see {@link #of(ChronicleMap)}. Closing the view closes the map.
+ */
+public interface LongLongChronicleMap extends AutoCloseable {
+
+    /**
+     * Creates a primitive view of the given map.
+     *
+     * @param map the map, created by {@link ChronicleMapBuilder} with the default serialization
+     *            of {@code Long} keys and {@code Long} values
+     * @return a primitive view of the map
+     * @throws IllegalArgumentException if the map is not created by {@code ChronicleMapBuilder},
+     * or custom key or value serialization is configured
+     */
+    static LongLongChronicleMap of(ChronicleMap<Long, Long> map) {
+        return new PrimitiveChronicleMap.LongLong(map);
+    }
+
+    /**
+     * Returns the value, mapped for the given key, or {@code missing}, if the key is absent.
+     */
+    long get(long key, long missing);
+
+    /**
+     * Returns {@code true} if the map contains a mapping for the given key.
+     */
+    boolean containsKey(long key);
+
+    /**
+     * Maps the given key to the given value, replacing the previous value, if any.
+     */
+    void put(long key, long value);
+
+    /**
+     * Removes the mapping for the given key, returns {@code true} if the key was present.
+     */
+    boolean remove(long key);
+
+    /**
+     * Atomically adds the given delta to the value, mapped for the given key, or maps the key to
+     * the delta, if the key is absent, and returns the new value. If the map is configured with
+     * custom {@link MapMethods} or {@link MapEntryOperations}, this is done via {@link
+     * ChronicleMap#compute}, which boxes the key and the value.
+     */
+    long addAndGet(long key, long delta);
+
+    /**
+     * Performs the given action for each entry of the map, see {@link
+     * ChronicleMap#forEachEntry(java.util.function.Consumer)} for the guarantees of iteration.
+     */
+    void forEach(LongLongConsumer action);
+
+    /**
+     * Returns the number of entries in the map.
+     */
+    long size();
+
+    /**
+     * Returns the underlying map.
+     */
+    ChronicleMap<Long, Long> map();
+
+    /**
+     * Closes the underlying map.
+     */
+    @Override
+    void close();
+
+    /**
+     * An action, performed on each entry of a {@link LongLongChronicleMap}.
+     */
+    @FunctionalInterface
+    interface LongLongConsumer {
+        void accept(long key, long value);
+    }
+}
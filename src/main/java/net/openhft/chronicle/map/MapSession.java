@@ -0,0 +1,170 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.impl.stage.hash.ChainingInterface;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ConcurrentModificationException;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * A session of some thread with a {@link ChronicleMap}, owning a query context, which is reused by
+ * all operations, performed via the session, without looking up the context of the current thread
+ * in a thread local and searching an unused context in the chain of nested contexts, as operations
+ * on the map itself do.
+ *
+ * <p>The session could be used only from the thread, which {@linkplain ChronicleMap#openSession()
+ * opened} it. It should be closed, when it is no longer needed: if the map is configured with a
+ * {@linkplain ChronicleMapBuilder#contextPool(int) context pool}, the session keeps the context
+ * chain, borrowed from the pool, until it is closed.
+ *
+ * @param <K> the map key type
+ * @param <V> the map value type
+ * @see ChronicleMap#openSession()
+ */
+public final class MapSession<K, V> implements AutoCloseable {
+
+    final VanillaChronicleMap<K, V, ?> map;
+    final ChainingInterface context;
+    private final ChainingInterface rootContext;
+    private final Thread owner = Thread.currentThread();
+    private boolean closed;
+
+    MapSession(VanillaChronicleMap<K, V, ?> map, ChainingInterface context,
+               ChainingInterface rootContext) {
+        this.map = map;
+        this.context = context;
+        this.rootContext = rootContext;
+    }
+
+    void checkOpenAndOwnerThread() {
+        if (owner != Thread.currentThread()) {
+            throw new ConcurrentModificationException(
+                    "Session shouldn't be accessed from multiple threads");
+        }
+        if (closed)
+            throw new IllegalStateException("Session is closed");
+    }
+
+    /**
+     * Returns the map, with which this session is opened.
+     */
+    public ChronicleMap<K, V> map() {
+        return map;
+    }
+
+    /**
+     * Equivalent of {@code map().get(key)}.
+     *
+     * @see ChronicleMap#get(Object)
+     */
+    public V get(Object key) {
+        return map.sessionGet(this, key, null);
+    }
+
+    /**
+     * Equivalent of {@code map().getUsing(key, usingValue)}.
+     *
+     * @see ChronicleMap#getUsing(Object, Object)
+     */
+    public V getUsing(K key, V usingValue) {
+        return map.sessionGet(this, key, usingValue);
+    }
+
+    /**
+     * Equivalent of {@code map().containsKey(key)}.
+     *
+     * @see ChronicleMap#containsKey(Object)
+     */
+    public boolean containsKey(Object key) {
+        return map.sessionContainsKey(this, key);
+    }
+
+    /**
+     * Equivalent of {@code map().put(key, value)}.
+     *
+     * @see ChronicleMap#put(Object, Object)
+     */
+    public V put(K key, V value) {
+        return map.sessionPut(this, key, value);
+    }
+
+    /**
+     * Equivalent of {@code map().remove(key)}.
+     *
+     * @see ChronicleMap#remove(Object)
+     */
+    public V remove(Object key) {
+        return map.sessionRemove(this, key);
+    }
+
+    /**
+     * Equivalent of {@code map().compute(key, remappingFunction)}.
+     *
+     * @see ChronicleMap#compute(Object, BiFunction)
+     */
+    public V compute(K key,
+                     @NotNull BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        return map.sessionCompute(this, key, remappingFunction);
+    }
+
+    /**
+     * Equivalent of {@code map().queryContext(key)}, but returns the context, owned by this
+     * session, if it is not used by another operation of the session at the moment.
+     *
+     * @see ChronicleMap#queryContext(Object)
+     */
+    @NotNull
+    public ExternalMapQueryContext<K, V, ?> queryContext(K key) {
+        return map.sessionQueryContext(this, key);
+    }
+
+    /**
+     * Equivalent of {@code map().forEachEntry(action)}. Iteration acquires a context once per
+     * segment, so the session doesn't save anything, this method is provided for completeness.
+     *
+     * @see ChronicleMap#forEachEntry(Consumer)
+     */
+    public void forEachEntry(Consumer<? super MapEntry<K, V>> action) {
+        checkOpenAndOwnerThread();
+        map.forEachEntry(action);
+    }
+
+    /**
+     * Closes this session. If the map is configured with a {@linkplain
+     * ChronicleMapBuilder#contextPool(int) context pool}, returns the context chain to the pool,
+     * unless the current thread uses other contexts of the map at the moment. Subsequent
+     * operations via this session throw {@code IllegalStateException}.
+     */
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        checkOpenAndOwnerThread();
+        closed = true;
+        rootContext.unpin();
+    }
+
+    @Override
+    public String toString() {
+        return "MapSession{owner=" + owner + "}";
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+
+/**
+ * Function, atomically accessing the entries of several keys of a {@link ChronicleMap}, while the
+ * segments of all the keys are locked.
+ *
+ * @param <K> the map key type
+ * @param <V> the map value type
+ * @param <R> the result type
+ * @see ChronicleMap#transaction(java.util.Collection, MapTransaction)
+ */
+@FunctionalInterface
+public interface MapTransaction<K, V, R> {
+
+    /**
+     * Accesses the entries of the keys, given to {@link ChronicleMap#transaction}, via the given
+     * contexts. The context at the index {@code i} is the query context of the {@code i}-th key.
+     * The contexts are already {@linkplain MapQueryContext#updateLock() update-locked}, and are
+     * closed after this method call, they must not be retained or closed manually.
+     *
+     * @param contexts the query contexts of the keys, in the order of the keys
+     * @return the result of the transaction
+     */
+    R run(@NotNull List<MapQueryContext<K, V, ?>> contexts);
+}
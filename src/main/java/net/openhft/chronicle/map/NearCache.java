@@ -0,0 +1,325 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.ChronicleHashClosedException;
+import net.openhft.chronicle.hash.impl.VersionedSegmentHeader;
+import net.openhft.chronicle.map.impl.QueryContextInterface;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded on-heap cache of deserialized values of a {@link ChronicleMap}, for read paths, where
+ * value deserialization is the major part of the {@link ChronicleMap#get(Object) get()} cost.
+ *
+ * <p>A cached value is valid while the version of the map segment, to which the key belongs, is
+ * the same, as when the value was read. The segment version is stored in the segment header in
+ * the Chronicle Map's memory and is incremented by every update or removal of an entry in the
+ * segment, including writes from other processes, accessing the same persisted Chronicle Map.
+ * Hence the map should be created with {@linkplain ChronicleMapBuilder#optimisticReads(boolean)
+ * optimistic reads} enabled, to maintain segment versions. Any such write to the segment
+ * invalidates all cached values of the keys in the segment, so the cache is effective for
+ * read-mostly maps with many segments. Insertions of new keys don't change the segment version.
+ *
+ * <p>Writes, that bypass segment locks, don't change the segment version as well, so they don't
+ * invalidate cached values: writes via a value reference, returned from {@link
+ * ChronicleMap#acquireUsing(Object, Object) acquireUsing()} or {@link
+ * ChronicleMap#getUsing(Object, Object) getUsing()} with an off-heap {@link
+ * net.openhft.chronicle.bytes.Byteable Byteable} value, after the method has returned. Such
+ * values should be updated via {@link ChronicleMap#acquireContext(Object, Object)
+ * acquireContext()}, or {@code put()} of a copy, to be observed through the cache.
+ *
+ * <p>When the cache is full, values are evicted by CLOCK (second chance) algorithm. Lookups of
+ * cached values are lock-free, loading of values, absent in the cache, is serialized.
+ *
+ * <p>Values are returned from the cache as is, without copying, they must not be modified by
+ * the caller. Absent keys are not cached.
+ *
+ * @param <K> the map key type
+ * @param <V> the map value type
+ */
+public final class NearCache<K, V> {
+
+    /**
+     * Creates a near cache of the given map's values.
+     *
+     * @param map the map, created with {@linkplain ChronicleMapBuilder#optimisticReads(boolean)
+     * optimistic reads} enabled
+     * @param capacity the max number of values in the cache
+     * @param <K> the map key type
+     * @param <V> the map value type
+     * @return a new near cache
+     * @throws IllegalArgumentException if the map doesn't maintain segment versions, or if the
+     * capacity is not positive
+     */
+    public static <K, V> NearCache<K, V> of(@NotNull ChronicleMap<K, V> map, int capacity) {
+        if (!(map instanceof VanillaChronicleMap) ||
+                !((VanillaChronicleMap) map).optimisticReads) {
+            throw new IllegalArgumentException("Near cache requires a map, " +
+                    "created with ChronicleMapBuilder.optimisticReads(true), to maintain " +
+                    "segment versions");
+        }
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity should be positive, " + capacity + " given");
+        return new NearCache<>((VanillaChronicleMap<K, V, ?>) map, capacity);
+    }
+
+    private final VanillaChronicleMap<K, V, ?> map;
+    private final int capacity;
+    private final ConcurrentHashMap<K, Entry<K, V>> index;
+    /** CLOCK ring, guarded by {@code this} */
+    private final Entry<K, V>[] ring;
+    private int ringSize = 0;
+    private int hand = 0;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    private NearCache(VanillaChronicleMap<K, V, ?> map, int capacity) {
+        this.map = map;
+        this.capacity = capacity;
+        this.index = new ConcurrentHashMap<>(capacity);
+        this.ring = new Entry[capacity];
+    }
+
+    /**
+     * Returns the map, which values are cached.
+     */
+    public ChronicleMap<K, V> map() {
+        return map;
+    }
+
+    /**
+     * Returns the max number of values in this cache.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of values in this cache at the moment, some of them might be already
+     * invalid.
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Returns the value, to which the given key is mapped in the map, or {@code null}, if the map
+     * contains no mapping for the key. The returned value is shared and must not be modified.
+     *
+     * @param key the key whose associated value is to be returned
+     * @return the value, to which the key is mapped, or {@code null}
+     * @throws ChronicleHashClosedException if the map is closed
+     */
+    public V get(@NotNull K key) {
+        // segment versions are read from the map's memory, the context of the map guards the
+        // memory from being released by a concurrent close(), see VanillaChronicleHash.doClose()
+        try (QueryContextInterface<K, V, ?> guard = map.mapContext()) {
+            Entry<K, V> entry = index.get(key);
+            if (entry != null) {
+                Cached<V> cached = entry.cached;
+                if (cached.version == VersionedSegmentHeader.version(entry.segmentHeaderAddress)) {
+                    entry.referenced = true;
+                    hits.increment();
+                    return cached.value;
+                }
+                invalidations.increment();
+                return reload(entry);
+            }
+            misses.increment();
+            return load(key);
+        }
+    }
+
+    private V reload(Entry<K, V> entry) {
+        Cached<V> cached = read(entry.handle, entry.segmentHeaderAddress);
+        if (cached == null) {
+            // the key is absent
+            index.remove(entry.handle.key, entry);
+            return null;
+        }
+        if (cached.version != Cached.NOT_CACHEABLE)
+            entry.cached = cached;
+        return cached.value;
+    }
+
+    private V load(K key) {
+        KeyHandle<K, V> handle = map.keyHandle(key);
+        long segmentHeaderAddress = map.segmentHeaderAddress(handle.segmentIndex);
+        Cached<V> cached = read(handle, segmentHeaderAddress);
+        if (cached == null)
+            return null;
+        if (cached.version != Cached.NOT_CACHEABLE)
+            insert(new Entry<>(handle, segmentHeaderAddress, cached));
+        return cached.value;
+    }
+
+    /**
+     * Returns {@code null} if the key is absent. Must be called within a context of the map, see
+     * {@link #get}.
+     */
+    private Cached<V> read(KeyHandle<K, V> handle, long segmentHeaderAddress) {
+        int version = VersionedSegmentHeader.version(segmentHeaderAddress);
+        V value = handle.get();
+        if (value == null)
+            return null;
+        if ((version & 1) != 0 || !VersionedSegmentHeader.validate(segmentHeaderAddress, version)) {
+            // the segment was modified concurrently, the value might be already stale
+            return new Cached<>(value, Cached.NOT_CACHEABLE);
+        }
+        return new Cached<>(value, version);
+    }
+
+    private synchronized void insert(Entry<K, V> entry) {
+        if (index.putIfAbsent(entry.handle.key, entry) != null)
+            return;
+        if (ringSize < capacity) {
+            ring[ringSize++] = entry;
+            return;
+        }
+        while (true) {
+            Entry<K, V> victim = ring[hand];
+            if (victim.referenced) {
+                // second chance
+                victim.referenced = false;
+            } else {
+                // the victim might be already removed from the index, if the key is found absent
+                if (index.remove(victim.handle.key, victim))
+                    evictions.increment();
+                ring[hand] = entry;
+                hand = next(hand);
+                return;
+            }
+            hand = next(hand);
+        }
+    }
+
+    private int next(int pos) {
+        return pos + 1 < capacity ? pos + 1 : 0;
+    }
+
+    /**
+     * Equivalent of {@code map().put(key, value)}, the cached value for the key, if any, is
+     * invalidated by the segment version change.
+     *
+     * @see ChronicleMap#put(Object, Object)
+     */
+    public V put(K key, V value) {
+        return map.put(key, value);
+    }
+
+    /**
+     * Equivalent of {@code map().remove(key)}, the cached value for the key, if any, is
+     * invalidated by the segment version change.
+     *
+     * @see ChronicleMap#remove(Object)
+     */
+    public V remove(K key) {
+        return map.remove(key);
+    }
+
+    /**
+     * Removes all values from this cache.
+     */
+    public synchronized void clear() {
+        index.clear();
+        Arrays.fill(ring, null);
+        ringSize = 0;
+        hand = 0;
+    }
+
+    /**
+     * Returns the number of {@link #get} calls, which returned a valid cached value.
+     */
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of {@link #get} calls, which didn't find a cached value for the key.
+     */
+    public long missCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of cached values, found invalid because the segment version has changed.
+     */
+    public long invalidationCount() {
+        return invalidations.sum();
+    }
+
+    /**
+     * Returns the number of values, evicted from this cache to free space for other values.
+     */
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Returns the ratio of {@link #get} calls, which returned a valid cached value, or {@code 1.0}
+     * if there were no calls.
+     */
+    public double hitRate() {
+        long hits = hitCount();
+        long requests = hits + missCount() + invalidationCount();
+        return requests == 0 ? 1.0 : (double) hits / requests;
+    }
+
+    @Override
+    public String toString() {
+        return "NearCache{capacity=" + capacity + ", size=" + size() +
+                ", hits=" + hitCount() + ", misses=" + missCount() +
+                ", invalidations=" + invalidationCount() + ", evictions=" + evictionCount() + "}";
+    }
+
+    private static final class Entry<K, V> {
+        final KeyHandle<K, V> handle;
+        final long segmentHeaderAddress;
+        volatile Cached<V> cached;
+        volatile boolean referenced;
+
+        Entry(KeyHandle<K, V> handle, long segmentHeaderAddress, Cached<V> cached) {
+            this.handle = handle;
+            this.segmentHeaderAddress = segmentHeaderAddress;
+            this.cached = cached;
+        }
+    }
+
+    private static final class Cached<V> {
+        /**
+         * Segment versions are compared with {@code ==}, use {@code long} to never match
+         */
+        static final long NOT_CACHEABLE = Long.MIN_VALUE;
+
+        final V value;
+        final long version;
+
+        Cached(V value, long version) {
+            this.value = value;
+            this.version = version;
+        }
+    }
+}
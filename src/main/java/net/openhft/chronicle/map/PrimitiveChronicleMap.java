@@ -0,0 +1,381 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.algo.hashing.LongHashFunction;
+import net.openhft.chronicle.bytes.BytesIn;
+import net.openhft.chronicle.bytes.BytesStore;
+import net.openhft.chronicle.bytes.RandomDataInput;
+import net.openhft.chronicle.bytes.RandomDataOutput;
+import net.openhft.chronicle.hash.AbstractData;
+import net.openhft.chronicle.hash.Data;
+import net.openhft.chronicle.hash.serialization.DataAccess;
+import net.openhft.chronicle.hash.serialization.impl.IntegerDataAccess;
+import net.openhft.chronicle.hash.serialization.impl.LongDataAccess;
+import net.openhft.chronicle.map.impl.NullReturnValue;
+import net.openhft.chronicle.map.impl.QueryContextInterface;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Common implementation of {@link LongLongChronicleMap}, {@link LongIntChronicleMap} and {@link
+ * IntIntChronicleMap}. Keys and values are passed as {@code long} bits, {@code int} keys and values
+ * are stored as the lower 32 bits. Each thread reuses its own key and value {@code Data}, so
+ * operations don't allocate.
+ */
+abstract class PrimitiveChronicleMap<K, V> {
+
+    final VanillaChronicleMap<K, V, ?> map;
+    private final int keySize;
+    private final int valueSize;
+    private final ThreadLocal<ThreadState<K, V>> threadState;
+
+    PrimitiveChronicleMap(ChronicleMap<K, V> map) {
+        if (!(map instanceof VanillaChronicleMap)) {
+            throw new IllegalArgumentException(
+                    "Primitive views support only maps, created by ChronicleMapBuilder");
+        }
+        this.map = (VanillaChronicleMap<K, V, ?>) map;
+        keySize = primitiveSize(this.map.keyClass, this.map.keyDataAccess, "key");
+        valueSize = primitiveSize(this.map.valueClass, this.map.valueDataAccess, "value");
+        threadState = ThreadLocal.withInitial(() -> new ThreadState<>(keySize, valueSize));
+    }
+
+    private static int primitiveSize(Class<?> c, DataAccess<?> dataAccess, String what) {
+        if (c == Long.class && dataAccess instanceof LongDataAccess)
+            return 8;
+        if (c == Integer.class && dataAccess instanceof IntegerDataAccess)
+            return 4;
+        throw new IllegalArgumentException("Primitive views require the default serialization " +
+                "of Long and Integer " + what + "s, " + c + " " + what + " class and " +
+                dataAccess.getClass().getName() + " " + what + " data access are configured");
+    }
+
+    private static long readBits(RandomDataInput in, long offset, int size) {
+        return size == 8 ? in.readLong(offset) : in.readInt(offset);
+    }
+
+    private static long readBits(Data<?> data, int size) {
+        return readBits(data.bytes(), data.offset(), size);
+    }
+
+    final long getBits(long key, long missing) {
+        ThreadState<K, V> s = threadState.get();
+        return map.readValueOfData(s.key.set(key), s) != null ? s.valueBits : missing;
+    }
+
+    final boolean containsKeyBits(long key) {
+        ThreadState<K, V> s = threadState.get();
+        return map.readValueOfData(s.key.set(key), s) != null;
+    }
+
+    final void putBits(long key, long value) {
+        ThreadState<K, V> s = threadState.get();
+        try (QueryContextInterface<K, V, ?> c = map.queryContext(s.key.set(key))) {
+            map.methods.put((QueryContextInterface) c, s.value.set(value), NullReturnValue.get());
+        }
+    }
+
+    final boolean removeBits(long key) {
+        ThreadState<K, V> s = threadState.get();
+        try (QueryContextInterface<K, V, ?> c = map.queryContext(s.key.set(key))) {
+            s.returned = false;
+            map.methods.remove((QueryContextInterface) c, s);
+            return s.returned;
+        }
+    }
+
+    /**
+     * Returns the new value bits, {@code int} values overflow within 32 bits.
+     */
+    final long addAndGetBits(long key, long delta) {
+        if (!map.defaultEntryOperationsAndMethods) {
+            // custom MapMethods and MapEntryOperations are applied via compute(), with boxing
+            V newValue = map.compute(box(key, keySize), (k, v) -> box(
+                    (v != null ? ((Number) v).longValue() : 0L) + delta, valueSize));
+            return ((Number) newValue).longValue();
+        }
+        ThreadState<K, V> s = threadState.get();
+        // the same as compute() with the default MapMethods and MapEntryOperations
+        try (QueryContextInterface<K, V, ?> c = map.queryContext(s.key.set(key))) {
+            c.updateLock().lock();
+            MapEntry<K, V> entry = c.entry();
+            long value = delta;
+            if (entry != null) {
+                value += readBits(entry.value(), valueSize);
+                if (valueSize == 4)
+                    value = (int) value;
+                c.replaceValue(entry, s.value.set(value));
+            } else {
+                c.insert(c.absentEntry(), s.value.set(value));
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Boxes {@code int} bits to {@code Integer}, with overflow within 32 bits.
+     */
+    private static <T> T box(long bits, int size) {
+        //noinspection unchecked
+        return (T) (size == 8 ? Long.valueOf(bits) : (Object) Integer.valueOf((int) bits));
+    }
+
+    final void forEachBits(BitsConsumer action) {
+        map.forEachEntry(e -> action.accept(readBits(e.key(), keySize),
+                readBits(e.value(), valueSize)));
+    }
+
+    public final long size() {
+        return map.longSize();
+    }
+
+    public final void close() {
+        map.close();
+    }
+
+    @FunctionalInterface
+    interface BitsConsumer {
+        void accept(long key, long value);
+    }
+
+    /**
+     * Per-thread key and value {@code Data}, also reads the value in {@link #getBits} and records
+     * the presence of the removed value in {@link #removeBits}.
+     */
+    private static final class ThreadState<K, V>
+            implements ValueBytesReader<Object>, ReturnValue<V> {
+        final PrimitiveData<K> key;
+        final PrimitiveData<V> value;
+        long valueBits;
+        boolean returned;
+
+        ThreadState(int keySize, int valueSize) {
+            key = new PrimitiveData<>(keySize);
+            value = new PrimitiveData<>(valueSize);
+        }
+
+        @Override
+        public Object read(@NotNull BytesIn valueBytes, long size) {
+            valueBits = size == 8 ? valueBytes.readLong() : valueBytes.readInt();
+            return this;
+        }
+
+        @Override
+        public void returnValue(@NotNull Data<V> value) {
+            returned = true;
+        }
+    }
+
+    /**
+     * {@code Data} of a {@code long} or {@code int}, which is serialized, hashed and compared the
+     * same way, as by {@link LongDataAccess} and {@link IntegerDataAccess}.
+     */
+    private static final class PrimitiveData<T> extends AbstractData<T> {
+        private final int size;
+        private final BytesStore bs = BytesStore.wrap(new byte[8]);
+        private boolean bsInit;
+        private long bits;
+
+        PrimitiveData(int size) {
+            this.size = size;
+        }
+
+        PrimitiveData<T> set(long bits) {
+            this.bits = bits;
+            bsInit = false;
+            return this;
+        }
+
+        @Override
+        public RandomDataInput bytes() {
+            if (!bsInit) {
+                writeTo(bs, 0);
+                bsInit = true;
+            }
+            return bs;
+        }
+
+        @Override
+        public long offset() {
+            return 0;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public long hash(LongHashFunction f) {
+            return size == 8 ? f.hashLong(bits) : f.hashInt((int) bits);
+        }
+
+        @Override
+        public boolean equivalent(RandomDataInput source, long sourceOffset) {
+            return size == 8 ? source.readLong(sourceOffset) == bits :
+                    source.readInt(sourceOffset) == (int) bits;
+        }
+
+        @Override
+        public void writeTo(RandomDataOutput target, long targetOffset) {
+            if (size == 8) {
+                target.writeLong(targetOffset, bits);
+            } else {
+                target.writeInt(targetOffset, (int) bits);
+            }
+        }
+
+        @Override
+        public T get() {
+            //noinspection unchecked
+            return (T) (size == 8 ? (Object) bits : (Object) (int) bits);
+        }
+
+        @Override
+        public T getUsing(@Nullable T using) {
+            return get();
+        }
+    }
+
+    static final class LongLong extends PrimitiveChronicleMap<Long, Long>
+            implements LongLongChronicleMap {
+        LongLong(ChronicleMap<Long, Long> map) {
+            super(map);
+        }
+
+        @Override
+        public long get(long key, long missing) {
+            return getBits(key, missing);
+        }
+
+        @Override
+        public boolean containsKey(long key) {
+            return containsKeyBits(key);
+        }
+
+        @Override
+        public void put(long key, long value) {
+            putBits(key, value);
+        }
+
+        @Override
+        public boolean remove(long key) {
+            return removeBits(key);
+        }
+
+        @Override
+        public long addAndGet(long key, long delta) {
+            return addAndGetBits(key, delta);
+        }
+
+        @Override
+        public void forEach(LongLongConsumer action) {
+            forEachBits(action::accept);
+        }
+
+        @Override
+        public ChronicleMap<Long, Long> map() {
+            return map;
+        }
+    }
+
+    static final class LongInt extends PrimitiveChronicleMap<Long, Integer>
+            implements LongIntChronicleMap {
+        LongInt(ChronicleMap<Long, Integer> map) {
+            super(map);
+        }
+
+        @Override
+        public int get(long key, int missing) {
+            return (int) getBits(key, missing);
+        }
+
+        @Override
+        public boolean containsKey(long key) {
+            return containsKeyBits(key);
+        }
+
+        @Override
+        public void put(long key, int value) {
+            putBits(key, value);
+        }
+
+        @Override
+        public boolean remove(long key) {
+            return removeBits(key);
+        }
+
+        @Override
+        public int addAndGet(long key, int delta) {
+            return (int) addAndGetBits(key, delta);
+        }
+
+        @Override
+        public void forEach(LongIntConsumer action) {
+            forEachBits((key, value) -> action.accept(key, (int) value));
+        }
+
+        @Override
+        public ChronicleMap<Long, Integer> map() {
+            return map;
+        }
+    }
+
+    static final class IntInt extends PrimitiveChronicleMap<Integer, Integer>
+            implements IntIntChronicleMap {
+        IntInt(ChronicleMap<Integer, Integer> map) {
+            super(map);
+        }
+
+        @Override
+        public int get(int key, int missing) {
+            return (int) getBits(key, missing);
+        }
+
+        @Override
+        public boolean containsKey(int key) {
+            return containsKeyBits(key);
+        }
+
+        @Override
+        public void put(int key, int value) {
+            putBits(key, value);
+        }
+
+        @Override
+        public boolean remove(int key) {
+            return removeBits(key);
+        }
+
+        @Override
+        public int addAndGet(int key, int delta) {
+            return (int) addAndGetBits(key, delta);
+        }
+
+        @Override
+        public void forEach(IntIntConsumer action) {
+            forEachBits((key, value) -> action.accept((int) key, (int) value));
+        }
+
+        @Override
+        public ChronicleMap<Integer, Integer> map() {
+            return map;
+        }
+    }
+}
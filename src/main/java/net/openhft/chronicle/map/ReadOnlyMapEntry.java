@@ -0,0 +1,120 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.bytes.BytesStore;
+import net.openhft.chronicle.bytes.RandomDataInput;
+import net.openhft.chronicle.hash.AbstractData;
+import net.openhft.chronicle.hash.Data;
+import net.openhft.chronicle.hash.serialization.SizedReader;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Entry of a read-only map, passed to {@link VanillaChronicleMap#forEachEntryWhile}. Key and value
+ * bytes are copied from the segment during a validated optimistic read, so the entry is not bound
+ * to a context and the segment is not locked, {@link #context()}, {@link #doReplaceValue} and
+ * {@link #doRemove()} throw {@link UnsupportedOperationException}.
+ */
+final class ReadOnlyMapEntry<K, V> implements MapEntry<K, V> {
+
+    private final HeapData<K> key;
+    private final HeapData<V> value;
+
+    /**
+     * @param keyReader the key reader, {@linkplain
+     * net.openhft.chronicle.hash.serialization.StatefulCopyable#copyIfNeeded copied} for the
+     * calling thread
+     * @param valueReader the value reader, copied for the calling thread
+     */
+    ReadOnlyMapEntry(SizedReader<K> keyReader, byte[] key,
+                     SizedReader<V> valueReader, byte[] value) {
+        this.key = new HeapData<>(keyReader, key);
+        this.value = new HeapData<>(valueReader, value);
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("Entries of a read-only map are not bound to " +
+                "contexts and can't be modified");
+    }
+
+    @NotNull
+    @Override
+    public MapContext<K, V, ?> context() {
+        throw readOnly();
+    }
+
+    @NotNull
+    @Override
+    public Data<K> key() {
+        return key;
+    }
+
+    @NotNull
+    @Override
+    public Data<V> value() {
+        return value;
+    }
+
+    @Override
+    public void doReplaceValue(Data<V> newValue) {
+        throw readOnly();
+    }
+
+    @Override
+    public void doRemove() {
+        throw readOnly();
+    }
+
+    private static final class HeapData<T> extends AbstractData<T> {
+        private final SizedReader<T> reader;
+        private final BytesStore bytes;
+        private T cachedInstance;
+
+        HeapData(SizedReader<T> reader, byte[] bytes) {
+            this.reader = reader;
+            this.bytes = BytesStore.wrap(bytes);
+        }
+
+        @Override
+        public RandomDataInput bytes() {
+            return bytes;
+        }
+
+        @Override
+        public long offset() {
+            return 0;
+        }
+
+        @Override
+        public long size() {
+            return bytes.capacity();
+        }
+
+        @Override
+        public T get() {
+            if (cachedInstance == null)
+                cachedInstance = getUsing(null);
+            return cachedInstance;
+        }
+
+        @Override
+        public T getUsing(T using) {
+            return reader.read(bytes.bytesForRead(), size(), using);
+        }
+    }
+}
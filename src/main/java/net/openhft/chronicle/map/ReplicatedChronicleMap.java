@@ -150,8 +150,8 @@ public class ReplicatedChronicleMap<K, V, R> extends VanillaChronicleMap<K, V, R
     }
 
     @Override
-    public void writeMarshallable(@NotNull WireOut wireOut) {
-        super.writeMarshallable(wireOut);
+    protected void writeMarshallableFields(@NotNull WireOut wireOut) {
+        super.writeMarshallableFields(wireOut);
 
         wireOut.write(() -> "tierModIterBitSetSizeInBits").int64(tierModIterBitSetSizeInBits);
         wireOut.write(() -> "tierModIterBitSetOuterSize").int64(tierModIterBitSetOuterSize);
@@ -199,6 +199,15 @@ public class ReplicatedChronicleMap<K, V, R> extends VanillaChronicleMap<K, V, R
         cleanupTimeoutUnit = builder.cleanupTimeoutUnit;
     }
 
+    /**
+     * Changes of entries are tracked by their positions in tiers, in modification iterator bit
+     * sets, so tiers are not freed.
+     */
+    @Override
+    public boolean tiersCouldBeFreed() {
+        return false;
+    }
+
     private long computeTierModIterBitSetSizeInBits() {
         return LONGS.align(actualChunksPerSegmentTier, BITS);
     }
@@ -559,11 +568,10 @@ public class ReplicatedChronicleMap<K, V, R> extends VanillaChronicleMap<K, V, R
     
     private ChainingInterface q() {
         //noinspection unchecked
-        ChainingInterface queryContext = cxt.get();
+        ChainingInterface queryContext = threadContext();
         if (queryContext == null) {
             queryContext = new CompiledReplicatedMapQueryContext<>(this);
-            addContext(queryContext);
-            cxt.set(queryContext);
+            setThreadContext(queryContext);
         }
         return queryContext;
     }
@@ -597,11 +605,10 @@ public class ReplicatedChronicleMap<K, V, R> extends VanillaChronicleMap<K, V, R
 
     private ChainingInterface i() {
         //noinspection unchecked
-        ChainingInterface iterContext = cxt.get();
+        ChainingInterface iterContext = threadContext();
         if (iterContext == null) {
             iterContext = new CompiledReplicatedMapIterationContext<>(this);
-            addContext(iterContext);
-            cxt.set(iterContext);
+            setThreadContext(iterContext);
         }
         return iterContext;
     }
@@ -961,4 +968,29 @@ public class ReplicatedChronicleMap<K, V, R> extends VanillaChronicleMap<K, V, R
     public final V getUsing(K key, V usingValue) {
         return defaultGetUsing(key, usingValue);
     }
+
+    @Override
+    final void doGetAll(Object[] keys, Object[] values) {
+        defaultGetAll(keys, values);
+    }
+
+    @Override
+    final V handleGet(KeyHandle<K, V> handle, V using) {
+        return defaultHandleGet(handle, using);
+    }
+
+    @Override
+    final <T> T doReadValue(Object key, ValueBytesReader<T> reader) {
+        return defaultReadValue(key, reader);
+    }
+
+    @Override
+    final <T> T readValueOfData(Data<K> key, ValueBytesReader<T> reader) {
+        return defaultReadValueOfData(key, reader);
+    }
+
+    @Override
+    final V sessionGet(MapSession<K, V> session, Object key, V using) {
+        return defaultSessionGet(session, key, using);
+    }
 }
\ No newline at end of file
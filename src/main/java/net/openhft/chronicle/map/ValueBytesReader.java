@@ -0,0 +1,50 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.bytes.BytesIn;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Function, reading some result directly from the serialized form of a {@link ChronicleMap} value,
+ * without deserializing the whole value.
+ *
+ * @param <R> the result type
+ * @see ChronicleMap#readValue(Object, ValueBytesReader)
+ */
+@FunctionalInterface
+public interface ValueBytesReader<R> {
+
+    /**
+     * Reads the result from the given value bytes. {@code valueBytes} is a view of the value bytes
+     * in the Chronicle Map's memory, positioned at the start of the value, reading beyond the
+     * value end (i. e. more than {@code size} bytes) is not allowed and fails with an exception.
+     * The view is valid only during this method call and must not be retained. The view is
+     * read-only: relative and absolute writes through it (e. g. after casting it to {@code
+     * Bytes}) fail with {@link java.nio.BufferOverflowException}. The view is backed by the
+     * Chronicle Map's memory, which is not protected from writes by other means, e. g. through
+     * the {@code bytesStore()} of the view. Such writes violate this contract, they bypass
+     * segment locks, entry checksums and version stamps of optimistic reads, and could corrupt
+     * the map.
+     *
+     * @param valueBytes the bytes of the value
+     * @param size the size of the value in bytes
+     * @return the result of reading
+     */
+    R read(@NotNull BytesIn valueBytes, long size);
+}
@@ -17,15 +17,22 @@
 
 package net.openhft.chronicle.map;
 
-import net.openhft.chronicle.algo.hashing.LongHashFunction;
+import net.openhft.chronicle.bytes.Byteable;
 import net.openhft.chronicle.bytes.Bytes;
 import net.openhft.chronicle.bytes.BytesStore;
 import net.openhft.chronicle.bytes.PointerBytesStore;
+import net.openhft.chronicle.bytes.RandomDataInput;
+import net.openhft.chronicle.bytes.VanillaBytes;
+import net.openhft.chronicle.core.Jvm;
+import net.openhft.chronicle.core.Maths;
+import net.openhft.chronicle.core.OS;
 import net.openhft.chronicle.core.io.Closeable;
+import net.openhft.chronicle.hash.ChronicleHashClosedException;
 import net.openhft.chronicle.hash.Data;
 import net.openhft.chronicle.hash.impl.*;
 import net.openhft.chronicle.hash.impl.stage.entry.LocksInterface;
 import net.openhft.chronicle.hash.impl.stage.hash.ChainingInterface;
+import net.openhft.chronicle.hash.impl.stage.hash.ContextPool;
 import net.openhft.chronicle.hash.impl.util.Objects;
 import net.openhft.chronicle.hash.serialization.DataAccess;
 import net.openhft.chronicle.hash.serialization.SizeMarshaller;
@@ -37,14 +44,29 @@ import net.openhft.chronicle.set.ChronicleSet;
 import net.openhft.chronicle.wire.WireIn;
 import net.openhft.chronicle.wire.WireOut;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.Predicate;
 
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static net.openhft.chronicle.hash.serialization.StatefulCopyable.copyIfNeeded;
 import static net.openhft.chronicle.map.ChronicleMapBuilder.greatestCommonDivisor;
 
 public class VanillaChronicleMap<K, V, R>
@@ -67,6 +89,22 @@ public class VanillaChronicleMap<K, V, R>
     public int worstAlignment;
 
     public transient boolean couldNotDetermineAlignmentBeforeAllocation;
+    /**
+     * The size of keys, if both keys and values are of constant size of 1, 2, 4 or 8 bytes, sizes
+     * are not stored in entries and values are not aligned, otherwise 0. Then the key and the
+     * value of an entry are at constant offsets from the entry start, and {@link
+     * #searchValueSize} compares keys by their bits, read directly from the entry space.
+     *
+     * <p>This is only a shortcut of the optimized lookup, not a different layout: entries still
+     * live in the entry space, the hash lookup slot still holds the entry position, and a lookup
+     * still reads the slot and then the entry, i. e. two memory locations and the memory usage is
+     * the same. Keys and values are not inlined into hash lookup slots, because all context stages
+     * (iteration, entry data views, checksums, recovery, the free list) and the backward shift
+     * deletion rely on the slot to entry space indirection.
+     */
+    transient int directKeySize;
+    /** The size of values, if {@link #directKeySize} is not 0 */
+    transient int directValueSize;
 
     /////////////////////////////////////////////////
     // Behavior
@@ -80,10 +118,13 @@ public class VanillaChronicleMap<K, V, R>
     
     public transient MapEntryOperations<K, V, R> entryOperations;
     public transient MapMethods<K, V, R> methods;
-    private transient boolean defaultEntryOperationsAndMethods;
+    transient boolean defaultEntryOperationsAndMethods;
     public transient DefaultValueProvider<K, V> defaultValueProvider;
     
     transient ThreadLocal<ChainingInterface> cxt;
+    transient int maxPooledContexts;
+    /** If not null, context chains are borrowed from this pool instead of cached per thread */
+    transient ContextPool contextPool;
 
     public VanillaChronicleMap(ChronicleMapBuilder<K, V> builder) throws IOException {
         super(builder);
@@ -94,10 +135,14 @@ public class VanillaChronicleMap<K, V, R>
         valueDataAccess = valueBuilder.dataAccess();
 
         constantlySizedEntry = builder.constantlySizedEntries();
+        if (tierEntryLocksSize > 0)
+            checkEntryLocksSupported();
 
         // Concurrency (number of segments), memory management and dependent fields
         alignment = builder.valueAlignment();
         worstAlignment = builder.worstAlignment();
+        if (segmentGrowth)
+            checkSegmentGrowthSupported();
 
         initTransientsFromBuilder(builder);
         initTransients();
@@ -119,8 +164,8 @@ public class VanillaChronicleMap<K, V, R>
     }
 
     @Override
-    public void writeMarshallable(@NotNull WireOut wireOut) {
-        super.writeMarshallable(wireOut);
+    protected void writeMarshallableFields(@NotNull WireOut wireOut) {
+        super.writeMarshallableFields(wireOut);
 
         wireOut.write(() -> "valueClass").typeLiteral(valueClass);
         wireOut.write(() -> "valueSizeMarshaller").typedMarshallable(valueSizeMarshaller);
@@ -141,7 +186,19 @@ public class VanillaChronicleMap<K, V, R>
         methods = (MapMethods<K, V, R>) builder.methods;
         defaultEntryOperationsAndMethods = entryOperations == DefaultSpi.mapEntryOperations() &&
                 methods == DefaultSpi.mapMethods();
+        // entry locked acquireContext() writes the value back in place under the segment read
+        // lock, bypassing MapEntryOperations.replaceValue(), and reads take the entry lock,
+        // bypassing MapMethods.get()
+        if (tierEntryLocksSize > 0 && !defaultEntryOperationsAndMethods) {
+            throw new IllegalStateException("Entry locks are not compatible with custom " +
+                    "MapEntryOperations and MapMethods, see ChronicleMapBuilder.entryLocks()");
+        }
         defaultValueProvider = builder.defaultValueProvider;
+        maxPooledContexts = builder.contextPool();
+        // when the map is deserialized from the persisted header, own transients are already
+        // initialized
+        if (cxt != null)
+            initContextPool();
     }
 
     @Override
@@ -157,10 +214,88 @@ public class VanillaChronicleMap<K, V, R>
         }
     }
 
+    @Override
+    public void recoverSegment(int segmentIndex) {
+        try (IterationContext<K, V, ?> iterationContext = iterationContext()) {
+            iterationContext.recoverSegment(segmentIndex);
+        }
+    }
+
+    @Override
+    public long compactTiers() {
+        long freedTiers = 0;
+        for (int segmentIndex = 0; segmentIndex < actualSegments; segmentIndex++) {
+            try (IterationContext<K, V, ?> iterationContext = iterationContext()) {
+                freedTiers += iterationContext.compactTiers(segmentIndex);
+            }
+        }
+        return freedTiers;
+    }
+
     private void initOwnTransients() {
         couldNotDetermineAlignmentBeforeAllocation =
                 greatestCommonDivisor((int) chunkSize, alignment) != alignment;
+        int keySize = smallConstantSize(keySizeMarshaller);
+        int valueSize = smallConstantSize(valueSizeMarshaller);
+        // replicated entries have replication bytes between the key and the value
+        boolean direct = keySize > 0 && valueSize > 0 && alignment == 1 &&
+                !(this instanceof ReplicatedChronicleMap);
+        directKeySize = direct ? keySize : 0;
+        directValueSize = direct ? valueSize : 0;
         cxt = new ThreadLocal<>();
+        initContextPool();
+    }
+
+    /**
+     * Returns the size, if the given marshaller allows only a single size of 1, 2, 4 or 8 bytes
+     * and doesn't store it, otherwise 0.
+     */
+    private static int smallConstantSize(SizeMarshaller sizeMarshaller) {
+        long size = sizeMarshaller.minStorableSize();
+        if (size != sizeMarshaller.maxStorableSize() || sizeMarshaller.storingLength(size) != 0)
+            return 0;
+        return size == 1 || size == 2 || size == 4 || size == 8 ? (int) size : 0;
+    }
+
+    private static long readDirectBits(RandomDataInput in, long offset, int size) {
+        switch (size) {
+            case 1: return in.readByte(offset);
+            case 2: return in.readShort(offset);
+            case 4: return in.readInt(offset);
+            default: return in.readLong(offset);
+        }
+    }
+
+    private static long readDirectBits(long address, int size) {
+        switch (size) {
+            case 1: return OS.memory().readByte(address);
+            case 2: return OS.memory().readShort(address);
+            case 4: return OS.memory().readInt(address);
+            default: return OS.memory().readLong(address);
+        }
+    }
+
+    private void initContextPool() {
+        contextPool = maxPooledContexts > 0 ? new ContextPool(maxPooledContexts, cxt) : null;
+    }
+
+    /**
+     * Returns the root context of the context chain of the current thread, borrowing a chain from
+     * the {@link #contextPool}, if configured, or {@code null} if a new chain should be created and
+     * {@linkplain #setThreadContext set}.
+     */
+    final ChainingInterface threadContext() {
+        ChainingInterface context = cxt.get();
+        if (context == null && contextPool != null)
+            context = contextPool.borrow();
+        return context;
+    }
+
+    final void setThreadContext(ChainingInterface context) {
+        addContext(context);
+        if (contextPool != null)
+            contextPool.register(context);
+        cxt.set(context);
     }
 
     public final V checkValue(Object value) {
@@ -196,6 +331,8 @@ public class VanillaChronicleMap<K, V, R>
     @NotNull
     @Override
     public final Closeable acquireContext(K key, V usingValue) {
+        if (tierEntryLocksSize > 0)
+            return acquireEntryLockedContext(key, usingValue);
         QueryContextInterface<K, V, R> q = queryContext(key);
         // TODO optimize to update lock in certain cases
         try {
@@ -212,6 +349,121 @@ public class VanillaChronicleMap<K, V, R>
         }
     }
 
+    private void checkEntryLocksSupported() {
+        String unsupported = !constantlySizedEntry ? "values of different sizes" :
+                checksumEntries ? "entry checksums" :
+                        optimisticReads ? "optimistic reads" :
+                                this instanceof ReplicatedChronicleMap ? "replication" : null;
+        if (unsupported != null) {
+            throw new IllegalStateException("Entry locks are not compatible with " + unsupported +
+                    ", see ChronicleMapBuilder.entryLocks()");
+        }
+    }
+
+    private void checkSegmentGrowthSupported() {
+        // entries are moved between tiers by copying chunks
+        String unsupported = tierEntryLocksSize > 0 ? "entry locks" :
+                chunkSize % alignment != 0 ? "value alignment, not dividing the chunk size" :
+                        this instanceof ReplicatedChronicleMap ? "replication" : null;
+        if (unsupported != null) {
+            throw new IllegalStateException("Segment growth is not compatible with " +
+                    unsupported + ", see ChronicleMapBuilder.segmentGrowth()");
+        }
+    }
+
+    /**
+     * With entry locks, the present entry is held under the segment read lock and the entry lock,
+     * so that acquireContext() on other keys in the same segment doesn't wait. If the entry is
+     * locked by another holder, the segment lock is released while waiting for the entry lock,
+     * not to block writers of the segment. The segment lock can't be upgraded from read to update
+     * level, so absent key is inserted in a separate context, and then the entry is looked up
+     * again.
+     */
+    private Closeable acquireEntryLockedContext(K key, V usingValue) {
+        long deadline = 0L;
+        while (true) {
+            QueryContextInterface<K, V, R> q = queryContext(key);
+            long lockedEntryLocksAddr = 0L;
+            long lockedEntryPos = 0L;
+            try {
+                q.readLock().lock();
+                if (q.entry() != null) {
+                    if (q.tryLockEntry()) {
+                        try {
+                            checkAcquiredUsing(acquireUsingBody(q, usingValue), usingValue);
+                        } catch (Throwable e) {
+                            q.unlockEntry();
+                            throw e;
+                        }
+                        return q.entryLockedAcquireHandle();
+                    }
+                    lockedEntryLocksAddr = q.entryLocksAddr();
+                    lockedEntryPos = q.entryPos();
+                }
+            } catch (Throwable e) {
+                try {
+                    q.close();
+                } catch (Throwable suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+                throw e;
+            }
+            q.close();
+            if (lockedEntryLocksAddr != 0L) {
+                if (deadline == 0L)
+                    deadline = EntryLocks.deadline();
+                EntryLocks.awaitUnlocked(lockedEntryLocksAddr, lockedEntryPos, deadline);
+                continue;
+            }
+            try (QueryContextInterface<K, V, R> insertQ = queryContext(key)) {
+                insertQ.updateLock().lock();
+                if (insertQ.entry() == null)
+                    acquireUsingBody(insertQ, usingValue);
+            }
+        }
+    }
+
+    /**
+     * Reads the value of a map with entry locks. Entry locked {@code acquireContext()} writes the
+     * value back in place under the segment read lock, so the value is read holding the entry
+     * lock as well, not to see a partially written value. If the entry is locked, the segment
+     * lock is released while waiting for the entry lock, like in {@link
+     * #acquireEntryLockedContext}. See {@link #readFoundValue} for the meaning of {@code using} and
+     * {@code reader} parameters.
+     *
+     * @param q the context with initialized input key, it is closed by this method
+     */
+    private <T> T entryLockedRead(
+            QueryContextInterface<K, V, R> q, V using, @Nullable ValueBytesReader<T> reader) {
+        try {
+            long deadline = 0L;
+            while (true) {
+                q.readLock().lock();
+                MapEntry<K, V> entry = q.entry();
+                if (entry == null)
+                    return null;
+                if (q.tryLockEntry()) {
+                    try {
+                        //noinspection unchecked
+                        return reader == null ? (T) entry.value().getUsing(using) :
+                                defaultReadValue(q, reader);
+                    } finally {
+                        q.unlockEntry();
+                    }
+                }
+                long entryLocksAddr = q.entryLocksAddr();
+                long entryPos = q.entryPos();
+                // unlocking closes the found entry, it is searched again after the wait
+                q.readLock().unlock();
+                if (deadline == 0L)
+                    deadline = EntryLocks.deadline();
+                EntryLocks.awaitUnlocked(entryLocksAddr, entryPos, deadline);
+            }
+        } finally {
+            q.close();
+        }
+    }
+
     private static <V> void checkAcquiredUsing(V acquired, V using) {
         if (acquired != using) {
             throw new IllegalArgumentException("acquire*() MUST reuse the given " +
@@ -245,6 +497,147 @@ public class VanillaChronicleMap<K, V, R>
         forEachEntry(c -> c.context().remove(c));
     }
 
+    @Override
+    public boolean containsValue(Object value) {
+        if (!readOnly)
+            return AbstractChronicleMap.super.containsValue(value);
+        V v = checkValue(value);
+        DataAccess<V> valueDataAccess = copyIfNeeded(this.valueDataAccess);
+        try {
+            Data<V> valueData = valueDataAccess.getData(v);
+            return !forEachEntryWhile(c -> !c.value().equals(valueData));
+        } finally {
+            valueDataAccess.uninit();
+        }
+    }
+
+    @Override
+    public boolean forEachEntryWhile(Predicate<? super MapEntry<K, V>> action) {
+        if (!readOnly)
+            return AbstractChronicleMap.super.forEachEntryWhile(action);
+        if (closed)
+            throw new ChronicleHashClosedException();
+        SizedReader<K> keyReader = copyIfNeeded(this.keyReader);
+        SizedReader<V> valueReader = copyIfNeeded(this.valueReader);
+        List<byte[]> segmentEntries = new ArrayList<>();
+        for (int segmentIndex = segments() - 1; segmentIndex >= 0; segmentIndex--) {
+            readOnlySegmentEntries(segmentIndex, segmentEntries);
+            for (int i = 0; i < segmentEntries.size(); i += 2) {
+                if (!action.test(new ReadOnlyMapEntry<>(keyReader, segmentEntries.get(i),
+                        valueReader, segmentEntries.get(i + 1)))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the key and value bytes of all entries of the segment (alternately) to the given
+     * list, without locking the segment: retries the copy until it doesn't overlap with a write.
+     */
+    private void readOnlySegmentEntries(int segmentIndex, List<byte[]> segmentEntries) {
+        long segmentHeaderAddress = segmentHeaderAddress(segmentIndex);
+        PointerBytesStore tierBytesStore = new PointerBytesStore();
+        Bytes tierBytes = new VanillaBytes(tierBytesStore);
+        long deadline = readOnlyRetryDeadline();
+        while (true) {
+            int version = VersionedSegmentHeader.version(segmentHeaderAddress);
+            if ((version & 1) == 0) {
+                segmentEntries.clear();
+                try {
+                    copySegmentEntries(segmentHeaderAddress, segmentIndex, version,
+                            tierBytesStore, tierBytes, segmentEntries);
+                    if (VersionedSegmentHeader.validate(segmentHeaderAddress, version))
+                        return;
+                } catch (RuntimeException e) {
+                    if (VersionedSegmentHeader.validate(segmentHeaderAddress, version))
+                        throw e;
+                }
+            }
+            checkReadOnlyRetryDeadline(deadline, segmentIndex);
+            Thread.yield();
+        }
+    }
+
+    private static long readOnlyRetryDeadline() {
+        return System.nanoTime() + SECONDS.toNanos(BigSegmentHeader.LOCK_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * Read-only maps can't lock segments, so reads are retried until they don't overlap with
+     * writes of other processes. If the segment is continuously write-locked, e. g. the writing
+     * process has crashed while holding the write lock, the read fails instead of spinning forever.
+     */
+    private static void checkReadOnlyRetryDeadline(long deadline, int segmentIndex) {
+        if (System.nanoTime() - deadline > 0) {
+            throw new IllegalStateException("Failed to read segment " + segmentIndex +
+                    " of a read-only map consistently in " +
+                    BigSegmentHeader.LOCK_TIMEOUT_SECONDS + " seconds: the segment is " +
+                    "write-locked or modified all the time. If a writing process has crashed " +
+                    "while holding the segment write lock, the map should be recovered with " +
+                    "ChronicleMapBuilder.recoverPersistedTo()");
+        }
+    }
+
+    private void copySegmentEntries(long segmentHeaderAddress, int segmentIndex, int version,
+                                    PointerBytesStore tierBytesStore, Bytes tierBytes,
+                                    List<byte[]> segmentEntries) {
+        long maxTierIndex = actualSegments +
+                globalMutableState().getAllocatedExtraTierBulks() * tiersInBulk;
+        long tierBaseAddr = segmentBaseAddr(segmentIndex);
+        for (long tier = 0; ; tier++) {
+            tierBytesStore.set(tierBaseAddr, tierSize);
+            tierBytes.clear();
+            copyTierEntries(tierBaseAddr, tierBytes, segmentEntries);
+            long nextTierIndex = tier == 0 ?
+                    BigSegmentHeader.INSTANCE.nextTierIndex(segmentHeaderAddress) :
+                    TierCountersArea.nextTierIndex(tierBaseAddr + tierHashLookupOuterSize);
+            if (nextTierIndex == 0 ||
+                    !VersionedSegmentHeader.validate(segmentHeaderAddress, version)) {
+                // if the version is changed, the caller retries
+                return;
+            }
+            if (nextTierIndex < 0 || nextTierIndex > maxTierIndex || tier >= maxTierIndex) {
+                throw new IllegalStateException("Next tier index " + nextTierIndex +
+                        " is out of bounds [0, " + maxTierIndex + "], or tiers make a cycle");
+            }
+            tierBaseAddr = tierIndexToBaseAddr(nextTierIndex);
+        }
+    }
+
+    private void copyTierEntries(long tierBaseAddr, Bytes tierBytes, List<byte[]> segmentEntries) {
+        CompactOffHeapLinearHashTable hl = this.hashLookup;
+        long entrySpaceOffset = tierHashLookupOuterSize + TIER_COUNTERS_AREA_SIZE +
+                tierFreeListOuterSize + tierEntrySpaceInnerOffset;
+        long hlPos = 0;
+        do {
+            long hlEntry = hl.readEntryVolatile(tierBaseAddr, hlPos);
+            if (!hl.empty(hlEntry)) {
+                long entryPos = hl.value(hlEntry);
+                if (entryPos < 0 || entryPos >= actualChunksPerSegmentTier) {
+                    throw new IllegalStateException(
+                            "Entry position " + entryPos + " out of bounds");
+                }
+                tierBytes.readLimit(tierBytes.capacity());
+                tierBytes.readPosition(entrySpaceOffset + (entryPos * chunkSize));
+                long keySize = keySizeMarshaller.readSize(tierBytes);
+                segmentEntries.add(readBytes(tierBytes, keySize, "Key"));
+                long valueSize = readValueSize(tierBytes);
+                segmentEntries.add(readBytes(tierBytes, valueSize, "Value"));
+            }
+            hlPos = hl.step(hlPos);
+        } while (hlPos != 0);
+    }
+
+    private static byte[] readBytes(Bytes bytes, long size, String dim) {
+        if (size < 0 || size > bytes.readRemaining())
+            throw new IllegalStateException(dim + " size " + size + " out of bounds");
+        byte[] result = new byte[(int) size];
+        bytes.read(result);
+        return result;
+    }
+
     public final long readValueSize(Bytes entry) {
         long valueSize = valueSizeMarshaller.readSize(entry);
         alignReadPosition(entry);
@@ -264,11 +657,10 @@ public class VanillaChronicleMap<K, V, R>
 
     private ChainingInterface q() {
         //noinspection unchecked
-        ChainingInterface queryContext = cxt.get();
+        ChainingInterface queryContext = threadContext();
         if (queryContext == null) {
             queryContext = new CompiledMapQueryContext<>(this);
-            addContext(queryContext);
-            cxt.set(queryContext);
+            setThreadContext(queryContext);
         }
         return queryContext;
     }
@@ -284,11 +676,10 @@ public class VanillaChronicleMap<K, V, R>
 
     private ChainingInterface i() {
         //noinspection unchecked
-        ChainingInterface iterContext = cxt.get();
+        ChainingInterface iterContext = threadContext();
         if (iterContext == null) {
             iterContext = new CompiledMapIterationContext<>(this);
-            addContext(iterContext);
-            cxt.set(iterContext);
+            setThreadContext(iterContext);
         }
         return iterContext;
     }
@@ -350,85 +741,228 @@ public class VanillaChronicleMap<K, V, R>
     }
 
     private V optimizedGet(Object key, V using) {
+        if (tierEntryLocksSize > 0)
+            return entryLockedRead(queryContext(key), using, null);
         checkKey(key);
-        CompiledMapQueryContext<K, V, R> q = (CompiledMapQueryContext<K, V, R>) mapContext();
+        return optimizedGet((CompiledMapQueryContext<K, V, R>) mapContext(), key, using);
+    }
+
+    /**
+     * @param q the context, already {@linkplain ChainingInterface#initUsed used}, it is closed by
+     *          this method
+     */
+    private V optimizedGet(CompiledMapQueryContext<K, V, R> q, Object key, V using) {
         Data<K> inputKey = q.inputKeyDataAccess().getData((K) key);
         try {
-            Throwable primaryExc = null;
-            long inputKeySize = inputKey.size();
-
-            long keyHash = inputKey.hash(LongHashFunction.xx_r39());
+            long keyHash = inputKey.hash(keyHashFunction);
             HashSplitting hs = this.hashSplitting;
             int segmentIndex = hs.segmentIndex(keyHash);
-            long segmentHeaderAddress = segmentHeaderAddress(segmentIndex);
-            boolean needReadUnlock = false;
-            try {
-                CompactOffHeapLinearHashTable hl = this.hashLookup;
-                long searchKey = hl.maskUnsetKey(hs.segmentHash(keyHash));
-                long searchStartPos = hl.hlPos(searchKey);
-                boolean needReadLock = true;
-                initLocks:
-                {
-                    int indexOfThisContext = q.indexInContextChain;
-                    for (int i = 0, size = q.contextChain.size(); i < size; i++) {
-                        if (i == indexOfThisContext)
-                            continue;
-                        LocksInterface c = ((LocksInterface) (q.contextChain.get(i)));
-                        if (c.segmentHeaderInit() &&
-                                c.segmentHeaderAddress() == segmentHeaderAddress &&
-                                c.locksInit()) {
-                            LocksInterface root = c.rootContextLockedOnThisSegment();
-                            if (root.totalReadLockCount() > 0 || root.totalUpdateLockCount() > 0 ||
-                                    root.totalWriteLockCount() > 0) {
-                                needReadLock = false;
-                                break initLocks;
+            CompactOffHeapLinearHashTable hl = this.hashLookup;
+            long searchKey = hl.maskUnsetKey(hs.segmentHash(keyHash));
+            long searchStartPos = hl.hlPos(searchKey);
+            return optimizedRead(q, keyHash, segmentIndex, searchKey, searchStartPos, inputKey,
+                    using, null);
+        } finally {
+            q.doCloseInputKeyDataAccess();
+        }
+    }
+
+    /**
+     * Common part of {@link #optimizedGet} and {@link #optimizedReadValue}, see {@link
+     * #readFoundValue} for the meaning of {@code using} and {@code reader} parameters.
+     */
+    private <T> T optimizedRead(
+            CompiledMapQueryContext<K, V, R> q, long keyHash, int segmentIndex, long searchKey,
+            long searchStartPos, Data<K> inputKey, V using, @Nullable ValueBytesReader<T> reader) {
+        Throwable primaryExc = null;
+        long inputKeySize = inputKey.size();
+        long segmentHeaderAddress = segmentHeaderAddress(segmentIndex);
+        boolean needReadUnlock = false;
+        try {
+            if (needReadLock(q, segmentHeaderAddress)) {
+                long deadline = 0L;
+                while (optimisticReads) {
+                    int version = VersionedSegmentHeader.version(segmentHeaderAddress);
+                    if ((version & 1) == 0) {
+                        long valueSize;
+                        long valueCopyAddress = 0L;
+                        try {
+                            valueSize = tieredValueSize(q, segmentHeaderAddress,
+                                    segmentIndex, keyHash, searchKey, searchStartPos,
+                                    inputKeySize, inputKey, version);
+                            // the value size is already checked against the tier bounds. The
+                            // value is deserialized only from a validated copy, because
+                            // deserialization of torn bytes might fail in any way, e. g. with
+                            // OutOfMemoryError, if a torn length of an array is read.
+                            // Byteable values just point to the map's memory, not deserialized
+                            if (valueSize != ABSENT && !pointsToValueMemory(using, reader)) {
+                                valueCopyAddress = q.copyOptimisticValue(
+                                        q.segmentBS.address(q.segmentBytes.readPosition()),
+                                        valueSize);
                             }
+                        } catch (RuntimeException e) {
+                            // if the segment was modified concurrently, the exception is
+                            // likely caused by reading inconsistent data, retry under the lock
+                            if (VersionedSegmentHeader.validate(segmentHeaderAddress, version))
+                                throw e;
+                            valueSize = INCONSISTENT;
+                        }
+                        if (valueSize != INCONSISTENT &&
+                                VersionedSegmentHeader.validate(segmentHeaderAddress, version)) {
+                            if (valueSize == ABSENT)
+                                return null;
+                            return valueCopyAddress != 0L ?
+                                    readValueCopy(q, valueCopyAddress, valueSize, using, reader) :
+                                    readFoundValue(q, valueSize, using, reader);
                         }
                     }
-                }
-                if (needReadLock) {
-                    BigSegmentHeader.INSTANCE.readLock(segmentHeaderAddress);
-                    needReadUnlock = true;
-                }
-                return tieredValue(q, segmentHeaderAddress, segmentIndex, searchKey, searchStartPos,
-                        inputKeySize, inputKey, using);
-            } catch (Throwable t) {
-                primaryExc = t;
-                throw t;
-            } finally {
-                if (primaryExc != null) {
-                    try {
-                        getClose(q, segmentHeaderAddress, needReadUnlock);
-                    } catch (Throwable suppressedExc) {
-                        primaryExc.addSuppressed(suppressedExc);
+                    if (!readOnly)
+                        break;
+                    // read-only map can't lock the segment, retry until the read doesn't
+                    // overlap with a write. The deadline is computed only on the first retry
+                    // not to call System.nanoTime() on the fast path
+                    if (deadline == 0L) {
+                        deadline = readOnlyRetryDeadline();
+                    } else {
+                        checkReadOnlyRetryDeadline(deadline, segmentIndex);
                     }
-                } else {
-                    getClose(q, segmentHeaderAddress, needReadUnlock);
+                    Thread.yield();
                 }
+                segmentHeader.readLock(segmentHeaderAddress);
+                needReadUnlock = true;
             }
+            long valueSize = tieredValueSize(q, segmentHeaderAddress, segmentIndex, keyHash,
+                    searchKey, searchStartPos, inputKeySize, inputKey, LOCKED_READ);
+            return valueSize != ABSENT ? readFoundValue(q, valueSize, using, reader) : null;
+        } catch (Throwable t) {
+            primaryExc = t;
+            throw t;
         } finally {
-            q.doCloseInputKeyDataAccess();
+            if (primaryExc != null) {
+                try {
+                    getClose(q, segmentHeaderAddress, needReadUnlock);
+                } catch (Throwable suppressedExc) {
+                    primaryExc.addSuppressed(suppressedExc);
+                }
+            } else {
+                getClose(q, segmentHeaderAddress, needReadUnlock);
+            }
+        }
+    }
+
+    /**
+     * Returns {@code false} if some other context in this thread already holds a lock on the
+     * segment with the given header address, i. e. the segment is already protected from
+     * concurrent modifications and taking the read lock once again is not needed (and not allowed,
+     * if the segment is update- or write-locked).
+     */
+    private static boolean needReadLock(
+            CompiledMapQueryContext<?, ?, ?> q, long segmentHeaderAddress) {
+        int indexOfThisContext = q.indexInContextChain;
+        for (int i = 0, size = q.contextChain.size(); i < size; i++) {
+            if (i == indexOfThisContext)
+                continue;
+            LocksInterface c = ((LocksInterface) (q.contextChain.get(i)));
+            if (c.segmentHeaderInit() &&
+                    c.segmentHeaderAddress() == segmentHeaderAddress &&
+                    c.locksInit()) {
+                LocksInterface root = c.rootContextLockedOnThisSegment();
+                if (root.totalReadLockCount() > 0 || root.totalUpdateLockCount() > 0 ||
+                        root.totalWriteLockCount() > 0) {
+                    return false;
+                }
+            }
         }
+        return true;
     }
 
     private void getClose(CompiledMapQueryContext<K, V, R> q, long segmentHeaderAddress,
                           boolean needReadUnlock) {
         if (needReadUnlock)
-            BigSegmentHeader.INSTANCE.readUnlock(segmentHeaderAddress);
+            segmentHeader.readUnlock(segmentHeaderAddress);
         q.doCloseUsed();
     }
 
-    private V tieredValue(CompiledMapQueryContext<K, V, R> q,
-                          long segmentHeaderAddress, int segmentIndex,
-                          long searchKey, long searchStartPos,
-                          long inputKeySize, Data<K> inputKey, V using) {
+    /**
+     * Passed as {@code optimisticVersion} to {@link #tieredValueSize} when the segment is locked.
+     * Any odd value is never a valid version of an optimistic read, see {@link
+     * VersionedSegmentHeader}.
+     */
+    private static final int LOCKED_READ = -1;
+
+    /** Returned from {@link #tieredValueSize} and {@link #searchValueSize}, if the key is absent */
+    private static final long ABSENT = -1L;
+
+    /** The value size in {@link #optimizedRead}, if the optimistic read failed */
+    private static final long INCONSISTENT = -2L;
+
+    /**
+     * Returns {@code true}, if the value is read by pointing a {@link Byteable} to the value bytes
+     * in the map's memory, rather than deserialized from the bytes.
+     */
+    private boolean pointsToValueMemory(V using, @Nullable ValueBytesReader<?> reader) {
+        return reader == null &&
+                (using instanceof Byteable || Byteable.class.isAssignableFrom(valueClass));
+    }
+
+    /**
+     * Counterpart of {@link #readFoundValue} for the value, copied to the context's memory by
+     * {@code copyOptimisticValue()}.
+     */
+    private <T> T readValueCopy(CompiledMapQueryContext<K, V, R> q, long valueCopyAddress,
+                                long valueSize, V using, @Nullable ValueBytesReader<T> reader) {
+        Bytes valueCopy = q.valueBytesView(valueCopyAddress, valueSize);
+        if (reader == null) {
+            //noinspection unchecked
+            return (T) q.valueReader.read(valueCopy, valueSize, using);
+        } else {
+            return reader.read(valueCopy, valueSize);
+        }
+    }
+
+    /**
+     * Reads the value, after {@link #tieredValueSize} has found it. If {@code reader} is {@code
+     * null}, deserializes the value using {@code using}, otherwise passes the value bytes to the
+     * reader.
+     */
+    private <T> T readFoundValue(CompiledMapQueryContext<K, V, R> q, long valueSize, V using,
+                                 @Nullable ValueBytesReader<T> reader) {
+        Bytes bs = q.segmentBytes;
+        if (reader == null) {
+            //noinspection unchecked
+            return (T) q.valueReader.read(bs, valueSize, using);
+        } else {
+            return reader.read(
+                    q.valueBytesView(q.segmentBS.address(bs.readPosition()), valueSize),
+                    valueSize);
+        }
+    }
+
+    /**
+     * Returns the size of the value, mapped for the given key, leaving {@code q.segmentBytes}
+     * positioned at the start of the value in the tier, where the key is found, or {@link #ABSENT}.
+     *
+     * @param optimisticVersion the segment version, if the segment is read optimistically without
+     * locking, or {@link #LOCKED_READ}. If the read is optimistic, the caller must {@linkplain
+     * VersionedSegmentHeader#validate validate} the version after reading the value
+     */
+    private long tieredValueSize(CompiledMapQueryContext<K, V, R> q,
+                                 long segmentHeaderAddress, int segmentIndex, long keyHash,
+                                 long searchKey, long searchStartPos,
+                                 long inputKeySize, Data<K> inputKey, int optimisticVersion) {
+        boolean optimistic = optimisticVersion != LOCKED_READ;
+        GrowingSegments growingSegments = this.growingSegments;
+        if (growingSegments != null) {
+            long homeTierBaseAddr = growingSegments.homeTierBaseAddr(segmentIndex, keyHash);
+            // if some entries of the segment are misplaced, search all tiers
+            if (homeTierBaseAddr != 0) {
+                return searchValueSize(q, searchKey, searchStartPos, homeTierBaseAddr,
+                        inputKeySize, inputKey, optimistic);
+            }
+        }
         int tier = 0;
         long tierBaseAddr = segmentBaseAddr(segmentIndex);
         while (true) {
-            V value = searchValue(q, searchKey, searchStartPos, tierBaseAddr,
-                    inputKeySize, inputKey, using);
-            if (value != null)
-                return value;
             long nextTierIndex;
             if (tier == 0) {
                 nextTierIndex = BigSegmentHeader.INSTANCE.nextTierIndex(segmentHeaderAddress);
@@ -436,17 +970,37 @@ public class VanillaChronicleMap<K, V, R>
                 nextTierIndex = TierCountersArea.nextTierIndex(
                         tierBaseAddr + tierHashLookupOuterSize);
             }
+            // if the segment has a single tier, don't spend time on checking the filter
+            if ((tier == 0 && nextTierIndex == 0) || tierKeyFilter == null ||
+                    tierKeyFilter.mayContain(tierBaseAddr, searchKey)) {
+                long valueSize = searchValueSize(q, searchKey, searchStartPos, tierBaseAddr,
+                        inputKeySize, inputKey, optimistic);
+                if (valueSize != ABSENT)
+                    return valueSize;
+            }
             if (nextTierIndex == 0)
-                return null;
+                return ABSENT;
+            if (optimistic) {
+                // don't follow a tier chain link which might be read inconsistently, it might
+                // point to not allocated tier, or make a cycle
+                if (!VersionedSegmentHeader.validate(segmentHeaderAddress, optimisticVersion))
+                    return ABSENT;
+                long maxTierIndex = actualSegments +
+                        globalMutableState().getAllocatedExtraTierBulks() * tiersInBulk;
+                if (nextTierIndex < 0 || nextTierIndex > maxTierIndex) {
+                    throw new IllegalStateException("Next tier index " + nextTierIndex +
+                            " is out of bounds [0, " + maxTierIndex + "]");
+                }
+            }
             tier++;
             tierBaseAddr = tierIndexToBaseAddr(nextTierIndex);
 
         }
     }
 
-    private V searchValue(CompiledMapQueryContext<K, V, R> q,
-                          long searchKey, long searchStartPos, long tierBaseAddr,
-                          long inputKeySize, Data<K> inputKey, V using) {
+    private long searchValueSize(CompiledMapQueryContext<K, V, R> q,
+                                 long searchKey, long searchStartPos, long tierBaseAddr,
+                                 long inputKeySize, Data<K> inputKey, boolean optimistic) {
         CompactOffHeapLinearHashTable hl = this.hashLookup;
 
         PointerBytesStore segmentBytesStore = q.segmentBS;
@@ -456,14 +1010,20 @@ public class VanillaChronicleMap<K, V, R>
         long freeListOffset = tierHashLookupOuterSize + TIER_COUNTERS_AREA_SIZE;
         long entrySpaceOffset = freeListOffset + tierFreeListOuterSize + tierEntrySpaceInnerOffset;
 
+        int directKeySize = this.directKeySize;
+        boolean direct = directKeySize != 0 && inputKeySize == directKeySize;
+        long inputKeyBits = direct ?
+                readDirectBits(inputKey.bytes(), inputKey.offset(), directKeySize) : 0;
+
         long hlPos = searchStartPos;
         searchLoop:
         while (true) {
             long entryPos;
             nextPos: {
                 while (true) {
+                    hlPos = hl.nextCandidatePos(tierBaseAddr, hlPos, searchKey);
                     long entry = hl.readEntryVolatile(tierBaseAddr, hlPos);
-                    if (hl.empty(entry)) {
+                    if (hl.empty(entry) || hl.searchCouldStop(hlPos, entry, searchKey)) {
                         break searchLoop;
                     }
                     hlPos = hl.step(hlPos);
@@ -477,21 +1037,242 @@ public class VanillaChronicleMap<K, V, R>
                 }
             }
 
+            if (optimistic && (entryPos < 0 || entryPos >= actualChunksPerSegmentTier))
+                throw new IllegalStateException("Entry position " + entryPos + " out of bounds");
             long keySizeOffset = entrySpaceOffset + (entryPos * chunkSize);
+            if (direct) {
+                // the entry starts with the key, which is immediately followed by the value
+                if (readDirectBits(tierBaseAddr + keySizeOffset, directKeySize) != inputKeyBits)
+                    continue;
+                bs.readLimit(bs.capacity());
+                bs.readPosition(keySizeOffset + directKeySize);
+                return directValueSize;
+            }
             bs.readLimit(bs.capacity());
             bs.readPosition(keySizeOffset);
             long keySize = keySizeMarshaller.readSize(bs);
             long keyOffset = bs.readPosition();
             if (!((inputKeySize == keySize) &&
+                    (!optimistic || keyOffset + keySize <= tierSize) &&
                     (inputKey.equivalent(segmentBytesStore, keyOffset)))) {
                 continue;
             }
             long valueSizeOffset = keyOffset + keySize;
             bs.readPosition(valueSizeOffset);
             long valueSize = readValueSize(bs);
-            return q.valueReader.read(bs, valueSize, using);
+            if (optimistic && (valueSize < 0 || valueSize > bs.readRemaining()))
+                throw new IllegalStateException("Value size " + valueSize + " out of bounds");
+            return valueSize;
+        }
+        return ABSENT;
+    }
+
+    @Override
+    public <T> T readValue(K key, @NotNull ValueBytesReader<T> reader) {
+        Objects.requireNonNull(reader);
+        return doReadValue(key, reader);
+    }
+
+    <T> T doReadValue(Object key, ValueBytesReader<T> reader) {
+        return defaultEntryOperationsAndMethods ? optimizedReadValue(key, reader) :
+                defaultReadValue(key, reader);
+    }
+
+    final <T> T defaultReadValue(Object key, ValueBytesReader<T> reader) {
+        try (QueryContextInterface<K, V, R> q = queryContext(key)) {
+            return defaultReadValue(q, reader);
+        }
+    }
+
+    private static <T> T defaultReadValue(
+            QueryContextInterface<?, ?, ?> q, ValueBytesReader<T> reader) {
+        MapEntry<?, ?> entry = q.entry();
+        if (entry == null)
+            return null;
+        Data<?> value = entry.value();
+        long valueSize = value.size();
+        return reader.read(
+                q.valueBytesView(value.bytes().address(value.offset()), valueSize), valueSize);
+    }
+
+    /**
+     * {@link #readValue} for the key in {@code Data} form, used by {@link PrimitiveChronicleMap}
+     * not to box keys.
+     */
+    <T> T readValueOfData(Data<K> key, ValueBytesReader<T> reader) {
+        if (tierEntryLocksSize > 0)
+            return entryLockedRead(queryContext(key), null, reader);
+        if (defaultEntryOperationsAndMethods) {
+            return optimizedReadValue(
+                    (CompiledMapQueryContext<K, V, R>) mapContext(), key, reader);
+        }
+        return defaultReadValueOfData(key, reader);
+    }
+
+    final <T> T defaultReadValueOfData(Data<K> key, ValueBytesReader<T> reader) {
+        try (QueryContextInterface<K, V, R> q = queryContext(key)) {
+            return defaultReadValue(q, reader);
+        }
+    }
+
+    private <T> T optimizedReadValue(Object key, ValueBytesReader<T> reader) {
+        if (tierEntryLocksSize > 0)
+            return entryLockedRead(queryContext(key), null, reader);
+        checkKey(key);
+        CompiledMapQueryContext<K, V, R> q = (CompiledMapQueryContext<K, V, R>) mapContext();
+        Data<K> inputKey = q.inputKeyDataAccess().getData((K) key);
+        try {
+            return optimizedReadValue(q, inputKey, reader);
+        } finally {
+            q.doCloseInputKeyDataAccess();
+        }
+    }
+
+    /**
+     * @param q the context, already {@linkplain ChainingInterface#initUsed used}, it is closed by
+     *          this method
+     */
+    private <T> T optimizedReadValue(CompiledMapQueryContext<K, V, R> q, Data<K> inputKey,
+                                     ValueBytesReader<T> reader) {
+        long keyHash = inputKey.hash(keyHashFunction);
+        HashSplitting hs = this.hashSplitting;
+        int segmentIndex = hs.segmentIndex(keyHash);
+        CompactOffHeapLinearHashTable hl = this.hashLookup;
+        long searchKey = hl.maskUnsetKey(hs.segmentHash(keyHash));
+        long searchStartPos = hl.hlPos(searchKey);
+        return optimizedRead(q, keyHash, segmentIndex, searchKey, searchStartPos, inputKey, null,
+                reader);
+    }
+
+    @Override
+    public void getAll(@NotNull K[] keys, @NotNull V[] values) {
+        Objects.requireNonNull(keys);
+        Objects.requireNonNull(values);
+        if (values.length < keys.length) {
+            throw new IllegalArgumentException("values array length " + values.length +
+                    " is less than keys array length " + keys.length);
+        }
+        doGetAll(keys, values);
+    }
+
+    @Override
+    public void getAll(@NotNull Collection<? extends K> keys,
+                       @NotNull BiConsumer<? super K, ? super V> action) {
+        Objects.requireNonNull(action);
+        Object[] keyArray = keys.toArray();
+        Object[] values = new Object[keyArray.length];
+        doGetAll(keyArray, values);
+        for (int i = 0; i < keyArray.length; i++) {
+            action.accept((K) keyArray[i], (V) values[i]);
+        }
+    }
+
+    void doGetAll(Object[] keys, Object[] values) {
+        if ((readOnly || tierEntryLocksSize > 0) && defaultEntryOperationsAndMethods) {
+            // segments can't be locked for all keys at once, each key is read optimistically,
+            // or waiting for its entry lock
+            for (int i = 0; i < keys.length; i++) {
+                values[i] = optimizedGet(keys[i], null);
+            }
+        } else if (defaultEntryOperationsAndMethods) {
+            optimizedGetAll(keys, values);
+        } else {
+            defaultGetAll(keys, values);
+        }
+    }
+
+    final void defaultGetAll(Object[] keys, Object[] values) {
+        for (int i = 0; i < keys.length; i++) {
+            values[i] = defaultGet(keys[i]);
+        }
+    }
+
+    /**
+     * Hashes all the keys first, then visits the segments in ascending order, taking the read lock
+     * of each segment only once for all keys falling into this segment. The key hashes and the
+     * segment order are kept in the scratch array of the context, so that no garbage is produced,
+     * unless the keys array is large.
+     */
+    private void optimizedGetAll(Object[] keys, Object[] values) {
+        int n = keys.length;
+        if (n == 0)
+            return;
+        for (Object key : keys) {
+            checkKey(key);
+        }
+        CompiledMapQueryContext<K, V, R> q = (CompiledMapQueryContext<K, V, R>) mapContext();
+        try {
+            // the first n elements are key hashes, the next n elements are the segment order:
+            // segment index in the higher 32 bits, index of the key in the lower 32 bits,
+            // so that sorting groups keys by segment, preserving the original order within groups
+            long[] scratch = q.getAllScratch(2 * n);
+            HashSplitting hs = this.hashSplitting;
+            for (int i = 0; i < n; i++) {
+                long keyHash = q.inputKeyDataAccess().getData((K) keys[i])
+                        .hash(keyHashFunction);
+                scratch[i] = keyHash;
+                scratch[n + i] = (((long) hs.segmentIndex(keyHash)) << 32) | i;
+            }
+            Arrays.sort(scratch, n, 2 * n);
+            Throwable primaryExc = null;
+            try {
+                for (int from = n, to; from < 2 * n; from = to) {
+                    int segmentIndex = (int) (scratch[from] >>> 32);
+                    for (to = from + 1; to < 2 * n; to++) {
+                        if ((int) (scratch[to] >>> 32) != segmentIndex)
+                            break;
+                    }
+                    getAllInSegment(q, segmentIndex, scratch, from, to, keys, values);
+                }
+            } catch (Throwable t) {
+                primaryExc = t;
+                throw t;
+            } finally {
+                if (primaryExc != null) {
+                    try {
+                        q.doCloseUsed();
+                    } catch (Throwable suppressedExc) {
+                        primaryExc.addSuppressed(suppressedExc);
+                    }
+                } else {
+                    q.doCloseUsed();
+                }
+            }
+        } finally {
+            q.doCloseInputKeyDataAccess();
+        }
+    }
+
+    /**
+     * @param scratch key hashes, followed by the segment order, see {@link #optimizedGetAll}
+     */
+    private void getAllInSegment(CompiledMapQueryContext<K, V, R> q, int segmentIndex,
+                                 long[] scratch, int from, int to,
+                                 Object[] keys, Object[] values) {
+        long segmentHeaderAddress = segmentHeaderAddress(segmentIndex);
+        boolean needReadUnlock = false;
+        try {
+            if (needReadLock(q, segmentHeaderAddress)) {
+                segmentHeader.readLock(segmentHeaderAddress);
+                needReadUnlock = true;
+            }
+            HashSplitting hs = this.hashSplitting;
+            CompactOffHeapLinearHashTable hl = this.hashLookup;
+            for (int j = from; j < to; j++) {
+                int i = (int) scratch[j];
+                long keyHash = scratch[i];
+                Data<K> inputKey = q.inputKeyDataAccess().getData((K) keys[i]);
+                long searchKey = hl.maskUnsetKey(hs.segmentHash(keyHash));
+                long valueSize = tieredValueSize(q, segmentHeaderAddress, segmentIndex,
+                        keyHash, searchKey, hl.hlPos(searchKey), inputKey.size(), inputKey,
+                        LOCKED_READ);
+                values[i] = valueSize != ABSENT ?
+                        q.valueReader.read(q.segmentBytes, valueSize, null) : null;
+            }
+        } finally {
+            if (needReadUnlock)
+                segmentHeader.readUnlock(segmentHeaderAddress);
         }
-        return null;
     }
 
     @Override
@@ -561,6 +1342,8 @@ public class VanillaChronicleMap<K, V, R>
 
     @Override
     public boolean containsKey(Object key) {
+        if (readOnly && defaultEntryOperationsAndMethods)
+            return optimizedReadValue(key, (valueBytes, size) -> Boolean.TRUE) != null;
         try (QueryContextInterface<K, V, R> q = queryContext(key)) {
             return methods.containsKey(q);
         }
@@ -588,6 +1371,234 @@ public class VanillaChronicleMap<K, V, R>
         }
     }
 
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        bulkUpdate(m, (map, q, value) ->
+                map.methods.put(q, q.inputValueDataAccess().getData(value), NullReturnValue.get()));
+    }
+
+    @Override
+    public void removeAll(@NotNull Collection<? extends K> keys) {
+        Object[] keyArray = keys.toArray();
+        bulkUpdate(keyArray, null, keyArray.length, (map, q, value) ->
+                map.methods.remove(q, NullReturnValue.get()));
+    }
+
+    @Override
+    public void replaceAllExisting(@NotNull Map<? extends K, ? extends V> m) {
+        bulkUpdate(m, (map, q, value) ->
+                map.methods.replace(q, q.inputValueDataAccess().getData(value),
+                        NullReturnValue.get()));
+    }
+
+    private void bulkUpdate(Map<? extends K, ? extends V> m, BulkUpdate<K, V, R> update) {
+        Object[] keys = new Object[m.size()];
+        Object[] values = new Object[keys.length];
+        int n = 0;
+        for (Entry<? extends K, ? extends V> e : m.entrySet()) {
+            if (n == keys.length) {
+                // the given map is concurrently growing
+                keys = Arrays.copyOf(keys, n * 2 + 1);
+                values = Arrays.copyOf(values, keys.length);
+            }
+            keys[n] = e.getKey();
+            values[n] = checkValue(e.getValue());
+            n++;
+        }
+        bulkUpdate(keys, values, n, update);
+    }
+
+    @FunctionalInterface
+    interface BulkUpdate<K, V, R> {
+        void update(VanillaChronicleMap<K, V, R> map, QueryContextInterface<K, V, R> q, V value);
+    }
+
+    /**
+     * Groups the given keys by segment and applies the update to all keys of each segment under a
+     * single segment write lock. The lock is held by a query context, initialized with the segment
+     * index only, and each key is queried in a nested context, sharing the lock of this root
+     * context. Updates still go through {@link #methods}, so all {@link MapEntryOperations} hooks
+     * are triggered for every key.
+     */
+    private void bulkUpdate(Object[] keys, Object[] values, int n, BulkUpdate<K, V, R> update) {
+        if (n == 0)
+            return;
+        for (int i = 0; i < n; i++) {
+            checkKey(keys[i]);
+        }
+        // segment index in the higher 32 bits, index of the key in the lower 32 bits,
+        // so that sorting groups keys by segment, preserving the original order within groups
+        long[] segmentOrder = new long[n];
+        try (QueryContextInterface<K, V, R> q = mapContext()) {
+            HashSplitting hs = this.hashSplitting;
+            for (int i = 0; i < n; i++) {
+                long keyHash = q.inputKeyDataAccess().getData((K) keys[i])
+                        .hash(keyHashFunction);
+                segmentOrder[i] = (((long) hs.segmentIndex(keyHash)) << 32) | i;
+            }
+        }
+        Arrays.sort(segmentOrder);
+        for (int from = 0, to; from < n; from = to) {
+            int segmentIndex = (int) (segmentOrder[from] >>> 32);
+            for (to = from + 1; to < n; to++) {
+                if ((int) (segmentOrder[to] >>> 32) != segmentIndex)
+                    break;
+            }
+            try (QueryContextInterface<K, V, R> segmentQ = mapContext()) {
+                segmentQ.initSegmentIndex(segmentIndex);
+                segmentQ.writeLock().lock();
+                for (int j = from; j < to; j++) {
+                    int i = (int) segmentOrder[j];
+                    try (QueryContextInterface<K, V, R> q = queryContext(keys[i])) {
+                        update.update(this, q, values != null ? (V) values[i] : null);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Locks the segments of all the keys in the ascending order with the update locks, held by
+     * query contexts, initialized with the segment index only (like in {@link #bulkUpdate}), then
+     * opens nested query contexts of the keys, update-locked (sharing the segment locks), and
+     * passes them to the transaction. All the contexts are closed in the reverse order of opening.
+     */
+    @Override
+    public <T> T transaction(@NotNull Collection<? extends K> keys,
+                             @NotNull MapTransaction<K, V, T> transaction) {
+        Objects.requireNonNull(transaction);
+        Object[] keyArray = keys.toArray();
+        int n = keyArray.length;
+        for (Object key : keyArray) {
+            checkKey(key);
+        }
+        int[] segmentIndexes = new int[n];
+        long[] keyHashes = new long[n];
+        try (QueryContextInterface<K, V, R> q = mapContext()) {
+            HashSplitting hs = this.hashSplitting;
+            for (int i = 0; i < n; i++) {
+                long keyHash = q.inputKeyDataAccess().getData((K) keyArray[i])
+                        .hash(keyHashFunction);
+                keyHashes[i] = keyHash;
+                segmentIndexes[i] = hs.segmentIndex(keyHash);
+            }
+        }
+        // the second context of the same key would dead lock on the entry, fail before locking
+        checkDistinctKeys(keyArray, keyHashes);
+        int[] sortedSegmentIndexes = Arrays.stream(segmentIndexes).sorted().distinct().toArray();
+        List<QueryContextInterface<K, V, R>> openedContexts =
+                new ArrayList<>(sortedSegmentIndexes.length + n);
+        Throwable primaryExc = null;
+        try {
+            lockSegmentsInOrder(sortedSegmentIndexes, openedContexts);
+            List<MapQueryContext<K, V, ?>> keyContexts = new ArrayList<>(n);
+            for (Object key : keyArray) {
+                QueryContextInterface<K, V, R> q = queryContext(key);
+                openedContexts.add(q);
+                // shares the segment update lock, so that the transaction could update the entry
+                q.updateLock().lock();
+                keyContexts.add(q);
+            }
+            return transaction.run(Collections.unmodifiableList(keyContexts));
+        } catch (Throwable t) {
+            primaryExc = t;
+            throw t;
+        } finally {
+            closeInReverseOrder(openedContexts, primaryExc);
+        }
+    }
+
+    /**
+     * Throws {@code IllegalArgumentException}, if the serialized forms of some of the given keys
+     * are equal, i. e. the keys are the same for this map. Serialized forms are compared only for
+     * the keys with equal hashes.
+     */
+    private void checkDistinctKeys(Object[] keys, long[] keyHashes) {
+        long[] sortedKeyHashes = keyHashes.clone();
+        Arrays.sort(sortedKeyHashes);
+        boolean equalKeyHashes = false;
+        for (int i = 1; i < sortedKeyHashes.length && !equalKeyHashes; i++) {
+            equalKeyHashes = sortedKeyHashes[i] == sortedKeyHashes[i - 1];
+        }
+        if (!equalKeyHashes)
+            return;
+        DataAccess<K> keyDataAccess1 = copyIfNeeded(this.keyDataAccess);
+        DataAccess<K> keyDataAccess2 = copyIfNeeded(this.keyDataAccess);
+        try {
+            for (int i = 0; i < keys.length; i++) {
+                for (int j = i + 1; j < keys.length; j++) {
+                    if (keyHashes[i] != keyHashes[j])
+                        continue;
+                    Data<K> key1 = keyDataAccess1.getData((K) keys[i]);
+                    Data<K> key2 = keyDataAccess2.getData((K) keys[j]);
+                    if (Data.bytesEquivalent(key1, key2)) {
+                        throw new IllegalArgumentException("Key " + keys[i] + " is given " +
+                                "twice, at positions " + i + " and " + j + ", transaction " +
+                                "keys should be distinct");
+                    }
+                }
+            }
+        } finally {
+            keyDataAccess1.uninit();
+            keyDataAccess2.uninit();
+        }
+    }
+
+    private static final long MIN_TRANSACTION_BACK_OFF_NANOS = MICROSECONDS.toNanos(1);
+    private static final long MAX_TRANSACTION_BACK_OFF_NANOS = MILLISECONDS.toNanos(1);
+
+    private void lockSegmentsInOrder(
+            int[] segmentIndexes, List<QueryContextInterface<K, V, R>> segmentContexts) {
+        long deadline = System.nanoTime() + SECONDS.toNanos(BigSegmentHeader.LOCK_TIMEOUT_SECONDS);
+        long backOffNanos = MIN_TRANSACTION_BACK_OFF_NANOS;
+        while (true) {
+            boolean locked = true;
+            for (int i = 0; i < segmentIndexes.length; i++) {
+                QueryContextInterface<K, V, R> segmentQ = mapContext();
+                segmentContexts.add(segmentQ);
+                segmentQ.initSegmentIndex(segmentIndexes[i]);
+                if (i == 0) {
+                    // no locks are held yet, could wait
+                    segmentQ.updateLock().lock();
+                } else if (!segmentQ.updateLock().tryLock()) {
+                    locked = false;
+                    break;
+                }
+            }
+            if (locked)
+                return;
+            closeInReverseOrder(segmentContexts, null);
+            segmentContexts.clear();
+            if (System.nanoTime() - deadline > 0) {
+                throw new IllegalStateException("Failed to lock segments " +
+                        Arrays.toString(segmentIndexes) + " in " +
+                        BigSegmentHeader.LOCK_TIMEOUT_SECONDS + " seconds");
+            }
+            LockSupport.parkNanos(1 + ThreadLocalRandom.current().nextLong(backOffNanos));
+            backOffNanos = Math.min(backOffNanos * 2, MAX_TRANSACTION_BACK_OFF_NANOS);
+        }
+    }
+
+    private static void closeInReverseOrder(
+            List<? extends QueryContextInterface<?, ?, ?>> contexts, Throwable primaryExc) {
+        Throwable closeExc = null;
+        for (int i = contexts.size() - 1; i >= 0; i--) {
+            try {
+                contexts.get(i).close();
+            } catch (Throwable t) {
+                if (primaryExc != null) {
+                    primaryExc.addSuppressed(t);
+                } else if (closeExc != null) {
+                    closeExc.addSuppressed(t);
+                } else {
+                    closeExc = t;
+                }
+            }
+        }
+        if (closeExc != null)
+            throw Jvm.rethrow(closeExc);
+    }
+
     @Override
     public V merge(K key, V value,
                    BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
@@ -623,6 +1634,177 @@ public class VanillaChronicleMap<K, V, R>
         }
     }
 
+    @NotNull
+    @Override
+    public KeyHandle<K, V> keyHandle(@NotNull K key) {
+        checkKey(key);
+        try (QueryContextInterface<K, V, R> q = mapContext()) {
+            Data<K> keyData = q.inputKeyDataAccess().getData(key);
+            BytesStore keyBytes = BytesStore.wrap(new byte[Maths.toInt32(keyData.size())]);
+            keyData.writeTo(keyBytes, 0);
+            long keyHash = keyData.hash(keyHashFunction);
+            HashSplitting hs = this.hashSplitting;
+            CompactOffHeapLinearHashTable hl = this.hashLookup;
+            long searchKey = hl.maskUnsetKey(hs.segmentHash(keyHash));
+            return new KeyHandle<>(this, key, keyBytes, keyHash, hs.segmentIndex(keyHash),
+                    searchKey, hl.hlPos(searchKey));
+        }
+    }
+
+    private void checkKeyHandle(KeyHandle<K, V> handle) {
+        if (handle.map != this) {
+            throw new IllegalArgumentException(
+                    "Key handle " + handle + " is created by another map");
+        }
+    }
+
+    QueryContextInterface<K, V, R> handleQueryContext(KeyHandle<K, V> handle) {
+        checkKeyHandle(handle);
+        QueryContextInterface<K, V, R> q = mapContext();
+        q.initInputKey(handle.keyData);
+        q.initKeyHash(handle.keyHash);
+        return q;
+    }
+
+    V handleGet(KeyHandle<K, V> handle, V using) {
+        if (!defaultEntryOperationsAndMethods)
+            return defaultHandleGet(handle, using);
+        if (tierEntryLocksSize > 0)
+            return entryLockedRead(handleQueryContext(handle), using, null);
+        checkKeyHandle(handle);
+        CompiledMapQueryContext<K, V, R> q = (CompiledMapQueryContext<K, V, R>) mapContext();
+        return optimizedRead(q, handle.keyHash, handle.segmentIndex, handle.searchKey,
+                handle.searchStartPos, handle.keyData, using, null);
+    }
+
+    final V defaultHandleGet(KeyHandle<K, V> handle, V using) {
+        try (QueryContextInterface<K, V, R> q = handleQueryContext(handle)) {
+            q.usingReturnValue().initUsingReturnValue(using);
+            methods.get(q, q.usingReturnValue());
+            return q.usingReturnValue().returnValue();
+        }
+    }
+
+    V handlePut(KeyHandle<K, V> handle, V value) {
+        checkValue(value);
+        try (QueryContextInterface<K, V, R> q = handleQueryContext(handle)) {
+            Data<V> valueData = q.inputValueDataAccess().getData(value);
+            InstanceReturnValue<V> returnValue =
+                    putReturnsNull ? NullReturnValue.get() : q.defaultReturnValue();
+            methods.put(q, valueData, returnValue);
+            return returnValue.returnValue();
+        }
+    }
+
+    V handleRemove(KeyHandle<K, V> handle) {
+        try (QueryContextInterface<K, V, R> q = handleQueryContext(handle)) {
+            InstanceReturnValue<V> returnValue =
+                    removeReturnsNull ? NullReturnValue.get() : q.defaultReturnValue();
+            methods.remove(q, returnValue);
+            return returnValue.returnValue();
+        }
+    }
+
+    V handleCompute(KeyHandle<K, V> handle,
+                    BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        try (QueryContextInterface<K, V, R> q = handleQueryContext(handle)) {
+            methods.compute(q, remappingFunction, q.defaultReturnValue());
+            return q.defaultReturnValue().returnValue();
+        }
+    }
+
+    @NotNull
+    @Override
+    public MapSession<K, V> openSession() {
+        ChainingInterface context = (ChainingInterface) mapContext();
+        ChainingInterface rootContext = context.getContextChain().get(0);
+        // keeps the context chain in this thread, if it is borrowed from the context pool
+        rootContext.pin();
+        ((QueryContextInterface<K, V, R>) context).close();
+        return new MapSession<>(this, context, rootContext);
+    }
+
+    private void checkSession(MapSession<K, V> session) {
+        if (session.map != this) {
+            throw new IllegalArgumentException(
+                    "Session " + session + " is opened by another map");
+        }
+        session.checkOpenAndOwnerThread();
+    }
+
+    /**
+     * Returns the context of the session, skipping the thread local lookup and the search of an
+     * unused context in the context chain, or a context from the chain as usual, if the session
+     * context is already used, i. e. the session is accessed from within its own operation.
+     */
+    QueryContextInterface<K, V, R> sessionContext(MapSession<K, V> session) {
+        ChainingInterface context = session.context;
+        if (context.usedInit())
+            return mapContext();
+        context.initUsed(true, this);
+        return (QueryContextInterface<K, V, R>) context;
+    }
+
+    QueryContextInterface<K, V, R> sessionQueryContext(MapSession<K, V> session, Object key) {
+        checkSession(session);
+        checkKey(key);
+        QueryContextInterface<K, V, R> q = sessionContext(session);
+        q.initInputKey(q.inputKeyDataAccess().getData((K) key));
+        return q;
+    }
+
+    V sessionGet(MapSession<K, V> session, Object key, V using) {
+        if (!defaultEntryOperationsAndMethods)
+            return defaultSessionGet(session, key, using);
+        if (tierEntryLocksSize > 0)
+            return entryLockedRead(sessionQueryContext(session, key), using, null);
+        checkSession(session);
+        checkKey(key);
+        return optimizedGet((CompiledMapQueryContext<K, V, R>) sessionContext(session), key, using);
+    }
+
+    final V defaultSessionGet(MapSession<K, V> session, Object key, V using) {
+        try (QueryContextInterface<K, V, R> q = sessionQueryContext(session, key)) {
+            q.usingReturnValue().initUsingReturnValue(using);
+            methods.get(q, q.usingReturnValue());
+            return q.usingReturnValue().returnValue();
+        }
+    }
+
+    boolean sessionContainsKey(MapSession<K, V> session, Object key) {
+        try (QueryContextInterface<K, V, R> q = sessionQueryContext(session, key)) {
+            return methods.containsKey(q);
+        }
+    }
+
+    V sessionPut(MapSession<K, V> session, K key, V value) {
+        checkValue(value);
+        try (QueryContextInterface<K, V, R> q = sessionQueryContext(session, key)) {
+            Data<V> valueData = q.inputValueDataAccess().getData(value);
+            InstanceReturnValue<V> returnValue =
+                    putReturnsNull ? NullReturnValue.get() : q.defaultReturnValue();
+            methods.put(q, valueData, returnValue);
+            return returnValue.returnValue();
+        }
+    }
+
+    V sessionRemove(MapSession<K, V> session, Object key) {
+        try (QueryContextInterface<K, V, R> q = sessionQueryContext(session, key)) {
+            InstanceReturnValue<V> returnValue =
+                    removeReturnsNull ? NullReturnValue.get() : q.defaultReturnValue();
+            methods.remove(q, returnValue);
+            return returnValue.returnValue();
+        }
+    }
+
+    V sessionCompute(MapSession<K, V> session, K key,
+                     BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+        try (QueryContextInterface<K, V, R> q = sessionQueryContext(session, key)) {
+            methods.compute(q, remappingFunction, q.defaultReturnValue());
+            return q.defaultReturnValue().returnValue();
+        }
+    }
+
     public void verifyTierCountersAreaData() {
         for (int i = 0; i < actualSegments; i++) {
             try (MapSegmentContext<K, V, ?> c = segmentContext(i)) {
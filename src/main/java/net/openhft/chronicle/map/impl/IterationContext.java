@@ -29,4 +29,14 @@ public interface IterationContext<K, V, R> extends MapEntry<K, V>, MapSegmentCon
     void initSegmentIndex(int segmentIndex);
 
     void recoverSegments();
+
+    void recoverSegment(int segmentIndex);
+
+    /**
+     * Write-locks the segment with the given index, moves entries from the last tiers of the
+     * segment to the previous tiers, and frees emptied tiers.
+     *
+     * @return the number of freed tiers
+     */
+    int compactTiers(int segmentIndex);
 }
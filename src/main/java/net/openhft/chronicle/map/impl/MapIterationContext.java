@@ -63,6 +63,7 @@ import net.openhft.sg.Staged;
 
         TierRecovery.class,
         SegmentsRecovery.class,
+        TierCompaction.class,
 }, nested = {
         ReadLock.class,
         UpdateLock.class,
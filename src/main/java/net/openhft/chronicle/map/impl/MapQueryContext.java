@@ -31,6 +31,7 @@ import net.openhft.chronicle.map.impl.stage.data.instance.WrappedValueInstanceDa
 import net.openhft.chronicle.map.impl.stage.entry.MapEntryStages;
 import net.openhft.chronicle.map.impl.stage.map.*;
 import net.openhft.chronicle.map.impl.stage.query.AcquireHandle;
+import net.openhft.chronicle.map.impl.stage.query.EntryLockedAcquireHandle;
 import net.openhft.chronicle.map.impl.stage.query.MapAbsent;
 import net.openhft.chronicle.map.impl.stage.query.MapQuery;
 import net.openhft.chronicle.map.impl.stage.query.QueryCheckOnEachPublicOperation;
@@ -68,6 +69,7 @@ import net.openhft.sg.Staged;
         ValueBytesInterop.class,
 
         QueryAlloc.class,
+        SegmentGrowth.class,
 },
 nested = {
         ReadLock.class,
@@ -82,6 +84,7 @@ nested = {
         WrappedValueInstanceDataHolder.class,
         WrappedValueBytesData.class,
         AcquireHandle.class,
+        EntryLockedAcquireHandle.class,
         DefaultReturnValue.class,
         UsingReturnValue.class,
 
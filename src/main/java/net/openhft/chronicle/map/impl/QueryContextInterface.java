@@ -17,6 +17,7 @@
 
 package net.openhft.chronicle.map.impl;
 
+import net.openhft.chronicle.bytes.Bytes;
 import net.openhft.chronicle.bytes.BytesStore;
 import net.openhft.chronicle.core.io.Closeable;
 import net.openhft.chronicle.hash.Data;
@@ -29,7 +30,15 @@ public interface QueryContextInterface<K, V, R> extends ExternalMapQueryContext<
     
     void initInputKey(Data<K> inputKey);
 
+    void initKeyHash(long keyHash);
+
     Data<K> getInputKeyBytesAsData(BytesStore bytesStore, long offset, long size);
+
+    /**
+     * Returns bytes, reading only the given memory region, which should be the value of some entry.
+     * The returned object is reused by subsequent calls of this method.
+     */
+    Bytes valueBytesView(long valueAddress, long valueSize);
     
     DataAccess<K> inputKeyDataAccess();
     
@@ -40,6 +49,22 @@ public interface QueryContextInterface<K, V, R> extends ExternalMapQueryContext<
     DataAccess<V> inputValueDataAccess();
     
     Closeable acquireHandle();
+
+    /**
+     * Tries to acquire the {@linkplain net.openhft.chronicle.hash.impl.EntryLocks lock} of the
+     * present entry, the segment read lock should be held. If the lock is not acquired, the
+     * caller should release the segment lock, wait for the entry lock at {@link
+     * #entryLocksAddr()} and {@link #entryPos()} and retry.
+     */
+    boolean tryLockEntry();
+
+    void unlockEntry();
+
+    long entryLocksAddr();
+
+    long entryPos();
+
+    Closeable entryLockedAcquireHandle();
     
     void initSegmentIndex(int segmentIndex);
     
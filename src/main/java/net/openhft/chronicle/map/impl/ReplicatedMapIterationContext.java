@@ -26,6 +26,7 @@ import net.openhft.chronicle.hash.impl.stage.iter.IterationAlloc;
 import net.openhft.chronicle.hash.impl.stage.iter.IterationKeyHashCode;
 import net.openhft.chronicle.hash.impl.stage.iter.IterationSegmentStages;
 import net.openhft.chronicle.hash.impl.stage.iter.SegmentsRecovery;
+import net.openhft.chronicle.hash.impl.stage.iter.TierCompaction;
 import net.openhft.chronicle.hash.impl.stage.query.KeySearch;
 import net.openhft.chronicle.map.impl.stage.data.DummyValueZeroData;
 import net.openhft.chronicle.map.impl.stage.data.bytes.EntryValueBytesData;
@@ -70,6 +71,7 @@ import net.openhft.sg.Staged;
 
         ReplicatedTierRecovery.class,
         SegmentsRecovery.class,
+        TierCompaction.class,
 }, nested = {
         ReadLock.class,
         UpdateLock.class,
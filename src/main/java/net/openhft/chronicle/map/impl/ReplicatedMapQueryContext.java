@@ -27,6 +27,7 @@ import net.openhft.chronicle.hash.impl.stage.query.KeySearch;
 import net.openhft.chronicle.hash.impl.stage.query.QueryHashLookupSearch;
 import net.openhft.chronicle.hash.impl.stage.query.QuerySegmentStages;
 import net.openhft.chronicle.hash.impl.stage.query.SearchAllocatedChunks;
+import net.openhft.chronicle.hash.impl.stage.query.SegmentGrowth;
 import net.openhft.chronicle.map.impl.stage.data.DummyValueZeroData;
 import net.openhft.chronicle.map.impl.stage.data.bytes.EntryValueBytesData;
 import net.openhft.chronicle.map.impl.stage.data.bytes.WrappedValueBytesData;
@@ -73,6 +74,7 @@ import net.openhft.sg.Staged;
         ReplicatedInput.class,
 
         ReplicatedQueryAlloc.class,
+        SegmentGrowth.class,
 },
 nested = {
         ReadLock.class,
@@ -87,6 +89,7 @@ nested = {
         WrappedValueInstanceDataHolder.class,
         WrappedValueBytesData.class,
         AcquireHandle.class,
+        EntryLockedAcquireHandle.class,
         DefaultReturnValue.class,
         UsingReturnValue.class,
 
@@ -22,6 +22,7 @@ import net.openhft.chronicle.bytes.NativeBytesStore;
 import net.openhft.chronicle.bytes.RandomDataInput;
 import net.openhft.chronicle.hash.Data;
 import net.openhft.chronicle.hash.impl.CompactOffHeapLinearHashTable;
+import net.openhft.chronicle.hash.impl.TierKeyFilter;
 import net.openhft.chronicle.hash.impl.stage.entry.AllocatedChunks;
 import net.openhft.chronicle.hash.impl.stage.entry.HashEntryStages;
 import net.openhft.chronicle.hash.impl.stage.query.KeySearch;
@@ -209,12 +210,29 @@ public abstract class MapEntryStages<K, V> extends HashEntryStages<K>
         CompactOffHeapLinearHashTable hl = hh.h().hashLookup;
         long hashLookupKey = hl.key(hl.readEntry(oldHashLookupAddr, oldHashLookupPos));
         hl.checkValueForPut(pos);
-        hl.writeEntryVolatile(s.tierBaseAddr, hlp.hashLookupPos, hashLookupKey, pos);
+        TierKeyFilter filter = hh.h().tierKeyFilter;
+        if (tierHasChanged) {
+            long insertPos = hl.insertPos(s.tierBaseAddr, hlp.hashLookupPos, hashLookupKey);
+            if (!hl.empty(hl.readEntry(s.tierBaseAddr, insertPos))) {
+                // the insertion moves other entries, concurrent readers might miss them
+                s.innerWriteLock.lock();
+            }
+            // under the update lock, see TierKeyFilter docs
+            if (filter != null)
+                filter.add(s.tierBaseAddr, hashLookupKey);
+            hl.insert(s.tierBaseAddr, insertPos, hashLookupKey, pos);
+            hlp.setHashLookupPos(insertPos);
+        } else {
+            hl.writeEntryVolatile(s.tierBaseAddr, hlp.hashLookupPos, hashLookupKey, pos);
+        }
         // write lock is needed anyway (see testPutShouldBeWriteLocked()) but the scope is reduced
         // as much as possible
         s.innerWriteLock.lock();
-        if (tierHasChanged)
+        if (tierHasChanged) {
             hl.remove(oldHashLookupAddr, oldHashLookupPos);
+            if (filter != null)
+                filter.remove(oldHashLookupAddr, hashLookupKey);
+        }
     }
 
     public final long entrySize(long keySize, long valueSize) {
@@ -0,0 +1,74 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map.impl.stage.query;
+
+import net.openhft.chronicle.core.io.Closeable;
+import net.openhft.chronicle.hash.Data;
+import net.openhft.chronicle.hash.impl.EntryLocks;
+import net.openhft.chronicle.hash.impl.stage.entry.SegmentStages;
+import net.openhft.chronicle.hash.impl.stage.hash.CheckOnEachPublicOperation;
+import net.openhft.chronicle.map.impl.VanillaChronicleMapHolder;
+import net.openhft.chronicle.map.impl.stage.entry.MapEntryStages;
+import net.openhft.chronicle.map.impl.stage.ret.UsingReturnValue;
+import net.openhft.sg.StageRef;
+import net.openhft.sg.Staged;
+
+/**
+ * Counterpart of {@link AcquireHandle} for maps with entry locks: the present entry is held under
+ * the segment read lock and the entry lock, the value is written back in place on close.
+ */
+@Staged
+public class EntryLockedAcquireHandle<K, V> implements Closeable {
+
+    @StageRef CheckOnEachPublicOperation checkOnEachPublicOperation;
+    @StageRef VanillaChronicleMapHolder<K, V, ?> mh;
+    @StageRef SegmentStages s;
+    @StageRef MapEntryStages<K, V> e;
+    @StageRef MapQuery<K, V, ?> q;
+    @StageRef UsingReturnValue<V> usingReturn;
+
+    public long entryLocksAddr() {
+        return s.tierBaseAddr + mh.m().tierEntryLocksOffset();
+    }
+
+    public long entryPos() {
+        return e.pos;
+    }
+
+    public boolean tryLockEntry() {
+        return EntryLocks.tryLock(entryLocksAddr(), e.pos);
+    }
+
+    public void unlockEntry() {
+        EntryLocks.unlock(entryLocksAddr(), e.pos);
+    }
+
+    @Override
+    public void close() {
+        checkOnEachPublicOperation.checkOnEachPublicOperation();
+        try {
+            Data<V> newValue = q.wrapValueAsData(usingReturn.returnValue());
+            // values are constantly sized, if entry locks are enabled
+            assert newValue.size() == e.valueSize;
+            e.writeValue(newValue);
+        } finally {
+            unlockEntry();
+            q.close();
+        }
+    }
+}
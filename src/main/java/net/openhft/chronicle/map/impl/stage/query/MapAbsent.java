@@ -23,6 +23,7 @@ import net.openhft.chronicle.hash.impl.stage.entry.SegmentStages;
 import net.openhft.chronicle.hash.impl.stage.hash.CheckOnEachPublicOperation;
 import net.openhft.chronicle.hash.impl.stage.query.HashQuery.EntryPresence;
 import net.openhft.chronicle.hash.impl.stage.query.KeySearch;
+import net.openhft.chronicle.hash.impl.stage.query.SegmentGrowth;
 import net.openhft.chronicle.map.impl.VanillaChronicleMapHolder;
 import net.openhft.chronicle.map.impl.stage.entry.MapEntryStages;
 import net.openhft.chronicle.set.DummyValueData;
@@ -42,6 +43,7 @@ public abstract class MapAbsent<K, V> implements Absent<K, V> {
     @StageRef public CheckOnEachPublicOperation checkOnEachPublicOperation;
     @StageRef public SegmentStages s;
     @StageRef VanillaChronicleMapHolder<K, V, ?> mh;
+    @StageRef SegmentGrowth segmentGrowth;
 
     void putEntry(Data<V> value) {
         assert ks.searchStateAbsent();
@@ -70,6 +72,7 @@ public abstract class MapAbsent<K, V> implements Absent<K, V> {
     public void doInsert(Data<V> value) {
         q.putPrefix();
         if (!q.entryPresent()) {
+            segmentGrowth.growBeforeInsert();
             putEntry(value);
             s.incrementModCount();
             ks.setSearchState(PRESENT);
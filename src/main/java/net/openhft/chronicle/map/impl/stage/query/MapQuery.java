@@ -17,7 +17,12 @@
 
 package net.openhft.chronicle.map.impl.stage.query;
 
+import net.openhft.chronicle.bytes.Bytes;
 import net.openhft.chronicle.bytes.BytesStore;
+import net.openhft.chronicle.bytes.NativeBytesStore;
+import net.openhft.chronicle.bytes.PointerBytesStore;
+import net.openhft.chronicle.bytes.VanillaBytes;
+import net.openhft.chronicle.core.OS;
 import net.openhft.chronicle.hash.Data;
 import net.openhft.chronicle.hash.impl.stage.data.bytes.InputKeyBytesData;
 import net.openhft.chronicle.hash.impl.stage.query.HashQuery;
@@ -50,6 +55,7 @@ public abstract class MapQuery<K, V, R> extends HashQuery<K>
     @StageRef SearchAllocatedChunks allocatedChunks;
     @StageRef KeySearch<K> ks;
     @StageRef public AcquireHandle<K, V> acquireHandle;
+    @StageRef public EntryLockedAcquireHandle<K, V> entryLockedAcquireHandle;
     @StageRef InputKeyBytesData<K> inputKeyBytesData;
     
     @StageRef public DefaultReturnValue<V> defaultReturnValue;
@@ -116,6 +122,26 @@ public abstract class MapQuery<K, V, R> extends HashQuery<K>
         }
     }
 
+    @Override
+    public boolean tryLockEntry() {
+        return entryLockedAcquireHandle.tryLockEntry();
+    }
+
+    @Override
+    public void unlockEntry() {
+        entryLockedAcquireHandle.unlockEntry();
+    }
+
+    @Override
+    public long entryLocksAddr() {
+        return entryLockedAcquireHandle.entryLocksAddr();
+    }
+
+    @Override
+    public long entryPos() {
+        return entryLockedAcquireHandle.entryPos();
+    }
+
     @NotNull
     @Override
     public MapQuery<K, V, R> context() {
@@ -128,4 +154,62 @@ public abstract class MapQuery<K, V, R> extends HashQuery<K>
         inputKeyBytesData.initInputKeyBytesStore(bytesStore, offset, size);
         return inputKeyBytesData;
     }
+
+    private final PointerBytesStore valueViewBS = new PointerBytesStore();
+    private final VanillaBytes valueView = new VanillaBytes(valueViewBS);
+
+    @Override
+    public Bytes valueBytesView(long valueAddress, long valueSize) {
+        valueViewBS.set(valueAddress, valueSize);
+        valueView.bytesStore(valueViewBS, 0, valueSize);
+        // writes through the view fail, writes through valueViewBS, exposed via bytesStore(), are
+        // not prevented, they are a violation of the ValueBytesReader contract
+        valueView.writeLimit(0);
+        return valueView;
+    }
+
+    /**
+     * Scratch arrays of {@code getAll()} up to this length are retained by the context, larger
+     * arrays are allocated on each call, not to hold much memory in each pooled context.
+     */
+    private static final int MAX_RETAINED_GET_ALL_SCRATCH_LENGTH = 1024;
+    private long[] getAllScratch = new long[0];
+
+    /**
+     * Returns an array of at least the given length, reused across {@code getAll()} calls on this
+     * context, if the length is not too large.
+     */
+    public long[] getAllScratch(int length) {
+        if (length <= getAllScratch.length)
+            return getAllScratch;
+        long[] scratch = new long[length];
+        if (length <= MAX_RETAINED_GET_ALL_SCRATCH_LENGTH)
+            getAllScratch = scratch;
+        return scratch;
+    }
+
+    /**
+     * Copy of the value, read optimistically, it is deserialized only after the read is
+     * validated, so that torn bytes are never deserialized
+     */
+    private NativeBytesStore optimisticValueCopy = null;
+
+    /**
+     * Copies the value of the given size, which should be already checked against the tier
+     * bounds, to the memory, owned by this context, and returns the address of the copy. The copy
+     * is overwritten by subsequent calls of this method.
+     */
+    public long copyOptimisticValue(long valueAddress, long valueSize) {
+        NativeBytesStore copy = optimisticValueCopy;
+        if (copy == null || copy.capacity() < valueSize) {
+            long capacity = copy == null ? valueSize : Math.max(valueSize, copy.capacity() * 2);
+            if (copy != null)
+                copy.release();
+            copy = NativeBytesStore.nativeStoreWithFixedCapacity(Math.max(capacity, 8L));
+            optimisticValueCopy = copy;
+        }
+        long copyAddress = copy.address(0);
+        OS.memory().copyMemory(valueAddress, copyAddress, valueSize);
+        return copyAddress;
+    }
 }
@@ -20,6 +20,7 @@ package net.openhft.chronicle.set;
 import net.openhft.chronicle.hash.ChronicleHashBuilder;
 import net.openhft.chronicle.hash.ChronicleHashBuilderPrivateAPI;
 import net.openhft.chronicle.hash.Data;
+import net.openhft.chronicle.hash.KeyHashing;
 import net.openhft.chronicle.hash.serialization.*;
 import net.openhft.chronicle.map.*;
 import net.openhft.chronicle.map.replication.MapRemoteOperations;
@@ -260,6 +261,32 @@ public final class ChronicleSetBuilder<K>
         return this;
     }
 
+    /**
+     * Configures the function, applied to serialized keys of sets, created by this builder, to
+     * choose the segment and the slot in the hash lookup.
+     *
+     * @param keyHashing the function to hash keys
+     * @return this builder back
+     * @see ChronicleMapBuilder#keyHashing(KeyHashing)
+     */
+    public ChronicleSetBuilder<K> keyHashing(KeyHashing keyHashing) {
+        chronicleMapBuilder.keyHashing(keyHashing);
+        return this;
+    }
+
+    /**
+     * Configures whether segments of sets, created by this builder, should grow by splitting
+     * tiers, rather than by chaining tiers, so that lookups search a single tier.
+     *
+     * @param segmentGrowth if segments should grow by splitting tiers
+     * @return this builder back
+     * @see ChronicleMapBuilder#segmentGrowth(boolean)
+     */
+    public ChronicleSetBuilder<K> segmentGrowth(boolean segmentGrowth) {
+        chronicleMapBuilder.segmentGrowth(segmentGrowth);
+        return this;
+    }
+
     /**
      * Inject your SPI code around basic {@code ChronicleSet}'s operations with entries:
      * removing entries and inserting new entries.
@@ -19,6 +19,8 @@ package net.openhft.chronicle.set;
 
 import net.openhft.chronicle.hash.ChronicleHashBuilderPrivateAPI;
 import net.openhft.chronicle.hash.Data;
+import net.openhft.chronicle.hash.KeyHashing;
+import net.openhft.chronicle.hash.locks.SegmentLockPolicy;
 import net.openhft.chronicle.hash.serialization.impl.SerializationBuilder;
 import net.openhft.chronicle.map.replication.MapRemoteOperations;
 import net.openhft.chronicle.map.replication.MapRemoteQueryContext;
@@ -87,6 +89,11 @@ class ChronicleSetBuilderPrivateAPI<K>
         return mapB.maxExtraTiers();
     }
 
+    @Override
+    public boolean segmentGrowth() {
+        return mapB.segmentGrowth();
+    }
+
     @Override
     public boolean aligned64BitMemoryOperationsAtomic() {
         return mapB.aligned64BitMemoryOperationsAtomic();
@@ -97,6 +104,61 @@ class ChronicleSetBuilderPrivateAPI<K>
         return mapB.checksumEntries();
     }
 
+    @Override
+    public boolean optimisticReads() {
+        return mapB.optimisticReads();
+    }
+
+    @Override
+    public boolean tierKeyFilters() {
+        return mapB.tierKeyFilters();
+    }
+
+    @Override
+    public boolean hashLookupControlBytes() {
+        return mapB.hashLookupControlBytes();
+    }
+
+    @Override
+    public boolean robinHoodHashLookup() {
+        return mapB.robinHoodHashLookup();
+    }
+
+    @Override
+    public boolean entryLocks() {
+        return mapB.entryLocks();
+    }
+
+    @Override
+    public boolean futexLockWaits() {
+        return mapB.futexLockWaits();
+    }
+
+    @Override
+    public KeyHashing keyHashing() {
+        return mapB.keyHashing();
+    }
+
+    @Override
+    public boolean parkingLockWaits() {
+        return mapB.parkingLockWaits();
+    }
+
+    @Override
+    public boolean lockContentionStats() {
+        return mapB.lockContentionStats();
+    }
+
+    @Override
+    public SegmentLockPolicy lockPolicy() {
+        return mapB.lockPolicy();
+    }
+
+    @Override
+    public boolean deadOwnerLockRecovery() {
+        return mapB.deadOwnerLockRecovery();
+    }
+
     @Override
     public void replication(byte identifier) {
         mapB.replication(identifier);
@@ -19,6 +19,7 @@ package net.openhft.chronicle.set;
 
 import net.openhft.chronicle.bytes.BytesStore;
 import net.openhft.chronicle.hash.Data;
+import net.openhft.chronicle.hash.SegmentLockStats;
 import net.openhft.chronicle.hash.impl.util.Objects;
 import net.openhft.chronicle.map.ChronicleMap;
 import net.openhft.chronicle.map.VanillaChronicleMap;
@@ -160,6 +161,16 @@ class SetFromMap<E> extends AbstractSet<E> implements ChronicleSet<E> {
         return m.segments();
     }
 
+    @Override
+    public SegmentLockStats segmentLockStats(int segmentIndex) {
+        return m.segmentLockStats(segmentIndex);
+    }
+
+    @Override
+    public long compactTiers() {
+        return m.compactTiers();
+    }
+
     // TODO test forEach methods
 
     @Override
@@ -0,0 +1,112 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.ChronicleHashClosedException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.*;
+
+public class AsyncChronicleMapTest {
+
+    private static ChronicleMap<Integer, Long> map() {
+        return ChronicleMap.of(Integer.class, Long.class)
+                .entries(1000)
+                .actualSegments(8)
+                .create();
+    }
+
+    @Test
+    public void operationsAreCompleted() throws Exception {
+        try (ChronicleMap<Integer, Long> map = map();
+             AsyncChronicleMap<Integer, Long> async = AsyncChronicleMap.of(map, 4)) {
+            assertEquals(4, async.workers());
+            assertNull(async.put(1, 1L).get());
+            assertEquals(Long.valueOf(1L), async.put(1, 2L).get());
+            assertEquals(Long.valueOf(2L), async.get(1).get());
+            assertEquals(Long.valueOf(5L), async.compute(1, (k, v) -> v + 3).get());
+            assertEquals(Long.valueOf(5L), async.remove(1).get());
+            assertNull(async.get(1).get());
+            assertEquals(Boolean.FALSE, async.submit(1, h -> map.containsKey(h.key())).get());
+        }
+    }
+
+    @Test
+    public void operationsWithKeyAreOrdered() throws Exception {
+        try (ChronicleMap<Integer, Long> map = map()) {
+            List<CompletableFuture<Long>> futures = new ArrayList<>();
+            try (AsyncChronicleMap<Integer, Long> async = AsyncChronicleMap.of(map, 3)) {
+                for (int i = 0; i < 10_000; i++) {
+                    futures.add(async.compute(i % 100, (k, v) -> v == null ? 1L : v + 1));
+                }
+            }
+            for (int i = 0; i < 10_000; i++) {
+                assertTrue(futures.get(i).isDone());
+                assertEquals(Long.valueOf(i / 100 + 1), futures.get(i).get());
+            }
+            for (int key = 0; key < 100; key++) {
+                assertEquals(Long.valueOf(100), map.get(key));
+            }
+        }
+    }
+
+    @Test
+    public void workersAreCappedBySegments() {
+        try (ChronicleMap<Integer, Long> map = map();
+             AsyncChronicleMap<Integer, Long> async = AsyncChronicleMap.of(map, 100)) {
+            assertEquals(8, async.workers());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mapNotCreatedByBuilderIsRejected() {
+        try (ChronicleMap<Integer, Long> map1 = map();
+             ChronicleMap<Integer, Long> map2 = map()) {
+            AsyncChronicleMap.of(new ReplicationCheckingMap<>(map1, map2), 2);
+        }
+    }
+
+    @Test
+    public void failuresCompleteFuturesExceptionally() throws InterruptedException {
+        ChronicleMap<Integer, Long> map = map();
+        AsyncChronicleMap<Integer, Long> async = AsyncChronicleMap.of(map, 2);
+        assertCause(async.compute(1, (k, v) -> {
+            throw new IllegalStateException();
+        }), IllegalStateException.class);
+        async.close();
+        assertCause(async.get(1), RejectedExecutionException.class);
+        map.close();
+        assertCause(async.get(1), ChronicleHashClosedException.class);
+    }
+
+    private static void assertCause(CompletableFuture<?> future, Class<?> causeClass)
+            throws InterruptedException {
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals(causeClass, e.getCause().getClass());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.map.ListenersTest.CountingEntryOperations;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class BulkUpdateTest {
+
+    private static ChronicleMap<Integer, Integer> newMap(
+            CountingEntryOperations<Integer, Integer> entryOperations) {
+        return ChronicleMap.of(Integer.class, Integer.class)
+                .entries(1000)
+                .actualSegments(8)
+                .entryOperations(entryOperations)
+                .create();
+    }
+
+    @Test
+    public void putAll() {
+        CountingEntryOperations<Integer, Integer> ops = new CountingEntryOperations<>();
+        try (ChronicleMap<Integer, Integer> map = newMap(ops)) {
+            map.put(0, 42);
+            Map<Integer, Integer> m = new HashMap<>();
+            for (int i = 0; i < 1000; i++) {
+                m.put(i, -i);
+            }
+            map.putAll(m);
+            assertEquals(1000, map.size());
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(Integer.valueOf(-i), map.get(i));
+            }
+            assertEquals(1000, ops.insertCount.get());
+            assertEquals(1, ops.replaceValueCount.get());
+        }
+    }
+
+    @Test
+    public void removeAll() {
+        CountingEntryOperations<Integer, Integer> ops = new CountingEntryOperations<>();
+        try (ChronicleMap<Integer, Integer> map = newMap(ops)) {
+            for (int i = 0; i < 100; i++) {
+                map.put(i, i);
+            }
+            List<Integer> keys = new ArrayList<>();
+            for (int i = 0; i < 200; i += 2) {
+                keys.add(i);
+                // duplicate keys should be tolerated
+                keys.add(i);
+            }
+            map.removeAll(keys);
+            assertEquals(50, map.size());
+            for (int i = 0; i < 100; i++) {
+                if (i % 2 == 0) {
+                    assertNull(map.get(i));
+                } else {
+                    assertEquals(Integer.valueOf(i), map.get(i));
+                }
+            }
+            assertEquals(50, ops.removeCount.get());
+        }
+    }
+
+    @Test
+    public void replaceAllExisting() {
+        CountingEntryOperations<Integer, Integer> ops = new CountingEntryOperations<>();
+        try (ChronicleMap<Integer, Integer> map = newMap(ops)) {
+            for (int i = 0; i < 100; i++) {
+                map.put(i, i);
+            }
+            Map<Integer, Integer> m = new HashMap<>();
+            for (int i = 50; i < 150; i++) {
+                m.put(i, -i);
+            }
+            map.replaceAllExisting(m);
+            assertEquals(100, map.size());
+            for (int i = 0; i < 100; i++) {
+                assertEquals(Integer.valueOf(i < 50 ? i : -i), map.get(i));
+            }
+            assertEquals(50, ops.replaceValueCount.get());
+            // the inherited replaceAll(BiFunction) is not ambiguous with replaceAllExisting()
+            map.replaceAll((k, v) -> v + 1);
+            assertEquals(Integer.valueOf(1), map.get(0));
+        }
+    }
+
+    @Test
+    public void putAllInsideContext() {
+        try (ChronicleMap<Integer, Integer> map =
+                     newMap(new CountingEntryOperations<>())) {
+            Map<Integer, Integer> m = new HashMap<>();
+            for (int i = 1; i < 100; i++) {
+                m.put(i, i);
+            }
+            try (ExternalMapQueryContext<Integer, Integer, ?> c = map.queryContext(0)) {
+                c.writeLock().lock();
+                map.putAll(m);
+            }
+            assertEquals(99, map.size());
+        }
+    }
+}
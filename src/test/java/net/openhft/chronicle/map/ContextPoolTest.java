@@ -0,0 +1,147 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.ChronicleHashClosedException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ContextPoolTest {
+
+    private static ChronicleMap<Integer, Integer> map(int maxPooledContexts) {
+        return ChronicleMap.of(Integer.class, Integer.class)
+                .entries(10_000)
+                .actualSegments(4)
+                .contextPool(maxPooledContexts)
+                .create();
+    }
+
+    private static void runInThread(Runnable r) throws InterruptedException {
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread t = new Thread(r);
+        t.setUncaughtExceptionHandler((th, e) -> error.set(e));
+        t.start();
+        t.join();
+        if (error.get() != null)
+            throw new AssertionError(error.get());
+    }
+
+    @Test
+    public void contextChainIsReusedByAnotherThread() throws InterruptedException {
+        try (ChronicleMap<Integer, Integer> map = map(4)) {
+            VanillaChronicleMap<?, ?, ?> vanillaMap = (VanillaChronicleMap<?, ?, ?>) map;
+            AtomicReference<Object> firstContext = new AtomicReference<>();
+            runInThread(() -> {
+                try (ExternalMapQueryContext<Integer, Integer, ?> c = map.queryContext(1)) {
+                    firstContext.set(c);
+                }
+            });
+            assertEquals(1, vanillaMap.contextPool.idleContexts());
+            AtomicReference<Object> secondContext = new AtomicReference<>();
+            runInThread(() -> {
+                try (ExternalMapQueryContext<Integer, Integer, ?> c = map.queryContext(1)) {
+                    secondContext.set(c);
+                    // the context is borrowed
+                    assertEquals(0, vanillaMap.contextPool.idleContexts());
+                }
+            });
+            assertSame(firstContext.get(), secondContext.get());
+            assertEquals(1, vanillaMap.contextPool.idleContexts());
+            assertEquals(1, vanillaMap.allContexts().size());
+        }
+    }
+
+    @Test
+    public void nestedContextsShareBorrowedChain() {
+        try (ChronicleMap<Integer, Integer> map = map(4)) {
+            VanillaChronicleMap<?, ?, ?> vanillaMap = (VanillaChronicleMap<?, ?, ?>) map;
+            map.put(1, 1);
+            try (ExternalMapQueryContext<Integer, Integer, ?> c1 = map.queryContext(1)) {
+                c1.updateLock().lock();
+                try (ExternalMapQueryContext<Integer, Integer, ?> c2 = map.queryContext(2)) {
+                    c2.updateLock().lock();
+                    c2.insert(c2.absentEntry(), c2.wrapValueAsData(2));
+                }
+                try (ExternalMapQueryContext<Integer, Integer, ?> c3 = map.queryContext(1)) {
+                    c3.readLock().lock();
+                    fail("nested contexts of the same key should be forbidden");
+                } catch (IllegalStateException expected) {
+                    // expected
+                }
+                // the chain is returned only when the outermost context is closed
+                assertEquals(0, vanillaMap.contextPool.idleContexts());
+            }
+            assertEquals(1, vanillaMap.contextPool.idleContexts());
+            assertEquals(Integer.valueOf(2), map.get(2));
+        }
+    }
+
+    @Test
+    public void numberOfContextsIsBoundedWithManyThreads() throws InterruptedException {
+        int maxPooledContexts = 2;
+        try (ChronicleMap<Integer, Integer> map = map(maxPooledContexts)) {
+            VanillaChronicleMap<?, ?, ?> vanillaMap = (VanillaChronicleMap<?, ?, ?>) map;
+            for (int round = 0; round < 10; round++) {
+                List<Thread> threads = new ArrayList<>();
+                for (int t = 0; t < 8; t++) {
+                    int base = (round * 8 + t) * 10;
+                    Thread thread = new Thread(() -> {
+                        for (int i = base; i < base + 10; i++) {
+                            map.put(i, i);
+                            assertEquals(Integer.valueOf(i), map.get(i));
+                        }
+                    });
+                    threads.add(thread);
+                    thread.start();
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+            }
+            assertEquals(800, map.size());
+            assertTrue(vanillaMap.contextPool.idleContexts() <= maxPooledContexts);
+            // the operations on the map, performed in this thread, borrow a context from the pool
+            map.forEach((k, v) -> assertEquals(k, v));
+            assertTrue(vanillaMap.contextPool.idleContexts() <= maxPooledContexts);
+        }
+    }
+
+    @Test
+    public void closedMapClosesPooledContexts() {
+        ChronicleMap<Integer, Integer> map = map(4);
+        map.put(1, 1);
+        map.close();
+        try {
+            map.get(1);
+            fail("closed map shouldn't be accessible");
+        } catch (ChronicleHashClosedException expected) {
+            // expected
+        }
+        try {
+            ChronicleMap.of(Integer.class, Integer.class).contextPool(-1);
+            fail("negative pool size should be rejected");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.hash.impl.DeadOwnerRecoveringSegmentHeader;
+import net.openhft.chronicle.hash.impl.VanillaChronicleHash;
+import net.openhft.chronicle.hash.impl.util.ProcessLiveness;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DeadOwnerLockRecoveryTest {
+
+    private static ChronicleMapBuilder<Integer, Integer> builder() {
+        return ChronicleMap.of(Integer.class, Integer.class)
+                .entries(1000)
+                .actualSegments(1)
+                .deadOwnerLockRecovery(true);
+    }
+
+    /**
+     * Run in a child process: acquires the lock of the only segment of the map, corrupts the
+     * entries counter under the write lock, reports and waits to be killed.
+     */
+    public static void main(String[] args) throws Exception {
+        try (ChronicleMap<Integer, Integer> map = builder().createPersistedTo(new File(args[0]));
+             ExternalMapQueryContext<Integer, Integer, ?> c = map.queryContext(2)) {
+            map.put(2, 2);
+            if (args[1].equals("write")) {
+                c.writeLock().lock();
+                VanillaChronicleHash h = (VanillaChronicleHash) map;
+                h.segmentHeader.entries(h.segmentHeaderAddress(0), 100);
+            } else {
+                c.updateLock().lock();
+            }
+            System.out.println("locked");
+            System.out.flush();
+            Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+        }
+    }
+
+    private static Process lockInChildProcess(File file, String lock)
+            throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator +
+                "java";
+        Process p = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                DeadOwnerLockRecoveryTest.class.getName(), file.getAbsolutePath(), lock)
+                .redirectErrorStream(true)
+                .start();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(p.getInputStream()));
+        for (String line; (line = reader.readLine()) != null; ) {
+            if (line.equals("locked"))
+                return p;
+        }
+        fail("child process exited with " + p.waitFor());
+        return p;
+    }
+
+    private static void lockOfKilledProcessIsRecovered(String lock) throws Exception {
+        Assume.assumeTrue(OS.isLinux());
+        File file = File.createTempFile("deadOwnerLockRecovery", ".dat");
+        file.delete();
+        file.deleteOnExit();
+        try (ChronicleMap<Integer, Integer> map = builder().createPersistedTo(file)) {
+            map.put(1, 1);
+            Process p = lockInChildProcess(file, lock);
+            long address = ((VanillaChronicleHash) map).segmentHeaderAddress(0);
+            try {
+                long owner = DeadOwnerRecoveringSegmentHeader.owner(address);
+                assertNotEquals(0, owner);
+                assertFalse(ProcessLiveness.isDead(owner,
+                        DeadOwnerRecoveringSegmentHeader.ownerPidNamespace(address)));
+                try (ExternalMapQueryContext<Integer, Integer, ?> c = map.queryContext(1)) {
+                    // the lock holder is alive
+                    assertFalse(c.updateLock().tryLock(100, TimeUnit.MILLISECONDS));
+                }
+            } finally {
+                p.destroyForcibly().waitFor();
+            }
+            long start = System.nanoTime();
+            map.put(3, 3);
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+            assertEquals(0, DeadOwnerRecoveringSegmentHeader.owner(address));
+            assertEquals(Integer.valueOf(1), map.get(1));
+            assertEquals(Integer.valueOf(2), map.get(2));
+            assertEquals(Integer.valueOf(3), map.get(3));
+            assertEquals(3, map.size());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void writeLockOfKilledProcessIsRecovered() throws Exception {
+        lockOfKilledProcessIsRecovered("write");
+    }
+
+    @Test
+    public void updateLockOfKilledProcessIsRecovered() throws Exception {
+        lockOfKilledProcessIsRecovered("update");
+    }
+
+    @Test
+    public void ownerIsRecordedOnlyWhileUpdateOrWriteLockIsHeld() {
+        try (ChronicleMap<Integer, Integer> map = builder().create()) {
+            long address = ((VanillaChronicleHash) map).segmentHeaderAddress(0);
+            try (ExternalMapQueryContext<Integer, Integer, ?> c = map.queryContext(1)) {
+                c.readLock().lock();
+                assertEquals(0, DeadOwnerRecoveringSegmentHeader.owner(address));
+            }
+            try (ExternalMapQueryContext<Integer, Integer, ?> c = map.queryContext(1)) {
+                c.updateLock().lock();
+                assertEquals(ProcessLiveness.currentProcessId(),
+                        DeadOwnerRecoveringSegmentHeader.owner(address));
+                c.writeLock().lock();
+                assertEquals(ProcessLiveness.currentProcessId(),
+                        DeadOwnerRecoveringSegmentHeader.owner(address));
+            }
+            assertEquals(0, DeadOwnerRecoveringSegmentHeader.owner(address));
+            assertNotEquals(0, ProcessLiveness.currentProcessId());
+            assertFalse(ProcessLiveness.isDead(ProcessLiveness.currentProcessId(),
+                    ProcessLiveness.currentPidNamespace()));
+        }
+    }
+
+    @Test
+    public void ownerFromUnknownPidNamespaceIsNeverDead() {
+        Assume.assumeTrue(OS.isLinux());
+        // the max pid on Linux is 2^22, the process with the max possible pid surely doesn't exist
+        long deadProcessId = ((1L << 22) - 1) << 42;
+        long pidNamespace = ProcessLiveness.currentPidNamespace();
+        Assume.assumeTrue(pidNamespace != ProcessLiveness.UNKNOWN_PID_NAMESPACE);
+        assertTrue(ProcessLiveness.isDead(deadProcessId, pidNamespace));
+        assertFalse(ProcessLiveness.isDead(deadProcessId, ProcessLiveness.UNKNOWN_PID_NAMESPACE));
+        assertFalse(ProcessLiveness.isDead(deadProcessId, pidNamespace + 1));
+    }
+
+    @Test
+    public void deadOwnerLockRecoveryIsPersisted() throws IOException {
+        File file = File.createTempFile("deadOwnerLockRecovery", ".dat");
+        file.delete();
+        file.deleteOnExit();
+        try {
+            try (ChronicleMap<Integer, Integer> map = builder().createPersistedTo(file)) {
+                map.put(1, 1);
+            }
+            try (ChronicleMap<Integer, Integer> map = ChronicleMap.of(Integer.class, Integer.class)
+                    .entries(1000)
+                    .createPersistedTo(file)) {
+                VanillaChronicleHash h = (VanillaChronicleHash) map;
+                assertTrue(h.deadOwnerLockRecovery);
+                assertTrue(h.segmentHeader instanceof DeadOwnerRecoveringSegmentHeader);
+                assertEquals(Integer.valueOf(1), map.get(1));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
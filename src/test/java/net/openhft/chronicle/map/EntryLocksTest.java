@@ -0,0 +1,240 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.core.io.Closeable;
+import net.openhft.chronicle.core.values.LongValue;
+import net.openhft.chronicle.values.Values;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class EntryLocksTest {
+
+    private static ChronicleMapBuilder<Integer, LongValue> builder() {
+        return ChronicleMap.of(Integer.class, LongValue.class)
+                .entries(1000)
+                .actualSegments(1)
+                .entryLocks(true);
+    }
+
+    private static void increment(ChronicleMap<Integer, LongValue> map, int key, LongValue value) {
+        try (Closeable c = map.acquireContext(key, value)) {
+            value.setValue(value.getValue() + 1);
+        }
+    }
+
+    @Test
+    public void acquireContextInsertsAndUpdatesInPlace() {
+        try (ChronicleMap<Integer, LongValue> map = builder().create()) {
+            LongValue value = Values.newNativeReference(LongValue.class);
+            increment(map, 1, value);
+            increment(map, 1, value);
+            assertEquals(2, map.get(1).getValue());
+            LongValue heapValue = Values.newHeapInstance(LongValue.class);
+            try (Closeable c = map.acquireContext(1, heapValue)) {
+                assertEquals(2, heapValue.getValue());
+                heapValue.setValue(10);
+            }
+            assertEquals(10, map.get(1).getValue());
+            assertEquals(1, map.size());
+        }
+    }
+
+    @Test
+    public void acquireContextOnOtherKeyInSameSegmentIsNotBlocked() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (ChronicleMap<Integer, LongValue> map = builder().create()) {
+            LongValue value = Values.newNativeReference(LongValue.class);
+            increment(map, 2, value);
+            Closeable c = map.acquireContext(1, value);
+            Future<?> otherKey = executor.submit(
+                    () -> increment(map, 2, Values.newNativeReference(LongValue.class)));
+            otherKey.get(10, TimeUnit.SECONDS);
+            Future<?> sameKey = executor.submit(
+                    () -> increment(map, 1, Values.newNativeReference(LongValue.class)));
+            Thread.sleep(100);
+            assertFalse(sameKey.isDone());
+            value.setValue(value.getValue() + 1);
+            c.close();
+            sameKey.get(10, TimeUnit.SECONDS);
+            assertEquals(2, map.get(1).getValue());
+            assertEquals(2, map.get(2).getValue());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void concurrentIncrementsAreNotLost() throws Exception {
+        int threads = 4;
+        int increments = 20_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (ChronicleMap<Integer, LongValue> map = builder().create()) {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int ownKey = 100 + t;
+                futures.add(executor.submit(() -> {
+                    LongValue value = Values.newNativeReference(LongValue.class);
+                    start.await();
+                    for (int i = 0; i < increments; i++) {
+                        increment(map, i % 10, value);
+                        increment(map, ownKey, value);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+            for (int key = 0; key < 10; key++) {
+                assertEquals(threads * increments / 10, map.get(key).getValue());
+            }
+            for (int t = 0; t < threads; t++) {
+                assertEquals(increments, map.get(100 + t).getValue());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void getWaitsForEntryLockedWriter() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (ChronicleMap<Integer, LongValue> map = builder().create()) {
+            LongValue value = Values.newNativeReference(LongValue.class);
+            increment(map, 1, value);
+            increment(map, 2, value);
+            Closeable c = map.acquireContext(1, value);
+            value.setValue(10);
+            Future<Long> get = executor.submit(() -> map.get(1).getValue());
+            Thread.sleep(100);
+            assertFalse(get.isDone());
+            // the waiting reader doesn't hold the segment lock, writers of other keys proceed
+            executor.submit(() -> map.remove(2)).get(10, TimeUnit.SECONDS);
+            value.setValue(11);
+            c.close();
+            assertEquals(11L, (long) get.get(10, TimeUnit.SECONDS));
+            assertNull(map.get(2));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void concurrentGetsDontSeeValuesBeingWritten() throws Exception {
+        int writes = 20_000;
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try (ChronicleMap<Integer, LongValue> map = builder().create()) {
+            increment(map, 1, Values.newNativeReference(LongValue.class));
+            increment(map, 1, Values.newNativeReference(LongValue.class));
+            AtomicBoolean done = new AtomicBoolean();
+            Future<?> writer = executor.submit(() -> {
+                // native reference writes directly to the entry, the value is odd only while
+                // the entry is locked
+                LongValue value = Values.newNativeReference(LongValue.class);
+                try {
+                    for (int i = 0; i < writes; i++) {
+                        try (Closeable c = map.acquireContext(1, value)) {
+                            value.setValue(value.getValue() + 1);
+                            value.setValue(value.getValue() + 1);
+                        }
+                    }
+                } finally {
+                    done.set(true);
+                }
+            });
+            Future<?> reader = executor.submit(() -> {
+                LongValue using = Values.newHeapInstance(LongValue.class);
+                while (!done.get()) {
+                    assertEquals(0, map.getUsing(1, using).getValue() % 2);
+                    assertEquals(0, map.get(1).getValue() % 2);
+                }
+            });
+            writer.get(60, TimeUnit.SECONDS);
+            reader.get(60, TimeUnit.SECONDS);
+            assertEquals(2 + 2 * writes, map.get(1).getValue());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void incompatibleConfigurationsAreRejected() throws IOException {
+        try {
+            builder().optimisticReads(true).create();
+            fail();
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        try {
+            ChronicleMap.of(Integer.class, String.class).entries(100).averageValue("value")
+                    .entryLocks(true).create();
+            fail();
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        try {
+            // in place updates under entry locks bypass MapEntryOperations.replaceValue()
+            builder().entryOperations(new MapEntryOperations<Integer, LongValue, Void>() {})
+                    .create();
+            fail();
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        try {
+            // reads under entry locks bypass MapMethods.get()
+            builder().mapMethods(new MapMethods<Integer, LongValue, Void>() {}).create();
+            fail();
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        File file = File.createTempFile("entryLocks", ".dat");
+        file.delete();
+        file.deleteOnExit();
+        try {
+            // entry checksums are enabled for persisted maps by default
+            builder().createPersistedTo(file);
+            fail();
+        } catch (IllegalStateException expected) {
+            // expected
+        } finally {
+            file.delete();
+        }
+        try (ChronicleMap<Integer, LongValue> map = builder().checksumEntries(false)
+                .createPersistedTo(file)) {
+            increment(map, 1, Values.newNativeReference(LongValue.class));
+            assertEquals(1, map.get(1).getValue());
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.impl.FutexSegmentHeader;
+import net.openhft.chronicle.hash.impl.VanillaChronicleHash;
+import net.openhft.chronicle.hash.impl.VersionedSegmentHeader;
+import net.openhft.chronicle.hash.impl.util.jna.LinuxFutex;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class FutexLockWaitsTest {
+
+    @Before
+    public void futexAvailable() {
+        assumeTrue(LinuxFutex.available());
+    }
+
+    private static ChronicleMapBuilder<Integer, Integer> builder() {
+        return ChronicleMap.of(Integer.class, Integer.class)
+                .entries(1000)
+                .actualSegments(1)
+                .futexLockWaits(true);
+    }
+
+    private static long segmentHeaderAddress(ChronicleMap<?, ?> map) {
+        return ((VanillaChronicleHash) map).segmentHeaderAddress(0);
+    }
+
+    @Test
+    public void waiterBlocksOnFutexAndIsWokenUpOnUnlock() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (ChronicleMap<Integer, Integer> map = builder().create()) {
+            assertSame(FutexSegmentHeader.INSTANCE, ((VanillaChronicleHash) map).segmentHeader);
+            Future<Integer> waiter;
+            try (ExternalMapQueryContext<Integer, Integer, ?> c = map.queryContext(1)) {
+                c.writeLock().lock();
+                waiter = executor.submit(() -> map.put(1, 1));
+                long deadline = System.currentTimeMillis() + 10_000;
+                while (FutexSegmentHeader.futexWaiters(segmentHeaderAddress(map)) == 0) {
+                    assertTrue(System.currentTimeMillis() < deadline);
+                    Thread.sleep(1);
+                }
+                assertFalse(waiter.isDone());
+                c.insert(c.absentEntry(), c.wrapValueAsData(0));
+            }
+            assertEquals(Integer.valueOf(0), waiter.get(10, TimeUnit.SECONDS));
+            assertEquals(0, FutexSegmentHeader.futexWaiters(segmentHeaderAddress(map)));
+            assertEquals(Integer.valueOf(1), map.get(1));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void tryLockTimesOut() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (ChronicleMap<Integer, Integer> map = builder().create()) {
+            try (ExternalMapQueryContext<Integer, Integer, ?> c = map.queryContext(1)) {
+                c.readLock().lock();
+                Future<Boolean> writer = executor.submit(() -> {
+                    try (ExternalMapQueryContext<Integer, Integer, ?> c2 = map.queryContext(1)) {
+                        return c2.writeLock().tryLock(50, TimeUnit.MILLISECONDS);
+                    }
+                });
+                assertFalse(writer.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(0, FutexSegmentHeader.futexWaiters(segmentHeaderAddress(map)));
+            // the registered wait of the writer is removed, readers are not blocked
+            try (ExternalMapQueryContext<Integer, Integer, ?> c = map.queryContext(1)) {
+                assertTrue(c.readLock().tryLock());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void contendedUpdatesAreNotLost() throws Exception {
+        int threads = 4;
+        int increments = 10_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (ChronicleMap<Integer, Integer> map = builder().optimisticReads(true).create()) {
+            assertSame(VersionedSegmentHeader.FUTEX_INSTANCE,
+                    ((VanillaChronicleHash) map).segmentHeader);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < increments; i++) {
+                        map.merge(i % 10, 1, Integer::sum);
+                        map.get(i % 10);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+            for (int key = 0; key < 10; key++) {
+                assertEquals(Integer.valueOf(threads * increments / 10), map.get(key));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void futexLockWaitsArePersisted() throws IOException {
+        File file = File.createTempFile("futexLockWaits", ".dat");
+        file.delete();
+        file.deleteOnExit();
+        try {
+            try (ChronicleMap<Integer, Integer> map = ChronicleMap.of(Integer.class, Integer.class)
+                    .entries(100_000)
+                    .actualSegments(32 * 1024)
+                    .futexLockWaits(true)
+                    .createPersistedTo(file)) {
+                map.put(1, 1);
+            }
+            try (ChronicleMap<Integer, Integer> map = ChronicleMap.of(Integer.class, Integer.class)
+                    .entries(100_000)
+                    .createPersistedTo(file)) {
+                assertTrue(((VanillaChronicleHash) map).futexLockWaits);
+                assertSame(FutexSegmentHeader.INSTANCE, ((VanillaChronicleHash) map).segmentHeader);
+                assertEquals(Integer.valueOf(1), map.get(1));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class GetAllTest {
+
+    private static ChronicleMap<Integer, Integer> newMap() {
+        return ChronicleMap.of(Integer.class, Integer.class)
+                .entries(1000)
+                .actualSegments(8)
+                .create();
+    }
+
+    @Test
+    public void getAllIntoArray() {
+        try (ChronicleMap<Integer, Integer> map = newMap()) {
+            for (int i = 0; i < 1000; i += 2) {
+                map.put(i, -i);
+            }
+            Integer[] keys = new Integer[1000];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = i;
+            }
+            Integer[] values = new Integer[keys.length];
+            map.getAll(keys, values);
+            for (int i = 0; i < keys.length; i++) {
+                if (i % 2 == 0) {
+                    assertEquals(Integer.valueOf(-i), values[i]);
+                } else {
+                    assertNull(values[i]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void getAllIntoSink() {
+        try (ChronicleMap<Integer, Integer> map = newMap()) {
+            for (int i = 0; i < 100; i++) {
+                map.put(i, i * 10);
+            }
+            List<Integer> keys = new ArrayList<>();
+            for (int i = 150; i >= 50; i--) {
+                keys.add(i);
+            }
+            List<Integer> visitedKeys = new ArrayList<>();
+            map.getAll(keys, (k, v) -> {
+                visitedKeys.add(k);
+                assertEquals(k < 100 ? Integer.valueOf(k * 10) : null, v);
+            });
+            assertEquals(keys, visitedKeys);
+        }
+    }
+
+    @Test
+    public void getAllInsideContext() {
+        try (ChronicleMap<Integer, Integer> map = newMap()) {
+            for (int i = 0; i < 100; i++) {
+                map.put(i, i);
+            }
+            Integer[] keys = new Integer[100];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = i;
+            }
+            Integer[] values = new Integer[keys.length];
+            try (ExternalMapQueryContext<Integer, Integer, ?> c = map.queryContext(0)) {
+                c.writeLock().lock();
+                map.getAll(keys, values);
+            }
+            for (int i = 0; i < keys.length; i++) {
+                assertEquals(keys[i], values[i]);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getAllShortValuesArray() {
+        try (ChronicleMap<Integer, Integer> map = newMap()) {
+            map.getAll(new Integer[] {1, 2}, new Integer[1]);
+        }
+    }
+}
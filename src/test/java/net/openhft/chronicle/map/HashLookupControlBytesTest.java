@@ -0,0 +1,109 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.impl.GroupedCompactOffHeapLinearHashTable;
+import net.openhft.chronicle.hash.impl.VanillaChronicleHash;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static net.openhft.chronicle.map.RandomOperations.randomOperations;
+import static org.junit.Assert.*;
+
+public class HashLookupControlBytesTest {
+
+    private static void checkGroupedHashLookup(ChronicleMap<?, ?> map) {
+        assertTrue(((VanillaChronicleHash) map).hashLookup instanceof
+                GroupedCompactOffHeapLinearHashTable);
+    }
+
+    @Test
+    public void operationsWithIntSlots() {
+        // the actual number of entries is greater, than configured, hash lookups are highly loaded
+        try (ChronicleMap<Integer, Integer> map = ChronicleMap.of(Integer.class, Integer.class)
+                .entries(1000)
+                .actualSegments(2)
+                .maxBloatFactor(5)
+                .hashLookupControlBytes(true)
+                .create()) {
+            assertEquals(4, ((VanillaChronicleHash) map).tierHashLookupSlotSize);
+            randomOperations(map, 3000, 60_000, HashLookupControlBytesTest::checkGroupedHashLookup);
+        }
+    }
+
+    @Test
+    public void operationsWithLongSlots() {
+        try (ChronicleMap<Integer, Integer> map = ChronicleMap.of(Integer.class, Integer.class)
+                .entries(1_000_000)
+                .actualSegments(2)
+                .hashLookupControlBytes(true)
+                .create()) {
+            assertEquals(8, ((VanillaChronicleHash) map).tierHashLookupSlotSize);
+            randomOperations(map, 3000, 60_000, HashLookupControlBytesTest::checkGroupedHashLookup);
+        }
+    }
+
+    @Test
+    public void operationsWithOptimisticReadsAndTierKeyFilters() {
+        try (ChronicleMap<Integer, Integer> map = ChronicleMap.of(Integer.class, Integer.class)
+                .entries(1000)
+                .actualSegments(2)
+                .maxBloatFactor(5)
+                .hashLookupControlBytes(true)
+                .optimisticReads(true)
+                .tierKeyFilters(true)
+                .create()) {
+            randomOperations(map, 3000, 60_000, HashLookupControlBytesTest::checkGroupedHashLookup);
+        }
+    }
+
+    @Test
+    public void controlBytesArePersistedAndRecovered() throws IOException {
+        File file = File.createTempFile("hashLookupControlBytes", ".dat");
+        file.deleteOnExit();
+        file.delete();
+        try {
+            ChronicleMapBuilder<Integer, Integer> builder =
+                    ChronicleMap.of(Integer.class, Integer.class)
+                            .entries(1000)
+                            .hashLookupControlBytes(true);
+            try (ChronicleMap<Integer, Integer> map = builder.createPersistedTo(file)) {
+                for (int i = 0; i < 1000; i++) {
+                    map.put(i, i);
+                }
+            }
+            try (ChronicleMap<Integer, Integer> map = ChronicleMap.of(Integer.class, Integer.class)
+                    .entries(1000)
+                    .createPersistedTo(file)) {
+                assertTrue(((VanillaChronicleHash) map).hashLookupControlBytes);
+                for (int i = 0; i < 1000; i++) {
+                    assertEquals(Integer.valueOf(i), map.get(i));
+                }
+            }
+            try (ChronicleMap<Integer, Integer> map = builder.recoverPersistedTo(file, true)) {
+                for (int i = 0; i < 2000; i++) {
+                    assertEquals(i < 1000 ? Integer.valueOf(i) : null, map.get(i));
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
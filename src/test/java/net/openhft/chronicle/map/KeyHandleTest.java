@@ -0,0 +1,112 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.map.ListenersTest.CountingEntryOperations;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class KeyHandleTest {
+
+    private static ChronicleMapBuilder<String, Long> builder() {
+        return ChronicleMap.of(String.class, Long.class)
+                .entries(1000)
+                .averageKey("instrument-1000")
+                .actualSegments(4);
+    }
+
+    @Test
+    public void operationsViaHandle() {
+        try (ChronicleMap<String, Long> map = builder().create()) {
+            KeyHandle<String, Long> handle = map.keyHandle("instrument-1");
+            assertEquals("instrument-1", handle.key());
+            assertSame(map, handle.map());
+            assertNull(handle.get());
+            assertNull(handle.put(1L));
+            assertEquals(Long.valueOf(1L), handle.get());
+            assertEquals(Long.valueOf(1L), map.get("instrument-1"));
+            assertEquals(Long.valueOf(1L), handle.put(2L));
+            assertEquals(Long.valueOf(2L), handle.getUsing(null));
+            assertEquals(Long.valueOf(5L), handle.compute((k, v) -> {
+                assertEquals("instrument-1", k);
+                return v + 3;
+            }));
+            assertEquals(Long.valueOf(5L), map.get("instrument-1"));
+            try (ExternalMapQueryContext<String, Long, ?> c = handle.queryContext()) {
+                MapEntry<String, Long> entry = c.entry();
+                assertNotNull(entry);
+                assertEquals("instrument-1", entry.key().get());
+                assertEquals(Long.valueOf(5L), entry.value().get());
+            }
+            assertEquals(Long.valueOf(5L), handle.remove());
+            assertNull(handle.get());
+            assertTrue(map.isEmpty());
+        }
+    }
+
+    @Test
+    public void handlesOfManyKeys() {
+        try (ChronicleMap<String, Long> map = builder().create()) {
+            @SuppressWarnings("unchecked")
+            KeyHandle<String, Long>[] handles = new KeyHandle[500];
+            for (int i = 0; i < handles.length; i++) {
+                handles[i] = map.keyHandle("instrument-" + i);
+                handles[i].put((long) i);
+            }
+            for (int i = 0; i < handles.length; i++) {
+                assertEquals(Long.valueOf(i), handles[i].get());
+                assertEquals(Long.valueOf(i), map.get("instrument-" + i));
+            }
+        }
+    }
+
+    @Test
+    public void handleWithCustomEntryOperations() {
+        CountingEntryOperations<String, Long> ops = new CountingEntryOperations<>();
+        try (ChronicleMap<String, Long> map = builder().entryOperations(ops).create()) {
+            KeyHandle<String, Long> handle = map.keyHandle("instrument-1");
+            handle.put(1L);
+            assertEquals(Long.valueOf(1L), handle.get());
+            handle.put(2L);
+            handle.remove();
+            assertEquals(1, ops.insertCount.get());
+            assertEquals(1, ops.replaceValueCount.get());
+            assertEquals(1, ops.removeCount.get());
+        }
+    }
+
+    @Test
+    public void handleWithOptimisticReads() {
+        try (ChronicleMap<String, Long> map = builder().optimisticReads(true).create()) {
+            KeyHandle<String, Long> handle = map.keyHandle("instrument-1");
+            handle.put(1L);
+            assertEquals(Long.valueOf(1L), handle.get());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void handleOfAnotherMap() {
+        try (ChronicleMap<String, Long> map1 = builder().create();
+             ChronicleMap<String, Long> map2 = builder().create()) {
+            KeyHandle<String, Long> handle = map1.keyHandle("instrument-1");
+            map2.put("instrument-1", 1L);
+            ((VanillaChronicleMap<String, Long, ?>) map2).handleGet(handle, null);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.algo.hashing.LongHashFunction;
+import net.openhft.chronicle.hash.KeyHashing;
+import net.openhft.chronicle.hash.impl.VanillaChronicleHash;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class KeyHashingTest {
+
+    private static void operations(ChronicleMap<Long, Long> map) {
+        Map<Long, Long> expected = new HashMap<>();
+        for (long i = 0; i < 2000; i++) {
+            map.put(i * 31, i);
+            expected.put(i * 31, i);
+        }
+        for (long i = 0; i < 2000; i += 3) {
+            map.remove(i * 31);
+            expected.remove(i * 31);
+        }
+        assertEquals(expected.size(), map.size());
+        for (long i = 0; i < 4000; i++) {
+            assertEquals(expected.get(i * 31), map.get(i * 31));
+        }
+        // iteration hashes keys in the serialized form
+        map.entrySet().removeIf(e -> e.getValue() % 2 == 0);
+        expected.values().removeIf(v -> v % 2 == 0);
+        assertEquals(expected, new HashMap<>(map));
+    }
+
+    @Test
+    public void murmur3MixIsConsistentForSerializedKeys() {
+        LongHashFunction f = KeyHashing.murmur3Mix(42).hashFunction();
+        ByteBuffer bb = ByteBuffer.allocate(8).order(ByteOrder.nativeOrder());
+        bb.putLong(0, 123456789012345L);
+        assertEquals(f.hashLong(123456789012345L), f.hashBytes(bb));
+        bb.limit(4).putInt(0, 12345);
+        assertEquals(f.hashInt(12345), f.hashBytes(bb));
+    }
+
+    @Test
+    public void murmur3MixOperations() {
+        try (ChronicleMap<Long, Long> map = ChronicleMap.of(Long.class, Long.class)
+                .entries(2000)
+                .keyHashing(KeyHashing.murmur3Mix(7))
+                .create()) {
+            operations(map);
+        }
+    }
+
+    @Test
+    public void seededXxHashOperations() {
+        try (ChronicleMap<Long, Long> map = ChronicleMap.of(Long.class, Long.class)
+                .entries(2000)
+                .keyHashing(KeyHashing.randomSeedXxHash())
+                .create()) {
+            operations(map);
+        }
+    }
+
+    @Test
+    public void keyHashingIsPersisted() throws IOException {
+        File file = File.createTempFile("keyHashing", ".dat");
+        file.deleteOnExit();
+        file.delete();
+        try {
+            KeyHashing keyHashing = KeyHashing.xxHash(123);
+            try (ChronicleMap<Long, Long> map = ChronicleMap.of(Long.class, Long.class)
+                    .entries(2000)
+                    .keyHashing(keyHashing)
+                    .createPersistedTo(file)) {
+                for (long i = 0; i < 1000; i++) {
+                    map.put(i, i);
+                }
+            }
+            // the default key hashing, configured in the builder, is overridden by the persisted
+            try (ChronicleMap<Long, Long> map = ChronicleMap.of(Long.class, Long.class)
+                    .entries(2000)
+                    .createPersistedTo(file)) {
+                assertEquals(keyHashing.hashFunction().hashLong(5),
+                        ((VanillaChronicleHash) map).keyHashFunction.hashLong(5));
+                for (long i = 0; i < 2000; i++) {
+                    assertEquals(i < 1000 ? Long.valueOf(i) : null, map.get(i));
+                }
+            }
+            try (ChronicleMap<Long, Long> map = ChronicleMap.of(Long.class, Long.class)
+                    .entries(2000)
+                    .keyHashing(keyHashing)
+                    .recoverPersistedTo(file, true)) {
+                for (long i = 0; i < 2000; i++) {
+                    assertEquals(i < 1000 ? Long.valueOf(i) : null, map.get(i));
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
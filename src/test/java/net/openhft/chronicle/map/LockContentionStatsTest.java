@@ -0,0 +1,190 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.SegmentLockStats;
+import net.openhft.chronicle.hash.SegmentLockStats.LockWaitStats;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LockContentionStatsTest {
+
+    private static ChronicleMapBuilder<Integer, Integer> builder() {
+        return ChronicleMap.of(Integer.class, Integer.class)
+                .entries(1000)
+                .actualSegments(2)
+                .lockContentionStats(true);
+    }
+
+    private static long histogramSum(LockWaitStats stats) {
+        long sum = 0;
+        for (long waits : stats.waitHistogram()) {
+            sum += waits;
+        }
+        return sum;
+    }
+
+    private static void awaitWaiting(Future<?> future) throws InterruptedException {
+        Thread.sleep(100);
+        assertFalse(future.isDone());
+    }
+
+    @Test
+    public void uncontendedAcquisitionsAreCounted() {
+        try (ChronicleMap<Integer, Integer> map = builder().create()) {
+            for (int i = 0; i < 100; i++) {
+                map.put(i, i);
+                map.get(i);
+            }
+            long acquisitions = 0;
+            for (int segment = 0; segment < map.segments(); segment++) {
+                SegmentLockStats stats = map.segmentLockStats(segment);
+                assertEquals(segment, stats.segmentIndex());
+                assertEquals(0, stats.contendedAcquisitions());
+                assertEquals(0, stats.totalWaitNanos());
+                assertEquals(0, histogramSum(stats.readLock()));
+                acquisitions += stats.acquisitions();
+            }
+            // each put and get acquires at least one lock
+            assertTrue(acquisitions >= 200);
+        }
+        try (ChronicleMap<Integer, Integer> map = ChronicleMap.of(Integer.class, Integer.class)
+                .entries(1000).create()) {
+            map.segmentLockStats(0);
+            fail();
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void contendedWaitsAreRecordedInHistogram() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (ChronicleMap<Integer, Integer> map = builder().actualSegments(1).create()) {
+            Future<?> put;
+            try (ExternalMapQueryContext<Integer, Integer, ?> c = map.queryContext(1)) {
+                c.writeLock().lock();
+                put = executor.submit(() -> map.put(1, 1));
+                awaitWaiting(put);
+            }
+            put.get(10, TimeUnit.SECONDS);
+            LockWaitStats updateLock = map.segmentLockStats(0).updateLock();
+            assertEquals(1, updateLock.contendedAcquisitions());
+            assertEquals(1, histogramSum(updateLock));
+            assertTrue(updateLock.totalWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(50));
+            int bucket = SegmentLockStats.bucket(updateLock.totalWaitNanos());
+            assertEquals(1, updateLock.waits(bucket));
+            assertTrue(SegmentLockStats.bucketUpperBoundNanos(bucket) >
+                    updateLock.totalWaitNanos());
+            assertTrue(bucket == 0 || SegmentLockStats.bucketUpperBoundNanos(bucket - 1) <=
+                    updateLock.totalWaitNanos());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void timeoutsAndFailedUpgradesAreCounted() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (ChronicleMap<Integer, Integer> map = builder().actualSegments(1).create()) {
+            try (ExternalMapQueryContext<Integer, Integer, ?> c = map.queryContext(1)) {
+                c.readLock().lock();
+                Future<Boolean> writer = executor.submit(() -> {
+                    try (ExternalMapQueryContext<Integer, Integer, ?> c2 = map.queryContext(1)) {
+                        return c2.writeLock().tryLock(10, TimeUnit.MILLISECONDS);
+                    }
+                });
+                assertFalse(writer.get(10, TimeUnit.SECONDS));
+            }
+            assertEquals(1, map.segmentLockStats(0).writeLock().timeouts());
+
+            Future<?> upgrade;
+            try (ExternalMapQueryContext<Integer, Integer, ?> c = map.queryContext(1)) {
+                c.readLock().lock();
+                upgrade = executor.submit(() -> {
+                    try (ExternalMapQueryContext<Integer, Integer, ?> c2 = map.queryContext(1)) {
+                        c2.updateLock().lock();
+                        c2.writeLock().lock();
+                    }
+                });
+                awaitWaiting(upgrade);
+            }
+            upgrade.get(10, TimeUnit.SECONDS);
+            SegmentLockStats stats = map.segmentLockStats(0);
+            // the upgrade waited, but succeeded
+            assertEquals(0, stats.failedUpgrades());
+            assertEquals(1, stats.updateToWriteUpgrade().acquisitions());
+            assertEquals(1, stats.updateToWriteUpgrade().contendedAcquisitions());
+            assertTrue(stats.updateToWriteUpgrade().totalWaitNanos() > 0);
+
+            try (ExternalMapQueryContext<Integer, Integer, ?> c = map.queryContext(1)) {
+                c.readLock().lock();
+                Future<Boolean> failedUpgrade = executor.submit(() -> {
+                    try (ExternalMapQueryContext<Integer, Integer, ?> c2 = map.queryContext(1)) {
+                        c2.updateLock().lock();
+                        return c2.writeLock().tryLock(10, TimeUnit.MILLISECONDS);
+                    }
+                });
+                assertFalse(failedUpgrade.get(10, TimeUnit.SECONDS));
+            }
+            stats = map.segmentLockStats(0);
+            assertEquals(1, stats.failedUpgrades());
+            assertEquals(1, stats.updateToWriteUpgrade().timeouts());
+            assertEquals(1, stats.updateToWriteUpgrade().acquisitions());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void statsAreSharedAndPersisted() throws IOException {
+        File file = File.createTempFile("lockContentionStats", ".dat");
+        file.delete();
+        file.deleteOnExit();
+        try {
+            try (ChronicleMap<Integer, Integer> map1 = builder().actualSegments(1)
+                    .createPersistedTo(file);
+                 ChronicleMap<Integer, Integer> map2 = builder().actualSegments(1)
+                         .createPersistedTo(file)) {
+                map1.put(1, 1);
+                long afterPut = map2.segmentLockStats(0).acquisitions();
+                assertTrue(afterPut > 0);
+                map2.get(1);
+                assertTrue(map1.segmentLockStats(0).acquisitions() > afterPut);
+            }
+            try (ChronicleMap<Integer, Integer> map = ChronicleMap.of(Integer.class, Integer.class)
+                    .entries(1000)
+                    .createPersistedTo(file)) {
+                long acquisitions = map.segmentLockStats(0).acquisitions();
+                assertTrue(acquisitions > 0);
+                assertEquals(Integer.valueOf(1), map.get(1));
+                assertEquals(acquisitions + 1, map.segmentLockStats(0).acquisitions());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.ChronicleHashBuilderPrivateAPI;
+import org.junit.Test;
+
+import java.util.ConcurrentModificationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class MapSessionTest {
+
+    private static ChronicleMapBuilder<Integer, Integer> builder() {
+        return ChronicleMap.of(Integer.class, Integer.class)
+                .entries(1000)
+                .actualSegments(1);
+    }
+
+    @Test
+    public void sessionOperations() {
+        try (ChronicleMap<Integer, Integer> map = builder().create();
+             MapSession<Integer, Integer> session = map.openSession()) {
+            assertSame(map, session.map());
+            for (int i = 0; i < 100; i++) {
+                assertNull(session.put(i, i));
+            }
+            assertEquals(Integer.valueOf(1), session.put(1, 10));
+            assertEquals(Integer.valueOf(10), session.get(1));
+            assertEquals(Integer.valueOf(2), session.getUsing(2, null));
+            assertTrue(session.containsKey(3));
+            assertEquals(Integer.valueOf(3), session.remove(3));
+            assertFalse(session.containsKey(3));
+            assertNull(session.get(3));
+            assertEquals(Integer.valueOf(5), session.compute(4, (k, v) -> v + 1));
+            assertEquals(99, map.size());
+            assertEquals(Integer.valueOf(5), map.get(4));
+            AtomicInteger count = new AtomicInteger();
+            session.forEachEntry(e -> count.incrementAndGet());
+            assertEquals(99, count.get());
+
+            ExternalMapQueryContext<Integer, Integer, ?> c1 = session.queryContext(1);
+            c1.close();
+            ExternalMapQueryContext<Integer, Integer, ?> c2 = session.queryContext(2);
+            c2.close();
+            // the context of the session is reused
+            assertSame(c1, c2);
+        }
+    }
+
+    @Test
+    public void replicatedMapSessionOperations() {
+        ChronicleMapBuilder<Integer, Integer> builder = builder();
+        ((ChronicleHashBuilderPrivateAPI<?, ?>) builder.privateAPI()).replication((byte) 1);
+        try (ChronicleMap<Integer, Integer> map = builder.create();
+             MapSession<Integer, Integer> session = map.openSession()) {
+            for (int i = 0; i < 10; i++) {
+                assertNull(session.put(i, i));
+            }
+            assertEquals(Integer.valueOf(1), session.get(1));
+            assertEquals(Integer.valueOf(2), session.getUsing(2, null));
+            assertEquals(Integer.valueOf(3), session.remove(3));
+            // the removed entry is left as a tombstone, that shouldn't be visible to get()
+            assertNull(session.get(3));
+            assertNull(session.getUsing(3, null));
+            assertFalse(session.containsKey(3));
+            assertEquals(9, map.size());
+        }
+    }
+
+    @Test
+    public void sessionOperationsNestedInContexts() {
+        try (ChronicleMap<Integer, Integer> map = builder().create();
+             MapSession<Integer, Integer> session = map.openSession()) {
+            session.put(1, 1);
+            session.put(2, 2);
+            // the session context is used by compute(), get() uses another context of the chain
+            assertEquals(Integer.valueOf(3), session.compute(1, (k, v) -> v + session.get(2)));
+            try (ExternalMapQueryContext<Integer, Integer, ?> c = map.queryContext(1)) {
+                c.writeLock().lock();
+                // the only segment is locked in this thread, the session shares the lock
+                assertEquals(Integer.valueOf(2), session.put(2, 20));
+                assertEquals(Integer.valueOf(20), session.get(2));
+            }
+            assertEquals(Integer.valueOf(20), map.get(2));
+        }
+    }
+
+    @Test
+    public void sessionIsBoundToOwnerThreadAndClosable() throws InterruptedException {
+        try (ChronicleMap<Integer, Integer> map = builder().create()) {
+            MapSession<Integer, Integer> session = map.openSession();
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            Thread t = new Thread(() -> {
+                try {
+                    session.get(1);
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            });
+            t.start();
+            t.join();
+            assertTrue(error.get() instanceof ConcurrentModificationException);
+            session.close();
+            session.close();
+            try {
+                session.get(1);
+                fail("closed session shouldn't be usable");
+            } catch (IllegalStateException expected) {
+                // expected
+            }
+            try (ChronicleMap<Integer, Integer> otherMap = builder().create()) {
+                try (MapSession<Integer, Integer> otherSession = otherMap.openSession()) {
+                    VanillaChronicleMap<Integer, Integer, ?> vanillaMap =
+                            (VanillaChronicleMap<Integer, Integer, ?>) map;
+                    vanillaMap.sessionGet(otherSession, 1, null);
+                    fail("session of another map should be rejected");
+                } catch (IllegalArgumentException expected) {
+                    // expected
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sessionKeepsPooledContextChain() {
+        try (ChronicleMap<Integer, Integer> map = builder().contextPool(4).create()) {
+            VanillaChronicleMap<?, ?, ?> vanillaMap = (VanillaChronicleMap<?, ?, ?>) map;
+            try (MapSession<Integer, Integer> session = map.openSession()) {
+                for (int i = 0; i < 10; i++) {
+                    session.put(i, i);
+                    map.get(i);
+                    assertEquals(0, vanillaMap.contextPool.idleContexts());
+                }
+            }
+            assertEquals(1, vanillaMap.contextPool.idleContexts());
+            try (MapSession<Integer, Integer> session = map.openSession()) {
+                assertEquals(0, vanillaMap.contextPool.idleContexts());
+                assertEquals(Integer.valueOf(5), session.get(5));
+            }
+            assertEquals(1, vanillaMap.contextPool.idleContexts());
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.ChronicleHashClosedException;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class NearCacheTest {
+
+    private static ChronicleMapBuilder<Integer, String> builder() {
+        return ChronicleMap.of(Integer.class, String.class)
+                .entries(1000)
+                .averageValue("value 1000")
+                .optimisticReads(true);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mapWithoutSegmentVersionsIsRejected() {
+        try (ChronicleMap<Integer, String> map = builder().optimisticReads(false).create()) {
+            NearCache.of(map, 10);
+        }
+    }
+
+    @Test
+    public void repeatedGetsAreServedFromCache() {
+        try (ChronicleMap<Integer, String> map = builder().create()) {
+            map.put(1, "value 1");
+            NearCache<Integer, String> cache = NearCache.of(map, 10);
+            String value = cache.get(1);
+            assertEquals("value 1", value);
+            assertSame(value, cache.get(1));
+            assertSame(value, cache.get(1));
+            assertNull(cache.get(2));
+            assertNull(cache.get(2));
+            assertEquals(2, cache.hitCount());
+            assertEquals(3, cache.missCount());
+            assertEquals(1, cache.size());
+        }
+    }
+
+    @Test
+    public void writesInvalidateCachedValues() throws IOException {
+        File file = File.createTempFile("nearCache", ".dat");
+        file.deleteOnExit();
+        file.delete();
+        try (ChronicleMap<Integer, String> map = builder().actualSegments(1)
+                .createPersistedTo(file);
+             ChronicleMap<Integer, String> other = builder().createPersistedTo(file)) {
+            NearCache<Integer, String> cache = NearCache.of(map, 10);
+            map.put(1, "value 1");
+            map.put(2, "value 2");
+            assertEquals("value 1", cache.get(1));
+            assertEquals("value 2", cache.get(2));
+
+            cache.put(1, "value 11");
+            assertEquals("value 11", cache.get(1));
+            assertEquals(1, cache.invalidationCount());
+
+            // insertion of a new key doesn't affect values of other keys
+            other.put(3, "value 3");
+            assertEquals("value 11", cache.get(1));
+            assertEquals(1, cache.hitCount());
+
+            // a write through another mapping of the same file, to a key in the same segment
+            other.put(2, "value 22");
+            assertEquals("value 11", cache.get(1));
+            assertEquals("value 22", cache.get(2));
+            assertEquals(3, cache.invalidationCount());
+            assertEquals("value 22", cache.get(2));
+            assertEquals(2, cache.hitCount());
+
+            other.remove(2);
+            assertNull(cache.get(2));
+            assertEquals(1, cache.size());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void getOfClosedMapThrows() {
+        ChronicleMap<Integer, String> map = builder().create();
+        map.put(1, "value 1");
+        NearCache<Integer, String> cache = NearCache.of(map, 10);
+        assertEquals("value 1", cache.get(1));
+        map.close();
+        try {
+            // the cached value is not returned without checking the segment version
+            cache.get(1);
+            fail();
+        } catch (ChronicleHashClosedException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void cacheSizeIsBounded() {
+        try (ChronicleMap<Integer, String> map = builder().create()) {
+            for (int i = 0; i < 1000; i++) {
+                map.put(i, "value " + i);
+            }
+            NearCache<Integer, String> cache = NearCache.of(map, 100);
+            for (int round = 0; round < 3; round++) {
+                for (int i = 0; i < 1000; i++) {
+                    assertEquals("value " + i, cache.get(i));
+                    // a hot key
+                    assertEquals("value 0", cache.get(0));
+                }
+            }
+            assertEquals(100, cache.size());
+            assertEquals(6000, cache.hitCount() + cache.missCount());
+            assertTrue(cache.hitCount() >= 3000 - 1);
+            assertEquals(cache.missCount() - 100, cache.evictionCount());
+            cache.clear();
+            assertEquals(0, cache.size());
+        }
+    }
+}
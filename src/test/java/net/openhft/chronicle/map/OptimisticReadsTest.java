@@ -0,0 +1,153 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.impl.VanillaChronicleHash;
+import net.openhft.chronicle.hash.impl.VersionedSegmentHeader;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class OptimisticReadsTest {
+
+    private static String value(int key, int round) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(key).append(':');
+        // vary the value size, to make entries relocate within the segment
+        for (int i = 0; i < round % 20; i++) {
+            sb.append('x');
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void readsAreConsistentUnderConcurrentWrites() throws Exception {
+        int keys = 200;
+        try (ChronicleMap<Integer, String> map = ChronicleMap.of(Integer.class, String.class)
+                .entries(keys)
+                .averageValue(value(0, 10))
+                .actualSegments(2)
+                .optimisticReads(true)
+                .create()) {
+            assertSame(VersionedSegmentHeader.INSTANCE,
+                    ((VanillaChronicleHash) map).segmentHeader);
+            for (int k = 0; k < keys; k++) {
+                map.put(k, value(k, 0));
+            }
+            AtomicBoolean stop = new AtomicBoolean();
+            ExecutorService executor = Executors.newFixedThreadPool(3);
+            try {
+                Future<?> writer = executor.submit(() -> {
+                    for (int round = 1; !stop.get(); round++) {
+                        for (int k = 0; k < keys; k++) {
+                            if (round % 7 == 0) {
+                                map.remove(k);
+                            } else {
+                                map.put(k, value(k, round));
+                            }
+                        }
+                    }
+                });
+                Runnable reader = () -> {
+                    for (int i = 0; i < 100_000; i++) {
+                        int k = i % keys;
+                        String v = map.get(k);
+                        if (v != null)
+                            assertTrue(v, v.startsWith(k + ":"));
+                        // the reader is given only validated bytes, AssertionError thrown from
+                        // it is not retried
+                        String read = map.readValue(k, (valueBytes, size) -> {
+                            StringBuilder sb = new StringBuilder();
+                            for (long j = 0; j < size; j++) {
+                                sb.append((char) valueBytes.readByte());
+                            }
+                            assertTrue(sb.toString(), sb.toString().startsWith(k + ":"));
+                            return sb.toString();
+                        });
+                        if (read != null)
+                            assertTrue(read, read.startsWith(k + ":"));
+                    }
+                };
+                Future<?> reader1 = executor.submit(reader);
+                Future<?> reader2 = executor.submit(reader);
+                reader1.get(60, TimeUnit.SECONDS);
+                reader2.get(60, TimeUnit.SECONDS);
+                stop.set(true);
+                writer.get(60, TimeUnit.SECONDS);
+            } finally {
+                stop.set(true);
+                executor.shutdownNow();
+            }
+            for (int k = 0; k < keys; k++) {
+                String v = map.get(k);
+                assertTrue(v == null || v.startsWith(k + ":"));
+            }
+        }
+    }
+
+    @Test
+    public void readsWithinLockedContext() {
+        try (ChronicleMap<Integer, Integer> map = ChronicleMap.of(Integer.class, Integer.class)
+                .entries(100)
+                .optimisticReads(true)
+                .create()) {
+            map.put(1, 1);
+            try (ExternalMapQueryContext<Integer, Integer, ?> c = map.queryContext(1)) {
+                c.writeLock().lock();
+                // the segment is write-locked by this thread, the version is odd
+                assertEquals(Integer.valueOf(1), map.get(1));
+                c.replaceValue(c.entry(), c.wrapValueAsData(2));
+                assertEquals(Integer.valueOf(2), map.get(1));
+            }
+            assertEquals(Integer.valueOf(2), map.get(1));
+        }
+    }
+
+    @Test
+    public void optimisticReadsConfigurationIsPersisted() throws IOException {
+        File file = File.createTempFile("optimisticReads", ".dat");
+        file.deleteOnExit();
+        file.delete();
+        try (ChronicleMap<Integer, Integer> map = ChronicleMap.of(Integer.class, Integer.class)
+                .entries(100)
+                .optimisticReads(true)
+                .createPersistedTo(file)) {
+            map.put(1, 1);
+        }
+        try (ChronicleMap<Integer, Integer> map = ChronicleMap.of(Integer.class, Integer.class)
+                .entries(100)
+                .createPersistedTo(file)) {
+            assertTrue(((VanillaChronicleHash) map).optimisticReads);
+            assertSame(VersionedSegmentHeader.INSTANCE,
+                    ((VanillaChronicleHash) map).segmentHeader);
+            assertEquals(Integer.valueOf(1), map.get(1));
+            map.put(2, 2);
+            assertEquals(Integer.valueOf(2), map.get(2));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.ChronicleHashBuilderPrivateAPI;
+import net.openhft.chronicle.hash.Data;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PrimitiveChronicleMapTest {
+
+    @Test
+    public void longLongOperations() {
+        try (LongLongChronicleMap map = LongLongChronicleMap.of(
+                ChronicleMap.of(Long.class, Long.class).entries(10_000).create())) {
+            for (long i = 0; i < 1000; i++) {
+                map.put(i * 1_000_000_007L, -i);
+            }
+            assertEquals(1000, map.size());
+            assertEquals(-5, map.get(5 * 1_000_000_007L, Long.MIN_VALUE));
+            assertEquals(Long.MIN_VALUE, map.get(1, Long.MIN_VALUE));
+            assertTrue(map.containsKey(999 * 1_000_000_007L));
+            assertFalse(map.containsKey(-1));
+
+            map.put(5 * 1_000_000_007L, 42);
+            assertEquals(42, map.get(5 * 1_000_000_007L, 0));
+            assertEquals(10, map.addAndGet(-1, 10));
+            assertEquals(7, map.addAndGet(-1, -3));
+            assertEquals(1001, map.size());
+
+            assertTrue(map.remove(-1));
+            assertFalse(map.remove(-1));
+            assertFalse(map.containsKey(-1));
+
+            Map<Long, Long> entries = new HashMap<>();
+            map.forEach(entries::put);
+            assertEquals(1000, entries.size());
+            assertEquals(Long.valueOf(-7), entries.get(7 * 1_000_000_007L));
+            assertEquals(Long.valueOf(42), entries.get(5 * 1_000_000_007L));
+        }
+    }
+
+    @Test
+    public void replicatedMapView() {
+        ChronicleMapBuilder<Long, Long> builder =
+                ChronicleMap.of(Long.class, Long.class).entries(1000);
+        ((ChronicleHashBuilderPrivateAPI<?, ?>) builder.privateAPI()).replication((byte) 1);
+        try (LongLongChronicleMap map = LongLongChronicleMap.of(builder.create())) {
+            for (long i = 0; i < 100; i++) {
+                map.put(i, i + 1);
+            }
+            assertEquals(6, map.get(5, 0));
+            assertTrue(map.remove(5));
+            // the removed entry is left as a tombstone, that shouldn't be visible to reads
+            assertEquals(-1, map.get(5, -1));
+            assertFalse(map.containsKey(5));
+            assertEquals(99, map.size());
+        }
+    }
+
+    @Test
+    public void customMethodsAndEntryOperationsAreApplied() {
+        ListenersTest.CountingEntryOperations<Long, Long> entryOperations =
+                new ListenersTest.CountingEntryOperations<>();
+        AtomicInteger puts = new AtomicInteger();
+        MapMethods<Long, Long, Void> methods = new MapMethods<Long, Long, Void>() {
+            @Override
+            public void put(MapQueryContext<Long, Long, Void> q, Data<Long> value,
+                            ReturnValue<Long> returnValue) {
+                puts.incrementAndGet();
+                MapMethods.super.put(q, value, returnValue);
+            }
+        };
+        try (LongLongChronicleMap map = LongLongChronicleMap.of(
+                ChronicleMap.of(Long.class, Long.class).entries(100)
+                        .entryOperations(entryOperations).mapMethods(methods).create())) {
+            map.put(1, 1);
+            map.put(1, 2);
+            assertEquals(2, puts.get());
+            assertEquals(5, map.addAndGet(1, 3));
+            assertEquals(3, map.addAndGet(2, 3));
+            assertEquals(2, entryOperations.insertCount.get());
+            assertEquals(2, entryOperations.replaceValueCount.get());
+            assertTrue(map.remove(1));
+            assertFalse(map.remove(1));
+            assertEquals(1, entryOperations.removeCount.get());
+            assertEquals(3, map.get(2, 0));
+        }
+    }
+
+    @Test
+    public void intValuesAndKeys() {
+        try (LongIntChronicleMap map = LongIntChronicleMap.of(
+                ChronicleMap.of(Long.class, Integer.class).entries(100).create())) {
+            map.put(Long.MAX_VALUE, Integer.MIN_VALUE);
+            assertEquals(Integer.MIN_VALUE, map.get(Long.MAX_VALUE, 0));
+            map.put(1, Integer.MAX_VALUE);
+            // overflows within 32 bits, like int arithmetic
+            assertEquals(Integer.MIN_VALUE, map.addAndGet(1, 1));
+            assertEquals(Integer.valueOf(Integer.MIN_VALUE), map.map().get(1L));
+        }
+        try (IntIntChronicleMap map = IntIntChronicleMap.of(
+                ChronicleMap.of(Integer.class, Integer.class).entries(100).create())) {
+            for (int i = -50; i < 50; i++) {
+                map.put(i, i * i);
+            }
+            assertEquals(100, map.size());
+            assertEquals(49 * 49, map.get(-49, -1));
+            assertEquals(-1, map.get(50, -1));
+            int[] sum = {0};
+            map.forEach((key, value) -> {
+                assertEquals(key * key, value);
+                sum[0] += key;
+            });
+            assertEquals(-50, sum[0]);
+            assertTrue(map.remove(-50));
+            assertEquals(99, map.size());
+        }
+    }
+
+    @Test
+    public void viewSharesEntriesWithMapAndPersistedFile() throws IOException {
+        File file = File.createTempFile("primitiveChronicleMap", ".dat");
+        file.delete();
+        file.deleteOnExit();
+        try {
+            try (ChronicleMap<Long, Long> map = ChronicleMap.of(Long.class, Long.class)
+                    .entries(1000)
+                    .createPersistedTo(file)) {
+                LongLongChronicleMap view = LongLongChronicleMap.of(map);
+                assertSame(map, view.map());
+                map.put(1L, 100L);
+                assertEquals(100, view.get(1, 0));
+                view.put(2, 200);
+                assertEquals(Long.valueOf(200), map.get(2L));
+                view.addAndGet(1, 1);
+                assertEquals(Long.valueOf(101), map.get(1L));
+            }
+            try (LongLongChronicleMap view = LongLongChronicleMap.of(
+                    ChronicleMap.of(Long.class, Long.class).entries(1000)
+                            .createPersistedTo(file))) {
+                assertEquals(101, view.get(1, 0));
+                assertEquals(200, view.get(2, 0));
+                assertEquals(2, view.size());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void concurrentAddAndGetIsAtomicAndCustomSerializationIsRejected() throws Exception {
+        int threads = 4;
+        int increments = 10_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (LongLongChronicleMap map = LongLongChronicleMap.of(
+                ChronicleMap.of(Long.class, Long.class).entries(100).actualSegments(1).create())) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < increments; i++) {
+                        map.addAndGet(i % 10, 1);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+            for (int key = 0; key < 10; key++) {
+                assertEquals(threads * increments / 10, map.get(key, 0));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        try (ChronicleMap<Long, CharSequence> map = ChronicleMap.of(Long.class, CharSequence.class)
+                .averageValue("value").entries(100).create()) {
+            @SuppressWarnings("unchecked")
+            ChronicleMap<Long, Long> rawMap = (ChronicleMap<Long, Long>) (ChronicleMap) map;
+            LongLongChronicleMap.of(rawMap);
+            fail("CharSequence values are not supported");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Random puts and removals of {@code Integer} keys, checked against a {@link HashMap}, for tests
+ * of hash lookup and tier layouts.
+ */
+final class RandomOperations {
+
+    /**
+     * Performs the given number of random puts and removals of keys from 0 to {@code keys}, then
+     * checks lookups of all keys, removes even keys via iteration and checks the map contents
+     * again. {@code check} is called with the map after the random operations and after the
+     * removal via iteration, to verify test-specific invariants of the map's memory layout.
+     */
+    static void randomOperations(ChronicleMap<Integer, Integer> map, int keys, int operations,
+                                 Consumer<ChronicleMap<Integer, Integer>> check) {
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(0);
+        for (int i = 0; i < operations; i++) {
+            int key = random.nextInt(keys);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.put(key, i), map.put(key, i));
+            }
+        }
+        check.accept(map);
+        assertEquals(expected.size(), map.size());
+        for (int key = 0; key < keys * 2; key++) {
+            assertEquals(expected.get(key), map.get(key));
+            try (ExternalMapQueryContext<Integer, Integer, ?> c = map.queryContext(key)) {
+                assertEquals(expected.containsKey(key), c.entry() != null);
+            }
+        }
+        map.entrySet().removeIf(e -> e.getKey() % 2 == 0);
+        expected.keySet().removeIf(key -> key % 2 == 0);
+        assertEquals(expected, new HashMap<>(map));
+        for (int key = 0; key < keys * 2; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+        check.accept(map);
+    }
+
+    private RandomOperations() {
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class ReadOnlyOpenModeTest {
+
+    private static ChronicleMapBuilder<Integer, CharSequence> builder() {
+        return ChronicleMap.of(Integer.class, CharSequence.class)
+                .entries(1000)
+                .averageValue("value-000")
+                .actualSegments(4)
+                .optimisticReads(true);
+    }
+
+    private static File tempFile() throws IOException {
+        File file = File.createTempFile("readOnlyOpenMode", ".dat");
+        file.delete();
+        file.deleteOnExit();
+        return file;
+    }
+
+    @Test
+    public void readOnlyMapSeesDataOfWriter() throws IOException {
+        File file = tempFile();
+        try (ChronicleMap<Integer, CharSequence> writer = builder().createPersistedTo(file)) {
+            for (int i = 0; i < 100; i++) {
+                writer.put(i, "value-" + i);
+            }
+            try (ChronicleMap<Integer, CharSequence> reader =
+                         builder().openReadOnlyPersistedTo(file)) {
+                assertEquals(100, reader.size());
+                assertEquals("value-5", reader.get(5).toString());
+                StringBuilder using = new StringBuilder();
+                assertEquals("value-7", reader.getUsing(7, using).toString());
+                assertTrue(reader.containsKey(99));
+                assertFalse(reader.containsKey(100));
+                assertNull(reader.get(100));
+                assertTrue(reader.containsValue("value-42"));
+                assertFalse(reader.containsValue("value-100"));
+
+                Map<Integer, String> entries = new HashMap<>();
+                reader.forEachEntry(e ->
+                        entries.put(e.key().get(), e.value().get().toString()));
+                assertEquals(100, entries.size());
+                for (int i = 0; i < 100; i++) {
+                    assertEquals("value-" + i, entries.get(i));
+                }
+
+                writer.put(100, "value-100");
+                writer.remove(0);
+                assertEquals("value-100", reader.get(100).toString());
+                assertNull(reader.get(0));
+                assertEquals(100, reader.size());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void readOnlyMapRejectsMutations() throws IOException {
+        File file = tempFile();
+        try {
+            try (ChronicleMap<Integer, CharSequence> writer = builder().createPersistedTo(file)) {
+                writer.put(1, "value-1");
+            }
+            try (ChronicleMap<Integer, CharSequence> reader =
+                         builder().openReadOnlyPersistedTo(file)) {
+                for (Runnable mutation : Arrays.<Runnable>asList(
+                        () -> reader.put(2, "value-2"),
+                        () -> reader.remove(1),
+                        () -> reader.clear(),
+                        () -> reader.forEachEntry(MapEntry::doRemove))) {
+                    try {
+                        mutation.run();
+                        fail("mutation of a read-only map should fail");
+                    } catch (UnsupportedOperationException expected) {
+                        // expected
+                    }
+                }
+                assertEquals("value-1", reader.get(1).toString());
+                assertEquals(1, reader.size());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void openReadOnlyRequiresOptimisticReadsAndExistingFile() throws IOException {
+        File file = tempFile();
+        try {
+            try {
+                builder().openReadOnlyPersistedTo(file);
+                fail("missing file should fail");
+            } catch (FileNotFoundException expected) {
+                // expected
+            }
+            try (ChronicleMap<Integer, CharSequence> writer = builder().optimisticReads(false)
+                    .createPersistedTo(file)) {
+                writer.put(1, "value-1");
+            }
+            try {
+                builder().openReadOnlyPersistedTo(file);
+                fail("map without optimistic reads can't be opened read-only");
+            } catch (IllegalStateException expected) {
+                // expected
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void readOnlyReadsAreConsistentWithConcurrentWrites() throws Exception {
+        File file = tempFile();
+        try (ChronicleMap<Integer, CharSequence> writer = builder().createPersistedTo(file);
+             ChronicleMap<Integer, CharSequence> reader =
+                     builder().openReadOnlyPersistedTo(file)) {
+            for (int i = 0; i < 10; i++) {
+                writer.put(i, "value-000");
+            }
+            AtomicBoolean stop = new AtomicBoolean();
+            Thread writerThread = new Thread(() -> {
+                for (int round = 1; !stop.get(); round++) {
+                    String value = String.format("value-%03d", round % 1000);
+                    for (int i = 0; i < 10; i++) {
+                        writer.put(i, value);
+                    }
+                }
+            });
+            writerThread.start();
+            try {
+                StringBuilder using = new StringBuilder();
+                for (int n = 0; n < 10_000; n++) {
+                    CharSequence value = reader.getUsing(n % 10, using);
+                    assertNotNull(value);
+                    assertTrue(value.toString(), value.toString().matches("value-\\d{3}"));
+                }
+                for (int n = 0; n < 100; n++) {
+                    int[] count = {0};
+                    reader.forEachEntry(e -> {
+                        assertTrue(e.value().get().toString().matches("value-\\d{3}"));
+                        count[0]++;
+                    });
+                    assertEquals(10, count[0]);
+                }
+            } finally {
+                stop.set(true);
+                writerThread.join();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.map.ListenersTest.CountingEntryOperations;
+import org.junit.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class ReadValueTest {
+
+    private static final ValueBytesReader<Long> SECOND_LONG = (valueBytes, size) -> {
+        valueBytes.readLong();
+        return valueBytes.readLong();
+    };
+
+    private static ChronicleMapBuilder<Integer, byte[]> builder() {
+        return ChronicleMap.of(Integer.class, byte[].class)
+                .entries(100)
+                .averageValue(new byte[128]);
+    }
+
+    private static byte[] value(int key) {
+        ByteBuffer value = ByteBuffer.allocate(128).order(ByteOrder.nativeOrder());
+        while (value.remaining() > 0) {
+            value.putLong(key * 100 + value.position() / 8);
+        }
+        return value.array();
+    }
+
+    private static void checkReadValue(ChronicleMap<Integer, byte[]> map) {
+        for (int k = 0; k < 50; k++) {
+            map.put(k, value(k));
+        }
+        for (int k = 0; k < 50; k++) {
+            assertEquals(Long.valueOf(k * 100 + 1), map.readValue(k, SECOND_LONG));
+            assertEquals(Long.valueOf(128),
+                    map.readValue(k, (valueBytes, size) -> valueBytes.readRemaining()));
+        }
+        assertNull(map.readValue(100, (valueBytes, size) -> {
+            throw new AssertionError("reader shouldn't be called for absent key");
+        }));
+    }
+
+    @Test
+    public void readValue() {
+        try (ChronicleMap<Integer, byte[]> map = builder().create()) {
+            checkReadValue(map);
+        }
+    }
+
+    @Test
+    public void readValueOptimistic() {
+        try (ChronicleMap<Integer, byte[]> map = builder().optimisticReads(true).create()) {
+            checkReadValue(map);
+        }
+    }
+
+    @Test
+    public void readValueWithCustomEntryOperations() {
+        try (ChronicleMap<Integer, byte[]> map =
+                     builder().entryOperations(new CountingEntryOperations<>()).create()) {
+            checkReadValue(map);
+        }
+    }
+
+    @Test(expected = BufferUnderflowException.class)
+    public void readBeyondValueEnd() {
+        try (ChronicleMap<Integer, byte[]> map = builder().create()) {
+            map.put(1, new byte[8]);
+            map.put(2, new byte[8]);
+            map.readValue(1, SECOND_LONG);
+        }
+    }
+
+    @Test
+    public void valueBytesViewIsReadOnly() {
+        try (ChronicleMap<Integer, byte[]> map = builder().create()) {
+            map.put(1, value(1));
+            try {
+                map.readValue(1, (valueBytes, size) -> ((Bytes) valueBytes).writeLong(0, 42L));
+                fail("value bytes view shouldn't be writable");
+            } catch (BufferOverflowException expected) {
+                // expected
+            }
+            try {
+                map.readValue(1, (valueBytes, size) -> ((Bytes) valueBytes).writeLong(42L));
+                fail("value bytes view shouldn't be writable");
+            } catch (BufferOverflowException expected) {
+                // expected
+            }
+            assertArrayEquals(value(1), map.get(1));
+            assertEquals(Long.valueOf(101), map.readValue(1, SECOND_LONG));
+        }
+    }
+}
@@ -21,6 +21,7 @@ import net.openhft.chronicle.bytes.BytesStore;
 import net.openhft.chronicle.core.Jvm;
 import net.openhft.chronicle.core.io.Closeable;
 import net.openhft.chronicle.core.util.SerializableFunction;
+import net.openhft.chronicle.hash.SegmentLockStats;
 import org.jetbrains.annotations.NotNull;
 import org.junit.Assert;
 
@@ -29,6 +30,7 @@ import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 
@@ -229,6 +231,50 @@ public class ReplicationCheckingMap<K, V> implements ChronicleMap<K, V> {
         return map1.getMapped(key, function);
     }
 
+    @Override
+    public void getAll(@NotNull K[] keys, @NotNull V[] values) {
+        map1.getAll(keys, values);
+    }
+
+    @Override
+    public void getAll(@NotNull Collection<? extends K> keys,
+                       @NotNull BiConsumer<? super K, ? super V> action) {
+        map1.getAll(keys, action);
+    }
+
+    @Override
+    public void removeAll(@NotNull Collection<? extends K> keys) {
+        map1.removeAll(keys);
+    }
+
+    @Override
+    public void replaceAllExisting(@NotNull Map<? extends K, ? extends V> m) {
+        map1.replaceAllExisting(m);
+    }
+
+    @NotNull
+    @Override
+    public KeyHandle<K, V> keyHandle(@NotNull K key) {
+        return map1.keyHandle(key);
+    }
+
+    @Override
+    public <R> R readValue(K key, @NotNull ValueBytesReader<R> reader) {
+        return map1.readValue(key, reader);
+    }
+
+    @Override
+    public <R> R transaction(@NotNull Collection<? extends K> keys,
+                             @NotNull MapTransaction<K, V, R> transaction) {
+        return map1.transaction(keys, transaction);
+    }
+
+    @NotNull
+    @Override
+    public MapSession<K, V> openSession() {
+        return map1.openSession();
+    }
+
     @Override
     public void getAll(File toFile) {
         throw new UnsupportedOperationException();
@@ -300,6 +346,16 @@ public class ReplicationCheckingMap<K, V> implements ChronicleMap<K, V> {
         throw new UnsupportedOperationException();
     }
 
+    @Override
+    public SegmentLockStats segmentLockStats(int segmentIndex) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long compactTiers() {
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     public File file() {
         throw new UnsupportedOperationException();
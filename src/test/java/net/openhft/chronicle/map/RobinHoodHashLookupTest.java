@@ -0,0 +1,136 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.impl.CompactOffHeapLinearHashTable;
+import net.openhft.chronicle.hash.impl.RobinHoodCompactOffHeapLinearHashTable;
+import net.openhft.chronicle.hash.impl.VanillaChronicleHash;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static net.openhft.chronicle.map.RandomOperations.randomOperations;
+import static org.junit.Assert.*;
+
+public class RobinHoodHashLookupTest {
+
+    private static ChronicleMapBuilder<Integer, Integer> builder() {
+        // the actual number of entries is greater, than configured, hash lookups are highly loaded
+        return ChronicleMap.of(Integer.class, Integer.class)
+                .entries(1000)
+                .actualSegments(2)
+                .maxBloatFactor(5)
+                .robinHoodHashLookup(true);
+    }
+
+    /**
+     * Checks that entries in the first tier of each segment are ordered by home positions
+     */
+    private static void checkOrder(ChronicleMap<Integer, Integer> map) {
+        VanillaChronicleHash h = (VanillaChronicleHash) map;
+        CompactOffHeapLinearHashTable hl = h.hashLookup;
+        assertTrue(hl instanceof RobinHoodCompactOffHeapLinearHashTable);
+        long posMask = (h.tierHashLookupCapacity - 1) * h.tierHashLookupSlotSize;
+        for (int segmentIndex = 0; segmentIndex < h.actualSegments; segmentIndex++) {
+            long addr = h.segmentBaseAddr(segmentIndex);
+            long prevDistance = -1;
+            for (long i = 0; i < h.tierHashLookupCapacity * 2; i++) {
+                long pos = (i * h.tierHashLookupSlotSize) & posMask;
+                long entry = hl.readEntry(addr, pos);
+                if (hl.empty(entry)) {
+                    prevDistance = -1;
+                    continue;
+                }
+                long distance = (pos - hl.hlPos(hl.key(entry))) & posMask;
+                if (prevDistance >= 0) {
+                    assertTrue(distance <= prevDistance + h.tierHashLookupSlotSize);
+                } else if (i >= h.tierHashLookupCapacity) {
+                    assertEquals(0, distance);
+                }
+                prevDistance = distance;
+            }
+        }
+    }
+
+    @Test
+    public void operationsKeepOrder() {
+        try (ChronicleMap<Integer, Integer> map = builder().create()) {
+            randomOperations(map, 3000, 60_000, RobinHoodHashLookupTest::checkOrder);
+        }
+    }
+
+    @Test
+    public void operationsWithControlBytesAndOptimisticReads() {
+        try (ChronicleMap<Integer, Integer> map = builder()
+                .hashLookupControlBytes(true)
+                .optimisticReads(true)
+                .tierKeyFilters(true)
+                .create()) {
+            randomOperations(map, 3000, 60_000, RobinHoodHashLookupTest::checkOrder);
+        }
+    }
+
+    @Test
+    public void insertionsWithValueRelocation() {
+        try (ChronicleMap<Integer, String> map = ChronicleMap.of(Integer.class, String.class)
+                .entries(1000)
+                .averageValue("value")
+                .actualSegments(1)
+                .maxBloatFactor(5)
+                .robinHoodHashLookup(true)
+                .create()) {
+            for (int i = 0; i < 2000; i++) {
+                map.put(i, "v" + i);
+            }
+            // grow values, to make entries relocate to other tiers
+            for (int i = 0; i < 2000; i += 3) {
+                map.put(i, "a much longer value, than the average value " + i);
+            }
+            for (int i = 0; i < 4000; i++) {
+                String expected = i >= 2000 ? null : i % 3 == 0 ?
+                        "a much longer value, than the average value " + i : "v" + i;
+                assertEquals(expected, map.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void orderIsRestoredOnRecovery() throws IOException {
+        File file = File.createTempFile("robinHoodHashLookup", ".dat");
+        file.deleteOnExit();
+        file.delete();
+        try {
+            try (ChronicleMap<Integer, Integer> map = builder().entries(3000)
+                    .createPersistedTo(file)) {
+                for (int i = 0; i < 2000; i++) {
+                    map.put(i, i);
+                }
+            }
+            try (ChronicleMap<Integer, Integer> map = builder().entries(3000)
+                    .recoverPersistedTo(file, true)) {
+                checkOrder(map);
+                for (int i = 0; i < 4000; i++) {
+                    assertEquals(i < 2000 ? Integer.valueOf(i) : null, map.get(i));
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.impl.GrowingSegments;
+import net.openhft.chronicle.hash.impl.VanillaChronicleHash;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static net.openhft.chronicle.map.RandomOperations.randomOperations;
+import static org.junit.Assert.*;
+
+public class SegmentGrowthTest {
+
+    private static ChronicleMapBuilder<Integer, Integer> builder() {
+        // the actual number of entries is several times greater, than configured
+        return ChronicleMap.of(Integer.class, Integer.class)
+                .entries(1000)
+                .actualSegments(2)
+                .maxBloatFactor(20)
+                .segmentGrowth(true);
+    }
+
+    private static void checkSegmentsGrew(ChronicleMap<?, ?> map) {
+        VanillaChronicleHash h = (VanillaChronicleHash) map;
+        GrowingSegments growingSegments = h.growingSegments;
+        assertNotNull(growingSegments);
+        for (int segmentIndex = 0; segmentIndex < h.actualSegments; segmentIndex++) {
+            assertTrue(growingSegments.lastTier(segmentIndex) > 0);
+        }
+    }
+
+    @Test
+    public void homeTierIsStableForNotSplitTiers() {
+        Random random = new Random(0);
+        for (int i = 0; i < 10000; i++) {
+            long keyHash = random.nextLong();
+            for (int tiers = 1; tiers < 100; tiers++) {
+                int homeTier = GrowingSegments.homeTier(keyHash, tiers);
+                assertTrue(homeTier >= 0 && homeTier < tiers);
+                int newHomeTier = GrowingSegments.homeTier(keyHash, tiers + 1);
+                // a key either stays in its home tier, or moves to the appended tier, from the
+                // tier, which is split
+                if (newHomeTier != homeTier) {
+                    assertEquals(tiers, newHomeTier);
+                    assertEquals(GrowingSegments.tierToSplit(tiers), homeTier);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void operations() {
+        try (ChronicleMap<Integer, Integer> map = builder().create()) {
+            randomOperations(map, 10000, 100_000, SegmentGrowthTest::checkSegmentsGrew);
+        }
+    }
+
+    @Test
+    public void operationsWithOptimisticReadsAndKeyFilters() {
+        try (ChronicleMap<Integer, Integer> map = builder()
+                .optimisticReads(true)
+                .tierKeyFilters(true)
+                .robinHoodHashLookup(true)
+                .create()) {
+            randomOperations(map, 10000, 100_000, SegmentGrowthTest::checkSegmentsGrew);
+        }
+    }
+
+    @Test
+    public void insertionsWithValueRelocation() {
+        try (ChronicleMap<Integer, String> map = ChronicleMap.of(Integer.class, String.class)
+                .entries(1000)
+                .averageValue("value")
+                .actualSegments(1)
+                .maxBloatFactor(20)
+                .segmentGrowth(true)
+                .create()) {
+            for (int i = 0; i < 5000; i++) {
+                map.put(i, "v" + i);
+            }
+            // grow values, to make entries relocate out of their home tiers
+            for (int i = 0; i < 5000; i += 3) {
+                map.put(i, "a much longer value, than the average value " + i);
+            }
+            // the next insertion moves relocated entries back to their home tiers
+            map.put(-1, "v");
+            assertEquals("v", map.get(-1));
+            for (int i = 0; i < 10000; i++) {
+                String expected = i >= 5000 ? null : i % 3 == 0 ?
+                        "a much longer value, than the average value " + i : "v" + i;
+                assertEquals(expected, map.get(i));
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void entryLocksAreNotSupported() {
+        builder().entryLocks(true).create();
+    }
+
+    @Test
+    public void growthIsPersistedAndRecovered() throws IOException {
+        File file = File.createTempFile("segmentGrowth", ".dat");
+        file.deleteOnExit();
+        file.delete();
+        try {
+            try (ChronicleMap<Integer, Integer> map = builder().createPersistedTo(file)) {
+                for (int i = 0; i < 5000; i++) {
+                    map.put(i, i);
+                }
+            }
+            // segment growth, not configured in the builder, is read from the file
+            try (ChronicleMap<Integer, Integer> map = ChronicleMap.of(Integer.class, Integer.class)
+                    .entries(1000)
+                    .actualSegments(2)
+                    .maxBloatFactor(20)
+                    .createPersistedTo(file)) {
+                checkSegmentsGrew(map);
+                for (int i = 0; i < 10000; i++) {
+                    assertEquals(i < 5000 ? Integer.valueOf(i) : null, map.get(i));
+                }
+            }
+            try (ChronicleMap<Integer, Integer> map = builder().recoverPersistedTo(file, true)) {
+                checkSegmentsGrew(map);
+                for (int i = 0; i < 10000; i++) {
+                    assertEquals(i < 5000 ? Integer.valueOf(i) : null, map.get(i));
+                }
+                // entries are moved to their home tiers on insertion
+                for (int i = 5000; i < 6000; i++) {
+                    map.put(i, i);
+                }
+                for (int i = 0; i < 10000; i++) {
+                    assertEquals(i < 6000 ? Integer.valueOf(i) : null, map.get(i));
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
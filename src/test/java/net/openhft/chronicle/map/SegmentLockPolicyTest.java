@@ -0,0 +1,191 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.hash.impl.VanillaChronicleHash;
+import net.openhft.chronicle.hash.impl.WriterPreferringSegmentHeader;
+import net.openhft.chronicle.hash.locks.SegmentLockPolicy;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SegmentLockPolicyTest {
+
+    private static ChronicleMapBuilder<Integer, Integer> builder(SegmentLockPolicy lockPolicy) {
+        return ChronicleMap.of(Integer.class, Integer.class)
+                .entries(1000)
+                .actualSegments(1)
+                .lockPolicy(lockPolicy);
+    }
+
+    private static boolean tryReadLockWhileUpdateLockIsAwaited(SegmentLockPolicy lockPolicy)
+            throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try (ChronicleMap<Integer, Integer> map = builder(lockPolicy).create()) {
+            try (ExternalMapQueryContext<Integer, Integer, ?> c = map.queryContext(1)) {
+                c.updateLock().lock();
+                Future<?> put = executor.submit(() -> map.put(1, 1));
+                Thread.sleep(100);
+                assertFalse(put.isDone());
+                Future<Boolean> reader = executor.submit(() -> {
+                    try (ExternalMapQueryContext<Integer, Integer, ?> c2 = map.queryContext(2)) {
+                        return c2.readLock().tryLock();
+                    }
+                });
+                boolean readLocked = reader.get(10, TimeUnit.SECONDS);
+                c.close();
+                put.get(10, TimeUnit.SECONDS);
+                return readLocked;
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void writerPreferringUpdateLockWaitersHoldOffReaders() throws Exception {
+        assertTrue(tryReadLockWhileUpdateLockIsAwaited(SegmentLockPolicy.VANILLA));
+        assertFalse(tryReadLockWhileUpdateLockIsAwaited(SegmentLockPolicy.WRITER_PREFERRING));
+    }
+
+    @Test
+    public void phaseFairReadersBlockedByWriterGoBeforeNextWriter() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try (ChronicleMap<Integer, Integer> map =
+                     builder(SegmentLockPolicy.PHASE_FAIR).create()) {
+            map.put(1, 1);
+            CountDownLatch readerRelease = new CountDownLatch(1);
+            Future<Integer> reader;
+            Future<?> writer;
+            try (ExternalMapQueryContext<Integer, Integer, ?> c = map.queryContext(1)) {
+                c.writeLock().lock();
+                reader = executor.submit(() -> {
+                    try (ExternalMapQueryContext<Integer, Integer, ?> c2 = map.queryContext(1)) {
+                        c2.readLock().lock();
+                        int value = c2.entry().value().get();
+                        readerRelease.await();
+                        return value;
+                    }
+                });
+                Thread.sleep(100);
+                writer = executor.submit(() -> map.put(1, 2));
+                Thread.sleep(100);
+                assertFalse(reader.isDone());
+                assertFalse(writer.isDone());
+            }
+            // the reader is admitted, the writer waits for it
+            Thread.sleep(100);
+            assertFalse(writer.isDone());
+            readerRelease.countDown();
+            assertEquals(Integer.valueOf(1), reader.get(10, TimeUnit.SECONDS));
+            writer.get(10, TimeUnit.SECONDS);
+            assertEquals(Integer.valueOf(2), map.get(1));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void contendedUpdatesAreNotLost() throws Exception {
+        for (SegmentLockPolicy lockPolicy : SegmentLockPolicy.values()) {
+            int threads = 4;
+            int increments = 10_000;
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try (ChronicleMap<Integer, Integer> map = builder(lockPolicy).create()) {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int t = 0; t < threads; t++) {
+                    futures.add(executor.submit(() -> {
+                        for (int i = 0; i < increments; i++) {
+                            map.merge(i % 10, 1, Integer::sum);
+                            map.get(i % 10);
+                        }
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get(60, TimeUnit.SECONDS);
+                }
+                for (int key = 0; key < 10; key++) {
+                    assertEquals(lockPolicy.toString(),
+                            Integer.valueOf(threads * increments / 10), map.get(key));
+                }
+                try (ExternalMapQueryContext<Integer, Integer, ?> c = map.queryContext(1)) {
+                    assertTrue(c.writeLock().tryLock());
+                }
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void writerPreferringResetLockStaysWithinHeader() {
+        // writer preferring segment headers might be 32 bytes, followed by the next header
+        long size = 64;
+        long addr = OS.memory().allocate(size);
+        try {
+            OS.memory().setMemory(addr, size, (byte) 0);
+            OS.memory().writeLong(addr + 40, -1L);
+            WriterPreferringSegmentHeader.INSTANCE.resetLock(addr);
+            assertEquals(-1L, OS.memory().readLong(addr + 40));
+            WriterPreferringSegmentHeader.PHASE_FAIR_INSTANCE.resetLock(addr);
+            assertEquals(0L, OS.memory().readLong(addr + 40));
+        } finally {
+            OS.memory().freeMemory(addr, size);
+        }
+    }
+
+    @Test
+    public void lockPolicyIsPersisted() throws IOException {
+        File file = File.createTempFile("lockPolicy", ".dat");
+        file.delete();
+        file.deleteOnExit();
+        try {
+            try (ChronicleMap<Integer, Integer> map = builder(SegmentLockPolicy.PHASE_FAIR)
+                    .createPersistedTo(file)) {
+                map.put(1, 1);
+            }
+            try (ChronicleMap<Integer, Integer> map = ChronicleMap.of(Integer.class, Integer.class)
+                    .entries(1000)
+                    .createPersistedTo(file)) {
+                VanillaChronicleHash h = (VanillaChronicleHash) map;
+                assertEquals(SegmentLockPolicy.PHASE_FAIR, h.lockPolicy);
+                assertSame(WriterPreferringSegmentHeader.PHASE_FAIR_INSTANCE, h.segmentHeader);
+                assertEquals(Integer.valueOf(1), map.get(1));
+            }
+        } finally {
+            file.delete();
+        }
+        try {
+            builder(SegmentLockPolicy.WRITER_PREFERRING).futexLockWaits(true).create();
+            fail();
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+    }
+}
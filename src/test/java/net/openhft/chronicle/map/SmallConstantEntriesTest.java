@@ -0,0 +1,147 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class SmallConstantEntriesTest {
+
+    private static int directKeySize(ChronicleMap<?, ?> map) {
+        return ((VanillaChronicleMap<?, ?, ?>) map).directKeySize;
+    }
+
+    @Test
+    public void directKeyComparisonAppliesOnlyToSmallConstantEntries() {
+        try (ChronicleMap<Long, Integer> map = ChronicleMap.of(Long.class, Integer.class)
+                .entries(100).create()) {
+            assertEquals(8, directKeySize(map));
+            assertEquals(4, ((VanillaChronicleMap<?, ?, ?>) map).directValueSize);
+        }
+        try (ChronicleMap<byte[], Long> map = ChronicleMap.of(byte[].class, Long.class)
+                .constantKeySizeBySample(new byte[2]).entries(100).create()) {
+            assertEquals(2, directKeySize(map));
+        }
+        try (ChronicleMap<byte[], Long> map = ChronicleMap.of(byte[].class, Long.class)
+                .constantKeySizeBySample(new byte[3]).entries(100).create()) {
+            assertEquals(0, directKeySize(map));
+        }
+        try (ChronicleMap<Long, CharSequence> map = ChronicleMap.of(Long.class, CharSequence.class)
+                .averageValue("value").entries(100).create()) {
+            assertEquals(0, directKeySize(map));
+        }
+        try (ChronicleMap<Integer, Long> map = ChronicleMap.of(Integer.class, Long.class)
+                .entryAndValueOffsetAlignment(8).entries(100).create()) {
+            assertEquals(0, directKeySize(map));
+        }
+    }
+
+    @Test
+    public void lookupsFindKeysInAllTiers() {
+        try (ChronicleMap<Long, Integer> map = ChronicleMap.of(Long.class, Integer.class)
+                .entries(1000)
+                .actualSegments(1)
+                .maxBloatFactor(20)
+                .create()) {
+            assertEquals(8, directKeySize(map));
+            int n = 10_000;
+            for (int i = 0; i < n; i++) {
+                map.put((long) i, i);
+            }
+            assertTrue(((VanillaChronicleMap<?, ?, ?>) map).globalMutableState()
+                    .getExtraTiersInUse() > 0);
+            for (int i = 0; i < n; i++) {
+                assertEquals(Integer.valueOf(i), map.get((long) i));
+                assertTrue(map.containsKey((long) i));
+            }
+            assertNull(map.get(-1L));
+            assertFalse(map.containsKey((long) n));
+            for (int i = 0; i < n; i += 2) {
+                assertEquals(Integer.valueOf(i), map.remove((long) i));
+            }
+            for (int i = 0; i < n; i++) {
+                assertEquals(i % 2 == 0 ? null : Integer.valueOf(i), map.get((long) i));
+            }
+        }
+    }
+
+    @Test
+    public void optimisticReadsAreConsistentWithConcurrentWrites() throws Exception {
+        try (ChronicleMap<Integer, Long> map = ChronicleMap.of(Integer.class, Long.class)
+                .entries(1000)
+                .actualSegments(1)
+                .optimisticReads(true)
+                .create()) {
+            for (int i = 0; i < 10; i++) {
+                map.put(i, (long) i);
+            }
+            AtomicBoolean stop = new AtomicBoolean();
+            Thread writer = new Thread(() -> {
+                for (long round = 1; !stop.get(); round++) {
+                    for (int i = 0; i < 10; i++) {
+                        map.put(i, round * 10 + i);
+                    }
+                    map.remove(10 + (int) (round % 10));
+                    map.put(10 + (int) (round % 10), round * 10);
+                }
+            });
+            writer.start();
+            try {
+                for (int n = 0; n < 100_000; n++) {
+                    int key = n % 10;
+                    Long value = map.get(key);
+                    assertNotNull(value);
+                    assertEquals(key, value % 10);
+                }
+            } finally {
+                stop.set(true);
+                writer.join();
+            }
+        }
+    }
+
+    @Test
+    public void directKeyComparisonIsAppliedToReopenedMap() throws IOException {
+        File file = File.createTempFile("smallConstantEntries", ".dat");
+        file.delete();
+        file.deleteOnExit();
+        try {
+            try (ChronicleMap<Long, Long> map = ChronicleMap.of(Long.class, Long.class)
+                    .entries(1000).createPersistedTo(file)) {
+                for (long i = 0; i < 1000; i++) {
+                    map.put(i, -i);
+                }
+            }
+            try (ChronicleMap<Long, Long> map = ChronicleMap.of(Long.class, Long.class)
+                    .entries(1000).createPersistedTo(file)) {
+                assertEquals(8, directKeySize(map));
+                for (long i = 0; i < 1000; i++) {
+                    assertEquals(Long.valueOf(-i), map.get(i));
+                }
+                assertNull(map.get(1000L));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
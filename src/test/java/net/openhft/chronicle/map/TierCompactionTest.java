@@ -0,0 +1,170 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.hash.VanillaGlobalMutableState;
+import net.openhft.chronicle.hash.impl.VanillaChronicleHash;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TierCompactionTest {
+
+    private static final int KEYS = 3000;
+
+    private static ChronicleMapBuilder<Integer, Integer> builder() {
+        // the segments are going to be tiered several times
+        return ChronicleMap.of(Integer.class, Integer.class)
+                .entries(500)
+                .actualSegments(2)
+                .maxBloatFactor(10);
+    }
+
+    private static VanillaGlobalMutableState globalMutableState(ChronicleMap<?, ?> map) {
+        return ((VanillaChronicleHash) map).globalMutableState();
+    }
+
+    private static Map<Integer, Integer> fill(ChronicleMap<Integer, Integer> map) {
+        Map<Integer, Integer> expected = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            map.put(i, i);
+            expected.put(i, i);
+        }
+        assertTrue(globalMutableState(map).getExtraTiersInUse() >= 4);
+        return expected;
+    }
+
+    private static void check(ChronicleMap<Integer, Integer> map, Map<Integer, Integer> expected) {
+        assertEquals(expected.size(), map.size());
+        for (int i = 0; i < KEYS * 2; i++) {
+            assertEquals(expected.get(i), map.get(i));
+        }
+        assertEquals(expected, new HashMap<>(map));
+    }
+
+    @Test
+    public void emptiedTailTiersAreFreedOnRemoval() {
+        try (ChronicleMap<Integer, Integer> map = builder().create()) {
+            fill(map);
+            int allocatedExtraTierBulks = globalMutableState(map).getAllocatedExtraTierBulks();
+            for (int i = 0; i < KEYS; i++) {
+                map.remove(i);
+            }
+            assertEquals(0, globalMutableState(map).getExtraTiersInUse());
+            check(map, new HashMap<>());
+            // freed tiers are reused
+            Map<Integer, Integer> expected = fill(map);
+            assertEquals(allocatedExtraTierBulks,
+                    globalMutableState(map).getAllocatedExtraTierBulks());
+            check(map, expected);
+        }
+    }
+
+    @Test
+    public void emptiedTailTiersAreFreedOnIterationRemoval() {
+        try (ChronicleMap<Integer, Integer> map = builder().create()) {
+            fill(map);
+            map.entrySet().removeIf(e -> true);
+            assertEquals(0, globalMutableState(map).getExtraTiersInUse());
+            check(map, fill(map));
+        }
+    }
+
+    @Test
+    public void compactTiers() {
+        try (ChronicleMap<Integer, Integer> map = builder().create()) {
+            Map<Integer, Integer> expected = fill(map);
+            for (int i = 0; i < KEYS; i++) {
+                if (i % 4 != 0) {
+                    map.remove(i);
+                    expected.remove(i);
+                }
+            }
+            long extraTiersInUse = globalMutableState(map).getExtraTiersInUse();
+            long freedTiers = map.compactTiers();
+            assertTrue(freedTiers > 0);
+            assertEquals(extraTiersInUse - freedTiers,
+                    globalMutableState(map).getExtraTiersInUse());
+            check(map, expected);
+            for (int i = KEYS; i < KEYS * 2; i++) {
+                map.put(i, i);
+                expected.put(i, i);
+            }
+            for (int i = 0; i < KEYS * 2; i++) {
+                assertEquals(expected.get(i), map.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void compactTiersWithTierKeyFilters() {
+        try (ChronicleMap<Integer, Integer> map = builder().tierKeyFilters(true).create()) {
+            Map<Integer, Integer> expected = fill(map);
+            for (int i = 0; i < KEYS; i += 2) {
+                map.remove(i);
+                expected.remove(i);
+            }
+            map.compactTiers();
+            check(map, expected);
+        }
+    }
+
+    @Test
+    public void freedTiersAreRecovered() throws IOException {
+        File file = File.createTempFile("tierCompaction", ".dat");
+        file.deleteOnExit();
+        file.delete();
+        try {
+            Map<Integer, Integer> expected;
+            try (ChronicleMap<Integer, Integer> map = builder().createPersistedTo(file)) {
+                expected = fill(map);
+                // tiers of the two segments are interleaved, so the free list is not a suffix of
+                // allocated tiers, after tiers of one segment are freed
+                for (int i = 0; i < KEYS; i++) {
+                    boolean inFirstSegment;
+                    try (ExternalMapQueryContext<Integer, Integer, ?> c = map.queryContext(i)) {
+                        inFirstSegment = c.segmentIndex() == 0;
+                    }
+                    if (inFirstSegment) {
+                        map.remove(i);
+                        expected.remove(i);
+                    }
+                }
+                check(map, expected);
+            }
+            try (ChronicleMap<Integer, Integer> map = builder().recoverPersistedTo(file, true)) {
+                check(map, expected);
+                for (int i = KEYS; i < KEYS * 2; i++) {
+                    map.put(i, i);
+                    expected.put(i, i);
+                }
+                for (int i = 0; i < KEYS * 2; i++) {
+                    assertEquals(expected.get(i), map.get(i));
+                }
+                assertEquals(expected, new HashMap<>(map));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.hash.impl.TierKeyFilter;
+import net.openhft.chronicle.hash.impl.VanillaChronicleHash;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class TierKeyFilterTest {
+
+    private static final int KEYS = 3000;
+
+    private static ChronicleMapBuilder<Integer, Integer> builder() {
+        // the segments are going to be tiered several times
+        return ChronicleMap.of(Integer.class, Integer.class)
+                .entries(500)
+                .actualSegments(2)
+                .maxBloatFactor(10)
+                .tierKeyFilters(true);
+    }
+
+    private static void fill(ChronicleMap<Integer, Integer> map) {
+        for (int i = 0; i < KEYS; i++) {
+            map.put(i, i);
+        }
+        assertTrue(((VanillaChronicleHash) map).globalMutableState().getExtraTiersInUse() >= 2);
+    }
+
+    private static void check(ChronicleMap<Integer, Integer> map, int removedBelow) {
+        for (int i = 0; i < KEYS; i++) {
+            Integer expected = i < removedBelow ? null : i;
+            assertEquals(expected, map.get(i));
+            assertEquals(expected != null, map.containsKey(i));
+            try (ExternalMapQueryContext<Integer, Integer, ?> c = map.queryContext(i)) {
+                assertEquals(expected != null, c.entry() != null);
+            }
+        }
+        for (int i = KEYS; i < KEYS * 2; i++) {
+            assertNull(map.get(i));
+            assertFalse(map.containsKey(i));
+        }
+    }
+
+    @Test
+    public void lookupsInTieredSegments() {
+        try (ChronicleMap<Integer, Integer> map = builder().create()) {
+            assertNotNull(((VanillaChronicleHash) map).tierKeyFilter);
+            fill(map);
+            check(map, 0);
+            // removal via query context
+            for (int i = 0; i < KEYS / 3; i++) {
+                assertEquals(Integer.valueOf(i), map.remove(i));
+            }
+            check(map, KEYS / 3);
+            // removal via iteration
+            map.entrySet().removeIf(e -> e.getKey() < KEYS / 2);
+            check(map, KEYS / 2);
+            for (int i = 0; i < KEYS / 2; i++) {
+                map.put(i, i);
+            }
+            check(map, 0);
+        }
+    }
+
+    @Test
+    public void lookupsWithOptimisticReads() {
+        try (ChronicleMap<Integer, Integer> map = builder().optimisticReads(true).create()) {
+            fill(map);
+            check(map, 0);
+        }
+    }
+
+    @Test
+    public void filtersArePersistedAndRecovered() throws IOException {
+        File file = File.createTempFile("tierKeyFilters", ".dat");
+        file.deleteOnExit();
+        file.delete();
+        try {
+            try (ChronicleMap<Integer, Integer> map = builder().createPersistedTo(file)) {
+                fill(map);
+            }
+            try (ChronicleMap<Integer, Integer> map = ChronicleMap.of(Integer.class, Integer.class)
+                    .entries(500)
+                    .createPersistedTo(file)) {
+                assertNotNull(((VanillaChronicleHash) map).tierKeyFilter);
+                check(map, 0);
+            }
+            try (ChronicleMap<Integer, Integer> map = builder().recoverPersistedTo(file, true)) {
+                // filters are rebuilt during recovery, all recovered entries should be found
+                int recovered = 0;
+                for (Integer key : map.keySet()) {
+                    assertEquals(key, map.get(key));
+                    recovered++;
+                }
+                assertEquals(map.size(), recovered);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void filterHasNoFalseNegatives() {
+        long maxEntries = 1000;
+        long size = TierKeyFilter.sizeFor(maxEntries);
+        long addr = OS.memory().allocate(size);
+        try {
+            TierKeyFilter filter = new TierKeyFilter(0, size);
+            filter.clear(addr);
+            for (long key = 1; key <= maxEntries; key++) {
+                filter.add(addr, key);
+            }
+            for (long key = 1; key <= maxEntries; key++) {
+                assertTrue(filter.mayContain(addr, key));
+            }
+            int falsePositives = 0;
+            for (long key = maxEntries + 1; key <= maxEntries * 11; key++) {
+                if (filter.mayContain(addr, key))
+                    falsePositives++;
+            }
+            assertTrue("false positives: " + falsePositives, falsePositives < maxEntries);
+            for (long key = 1; key <= maxEntries / 2; key++) {
+                filter.remove(addr, key);
+            }
+            for (long key = maxEntries / 2 + 1; key <= maxEntries; key++) {
+                assertTrue(filter.mayContain(addr, key));
+            }
+        } finally {
+            OS.memory().freeMemory(addr, size);
+        }
+    }
+}
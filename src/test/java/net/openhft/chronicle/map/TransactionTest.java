@@ -0,0 +1,185 @@
+/*
+ *      Copyright (C) 2012, 2016  higherfrequencytrading.com
+ *      Copyright (C) 2016 Roman Leventov
+ *
+ *      This program is free software: you can redistribute it and/or modify
+ *      it under the terms of the GNU Lesser General Public License as published by
+ *      the Free Software Foundation, either version 3 of the License.
+ *
+ *      This program is distributed in the hope that it will be useful,
+ *      but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *      MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *      GNU Lesser General Public License for more details.
+ *
+ *      You should have received a copy of the GNU Lesser General Public License
+ *      along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package net.openhft.chronicle.map;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.*;
+
+public class TransactionTest {
+
+    private static ChronicleMap<Integer, Long> map() {
+        return ChronicleMap.of(Integer.class, Long.class)
+                .entries(1000)
+                .actualSegments(8)
+                .create();
+    }
+
+    private static void transfer(ChronicleMap<Integer, Long> map, int from, int to, long amount) {
+        map.transaction(Arrays.asList(from, to), contexts -> {
+            MapEntry<Integer, Long> fromEntry = contexts.get(0).entry();
+            MapEntry<Integer, Long> toEntry = contexts.get(1).entry();
+            assertNotNull(fromEntry);
+            assertNotNull(toEntry);
+            long fromBalance = fromEntry.value().get();
+            long toBalance = toEntry.value().get();
+            fromEntry.doReplaceValue(contexts.get(0).wrapValueAsData(fromBalance - amount));
+            toEntry.doReplaceValue(contexts.get(1).wrapValueAsData(toBalance + amount));
+            return null;
+        });
+    }
+
+    @Test
+    public void transactionUpdatesSeveralKeys() {
+        try (ChronicleMap<Integer, Long> map = map()) {
+            map.put(1, 100L);
+            map.put(2, 0L);
+            String result = map.transaction(Arrays.asList(1, 2, 3), contexts -> {
+                assertEquals(3, contexts.size());
+                assertNotNull(contexts.get(0).entry());
+                assertNotNull(contexts.get(1).entry());
+                assertNull(contexts.get(2).entry());
+                MapAbsentEntry<Integer, Long> absent = contexts.get(2).absentEntry();
+                assertNotNull(absent);
+                absent.doInsert(contexts.get(2).wrapValueAsData(7L));
+                contexts.get(0).entry().doRemove();
+                return "done";
+            });
+            assertEquals("done", result);
+            assertNull(map.get(1));
+            assertEquals(Long.valueOf(0L), map.get(2));
+            assertEquals(Long.valueOf(7L), map.get(3));
+
+            assertNull(map.transaction(new ArrayList<>(), contexts -> {
+                assertTrue(contexts.isEmpty());
+                return null;
+            }));
+        }
+    }
+
+    @Test
+    public void locksAreReleasedWhenTransactionThrows() {
+        try (ChronicleMap<Integer, Long> map = map()) {
+            map.put(1, 1L);
+            try {
+                map.transaction(Arrays.asList(1, 2), contexts -> {
+                    contexts.get(0).entry().doReplaceValue(contexts.get(0).wrapValueAsData(2L));
+                    throw new IllegalArgumentException("test");
+                });
+                fail("exception from the transaction should be propagated");
+            } catch (IllegalArgumentException expected) {
+                assertEquals("test", expected.getMessage());
+            }
+            // not rolled back
+            assertEquals(Long.valueOf(2L), map.get(1));
+            // the locks are released and could be acquired from another thread
+            Thread t = new Thread(() -> map.put(2, 2L));
+            t.start();
+            try {
+                t.join(10_000);
+            } catch (InterruptedException e) {
+                throw new AssertionError(e);
+            }
+            assertFalse(t.isAlive());
+            assertEquals(Long.valueOf(2L), map.get(2));
+        }
+    }
+
+    @Test
+    public void sameKeyTwiceIsRejectedBeforeLocking() {
+        try (ChronicleMap<Integer, Long> map = map()) {
+            try {
+                map.transaction(Arrays.asList(1, 2, 1), contexts -> {
+                    throw new AssertionError("transaction with duplicate keys shouldn't run");
+                });
+                fail("duplicate keys should be rejected");
+            } catch (IllegalArgumentException expected) {
+                // expected
+            }
+            // no locks are left held
+            try (ExternalMapQueryContext<Integer, Long, ?> c = map.queryContext(1)) {
+                assertTrue(c.writeLock().tryLock());
+            }
+            assertEquals(Integer.valueOf(3), map.transaction(Arrays.asList(1, 2, 3),
+                    contexts -> contexts.size()));
+        }
+    }
+
+    @Test
+    public void concurrentTransfersKeepTotalBalance() throws InterruptedException {
+        int accounts = 32;
+        try (ChronicleMap<Integer, Long> map = map()) {
+            for (int i = 0; i < accounts; i++) {
+                map.put(i, 1000L);
+            }
+            List<Thread> threads = new ArrayList<>();
+            List<Throwable> errors = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                Thread thread = new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int n = 0; n < 5_000; n++) {
+                        int from = random.nextInt(accounts);
+                        int to = (from + 1 + random.nextInt(accounts - 1)) % accounts;
+                        transfer(map, from, to, random.nextInt(10));
+                    }
+                    // single-key transactions interleave with the nested query contexts
+                    for (int n = 0; n < 1_000; n++) {
+                        map.transaction(singletonList(random.nextInt(accounts)), contexts -> {
+                            assertNotNull(contexts.get(0).entry());
+                            return null;
+                        });
+                    }
+                });
+                thread.setUncaughtExceptionHandler((th, e) -> {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            // plain reads and nested query contexts in the reverse segment order concurrently
+            for (int n = 0; n < 5_000; n++) {
+                int key1 = ThreadLocalRandom.current().nextInt(accounts);
+                int key2 = (key1 + 1) % accounts;
+                try (ExternalMapQueryContext<Integer, Long, ?> c1 = map.queryContext(key1);
+                     ExternalMapQueryContext<Integer, Long, ?> c2 = map.queryContext(key2)) {
+                    c1.updateLock().lock();
+                    c2.updateLock().lock();
+                    assertNotNull(c1.entry());
+                    assertNotNull(c2.entry());
+                }
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertTrue(errors.toString(), errors.isEmpty());
+            long total = 0;
+            for (int i = 0; i < accounts; i++) {
+                total += map.get(i);
+            }
+            assertEquals(accounts * 1000L, total);
+        }
+    }
+}